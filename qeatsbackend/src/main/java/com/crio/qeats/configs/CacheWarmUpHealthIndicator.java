@@ -0,0 +1,51 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.configs;
+
+import com.crio.qeats.services.CacheWarmUp;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.stereotype.Component;
+
+/**
+ * Health of the cache warm-up, reported by actuator as "cacheWarmUp": OUT_OF_SERVICE while
+ * the caches are warmed up at startup, so a readiness probe on the health endpoint holds
+ * traffic back until then, and UP with the outcome of the last warm-up afterwards.
+ */
+@Component
+public class CacheWarmUpHealthIndicator extends AbstractHealthIndicator {
+
+  @Autowired
+  private CacheWarmUp cacheWarmUp;
+
+  public CacheWarmUpHealthIndicator() {
+    super("Cache warm-up health check failed");
+  }
+
+  @Override
+  protected void doHealthCheck(Health.Builder builder) {
+    if (!cacheWarmUp.isEnabled()) {
+      builder.up().withDetail("enabled", false);
+      return;
+    }
+    if (!cacheWarmUp.isWarmedUp()) {
+      builder.outOfService();
+      return;
+    }
+
+    builder.up();
+    CacheWarmUp.WarmUp lastWarmUp = cacheWarmUp.getLastWarmUp();
+    if (lastWarmUp != null) {
+      builder.withDetail("finishedAt", lastWarmUp.getFinishedAt().toString())
+          .withDetail("locations", lastWarmUp.getLocations())
+          .withDetail("searches", lastWarmUp.getSearches())
+          .withDetail("durationMillis", lastWarmUp.getDurationMillis());
+    }
+  }
+}
@@ -0,0 +1,20 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.configs;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published once Redis has been flushed by {@link RedisConfiguration#destroyCache()}, so the
+ * in-process caches in front of it are flushed with it.
+ */
+public class RedisCacheFlushedEvent extends ApplicationEvent {
+
+  public RedisCacheFlushedEvent(Object source) {
+    super(source);
+  }
+}
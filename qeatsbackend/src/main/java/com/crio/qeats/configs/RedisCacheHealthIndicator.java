@@ -0,0 +1,55 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.configs;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.stereotype.Component;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Health of the Redis cache, reported by actuator as "redisCache": the state of the circuit
+ * breaker and of the connection pool, and whether Redis answers a PING. While the breaker is
+ * open Redis is not pinged, so health checks do not wait for timeouts either.
+ */
+@Component
+public class RedisCacheHealthIndicator extends AbstractHealthIndicator {
+
+  @Autowired
+  private RedisConfiguration redisConfiguration;
+
+  public RedisCacheHealthIndicator() {
+    super("Redis cache health check failed");
+  }
+
+  @Override
+  protected void doHealthCheck(Health.Builder builder) {
+    RedisCircuitBreaker circuitBreaker = redisConfiguration.getCircuitBreaker();
+    JedisPool jedisPool = redisConfiguration.getJedisPool();
+    builder.withDetail("circuitBreaker", circuitBreaker.getState())
+        .withDetail("consecutiveFailures", circuitBreaker.getConsecutiveFailures())
+        .withDetail("activeConnections", jedisPool.getNumActive())
+        .withDetail("idleConnections", jedisPool.getNumIdle())
+        .withDetail("waitingForConnection", jedisPool.getNumWaiters());
+    if (circuitBreaker.getState() == RedisCircuitBreaker.State.OPEN) {
+      builder.down();
+      return;
+    }
+
+    long startTimeInNanos = System.nanoTime();
+    Jedis jedis = jedisPool.getResource();
+    try {
+      jedis.ping();
+    } finally {
+      jedis.close();
+    }
+    builder.up().withDetail("pingMillis", (System.nanoTime() - startTimeInNanos) / 1000000);
+  }
+}
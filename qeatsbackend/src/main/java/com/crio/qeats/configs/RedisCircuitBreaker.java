@@ -0,0 +1,89 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.configs;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Skips Redis once it has failed a number of times in a row, so requests do not each wait for
+ * a timeout while it is down. After a while one request is let through as a probe: if it
+ * succeeds Redis is used again, if it fails Redis is skipped for another while. If the probe
+ * never reports back, another one is let through after the same while.
+ */
+public class RedisCircuitBreaker {
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final int failureThreshold;
+  private final long openMillis;
+  private final LongSupplier clock;
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  // Time until which Redis is skipped, or 0 while it is used.
+  private final AtomicLong openUntilMillis = new AtomicLong();
+
+  public RedisCircuitBreaker(int failureThreshold, long openMillis) {
+    this(failureThreshold, openMillis, System::currentTimeMillis);
+  }
+
+  RedisCircuitBreaker(int failureThreshold, long openMillis, LongSupplier clock) {
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openMillis;
+    this.clock = clock;
+  }
+
+  /**
+   * Whether Redis may be called. While it is skipped, only the probe is allowed; a caller that
+   * gets the probe must record its outcome.
+   */
+  public boolean allowRequest() {
+    long openUntil = openUntilMillis.get();
+    if (openUntil == 0) {
+      return true;
+    }
+    long now = clock.getAsLong();
+    if (now < openUntil) {
+      return false;
+    }
+    // Only the caller that moves the deadline gets to probe.
+    return openUntilMillis.compareAndSet(openUntil, now + openMillis);
+  }
+
+  /**
+   * Whether Redis is used, without letting the probe through while it is skipped. For calls
+   * whose outcome is not recorded.
+   */
+  public boolean isClosed() {
+    return openUntilMillis.get() == 0;
+  }
+
+  public void recordSuccess() {
+    consecutiveFailures.set(0);
+    openUntilMillis.set(0);
+  }
+
+  public void recordFailure() {
+    if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+      openUntilMillis.set(clock.getAsLong() + openMillis);
+    }
+  }
+
+  public State getState() {
+    long openUntil = openUntilMillis.get();
+    if (openUntil == 0) {
+      return State.CLOSED;
+    }
+    return clock.getAsLong() < openUntil ? State.OPEN : State.HALF_OPEN;
+  }
+
+  public int getConsecutiveFailures() {
+    return consecutiveFailures.get();
+  }
+}
@@ -1,17 +1,27 @@
 
 package com.crio.qeats.configs;
 
+import java.util.NoSuchElementException;
+
 import javax.annotation.PostConstruct;
 
 import lombok.Data;
+import lombok.ToString;
 import lombok.extern.log4j.Log4j2;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Component;
 
+import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
 
 @Log4j2
 @Component
@@ -38,6 +48,38 @@ public class RedisConfiguration {
   private int redisPort;
   private JedisPool jedisPool;
 
+  // Connections kept open, so requests do not each open one.
+  @Value("${qeats.redis.pool.max-total:32}")
+  private int maxTotalConnections;
+
+  @Value("${qeats.redis.pool.min-idle:4}")
+  private int minIdleConnections;
+
+  // How long a request waits for a free connection before giving up on the cache.
+  @Value("${qeats.redis.pool.max-wait-millis:50}")
+  private long maxWaitMillis;
+
+  @Value("${qeats.redis.connect-timeout-millis:200}")
+  private int connectTimeoutMillis;
+
+  // Per-command read timeout.
+  @Value("${qeats.redis.timeout-millis:200}")
+  private int timeoutMillis;
+
+  @Value("${qeats.redis.circuit-breaker.failure-threshold:5}")
+  private int circuitBreakerFailureThreshold;
+
+  @Value("${qeats.redis.circuit-breaker.open-millis:5000}")
+  private long circuitBreakerOpenMillis;
+
+  @ToString.Exclude
+  private RedisCircuitBreaker circuitBreaker;
+
+  // Tells the in-process caches in front of Redis to flush together with it.
+  @Autowired
+  @ToString.Exclude
+  private ApplicationEventPublisher applicationEventPublisher;
+
 
   @Value("${spring.redis.port}")
   public void setRedisPort(int port) {
@@ -51,28 +93,68 @@ public class RedisConfiguration {
    */
   @PostConstruct
   public void initCache() {
-    this.jedisPool = new JedisPool(poolConfig(), redisHost, this.redisPort);
+    this.circuitBreaker =
+        new RedisCircuitBreaker(circuitBreakerFailureThreshold, circuitBreakerOpenMillis);
+    this.jedisPool = new JedisPool(poolConfig(), redisHost, this.redisPort,
+        connectTimeoutMillis, timeoutMillis, null, Protocol.DEFAULT_DATABASE, "qeats");
   }
 
 
   private JedisPoolConfig poolConfig() {
     JedisPoolConfig jedisPoolConfig = new JedisPoolConfig();
-    jedisPoolConfig.setMaxIdle(0);
+    jedisPoolConfig.setMaxTotal(maxTotalConnections);
+    jedisPoolConfig.setMaxIdle(maxTotalConnections);
+    jedisPoolConfig.setMinIdle(minIdleConnections);
+    jedisPoolConfig.setBlockWhenExhausted(true);
+    jedisPoolConfig.setMaxWaitMillis(maxWaitMillis);
+    // Idle connections are checked in the background rather than on every borrow.
+    jedisPoolConfig.setTestOnBorrow(false);
+    jedisPoolConfig.setTestWhileIdle(true);
+    jedisPoolConfig.setTimeBetweenEvictionRunsMillis(30000);
     return jedisPoolConfig;
   }
 
   /**
    * Checks is cache is intiailized and available. TIP: This would generally mean
    * checking via {@link JedisPool}
-   * 
+   * Redis is skipped while the circuit breaker is open; callers report the outcome of their
+   * calls with {@link #reportSuccess()} and {@link #reportFailure(RuntimeException)}, as the
+   * caller may be the probe that decides whether Redis is used again.
+   *
    * @return true / false if cache is available or not.
    */
   public boolean isCacheAvailable() {
-    if (jedisPool != null) {
-      System.out.println("cache is available");
-      return true;
-    } 
-    return false;
+    return jedisPool != null && circuitBreaker.allowRequest();
+  }
+
+  /**
+   * Whether Redis is in use, for optional calls whose outcome is not reported: unlike
+   * {@link #isCacheAvailable()}, it is false while the probe is pending, and never grants it.
+   */
+  public boolean isCacheInUse() {
+    return jedisPool != null && circuitBreaker.isClosed();
+  }
+
+  public void reportSuccess() {
+    circuitBreaker.recordSuccess();
+  }
+
+  /**
+   * Counts the failure against Redis if Redis could not be reached or did not answer in time.
+   * Errors returned by Redis for a command, failures of the caller, and waits for a free
+   * connection of the pool that timed out, which say the pool is busy rather than Redis down,
+   * are not counted.
+   */
+  public void reportFailure(RuntimeException e) {
+    if (e instanceof JedisException && !(e instanceof JedisDataException)
+        && !isPoolExhausted(e)) {
+      circuitBreaker.recordFailure();
+    }
+  }
+
+  private static boolean isPoolExhausted(RuntimeException e) {
+    return e instanceof JedisConnectionException
+        && e.getCause() instanceof NoSuchElementException;
   }
 
   /**
@@ -81,7 +163,15 @@ public class RedisConfiguration {
    */
   public void destroyCache() {
     System.out.println("Destroying JedisPool");
-    this.jedisPool.getResource().flushAll();
+    Jedis jedis = this.jedisPool.getResource();
+    try {
+      jedis.flushAll();
+    } finally {
+      jedis.close();
+    }
+    if (applicationEventPublisher != null) {
+      applicationEventPublisher.publishEvent(new RedisCacheFlushedEvent(this));
+    }
     // this.jedisPool.destroy();
   }
 
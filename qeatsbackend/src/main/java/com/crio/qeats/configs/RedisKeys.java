@@ -0,0 +1,88 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.configs;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Names of the keys kept in Redis. Every key starts with a namespace, so that several
+ * environments can share a Redis, then the kind of value and the version of its schema, e.g.
+ * "qeats:cell:v2:tdr1y7", so that instances that write different schemas, as during a rolling
+ * deploy, never read each other's values.
+ * Bump the version of a kind of value whenever its schema changes in a way the previous
+ * release cannot read. Cells missing under the new version are read under the previous one
+ * while qeats.cache.read-previous-version is set, so the new release starts from the cells the
+ * previous one cached instead of from an empty cache.
+ */
+@Component
+public class RedisKeys {
+
+  // Restaurants of a geohash cell, as encoded by RestaurantCellCodec. Version 1 cells were
+  // keyed by their bare geohash, before keys had a namespace.
+  public static final int CELL_VERSION = 2;
+
+  // Copy of the restaurants kept by RedisGeoRestaurantStore.
+  public static final int GEO_VERSION = 1;
+
+  @Value("${qeats.cache.namespace:qeats}")
+  private String namespace = "qeats";
+
+  public String cell(String geoHash) {
+    return cell(geoHash, CELL_VERSION);
+  }
+
+  /**
+   * Key of the cell in the previous version, or null if there is none.
+   */
+  public String previousCell(String geoHash) {
+    return CELL_VERSION > 1 ? cell(geoHash, CELL_VERSION - 1) : null;
+  }
+
+  private String cell(String geoHash, int version) {
+    return version == 1 ? geoHash : namespace + ":cell:v" + version + ":" + geoHash;
+  }
+
+  /**
+   * Key of the lease taken by the instance that loads a missing cell.
+   */
+  public String cellLease(String geoHash) {
+    return namespace + ":lease:v" + CELL_VERSION + ":" + geoHash;
+  }
+
+  /**
+   * Key of the sorted set of the restaurantIds in the copy of the restaurants.
+   */
+  public String geoIndex() {
+    return geo("index");
+  }
+
+  /**
+   * Key of the hash of the fields of a restaurant in the copy of the restaurants.
+   */
+  public String geoRestaurant(String restaurantId) {
+    return geo("restaurant:" + restaurantId);
+  }
+
+  /**
+   * Key set once the copy of the restaurants is complete.
+   */
+  public String geoSynced() {
+    return geo("synced");
+  }
+
+  /**
+   * Key of a sorted set being filled before it replaces {@link #geoIndex()}.
+   */
+  public String geoLoadingIndex(String loadId) {
+    return geo("loading:" + loadId);
+  }
+
+  private String geo(String name) {
+    return namespace + ":geo:v" + GEO_VERSION + ":" + name;
+  }
+}
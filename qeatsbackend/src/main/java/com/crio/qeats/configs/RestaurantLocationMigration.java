@@ -0,0 +1,113 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.configs;
+
+import com.crio.qeats.models.RestaurantEntity;
+
+import java.util.Arrays;
+
+import lombok.extern.log4j.Log4j2;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.geo.GeoJsonPoint;
+import org.springframework.data.mongodb.core.index.GeoSpatialIndexType;
+import org.springframework.data.mongodb.core.index.GeospatialIndex;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Maintains the GeoJSON {@code location} of restaurants used by the native MongoDB geo queries.
+ *   - Every restaurant saved through Spring Data gets its location from latitude/longitude.
+ *   - When {@code qeats.nearby.source=mongo-geo}, documents loaded before this field existed
+ *     are migrated once at startup and the 2dsphere index is created.
+ */
+@Log4j2
+@Component
+public class RestaurantLocationMigration extends AbstractMongoEventListener<RestaurantEntity>
+    implements ApplicationRunner {
+
+  public static final String MONGO_GEO_SOURCE = "mongo-geo";
+
+  private static final String RESTAURANTS_COLLECTION = "restaurants";
+  private static final int BULK_WRITE_SIZE = 1000;
+
+  @Autowired
+  private MongoTemplate mongoTemplate;
+
+  @Value("${qeats.nearby.source:index}")
+  private String nearbySource;
+
+  @Override
+  public void onBeforeConvert(BeforeConvertEvent<RestaurantEntity> event) {
+    RestaurantEntity restaurant = event.getSource();
+    if (restaurant.getLatitude() != null && restaurant.getLongitude() != null) {
+      restaurant.setLocation(
+          new GeoJsonPoint(restaurant.getLongitude(), restaurant.getLatitude()));
+    }
+  }
+
+  @Override
+  public void run(ApplicationArguments args) {
+    if (MONGO_GEO_SOURCE.equals(nearbySource)) {
+      migrate();
+    }
+  }
+
+  /**
+   * Creates the 2dsphere index and sets the location of every restaurant that has
+   * latitude/longitude but no location yet. Safe to run any number of times.
+   * @return number of restaurants migrated
+   */
+  public int migrate() {
+    mongoTemplate.indexOps(RESTAURANTS_COLLECTION)
+        .ensureIndex(new GeospatialIndex("location").typed(GeoSpatialIndexType.GEO_2DSPHERE));
+
+    Query withoutLocation = new Query(Criteria.where("location").exists(false)
+        .and("latitude").type(1)
+        .and("longitude").type(1));
+    withoutLocation.fields().include("latitude").include("longitude");
+
+    int migrated = 0;
+    BulkOperations bulkOperations = null;
+    try (CloseableIterator<Document> documents =
+        mongoTemplate.stream(withoutLocation, Document.class, RESTAURANTS_COLLECTION)) {
+      while (documents.hasNext()) {
+        Document document = documents.next();
+        Document location = new Document("type", "Point")
+            .append("coordinates", Arrays.asList(
+                document.getDouble("longitude"), document.getDouble("latitude")));
+        if (bulkOperations == null) {
+          bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, RESTAURANTS_COLLECTION);
+        }
+        bulkOperations.updateOne(new Query(Criteria.where("_id").is(document.get("_id"))),
+            Update.update("location", location));
+        migrated++;
+        if (migrated % BULK_WRITE_SIZE == 0) {
+          bulkOperations.execute();
+          bulkOperations = null;
+        }
+      }
+    }
+    if (bulkOperations != null) {
+      bulkOperations.execute();
+    }
+    log.info("Migrated location of {} restaurants", migrated);
+    return migrated;
+  }
+}
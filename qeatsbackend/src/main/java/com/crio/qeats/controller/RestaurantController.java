@@ -6,22 +6,33 @@
 
 package com.crio.qeats.controller;
 
+import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.exchanges.GetRestaurantsBatchRequest;
 import com.crio.qeats.exchanges.GetRestaurantsRequest;
 import com.crio.qeats.exchanges.GetRestaurantsResponse;
 import com.crio.qeats.services.RestaurantService;
 import com.crio.qeats.utils.GeoLocation;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalTime;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.List;
 
 import lombok.extern.log4j.Log4j2;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 // TODO: CRIO_TASK_MODULE_RESTAURANTSAPI
 // Implement Controller using Spring annotations.
@@ -33,6 +44,7 @@ public class RestaurantController {
 
   public static final String RESTAURANT_API_ENDPOINT = "/qeats/v1";
   public static final String RESTAURANTS_API = "/restaurants";
+  public static final String RESTAURANTS_BATCH_API = "/restaurants/batch";
   public static final String MENU_API = "/menu";
   public static final String CART_API = "/cart";
   public static final String CART_ITEM_API = "/cart/item";
@@ -40,6 +52,9 @@ public class RestaurantController {
   public static final String POST_ORDER_API = "/order";
   public static final String GET_ORDERS_API = "/orders";
 
+  @Autowired
+  private ObjectMapper objectMapper;
+
   @Autowired
   private RestaurantService restaurantService;
 
@@ -49,7 +64,9 @@ public class RestaurantController {
   // Get the list of open restaurants near the specified latitude/longitude & matching searchFor.
   // API URI: /qeats/v1/restaurants?latitude=21.93&longitude=23.0&searchFor=tamil
   // Method: GET
-  // Query Params: latitude, longitude, searchFor(optional)
+  // Query Params: latitude, longitude, searchFor(optional),
+  //   limit(optional, 1-100) and cursor(optional) to page nearby restaurants closest first;
+  //   the response then carries nextCursor while there are more.
   // Success Output:
   // 1). If searchFor param is present, return restaurants as a list matching the following criteria
   //   1) open now
@@ -123,7 +140,9 @@ public class RestaurantController {
           getRestaurantsRequest.getLatitude(),
           getRestaurantsRequest.getLongitude()
       );
-      if (!geoLocation.isValidGeoLocation()) {
+      Integer limit = getRestaurantsRequest.getLimit();
+      if (!geoLocation.isValidGeoLocation()
+          || (limit != null && (limit < 1 || limit > GetRestaurantsRequest.MAX_LIMIT))) {
         throw new RuntimeException("Invalid request parameters");
       } else {
         LocalTime currentTime = LocalTime.now();
@@ -138,11 +157,7 @@ public class RestaurantController {
         }
         log.info("Restaurant Response: {}", getRestaurantsResponse);
         if (getRestaurantsResponse != null) {
-          getRestaurantsResponse.getRestaurants().stream().
-              map(restaurant -> {
-                restaurant.setName(maskWeirdCharacters(restaurant.getName()));
-                return restaurant;
-              }).collect(Collectors.toList());
+          getRestaurantsResponse = withMaskedNames(getRestaurantsResponse);
           log.info("getRestaurants returned {}", getRestaurantsResponse.getRestaurants().size());
         }
         //CHECKSTYLE:ON
@@ -156,6 +171,99 @@ public class RestaurantController {
     }
   }
 
+  // Open restaurants near many locations in one call, with the same rules as getRestaurants
+  // without searchFor. Locations close to each other share the lookup of their surroundings.
+  // API URI: /qeats/v1/restaurants/batch
+  // Method: POST
+  // Body: 1 to 500 locations
+  // {
+  //   "locations": [
+  //     {"latitude": 28.4900591, "longitude": 77.536386},
+  //     {"latitude": 28.5, "longitude": 77.54}
+  //   ]
+  // }
+  // Success Output: one result per location, in the order of the locations. Results are
+  // streamed as they are ready, so the response is never held in memory as a whole.
+  //
+  // HTTP Code: 200
+  // {
+  //   "results": [
+  //     {"restaurants": [{"restaurantId": "10", "name": "A2B", ...}]},
+  //     {"restaurants": []}
+  //   ]
+  // }
+  //
+  // Error Response:
+  // HTTP Code: 400, if there are no locations, too many or an invalid one.
+  // Eg:
+  // curl -X POST -H "Content-Type: application/json" -d '{"locations": [{"latitude": 28.49, "longitude": 77.53}]}' "http://localhost:8081/qeats/v1/restaurants/batch"
+
+  @PostMapping(RESTAURANT_API_ENDPOINT + RESTAURANTS_BATCH_API)
+  public ResponseEntity<StreamingResponseBody> getRestaurantsBatch(
+      @RequestBody GetRestaurantsBatchRequest getRestaurantsBatchRequest) {
+    List<GeoLocation> locations = getRestaurantsBatchRequest.getLocations();
+    if (locations == null || locations.isEmpty()
+        || locations.size() > GetRestaurantsBatchRequest.MAX_LOCATIONS
+        || !locations.stream().allMatch(
+            location -> location != null && location.isValidGeoLocation())) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid request parameters");
+    }
+    log.info("getRestaurantsBatch called with {} locations", locations.size());
+
+    LocalTime currentTime = LocalTime.now();
+    StreamingResponseBody body = outputStream -> {
+      // The status is sent with the first results, so a failure after them cannot turn into an
+      // error status. The JSON is then left unterminated instead of being closed, so clients
+      // see a broken response rather than a complete one with results missing.
+      try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("results");
+        restaurantService.findAllRestaurantsCloseBy(getRestaurantsBatchRequest, currentTime,
+            getRestaurantsResponse -> writeResult(generator, getRestaurantsResponse));
+        generator.writeEndArray();
+        generator.writeEndObject();
+      } catch (UncheckedIOException e) {
+        log.warn("getRestaurantsBatch could not write its results", e.getCause());
+        throw e.getCause();
+      } catch (RuntimeException e) {
+        log.error("getRestaurantsBatch failed while streaming its results", e);
+        throw e;
+      }
+    };
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(body);
+  }
+
+  private void writeResult(JsonGenerator generator,
+      GetRestaurantsResponse getRestaurantsResponse) {
+    try {
+      objectMapper.writeValue(generator, withMaskedNames(getRestaurantsResponse));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * The response with the names masked. The restaurants may be shared with the caches of the
+   * services, so the ones whose name changes are copied rather than modified.
+   */
+  private GetRestaurantsResponse withMaskedNames(GetRestaurantsResponse getRestaurantsResponse) {
+    List<Restaurant> restaurants =
+        new ArrayList<>(getRestaurantsResponse.getRestaurants().size());
+    for (Restaurant restaurant : getRestaurantsResponse.getRestaurants()) {
+      String maskedName = maskWeirdCharacters(restaurant.getName());
+      if (maskedName.equals(restaurant.getName())) {
+        restaurants.add(restaurant);
+      } else {
+        restaurants.add(new Restaurant(restaurant.getRestaurantId(), maskedName,
+            restaurant.getCity(), restaurant.getImageUrl(), restaurant.getLatitude(),
+            restaurant.getLongitude(), restaurant.getOpensAt(), restaurant.getClosesAt(),
+            restaurant.getAttributes()));
+      }
+    }
+    return new GetRestaurantsResponse(restaurants, getRestaurantsResponse.getNextCursor());
+  }
+
   private String maskWeirdCharacters(String name) {
     return name.replace("é", "e");
   }
@@ -0,0 +1,35 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.exchanges;
+
+import com.crio.qeats.utils.GeoLocation;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Body of POST /qeats/v1/restaurants/batch: the locations to look up nearby restaurants for.
+// {
+//   "locations": [
+//     {"latitude": 20.0, "longitude": 30.0},
+//     {"latitude": 20.01, "longitude": 30.02}
+//   ]
+// }
+@JsonIgnoreProperties(ignoreUnknown = true)
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class GetRestaurantsBatchRequest {
+
+  // Largest number of locations served by one batch.
+  public static final int MAX_LOCATIONS = 500;
+
+  private List<GeoLocation> locations;
+}
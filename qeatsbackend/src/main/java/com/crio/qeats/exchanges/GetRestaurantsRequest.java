@@ -31,9 +31,18 @@ import org.springframework.web.bind.annotation.RequestParam;
 @AllArgsConstructor
 @Data
 public class GetRestaurantsRequest {
+
+  // Page size used when a cursor is given without a limit, and the largest page served.
+  public static final int DEFAULT_LIMIT = 20;
+  public static final int MAX_LIMIT = 100;
+
   private Double latitude;
   private Double longitude;
   private String searchFor = null;
+  // Optional paging of nearby restaurants (closest first): the page size, and the nextCursor
+  // returned with the previous page.
+  private Integer limit = null;
+  private String cursor = null;
 
   public GetRestaurantsRequest(Double latitude, Double longitude) {
     this.latitude = latitude;
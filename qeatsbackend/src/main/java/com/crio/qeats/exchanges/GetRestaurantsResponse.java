@@ -8,6 +8,7 @@ package com.crio.qeats.exchanges;
 
 import com.crio.qeats.dto.Restaurant;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 import java.util.List;
 
@@ -58,6 +59,10 @@ import lombok.NoArgsConstructor;
 @Data
 public class GetRestaurantsResponse {
   private List<Restaurant> restaurants;
+
+  // Cursor of the next page, for paged requests that have one.
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private String nextCursor;
 }
 
 // }
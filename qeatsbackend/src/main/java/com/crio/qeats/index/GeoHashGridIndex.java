@@ -0,0 +1,154 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.index;
+
+import ch.hsr.geohash.GeoHash;
+
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.utils.GeoHashUtils;
+import com.crio.qeats.utils.GeoHashUtils.CoveringCell;
+import com.crio.qeats.utils.GeoUtils;
+import com.crio.qeats.utils.GeoUtils.RadiusFilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable in-memory spatial index over the restaurant catalog.
+ * Restaurants are kept sorted by their geohash, so every geohash cell, whatever its precision,
+ * is a contiguous range that is found with two binary searches.
+ */
+public class GeoHashGridIndex {
+
+  public static final int INDEX_PRECISION = 7;
+
+  private static final int REFINED_LEVELS = 1;
+
+  private final RestaurantCatalog catalog;
+  private final String[] sortedGeoHashes;
+  private final int[] sortedOrdinals;
+
+  private GeoHashGridIndex(RestaurantCatalog catalog, String[] sortedGeoHashes,
+      int[] sortedOrdinals) {
+    this.catalog = catalog;
+    this.sortedGeoHashes = sortedGeoHashes;
+    this.sortedOrdinals = sortedOrdinals;
+  }
+
+  /**
+   * Builds the index over the catalog; lookups return restaurants in ordinal order.
+   * Restaurants without coordinates are left out.
+   */
+  public static GeoHashGridIndex build(RestaurantCatalog catalog) {
+    String[] geoHashes = new String[catalog.size()];
+    List<Integer> located = new ArrayList<>(catalog.size());
+    for (int ordinal = 0; ordinal < catalog.size(); ordinal++) {
+      if (catalog.hasLocation(ordinal)) {
+        geoHashes[ordinal] = GeoHash.withCharacterPrecision(catalog.getLatitude(ordinal),
+            catalog.getLongitude(ordinal), INDEX_PRECISION).toBase32();
+        located.add(ordinal);
+      }
+    }
+    located.sort(Comparator.comparing((Integer ordinal) -> geoHashes[ordinal]));
+
+    String[] sortedGeoHashes = new String[located.size()];
+    int[] sortedOrdinals = new int[located.size()];
+    for (int i = 0; i < located.size(); i++) {
+      sortedOrdinals[i] = located.get(i);
+      sortedGeoHashes[i] = geoHashes[sortedOrdinals[i]];
+    }
+    return new GeoHashGridIndex(catalog, sortedGeoHashes, sortedOrdinals);
+  }
+
+  public int size() {
+    return sortedOrdinals.length;
+  }
+
+  /**
+   * Restaurants in the geohash cells that cover the circle around latitude/longitude.
+   * This is a superset of the restaurants within the radius; callers still apply the exact
+   * distance check.
+   */
+  public List<RestaurantEntity> findCandidates(double latitude, double longitude,
+      double radiusInKms) {
+    int[] ordinals = findCandidateOrdinals(latitude, longitude, radiusInKms);
+    List<RestaurantEntity> candidates = new ArrayList<>(ordinals.length);
+    for (int ordinal : ordinals) {
+      candidates.add(catalog.get(ordinal));
+    }
+    return candidates;
+  }
+
+  /**
+   * Ordinals, in ascending order, of the restaurants strictly within the radius. Restaurants in
+   * cells that lie entirely within the circle are taken without a distance check.
+   */
+  public int[] findWithinRadius(double latitude, double longitude, double radiusInKms) {
+    RadiusFilter radiusFilter = GeoUtils.radiusFilter(latitude, longitude, radiusInKms);
+    return collect(latitude, longitude, radiusInKms, (ordinal, interior) -> interior
+        || radiusFilter.isWithinRadius(catalog.getLatitude(ordinal),
+            catalog.getLongitude(ordinal)));
+  }
+
+  /**
+   * Ordinals of the restaurants in the cells that cover the circle, in ascending order.
+   */
+  int[] findCandidateOrdinals(double latitude, double longitude, double radiusInKms) {
+    return collect(latitude, longitude, radiusInKms, (ordinal, interior) -> true);
+  }
+
+  /**
+   * Walks the hierarchical covering of the circle. Every cell, coarse or fine, is one range of
+   * the sorted geohashes. Refining one level below the starting precision trims most of the
+   * area outside the circle while keeping the number of ranges (two binary searches each) in
+   * the low hundreds for serving radii.
+   */
+  private int[] collect(double latitude, double longitude, double radiusInKms,
+      OrdinalFilter filter) {
+    int maxPrecision = Math.min(INDEX_PRECISION,
+        GeoHashUtils.precisionForRadius(radiusInKms) + REFINED_LEVELS);
+    int[] ordinals = new int[16];
+    int count = 0;
+    for (CoveringCell cell
+        : GeoHashUtils.hierarchicalCovering(latitude, longitude, radiusInKms, maxPrecision)) {
+      int from = lowerBound(cell.getGeoHash());
+      int to = lowerBound(cell.getGeoHash() + Character.MAX_VALUE);
+      if (count + to - from > ordinals.length) {
+        ordinals = Arrays.copyOf(ordinals, Math.max(2 * ordinals.length, count + to - from));
+      }
+      for (int i = from; i < to; i++) {
+        if (filter.accept(sortedOrdinals[i], cell.isInterior())) {
+          ordinals[count++] = sortedOrdinals[i];
+        }
+      }
+    }
+    ordinals = Arrays.copyOf(ordinals, count);
+    Arrays.sort(ordinals);
+    return ordinals;
+  }
+
+  private interface OrdinalFilter {
+
+    boolean accept(int ordinal, boolean interior);
+  }
+
+  private int lowerBound(String key) {
+    int low = 0;
+    int high = sortedGeoHashes.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sortedGeoHashes[mid].compareTo(key) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.index;
+
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable "open now" index over the restaurant catalog: for every moment of the day, the set
+ * of ordinals of the restaurants that are open.
+ * A restaurant is open strictly after opensAt and strictly before closesAt; a closesAt earlier
+ * than opensAt means it closes after midnight. Restaurants with the same opensAt and closesAt,
+ * or with missing or unparsable hours, are never open.
+ *
+ * <p>Because of the strict bounds, 18:00 exactly and 18:00:30 are different moments, so the
+ * day is split into two slots per minute: the minute itself and the inside of the minute.
+ * Slots where no restaurant opens or closes share one bitset, so the index holds a bitset per
+ * distinct opening or closing time, not per minute of the day.
+ */
+public class OpenNowIndex {
+
+  static final int MINUTES_PER_DAY = 24 * 60;
+  private static final int SLOTS_PER_DAY = 2 * MINUTES_PER_DAY;
+  private static final long NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+  private final RestaurantCatalog catalog;
+  private final short[] segmentOfSlot;
+  private final BitSet[] segments;
+  private final int[] firstSlotOfSegment;
+
+  private OpenNowIndex(RestaurantCatalog catalog, short[] segmentOfSlot, BitSet[] segments,
+      int[] firstSlotOfSegment) {
+    this.catalog = catalog;
+    this.segmentOfSlot = segmentOfSlot;
+    this.segments = segments;
+    this.firstSlotOfSegment = firstSlotOfSegment;
+  }
+
+  /**
+   * Builds the index with one sweep over the slots of the day where some restaurant opens or
+   * closes.
+   */
+  public static OpenNowIndex build(RestaurantCatalog catalog) {
+    // Slot -> ordinals that open at that slot, and slot -> ordinals closed from that slot on.
+    TreeMap<Integer, BitSet> opening = new TreeMap<>();
+    TreeMap<Integer, BitSet> closing = new TreeMap<>();
+    BitSet openAtMidnight = new BitSet(catalog.size());
+    for (int ordinal = 0; ordinal < catalog.size(); ordinal++) {
+      int opensAt = catalog.getOpensAtMinute(ordinal);
+      int closesAt = catalog.getClosesAtMinute(ordinal);
+      if (!hasHours(opensAt, closesAt)) {
+        continue;
+      }
+      opening.computeIfAbsent(firstSlot(opensAt), slot -> new BitSet()).set(ordinal);
+      closing.computeIfAbsent(lastSlot(closesAt) + 1, slot -> new BitSet()).set(ordinal);
+      if (closesAt < opensAt) {
+        openAtMidnight.set(ordinal);
+      }
+    }
+
+    TreeSet<Integer> changes = new TreeSet<>(opening.keySet());
+    changes.addAll(closing.keySet());
+    changes.remove(0);
+    changes.remove(SLOTS_PER_DAY);
+
+    BitSet[] segments = new BitSet[changes.size() + 1];
+    int[] firstSlotOfSegment = new int[segments.length];
+    short[] segmentOfSlot = new short[SLOTS_PER_DAY];
+    BitSet open = openAtMidnight;
+    apply(open, opening.get(0), closing.get(0));
+    segments[0] = open;
+    int segment = 0;
+    int from = 0;
+    for (int slot : changes) {
+      Arrays.fill(segmentOfSlot, from, slot, (short) segment);
+      open = (BitSet) open.clone();
+      apply(open, opening.get(slot), closing.get(slot));
+      segments[++segment] = open;
+      firstSlotOfSegment[segment] = slot;
+      from = slot;
+    }
+    Arrays.fill(segmentOfSlot, from, SLOTS_PER_DAY, (short) segment);
+    return new OpenNowIndex(catalog, segmentOfSlot, segments, firstSlotOfSegment);
+  }
+
+  private static void apply(BitSet open, BitSet opened, BitSet closed) {
+    if (closed != null) {
+      open.andNot(closed);
+    }
+    if (opened != null) {
+      open.or(opened);
+    }
+  }
+
+  public RestaurantCatalog getCatalog() {
+    return catalog;
+  }
+
+  /**
+   * Ordinals of the restaurants open at the given time. The bitset is shared; do not modify it.
+   */
+  public BitSet openAt(LocalTime currentTime) {
+    return segments[segmentOfSlot[slotOf(currentTime.toNanoOfDay())]];
+  }
+
+  /**
+   * The period of the day the given time falls in, between two consecutive times at which some
+   * restaurant of the catalog opens or closes: the same restaurants are open at two times with
+   * the same time slot. Identified by its first half-minute slot, so it does not depend on how
+   * many periods come before it.
+   */
+  public int timeSlotOf(LocalTime currentTime) {
+    return firstSlotOfSegment[segmentOfSlot[slotOf(currentTime.toNanoOfDay())]];
+  }
+
+  public boolean isOpen(int ordinal, LocalTime currentTime) {
+    return openAt(currentTime).get(ordinal);
+  }
+
+  /**
+   * Keeps the ordinals of restaurants that are open at the given time, in the same order.
+   */
+  public int[] retainOpen(int[] ordinals, LocalTime currentTime) {
+    BitSet open = openAt(currentTime);
+    int count = 0;
+    int[] retained = new int[ordinals.length];
+    for (int ordinal : ordinals) {
+      if (open.get(ordinal)) {
+        retained[count++] = ordinal;
+      }
+    }
+    return Arrays.copyOf(retained, count);
+  }
+
+  /**
+   * Number of distinct bitsets held by the index.
+   */
+  int segmentCount() {
+    return segments.length;
+  }
+
+  /**
+   * The rule the index is built from, for a single restaurant.
+   * @param opensAt minute of day, or {@link RestaurantCatalog#UNKNOWN_MINUTE_OF_DAY}
+   * @param closesAt minute of day, or {@link RestaurantCatalog#UNKNOWN_MINUTE_OF_DAY}
+   */
+  static boolean isOpen(int opensAt, int closesAt, long nanoOfDay) {
+    if (!hasHours(opensAt, closesAt)) {
+      return false;
+    }
+    int slot = slotOf(nanoOfDay);
+    if (opensAt < closesAt) {
+      return slot >= firstSlot(opensAt) && slot <= lastSlot(closesAt);
+    }
+    return slot >= firstSlot(opensAt) || slot <= lastSlot(closesAt);
+  }
+
+  private static boolean hasHours(int opensAt, int closesAt) {
+    return opensAt != RestaurantCatalog.UNKNOWN_MINUTE_OF_DAY
+        && closesAt != RestaurantCatalog.UNKNOWN_MINUTE_OF_DAY
+        && opensAt != closesAt;
+  }
+
+  // Slot 2m is minute m exactly, slot 2m + 1 is strictly inside minute m.
+  static int slotOf(long nanoOfDay) {
+    int minute = (int) (nanoOfDay / NANOS_PER_MINUTE);
+    return 2 * minute + (nanoOfDay % NANOS_PER_MINUTE == 0 ? 0 : 1);
+  }
+
+  // Open from just after the opening minute...
+  private static int firstSlot(int opensAt) {
+    return 2 * opensAt + 1;
+  }
+
+  // ...until just before the closing minute.
+  private static int lastSlot(int closesAt) {
+    return 2 * closesAt - 1;
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.index;
+
+import java.util.Arrays;
+
+/**
+ * Operations on posting lists: arrays of restaurant ordinals in ascending order, without
+ * duplicates. Updates return a new array, or the same one if nothing changes.
+ */
+final class Postings {
+
+  private Postings() {
+  }
+
+  static int[] intersect(int[] first, int[] second) {
+    int[] matches = new int[Math.min(first.length, second.length)];
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < first.length && j < second.length) {
+      if (first[i] < second[j]) {
+        i++;
+      } else if (first[i] > second[j]) {
+        j++;
+      } else {
+        matches[count++] = first[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(matches, count);
+  }
+
+  static int[] with(int[] posting, int ordinal) {
+    int i = Arrays.binarySearch(posting, ordinal);
+    if (i >= 0) {
+      return posting;
+    }
+    int insertionPoint = -i - 1;
+    int[] updated = new int[posting.length + 1];
+    System.arraycopy(posting, 0, updated, 0, insertionPoint);
+    updated[insertionPoint] = ordinal;
+    System.arraycopy(posting, insertionPoint, updated, insertionPoint + 1,
+        posting.length - insertionPoint);
+    return updated;
+  }
+
+  static int[] without(int[] posting, int ordinal) {
+    int i = Arrays.binarySearch(posting, ordinal);
+    if (i < 0) {
+      return posting;
+    }
+    int[] updated = new int[posting.length - 1];
+    System.arraycopy(posting, 0, updated, 0, i);
+    System.arraycopy(posting, i + 1, updated, i, posting.length - i - 1);
+    return updated;
+  }
+}
@@ -0,0 +1,332 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.index;
+
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.utils.GeoUtils.RadiusFilter;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable struct-of-arrays view of a list of restaurants.
+ * Coordinates and opening hours are unboxed and parsed once, when the catalog is built, so
+ * scanning for restaurants that are open and close by reads primitive arrays sequentially and
+ * allocates nothing but the array of matches. Only the matches are turned into DTOs.
+ * The ordinal of a restaurant is its position in the list the catalog was built from.
+ */
+public class RestaurantCatalog {
+
+  // Minute of day used for missing or unparsable opening hours; such restaurants are never open.
+  public static final int UNKNOWN_MINUTE_OF_DAY = -1;
+
+  private final RestaurantEntity[] restaurants;
+  private final double[] latitudes;
+  private final double[] longitudes;
+  private final int[] opensAtMinutes;
+  private final int[] closesAtMinutes;
+  // Built on first use; most catalogs are never looked up by id.
+  private volatile Map<String, Integer> ordinalByRestaurantId;
+  // Ordinals of these restaurants in the catalog of the last "open now" index used.
+  private volatile OrdinalMapping openNowOrdinals;
+
+  private RestaurantCatalog(RestaurantEntity[] restaurants, int[] opensAtMinutes,
+      int[] closesAtMinutes) {
+    this(restaurants, new double[restaurants.length], new double[restaurants.length],
+        opensAtMinutes, closesAtMinutes, null);
+    for (int ordinal = 0; ordinal < restaurants.length; ordinal++) {
+      latitudes[ordinal] = latitudeOf(restaurants[ordinal]);
+      longitudes[ordinal] = longitudeOf(restaurants[ordinal]);
+    }
+  }
+
+  private RestaurantCatalog(RestaurantEntity[] restaurants, double[] latitudes,
+      double[] longitudes, int[] opensAtMinutes, int[] closesAtMinutes,
+      Map<String, Integer> ordinalByRestaurantId) {
+    this.restaurants = restaurants;
+    this.latitudes = latitudes;
+    this.longitudes = longitudes;
+    this.opensAtMinutes = opensAtMinutes;
+    this.closesAtMinutes = closesAtMinutes;
+    this.ordinalByRestaurantId = ordinalByRestaurantId;
+  }
+
+  public static RestaurantCatalog of(List<RestaurantEntity> restaurants) {
+    RestaurantEntity[] array = restaurants.toArray(new RestaurantEntity[0]);
+    int[] opensAtMinutes = new int[array.length];
+    int[] closesAtMinutes = new int[array.length];
+    // Restaurants of a neighbourhood share a handful of hours; parse each once.
+    Map<String, Integer> opensAtMinutesByTime = new HashMap<>();
+    Map<String, Integer> closesAtMinutesByTime = new HashMap<>();
+    for (int ordinal = 0; ordinal < array.length; ordinal++) {
+      opensAtMinutes[ordinal] = opensAtMinutesByTime.computeIfAbsent(
+          array[ordinal].getOpensAt(), RestaurantCatalog::toOpeningMinuteOfDay);
+      closesAtMinutes[ordinal] = closesAtMinutesByTime.computeIfAbsent(
+          array[ordinal].getClosesAt(), RestaurantCatalog::toClosingMinuteOfDay);
+    }
+    return new RestaurantCatalog(array, opensAtMinutes, closesAtMinutes);
+  }
+
+  /**
+   * Catalog of restaurants whose hours are already parsed, as minutes of the day, so that
+   * catalogs decoded from a cache do not parse them again.
+   * @param opensAtMinutes minute of day each restaurant opens at, as returned by
+   *     {@link #getOpensAtMinute}; taken over by the catalog
+   * @param closesAtMinutes likewise, for closing
+   */
+  public static RestaurantCatalog of(List<RestaurantEntity> restaurants, int[] opensAtMinutes,
+      int[] closesAtMinutes) {
+    if (opensAtMinutes.length != restaurants.size()
+        || closesAtMinutes.length != restaurants.size()) {
+      throw new IllegalArgumentException("One opening and closing minute per restaurant needed");
+    }
+    return new RestaurantCatalog(restaurants.toArray(new RestaurantEntity[0]), opensAtMinutes,
+        closesAtMinutes);
+  }
+
+  /**
+   * Catalog with the restaurant added, or replacing the one with the same restaurantId at its
+   * ordinal. Only the row of the restaurant is parsed; the others are copied as they are, and
+   * the lookup by restaurantId is carried over.
+   */
+  public RestaurantCatalog withRestaurant(RestaurantEntity restaurant) {
+    int ordinal = ordinalOf(restaurant.getRestaurantId());
+    Map<String, Integer> ordinals = ordinalByRestaurantId;
+    if (ordinal < 0) {
+      ordinal = restaurants.length;
+      ordinals = new HashMap<>(ordinals);
+      ordinals.put(restaurant.getRestaurantId(), ordinal);
+    }
+    int size = Math.max(restaurants.length, ordinal + 1);
+    RestaurantCatalog updated = new RestaurantCatalog(Arrays.copyOf(restaurants, size),
+        Arrays.copyOf(latitudes, size), Arrays.copyOf(longitudes, size),
+        Arrays.copyOf(opensAtMinutes, size), Arrays.copyOf(closesAtMinutes, size), ordinals);
+    updated.restaurants[ordinal] = restaurant;
+    updated.latitudes[ordinal] = latitudeOf(restaurant);
+    updated.longitudes[ordinal] = longitudeOf(restaurant);
+    updated.opensAtMinutes[ordinal] = toOpeningMinuteOfDay(restaurant.getOpensAt());
+    updated.closesAtMinutes[ordinal] = toClosingMinuteOfDay(restaurant.getClosesAt());
+    return updated;
+  }
+
+  public int size() {
+    return restaurants.length;
+  }
+
+  public RestaurantEntity get(int ordinal) {
+    return restaurants[ordinal];
+  }
+
+  public List<RestaurantEntity> toList() {
+    return Arrays.asList(restaurants);
+  }
+
+  /**
+   * Ordinal of the restaurant with the given restaurantId, or -1 if it is not in the catalog.
+   */
+  public int ordinalOf(String restaurantId) {
+    Map<String, Integer> ordinals = ordinalByRestaurantId;
+    if (ordinals == null) {
+      ordinals = new HashMap<>(2 * restaurants.length);
+      for (int ordinal = restaurants.length - 1; ordinal >= 0; ordinal--) {
+        ordinals.put(restaurants[ordinal].getRestaurantId(), ordinal);
+      }
+      ordinalByRestaurantId = ordinals;
+    }
+    return ordinals.getOrDefault(restaurantId, -1);
+  }
+
+  public boolean hasLocation(int ordinal) {
+    return !Double.isNaN(latitudes[ordinal]) && !Double.isNaN(longitudes[ordinal]);
+  }
+
+  public double getLatitude(int ordinal) {
+    return latitudes[ordinal];
+  }
+
+  public double getLongitude(int ordinal) {
+    return longitudes[ordinal];
+  }
+
+  /**
+   * Minute of day the restaurant opens at, or {@link #UNKNOWN_MINUTE_OF_DAY} if its hours are
+   * missing or cannot be parsed.
+   */
+  public int getOpensAtMinute(int ordinal) {
+    return opensAtMinutes[ordinal];
+  }
+
+  public int getClosesAtMinute(int ordinal) {
+    return closesAtMinutes[ordinal];
+  }
+
+  public boolean isOpenAt(int ordinal, LocalTime currentTime) {
+    return isOpen(ordinal, currentTime.toNanoOfDay());
+  }
+
+  /**
+   * Ordinals, in ascending order, of the restaurants that are open at the given time and
+   * strictly within the radius of the filter.
+   */
+  public int[] findOpenWithinRadius(RadiusFilter radiusFilter, LocalTime currentTime) {
+    return findOpen(currentTime, radiusFilter);
+  }
+
+  /**
+   * Ordinals, in ascending order, of the restaurants that are open at the given time, for
+   * catalogs known to lie within the radius.
+   */
+  public int[] findOpen(LocalTime currentTime) {
+    return findOpen(currentTime, null);
+  }
+
+  /**
+   * Same as {@link #findOpenWithinRadius} (or {@link #findOpen(LocalTime)} with a null
+   * filter), answered from the bitset of the index for the restaurants it holds with the same
+   * hours, so their hours are not compared one by one. The index may be built from another
+   * catalog: restaurants are matched by restaurantId once per index, and those it does not
+   * hold are checked with their own hours. A null index checks every restaurant by its hours.
+   */
+  public int[] findOpen(OpenNowIndex openNowIndex, LocalTime currentTime,
+      RadiusFilter radiusFilter) {
+    if (openNowIndex == null) {
+      return findOpen(currentTime, radiusFilter);
+    }
+    return findOpen(currentTime, radiusFilter, openNowIndex.openAt(currentTime),
+        ordinalsIn(openNowIndex.getCatalog()));
+  }
+
+  // A null filter accepts every location.
+  private int[] findOpen(LocalTime currentTime, RadiusFilter radiusFilter) {
+    return findOpen(currentTime, radiusFilter, null, null);
+  }
+
+  /**
+   * Restaurants with an ordinal in indexOrdinals are open if their bit is set in open; the
+   * others, or all of them if indexOrdinals is null, by their hours.
+   */
+  private int[] findOpen(LocalTime currentTime, RadiusFilter radiusFilter, BitSet open,
+      int[] indexOrdinals) {
+    long currentNanoOfDay = currentTime.toNanoOfDay();
+    int[] matches = null;
+    int count = 0;
+    for (int ordinal = 0; ordinal < restaurants.length; ordinal++) {
+      int indexOrdinal = indexOrdinals == null ? -1 : indexOrdinals[ordinal];
+      boolean isOpen = indexOrdinal >= 0
+          ? open.get(indexOrdinal) : isOpen(ordinal, currentNanoOfDay);
+      if (isOpen && (radiusFilter == null
+          || radiusFilter.isWithinRadius(latitudes[ordinal], longitudes[ordinal]))) {
+        if (matches == null) {
+          matches = new int[Math.min(restaurants.length - ordinal, 16)];
+        } else if (count == matches.length) {
+          matches = Arrays.copyOf(matches, Math.min(restaurants.length, 2 * count));
+        }
+        matches[count++] = ordinal;
+      }
+    }
+    return matches == null ? new int[0] : Arrays.copyOf(matches, count);
+  }
+
+  /**
+   * Ordinal in the other catalog of each restaurant, or -1 if the other catalog does not hold
+   * it with the same hours. Kept for the last catalog asked for.
+   */
+  private int[] ordinalsIn(RestaurantCatalog other) {
+    OrdinalMapping mapping = openNowOrdinals;
+    if (mapping == null || mapping.catalog != other) {
+      int[] ordinals = new int[restaurants.length];
+      for (int ordinal = 0; ordinal < restaurants.length; ordinal++) {
+        int otherOrdinal = other.ordinalOf(restaurants[ordinal].getRestaurantId());
+        ordinals[ordinal] = otherOrdinal >= 0
+            && other.opensAtMinutes[otherOrdinal] == opensAtMinutes[ordinal]
+            && other.closesAtMinutes[otherOrdinal] == closesAtMinutes[ordinal]
+            ? otherOrdinal : -1;
+      }
+      mapping = new OrdinalMapping(other, ordinals);
+      openNowOrdinals = mapping;
+    }
+    return mapping.ordinals;
+  }
+
+  /**
+   * Open strictly after opensAt and strictly before closesAt, past midnight if closesAt is
+   * earlier than opensAt; the same rule as {@link OpenNowIndex}.
+   */
+  private boolean isOpen(int ordinal, long currentNanoOfDay) {
+    return OpenNowIndex.isOpen(opensAtMinutes[ordinal], closesAtMinutes[ordinal],
+        currentNanoOfDay);
+  }
+
+  /**
+   * Same rule as {@link #isOpenAt(int, LocalTime)} for a restaurant outside any catalog.
+   */
+  public static boolean isOpenAt(String opensAt, String closesAt, LocalTime currentTime) {
+    return OpenNowIndex.isOpen(toOpeningMinuteOfDay(opensAt), toClosingMinuteOfDay(closesAt),
+        currentTime.toNanoOfDay());
+  }
+
+  private static double latitudeOf(RestaurantEntity restaurant) {
+    return restaurant.getLatitude() != null ? restaurant.getLatitude() : Double.NaN;
+  }
+
+  private static double longitudeOf(RestaurantEntity restaurant) {
+    return restaurant.getLongitude() != null ? restaurant.getLongitude() : Double.NaN;
+  }
+
+  /**
+   * Minute of day of an opening time. Hours are kept to the minute: an opening time with
+   * seconds is rounded up to the next minute, so a restaurant is never shown open before it
+   * opens.
+   */
+  static int toOpeningMinuteOfDay(String time) {
+    int secondOfDay = toSecondOfDay(time);
+    if (secondOfDay < 0) {
+      return UNKNOWN_MINUTE_OF_DAY;
+    }
+    return (secondOfDay + 59) / 60 % OpenNowIndex.MINUTES_PER_DAY;
+  }
+
+  /**
+   * Minute of day of a closing time. A closing time with seconds is rounded down, so a
+   * restaurant is never shown open after it closes.
+   */
+  static int toClosingMinuteOfDay(String time) {
+    int secondOfDay = toSecondOfDay(time);
+    return secondOfDay < 0 ? UNKNOWN_MINUTE_OF_DAY : secondOfDay / 60;
+  }
+
+  /**
+   * Second of day of the time, fractions of a second dropped, or -1 if it is missing or
+   * cannot be parsed.
+   */
+  private static int toSecondOfDay(String time) {
+    if (time == null) {
+      return -1;
+    }
+    try {
+      return LocalTime.parse(time).toSecondOfDay();
+    } catch (DateTimeParseException e) {
+      return -1;
+    }
+  }
+
+  private static class OrdinalMapping {
+
+    private final RestaurantCatalog catalog;
+    private final int[] ordinals;
+
+    OrdinalMapping(RestaurantCatalog catalog, int[] ordinals) {
+      this.catalog = catalog;
+      this.ordinals = ordinals;
+    }
+  }
+}
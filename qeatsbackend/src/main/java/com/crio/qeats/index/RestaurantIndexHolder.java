@@ -0,0 +1,260 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.index;
+
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.repositories.RestaurantRepository;
+import com.crio.qeats.repositoryservices.RestaurantRepositoryServiceKdTreeImpl;
+
+import java.time.LocalTime;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PreDestroy;
+
+import lombok.extern.log4j.Log4j2;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Owns the in-memory restaurant indexes.
+ * The indexes are built from the restaurants collection on first use; only that first build
+ * blocks lookups. A restaurant saved or deleted through this service, or indexes older than
+ * {@link #INDEX_MAX_AGE_IN_SECONDS} (to pick up writes made outside this service), start a
+ * rebuild on a dedicated thread while the current indexes are served. The new indexes are
+ * swapped in with a single volatile write, so readers always see a consistent set.
+ *
+ * <p>Lookups that do not read their candidates from the indexes use
+ * {@link #findOpenNowIndex()} and {@link #timeSlotOf(LocalTime)}, which never build them.
+ */
+@Log4j2
+@Component
+public class RestaurantIndexHolder extends AbstractMongoEventListener<RestaurantEntity> {
+
+  public static final int INDEX_MAX_AGE_IN_SECONDS = 3600;
+
+  @Autowired
+  private RestaurantRepository restaurantRepository;
+
+  @Autowired
+  private Environment environment;
+
+  private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "restaurant-index-rebuild");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final AtomicReference<Future<Snapshot>> pendingRebuild = new AtomicReference<>();
+  private final AtomicLong changeVersion = new AtomicLong();
+  private volatile Snapshot snapshot;
+
+  public RestaurantCatalog getCatalog() {
+    return currentSnapshot().catalog;
+  }
+
+  /**
+   * The catalog, rebuilt first if a restaurant has been saved or deleted through this service
+   * since it was built; for indexes that are built from it in the background.
+   */
+  public RestaurantCatalog getUpToDateCatalog() {
+    while (true) {
+      Snapshot current = snapshot;
+      if (current != null && current.version == changeVersion.get()) {
+        return current.catalog;
+      }
+      await(scheduleRebuild());
+    }
+  }
+
+  public GeoHashGridIndex getGeoHashGridIndex() {
+    return currentSnapshot().geoHashGridIndex;
+  }
+
+  /**
+   * The KD-tree; null unless the kdtree profile is active.
+   */
+  public RestaurantKdTree getKdTree() {
+    return currentSnapshot().kdTree;
+  }
+
+  public OpenNowIndex getOpenNowIndex() {
+    return currentSnapshot().openNowIndex;
+  }
+
+  /**
+   * The current indexes, all built from the same catalog, for lookups that combine several of
+   * them.
+   */
+  public Snapshot getSnapshot() {
+    return currentSnapshot();
+  }
+
+  /**
+   * The "open now" index if the indexes have been built, or null; never builds them. Lookups
+   * that get null check the hours of each restaurant instead.
+   */
+  public OpenNowIndex findOpenNowIndex() {
+    Snapshot current = snapshot;
+    return current != null ? current.openNowIndex : null;
+  }
+
+  /**
+   * {@link OpenNowIndex#timeSlotOf(LocalTime)} if the indexes have been built; otherwise the
+   * half-minute slot of the time, which lies within the period the index would give, so keys
+   * built either way never span two periods. Never builds the indexes.
+   */
+  public int timeSlotOf(LocalTime currentTime) {
+    Snapshot current = snapshot;
+    return current != null ? current.openNowIndex.timeSlotOf(currentTime)
+        : OpenNowIndex.slotOf(currentTime.toNanoOfDay());
+  }
+
+  /**
+   * Marks the current indexes as stale. The next lookup starts a rebuild.
+   */
+  public void invalidate() {
+    changeVersion.incrementAndGet();
+  }
+
+  @Override
+  public void onAfterSave(AfterSaveEvent<RestaurantEntity> event) {
+    invalidate();
+  }
+
+  @Override
+  public void onAfterDelete(AfterDeleteEvent<RestaurantEntity> event) {
+    invalidate();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    rebuildExecutor.shutdownNow();
+  }
+
+  private Snapshot currentSnapshot() {
+    Snapshot current = snapshot;
+    if (current == null) {
+      return await(scheduleRebuild());
+    }
+    if (current.isStale(changeVersion.get())) {
+      // Keep serving it while it is rebuilt in the background.
+      scheduleRebuild();
+    }
+    return current;
+  }
+
+  /**
+   * Returns the rebuild in progress, or starts one. At most one rebuild runs at a time.
+   */
+  private Future<Snapshot> scheduleRebuild() {
+    while (true) {
+      Future<Snapshot> pending = pendingRebuild.get();
+      if (pending != null && !pending.isDone()) {
+        return pending;
+      }
+      FutureTask<Snapshot> rebuild = new FutureTask<>(this::rebuild);
+      if (pendingRebuild.compareAndSet(pending, rebuild)) {
+        rebuildExecutor.execute(rebuild);
+        return rebuild;
+      }
+    }
+  }
+
+  /**
+   * Waits for a build.
+   */
+  private Snapshot await(Future<Snapshot> rebuild) {
+    try {
+      return rebuild.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while building the restaurant index", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Failed to build the restaurant index", e.getCause());
+    }
+  }
+
+  private Snapshot rebuild() {
+    long version = changeVersion.get();
+    Snapshot current = snapshot;
+    if (current != null && !current.isStale(version)) {
+      return current;
+    }
+    long startTimeInMillis = System.currentTimeMillis();
+    Snapshot rebuilt;
+    try {
+      RestaurantCatalog catalog = RestaurantCatalog.of(restaurantRepository.findAll());
+      // Only the KD-tree repository service reads the KD-tree.
+      RestaurantKdTree kdTree = environment.acceptsProfiles(
+          Profiles.of(RestaurantRepositoryServiceKdTreeImpl.KD_TREE_PROFILE))
+          ? RestaurantKdTree.build(catalog) : null;
+      rebuilt = new Snapshot(version, startTimeInMillis, catalog,
+          GeoHashGridIndex.build(catalog), kdTree, OpenNowIndex.build(catalog));
+    } catch (RuntimeException e) {
+      log.error("Failed to rebuild the restaurant index", e);
+      throw e;
+    }
+    snapshot = rebuilt;
+    log.info("Rebuilt restaurant index with {} restaurants in {} ms",
+        rebuilt.catalog.size(), System.currentTimeMillis() - startTimeInMillis);
+    return rebuilt;
+  }
+
+  public static class Snapshot {
+
+    private final long version;
+    private final long builtAtInMillis;
+    private final RestaurantCatalog catalog;
+    private final GeoHashGridIndex geoHashGridIndex;
+    private final RestaurantKdTree kdTree;
+    private final OpenNowIndex openNowIndex;
+
+    Snapshot(long version, long builtAtInMillis, RestaurantCatalog catalog,
+        GeoHashGridIndex geoHashGridIndex, RestaurantKdTree kdTree, OpenNowIndex openNowIndex) {
+      this.version = version;
+      this.builtAtInMillis = builtAtInMillis;
+      this.catalog = catalog;
+      this.geoHashGridIndex = geoHashGridIndex;
+      this.kdTree = kdTree;
+      this.openNowIndex = openNowIndex;
+    }
+
+    public RestaurantCatalog getCatalog() {
+      return catalog;
+    }
+
+    public GeoHashGridIndex getGeoHashGridIndex() {
+      return geoHashGridIndex;
+    }
+
+    public RestaurantKdTree getKdTree() {
+      return kdTree;
+    }
+
+    public OpenNowIndex getOpenNowIndex() {
+      return openNowIndex;
+    }
+
+    boolean isStale(long currentVersion) {
+      return version != currentVersion
+          || System.currentTimeMillis() - builtAtInMillis
+              > TimeUnit.SECONDS.toMillis(INDEX_MAX_AGE_IN_SECONDS);
+    }
+  }
+}
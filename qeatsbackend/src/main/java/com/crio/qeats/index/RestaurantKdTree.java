@@ -0,0 +1,388 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.index;
+
+import com.crio.qeats.utils.GeoUtils;
+import com.crio.qeats.utils.GeoUtils.RadiusFilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Immutable KD-tree over the coordinates of the restaurant catalog.
+ * Restaurants are placed on the unit sphere (x, y, z), where the straight-line (chord) distance
+ * grows with the great-circle distance, so radius and nearest-neighbour searches need no special
+ * case for the antimeridian or the poles. The tree is implicit: the median of every range is the
+ * node and the two halves are its subtrees, so it is just three arrays and costs no pointers.
+ * Lookups return ordinals of the catalog the tree was built from.
+ */
+public class RestaurantKdTree {
+
+  private static final int DIMENSIONS = 3;
+
+  // Chord distances are compared with a little slack; the exact Haversine check decides.
+  private static final double CHORD_SLACK = 1e-9;
+
+  private final RestaurantCatalog catalog;
+  private final int[] ordinals;
+  private final double[] points;
+
+  private RestaurantKdTree(RestaurantCatalog catalog, int[] ordinals, double[] points) {
+    this.catalog = catalog;
+    this.ordinals = ordinals;
+    this.points = points;
+  }
+
+  /**
+   * Builds the tree in O(n log n). Restaurants without coordinates are left out.
+   */
+  public static RestaurantKdTree build(RestaurantCatalog catalog) {
+    List<Integer> located = new ArrayList<>(catalog.size());
+    for (int ordinal = 0; ordinal < catalog.size(); ordinal++) {
+      if (catalog.hasLocation(ordinal)) {
+        located.add(ordinal);
+      }
+    }
+
+    int[] ordinals = new int[located.size()];
+    double[] points = new double[DIMENSIONS * located.size()];
+    for (int i = 0; i < ordinals.length; i++) {
+      ordinals[i] = located.get(i);
+      toUnitVector(catalog.getLatitude(ordinals[i]), catalog.getLongitude(ordinals[i]),
+          points, DIMENSIONS * i);
+    }
+    RestaurantKdTree kdTree = new RestaurantKdTree(catalog, ordinals, points);
+    kdTree.arrange(0, ordinals.length, 0);
+    return kdTree;
+  }
+
+  public RestaurantCatalog getCatalog() {
+    return catalog;
+  }
+
+  public int size() {
+    return ordinals.length;
+  }
+
+  /**
+   * Ordinals, in ascending order, of the restaurants strictly within the radius, by the same
+   * distance as {@link GeoUtils#findDistanceInKm}.
+   */
+  public int[] findWithinRadius(double latitude, double longitude, double radiusInKms) {
+    return findWithinRadius(latitude, longitude, radiusInKms, ordinal -> true);
+  }
+
+  /**
+   * Same as {@link #findWithinRadius(double, double, double)}, keeping only the restaurants
+   * accepted by the filter.
+   */
+  public int[] findWithinRadius(double latitude, double longitude, double radiusInKms,
+      IntPredicate filter) {
+    double[] query = toUnitVector(latitude, longitude, new double[DIMENSIONS], 0);
+    RadiusSearch search = new RadiusSearch(query, chordSquared(radiusInKms),
+        GeoUtils.radiusFilter(latitude, longitude, radiusInKms), filter);
+    search.visit(0, ordinals.length, 0);
+    int[] matches = Arrays.copyOf(search.matches, search.count);
+    Arrays.sort(matches);
+    return matches;
+  }
+
+  /**
+   * Ordinals of the (at most) {@code limit} restaurants closest to latitude/longitude that are
+   * strictly within the radius and accepted by the filter, in the order of
+   * {@link com.crio.qeats.utils.DistanceCursor#ORDER}: by {@link GeoUtils#findDistanceInKm},
+   * then by restaurantId.
+   */
+  public int[] findNearest(double latitude, double longitude, int limit,
+      double maxRadiusInKms, IntPredicate filter) {
+    if (limit <= 0) {
+      return new int[0];
+    }
+    double[] query = toUnitVector(latitude, longitude, new double[DIMENSIONS], 0);
+    NearestSearch search = new NearestSearch(latitude, longitude, query, limit,
+        chordSquared(maxRadiusInKms), GeoUtils.radiusFilter(latitude, longitude, maxRadiusInKms),
+        filter);
+    search.visit(0, ordinals.length, 0);
+    return search.sortedOrdinals();
+  }
+
+  /**
+   * Squared chord length of a great-circle distance, with slack. Anything farther than half the
+   * earth's circumference is the whole sphere.
+   */
+  private static double chordSquared(double radiusInKms) {
+    double angle = Math.min(Math.PI, radiusInKms / GeoUtils.EARTH_RADIUS_IN_KMS);
+    double chord = 2 * Math.sin(angle / 2);
+    return chord * chord * (1 + CHORD_SLACK) + CHORD_SLACK;
+  }
+
+  private static double[] toUnitVector(double latitude, double longitude, double[] into,
+      int offset) {
+    double phi = Math.toRadians(latitude);
+    double lambda = Math.toRadians(longitude);
+    double cosPhi = Math.cos(phi);
+    into[offset] = cosPhi * Math.cos(lambda);
+    into[offset + 1] = cosPhi * Math.sin(lambda);
+    into[offset + 2] = Math.sin(phi);
+    return into;
+  }
+
+  private double squaredDistance(double[] query, int position) {
+    int offset = DIMENSIONS * position;
+    double dx = points[offset] - query[0];
+    double dy = points[offset + 1] - query[1];
+    double dz = points[offset + 2] - query[2];
+    return dx * dx + dy * dy + dz * dz;
+  }
+
+  /**
+   * Puts the median of [from, to) on the given axis at the middle of the range, with smaller
+   * coordinates before it and larger ones after it, then does the same for both halves on the
+   * next axis.
+   */
+  private void arrange(int from, int to, int axis) {
+    while (to - from > 1) {
+      int middle = (from + to) >>> 1;
+      select(from, to, middle, axis);
+      int nextAxis = (axis + 1) % DIMENSIONS;
+      arrange(middle + 1, to, nextAxis);
+      to = middle;
+      axis = nextAxis;
+    }
+  }
+
+  // Quickselect: leaves the k-th smallest coordinate of [from, to) at position k.
+  private void select(int from, int to, int k, int axis) {
+    int low = from;
+    int high = to - 1;
+    while (low < high) {
+      double pivot = coordinate((low + high) >>> 1, axis);
+      int i = low;
+      int j = high;
+      while (i <= j) {
+        while (coordinate(i, axis) < pivot) {
+          i++;
+        }
+        while (coordinate(j, axis) > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swap(i++, j--);
+        }
+      }
+      if (k <= j) {
+        high = j;
+      } else if (k >= i) {
+        low = i;
+      } else {
+        return;
+      }
+    }
+  }
+
+  private double coordinate(int position, int axis) {
+    return points[DIMENSIONS * position + axis];
+  }
+
+  private void swap(int i, int j) {
+    int ordinal = ordinals[i];
+    ordinals[i] = ordinals[j];
+    ordinals[j] = ordinal;
+    for (int axis = 0; axis < DIMENSIONS; axis++) {
+      double value = points[DIMENSIONS * i + axis];
+      points[DIMENSIONS * i + axis] = points[DIMENSIONS * j + axis];
+      points[DIMENSIONS * j + axis] = value;
+    }
+  }
+
+  private boolean isMatch(int position, RadiusFilter radiusFilter, IntPredicate filter) {
+    int ordinal = ordinals[position];
+    return radiusFilter.isWithinRadius(catalog.getLatitude(ordinal),
+        catalog.getLongitude(ordinal)) && filter.test(ordinal);
+  }
+
+  private class RadiusSearch {
+
+    private final double[] query;
+    private final double maxChordSquared;
+    private final RadiusFilter radiusFilter;
+    private final IntPredicate filter;
+    private int[] matches = new int[16];
+    private int count;
+
+    RadiusSearch(double[] query, double maxChordSquared, RadiusFilter radiusFilter,
+        IntPredicate filter) {
+      this.query = query;
+      this.maxChordSquared = maxChordSquared;
+      this.radiusFilter = radiusFilter;
+      this.filter = filter;
+    }
+
+    void visit(int from, int to, int axis) {
+      while (from < to) {
+        int middle = (from + to) >>> 1;
+        if (squaredDistance(query, middle) <= maxChordSquared
+            && isMatch(middle, radiusFilter, filter)) {
+          if (count == matches.length) {
+            matches = Arrays.copyOf(matches, 2 * count);
+          }
+          matches[count++] = ordinals[middle];
+        }
+
+        double difference = query[axis] - coordinate(middle, axis);
+        int nextAxis = (axis + 1) % DIMENSIONS;
+        if (difference * difference <= maxChordSquared) {
+          visit(middle + 1, to, nextAxis);
+          to = middle;
+        } else if (difference < 0) {
+          to = middle;
+        } else {
+          from = middle + 1;
+        }
+        axis = nextAxis;
+      }
+    }
+  }
+
+  /**
+   * Bounded max-heap of the best matches so far, ranked by Haversine distance then restaurantId,
+   * the order pages are cut in, so that restaurants tied at the end of a page are kept or
+   * dropped the same way the cursor of the next page expects. The chord distance only prunes:
+   * once the heap is full, a restaurant or subtree is skipped if it is farther than the chord
+   * of the worst match, with slack so that ties are still visited.
+   */
+  private class NearestSearch {
+
+    private final double latitude;
+    private final double longitude;
+    private final double[] query;
+    private final double maxChordSquared;
+    private final RadiusFilter radiusFilter;
+    private final IntPredicate filter;
+    private final int[] heapOrdinals;
+    private final double[] heapDistances;
+    private int count;
+    private double bound;
+
+    NearestSearch(double latitude, double longitude, double[] query, int limit,
+        double maxChordSquared, RadiusFilter radiusFilter, IntPredicate filter) {
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.query = query;
+      this.maxChordSquared = maxChordSquared;
+      this.radiusFilter = radiusFilter;
+      this.filter = filter;
+      int capacity = Math.min(limit, ordinals.length);
+      this.heapOrdinals = new int[capacity];
+      this.heapDistances = new double[capacity];
+      this.bound = maxChordSquared;
+    }
+
+    void visit(int from, int to, int axis) {
+      if (from >= to || heapOrdinals.length == 0) {
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      if (squaredDistance(query, middle) <= bound && isMatch(middle, radiusFilter, filter)) {
+        int ordinal = ordinals[middle];
+        offer(ordinal, GeoUtils.findDistanceInKm(latitude, longitude,
+            catalog.getLatitude(ordinal), catalog.getLongitude(ordinal)));
+      }
+
+      double difference = query[axis] - coordinate(middle, axis);
+      int nextAxis = (axis + 1) % DIMENSIONS;
+      if (difference < 0) {
+        visit(from, middle, nextAxis);
+        if (difference * difference <= bound) {
+          visit(middle + 1, to, nextAxis);
+        }
+      } else {
+        visit(middle + 1, to, nextAxis);
+        if (difference * difference <= bound) {
+          visit(from, middle, nextAxis);
+        }
+      }
+    }
+
+    private void offer(int ordinal, double distanceInKms) {
+      if (count < heapOrdinals.length) {
+        heapOrdinals[count] = ordinal;
+        heapDistances[count] = distanceInKms;
+        siftUp(count++);
+      } else if (isWorse(heapOrdinals[0], heapDistances[0], ordinal, distanceInKms)) {
+        heapOrdinals[0] = ordinal;
+        heapDistances[0] = distanceInKms;
+        siftDown(0);
+      } else {
+        return;
+      }
+      if (count == heapOrdinals.length) {
+        bound = Math.min(maxChordSquared, chordSquared(heapDistances[0]));
+      }
+    }
+
+    // True if (ordinal, distance) ranks after (otherOrdinal, otherDistance).
+    private boolean isWorse(int ordinal, double distanceInKms, int otherOrdinal,
+        double otherDistanceInKms) {
+      int byDistance = Double.compare(distanceInKms, otherDistanceInKms);
+      return byDistance > 0 || (byDistance == 0 && catalog.get(ordinal).getRestaurantId()
+          .compareTo(catalog.get(otherOrdinal).getRestaurantId()) > 0);
+    }
+
+    private void siftUp(int position) {
+      while (position > 0) {
+        int parent = (position - 1) / 2;
+        if (!isWorse(heapOrdinals[position], heapDistances[position],
+            heapOrdinals[parent], heapDistances[parent])) {
+          return;
+        }
+        swapHeap(position, parent);
+        position = parent;
+      }
+    }
+
+    private void siftDown(int position) {
+      while (true) {
+        int worst = position;
+        for (int child = 2 * position + 1; child <= 2 * position + 2 && child < count; child++) {
+          if (isWorse(heapOrdinals[child], heapDistances[child],
+              heapOrdinals[worst], heapDistances[worst])) {
+            worst = child;
+          }
+        }
+        if (worst == position) {
+          return;
+        }
+        swapHeap(position, worst);
+        position = worst;
+      }
+    }
+
+    private void swapHeap(int i, int j) {
+      int ordinal = heapOrdinals[i];
+      heapOrdinals[i] = heapOrdinals[j];
+      heapOrdinals[j] = ordinal;
+      double distance = heapDistances[i];
+      heapDistances[i] = heapDistances[j];
+      heapDistances[j] = distance;
+    }
+
+    int[] sortedOrdinals() {
+      int[] sorted = new int[count];
+      for (int i = count - 1; i >= 0; i--) {
+        sorted[i] = heapOrdinals[0];
+        heapOrdinals[0] = heapOrdinals[count - 1];
+        heapDistances[0] = heapDistances[count - 1];
+        count--;
+        siftDown(0);
+      }
+      return sorted;
+    }
+  }
+}
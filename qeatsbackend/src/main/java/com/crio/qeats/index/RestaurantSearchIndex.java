@@ -0,0 +1,359 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.index;
+
+import com.crio.qeats.dto.Item;
+import com.crio.qeats.models.MenuEntity;
+import com.crio.qeats.models.RestaurantEntity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable in-memory inverted index of the searchable text of the restaurants: their names
+ * and attributes (cuisines), and the names and attributes of the items of their menus.
+ * Text is split into tokens at every character that is not a letter or a digit, and tokens are
+ * lower-cased. Each field maps its sorted tokens to posting lists: the ordinals, in ascending
+ * order, of the restaurants whose field holds the token.
+ * A search intersects the posting lists of the tokens of the query, the last one matching every
+ * token it is a prefix of, so that "chicken bir" finds "Chicken Biryani". Each field also has a
+ * {@link TrigramIndex} for substring matches, so that "iryan" finds it too.
+ * Updates return a new index that shares everything but the posting lists they change.
+ */
+public class RestaurantSearchIndex {
+
+  public enum Field {
+    NAME, ATTRIBUTE, ITEM_NAME, ITEM_ATTRIBUTE
+  }
+
+  private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+  private static final String[] NO_TOKENS = new String[0];
+
+  private final RestaurantCatalog catalog;
+  private final FieldIndex[] fieldIndexes;
+  private final TrigramIndex[] trigramIndexes;
+
+  private RestaurantSearchIndex(RestaurantCatalog catalog, FieldIndex[] fieldIndexes,
+      TrigramIndex[] trigramIndexes) {
+    this.catalog = catalog;
+    this.fieldIndexes = fieldIndexes;
+    this.trigramIndexes = trigramIndexes;
+  }
+
+  /**
+   * Builds the index over the restaurants and the menus, matched by restaurantId. Menus of
+   * restaurants that are not in the list are left out.
+   */
+  public static RestaurantSearchIndex build(List<RestaurantEntity> restaurants,
+      List<MenuEntity> menus) {
+    return build(RestaurantCatalog.of(restaurants), menus);
+  }
+
+  /**
+   * Builds the index over the restaurants of the catalog, which it shares, and the menus.
+   */
+  public static RestaurantSearchIndex build(RestaurantCatalog catalog, List<MenuEntity> menus) {
+    Map<String, List<Item>> itemsByRestaurantId = new HashMap<>();
+    for (MenuEntity menu : menus) {
+      itemsByRestaurantId.put(menu.getRestaurantId(), menu.getItems());
+    }
+    Field[] fields = Field.values();
+    String[][][] tokensByOrdinal = new String[fields.length][catalog.size()][];
+    String[][] textByOrdinal = new String[fields.length][catalog.size()];
+    for (int ordinal = 0; ordinal < catalog.size(); ordinal++) {
+      RestaurantEntity restaurant = catalog.get(ordinal);
+      List<Item> items = itemsByRestaurantId.get(restaurant.getRestaurantId());
+      for (Field field : fields) {
+        List<String> values = valuesOf(field, restaurant, items);
+        tokensByOrdinal[field.ordinal()][ordinal] = tokenize(values);
+        textByOrdinal[field.ordinal()][ordinal] = TrigramIndex.textOf(values);
+      }
+    }
+
+    FieldIndex[] fieldIndexes = new FieldIndex[fields.length];
+    TrigramIndex[] trigramIndexes = new TrigramIndex[fields.length];
+    for (Field field : fields) {
+      fieldIndexes[field.ordinal()] = FieldIndex.build(tokensByOrdinal[field.ordinal()]);
+      trigramIndexes[field.ordinal()] = TrigramIndex.build(textByOrdinal[field.ordinal()]);
+    }
+    return new RestaurantSearchIndex(catalog, fieldIndexes, trigramIndexes);
+  }
+
+  public RestaurantCatalog getCatalog() {
+    return catalog;
+  }
+
+  /**
+   * Index with the restaurant added, or replacing the one with the same restaurantId. The
+   * items of a replaced restaurant are kept.
+   */
+  public RestaurantSearchIndex withRestaurant(RestaurantEntity restaurant) {
+    int ordinal = catalog.ordinalOf(restaurant.getRestaurantId());
+    if (ordinal < 0) {
+      ordinal = catalog.size();
+    }
+
+    FieldIndex[] updatedFieldIndexes = fieldIndexes.clone();
+    TrigramIndex[] updatedTrigramIndexes = trigramIndexes.clone();
+    for (Field field : Field.values()) {
+      FieldIndex fieldIndex = fieldIndexes[field.ordinal()];
+      TrigramIndex trigramIndex = trigramIndexes[field.ordinal()];
+      if (field == Field.NAME || field == Field.ATTRIBUTE) {
+        List<String> values = valuesOf(field, restaurant, null);
+        updatedFieldIndexes[field.ordinal()] = fieldIndex.withTokens(ordinal, tokenize(values));
+        updatedTrigramIndexes[field.ordinal()] =
+            trigramIndex.withText(ordinal, TrigramIndex.textOf(values));
+      } else {
+        // Only grows the indexes to a new ordinal.
+        updatedFieldIndexes[field.ordinal()] =
+            fieldIndex.withTokens(ordinal, fieldIndex.tokensOf(ordinal));
+        updatedTrigramIndexes[field.ordinal()] =
+            trigramIndex.withText(ordinal, trigramIndex.getText(ordinal));
+      }
+    }
+    return new RestaurantSearchIndex(catalog.withRestaurant(restaurant), updatedFieldIndexes,
+        updatedTrigramIndexes);
+  }
+
+  /**
+   * Index with the items of the restaurant of the menu replaced by those of the menu.
+   * @throws IllegalArgumentException if the restaurant of the menu is not in the index
+   */
+  public RestaurantSearchIndex withMenu(MenuEntity menu) {
+    int ordinal = catalog.ordinalOf(menu.getRestaurantId());
+    if (ordinal < 0) {
+      throw new IllegalArgumentException("No restaurant " + menu.getRestaurantId());
+    }
+    FieldIndex[] updatedFieldIndexes = fieldIndexes.clone();
+    TrigramIndex[] updatedTrigramIndexes = trigramIndexes.clone();
+    for (Field field : new Field[] {Field.ITEM_NAME, Field.ITEM_ATTRIBUTE}) {
+      List<String> values = valuesOf(field, catalog.get(ordinal), menu.getItems());
+      updatedFieldIndexes[field.ordinal()] =
+          fieldIndexes[field.ordinal()].withTokens(ordinal, tokenize(values));
+      updatedTrigramIndexes[field.ordinal()] =
+          trigramIndexes[field.ordinal()].withText(ordinal, TrigramIndex.textOf(values));
+    }
+    return new RestaurantSearchIndex(catalog, updatedFieldIndexes, updatedTrigramIndexes);
+  }
+
+  /**
+   * Ordinals, in ascending order, of the restaurants whose field holds every token of the
+   * query, the last one as a prefix. A query without tokens matches nothing.
+   */
+  public int[] search(Field field, String query) {
+    String[] queryTokens = tokenize(Collections.singletonList(query));
+    if (queryTokens.length == 0) {
+      return new int[0];
+    }
+    FieldIndex fieldIndex = fieldIndexes[field.ordinal()];
+    List<int[]> postings = new ArrayList<>(queryTokens.length);
+    for (int i = 0; i < queryTokens.length; i++) {
+      postings.add(i == queryTokens.length - 1
+          ? fieldIndex.postingOfPrefix(queryTokens[i]) : fieldIndex.postingOf(queryTokens[i]));
+    }
+    // Shortest first, so every intersection is at most as long as it.
+    postings.sort(Comparator.comparingInt(posting -> posting.length));
+    int[] matches = postings.get(0);
+    for (int i = 1; i < postings.size() && matches.length > 0; i++) {
+      matches = Postings.intersect(matches, postings.get(i));
+    }
+    return matches;
+  }
+
+  /**
+   * Ordinals, in ascending order, of the restaurants with a value of the field that contains
+   * the query, ignoring case.
+   */
+  public int[] searchContaining(Field field, String query) {
+    return trigramIndexes[field.ordinal()].findContaining(query);
+  }
+
+  /**
+   * Whether the tokens of the field of the restaurant are exactly those of the query, in the
+   * same order.
+   */
+  public boolean matchesExactly(Field field, int ordinal, String query) {
+    return Arrays.equals(fieldIndexes[field.ordinal()].tokensOf(ordinal),
+        tokenize(Collections.singletonList(query)));
+  }
+
+  private static List<String> valuesOf(Field field, RestaurantEntity restaurant,
+      List<Item> items) {
+    List<String> values = new ArrayList<>();
+    switch (field) {
+      case NAME:
+        values.add(restaurant.getName());
+        break;
+      case ATTRIBUTE:
+        if (restaurant.getAttributes() != null) {
+          values.addAll(restaurant.getAttributes());
+        }
+        break;
+      case ITEM_NAME:
+      case ITEM_ATTRIBUTE:
+        if (items != null) {
+          for (Item item : items) {
+            if (field == Field.ITEM_NAME) {
+              values.add(item.getName());
+            } else if (item.getAttributes() != null) {
+              values.addAll(item.getAttributes());
+            }
+          }
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown field " + field);
+    }
+    return values;
+  }
+
+  /**
+   * Distinct tokens of the texts, in the order they first appear.
+   */
+  static String[] tokenize(Collection<String> texts) {
+    Set<String> tokens = new LinkedHashSet<>();
+    for (String text : texts) {
+      if (text == null) {
+        continue;
+      }
+      for (String token : SEPARATORS.split(text.toLowerCase(Locale.ROOT))) {
+        if (!token.isEmpty()) {
+          tokens.add(token);
+        }
+      }
+    }
+    return tokens.isEmpty() ? NO_TOKENS : tokens.toArray(NO_TOKENS);
+  }
+
+  /**
+   * Posting lists of one field, and the tokens of each restaurant to update them.
+   * Tokens whose posting list becomes empty are kept until the index is rebuilt.
+   */
+  private static final class FieldIndex {
+
+    private final String[] tokens;
+    private final int[][] postings;
+    private final String[][] tokensByOrdinal;
+
+    private FieldIndex(String[] tokens, int[][] postings, String[][] tokensByOrdinal) {
+      this.tokens = tokens;
+      this.postings = postings;
+      this.tokensByOrdinal = tokensByOrdinal;
+    }
+
+    static FieldIndex build(String[][] tokensByOrdinal) {
+      Map<String, List<Integer>> ordinalsByToken = new TreeMap<>();
+      for (int ordinal = 0; ordinal < tokensByOrdinal.length; ordinal++) {
+        for (String token : tokensByOrdinal[ordinal]) {
+          ordinalsByToken.computeIfAbsent(token, t -> new ArrayList<>()).add(ordinal);
+        }
+      }
+      String[] tokens = ordinalsByToken.keySet().toArray(NO_TOKENS);
+      int[][] postings = new int[tokens.length][];
+      for (int i = 0; i < tokens.length; i++) {
+        postings[i] = ordinalsByToken.get(tokens[i]).stream().mapToInt(Integer::intValue)
+            .toArray();
+      }
+      return new FieldIndex(tokens, postings, tokensByOrdinal);
+    }
+
+    String[] tokensOf(int ordinal) {
+      return ordinal < tokensByOrdinal.length ? tokensByOrdinal[ordinal] : NO_TOKENS;
+    }
+
+    int[] postingOf(String token) {
+      int i = Arrays.binarySearch(tokens, token);
+      return i >= 0 ? postings[i] : new int[0];
+    }
+
+    /**
+     * Union of the posting lists of the tokens that start with the prefix.
+     */
+    int[] postingOfPrefix(String prefix) {
+      int from = Arrays.binarySearch(tokens, prefix);
+      if (from < 0) {
+        from = -from - 1;
+      }
+      if (from < tokens.length && tokens[from].equals(prefix)
+          && (from + 1 == tokens.length || !tokens[from + 1].startsWith(prefix))) {
+        return postings[from];
+      }
+      BitSet ordinals = new BitSet(tokensByOrdinal.length);
+      for (int i = from; i < tokens.length && tokens[i].startsWith(prefix); i++) {
+        for (int ordinal : postings[i]) {
+          ordinals.set(ordinal);
+        }
+      }
+      return ordinals.stream().toArray();
+    }
+
+    /**
+     * Field index with the tokens of the restaurant replaced. Only the posting lists of the
+     * tokens it gains or loses are copied.
+     */
+    FieldIndex withTokens(int ordinal, String[] updatedTokens) {
+      String[] previousTokens = tokensOf(ordinal);
+      String[][] updatedTokensByOrdinal = Arrays.copyOf(tokensByOrdinal,
+          Math.max(tokensByOrdinal.length, ordinal + 1));
+      updatedTokensByOrdinal[ordinal] = updatedTokens;
+
+      Set<String> lostTokens = new HashSet<>(Arrays.asList(previousTokens));
+      lostTokens.removeAll(Arrays.asList(updatedTokens));
+      Set<String> gainedTokens = new HashSet<>(Arrays.asList(updatedTokens));
+      gainedTokens.removeAll(Arrays.asList(previousTokens));
+
+      List<String> newTokens = new ArrayList<>();
+      for (String token : gainedTokens) {
+        if (Arrays.binarySearch(tokens, token) < 0) {
+          newTokens.add(token);
+        }
+      }
+      String[] allTokens = tokens;
+      int[][] allPostings = postings.clone();
+      if (!newTokens.isEmpty()) {
+        Collections.sort(newTokens);
+        allTokens = new String[tokens.length + newTokens.size()];
+        allPostings = new int[allTokens.length][];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < allTokens.length; k++) {
+          if (j == newTokens.size() || (i < tokens.length
+              && tokens[i].compareTo(newTokens.get(j)) < 0)) {
+            allTokens[k] = tokens[i];
+            allPostings[k] = postings[i++];
+          } else {
+            allTokens[k] = newTokens.get(j++);
+            allPostings[k] = new int[0];
+          }
+        }
+      }
+
+      for (String token : lostTokens) {
+        int i = Arrays.binarySearch(allTokens, token);
+        allPostings[i] = Postings.without(allPostings[i], ordinal);
+      }
+      for (String token : gainedTokens) {
+        int i = Arrays.binarySearch(allTokens, token);
+        allPostings[i] = Postings.with(allPostings[i], ordinal);
+      }
+      return new FieldIndex(allTokens, allPostings, updatedTokensByOrdinal);
+    }
+  }
+}
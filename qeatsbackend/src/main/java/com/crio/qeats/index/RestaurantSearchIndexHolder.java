@@ -0,0 +1,204 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.index;
+
+import com.crio.qeats.models.MenuEntity;
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.repositories.MenuRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import lombok.extern.log4j.Log4j2;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Owns the {@link RestaurantSearchIndex}.
+ * The index is built on first use from the menus collection and the restaurant catalog of
+ * {@link RestaurantIndexHolder}, so the restaurants are read and held once, and kept up to
+ * date incrementally: a restaurant or menu saved through this service patches the posting lists
+ * and the catalog row it changes. A delete, or a menu of a restaurant the index does not hold,
+ * marks the index for a full rebuild on the next search; so does an index older than
+ * {@link RestaurantIndexHolder#INDEX_MAX_AGE_IN_SECONDS}, to pick up writes made outside this
+ * service. Rebuilds run in the background while the current index is served; only the first
+ * build blocks searches.
+ */
+@Log4j2
+@Component
+public class RestaurantSearchIndexHolder extends AbstractMongoEventListener<Object> {
+
+  private static final Set<String> INDEXED_COLLECTIONS =
+      new HashSet<>(Arrays.asList("restaurants", "menus"));
+
+  @Autowired
+  private RestaurantIndexHolder restaurantIndexHolder;
+
+  @Autowired
+  private MenuRepository menuRepository;
+
+  private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "restaurant-search-index-rebuild");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  // Held while the index is built, so there is one build at a time.
+  private final Object rebuildLock = new Object();
+
+  // Guards the updates of the index and the fields below.
+  private final Object updateLock = new Object();
+  private boolean rebuilding;
+  private boolean rebuildScheduled;
+  private final List<Object> savedWhileRebuilding = new ArrayList<>();
+
+  private volatile RestaurantSearchIndex index;
+  private volatile long builtAtInMillis;
+  private volatile boolean rebuildRequired;
+
+  public RestaurantSearchIndex getIndex() {
+    RestaurantSearchIndex current = index;
+    if (current == null) {
+      synchronized (rebuildLock) {
+        if (index == null) {
+          try {
+            rebuild();
+          } catch (RuntimeException e) {
+            throw new IllegalStateException("Failed to build the restaurant search index", e);
+          }
+        }
+        return index;
+      }
+    }
+    if (rebuildRequired || System.currentTimeMillis() - builtAtInMillis
+        > TimeUnit.SECONDS.toMillis(RestaurantIndexHolder.INDEX_MAX_AGE_IN_SECONDS)) {
+      scheduleRebuild();
+    }
+    return current;
+  }
+
+  /**
+   * Marks the index for a full rebuild, started by the next search.
+   */
+  public void invalidate() {
+    rebuildRequired = true;
+  }
+
+  @Override
+  public void onAfterSave(AfterSaveEvent<Object> event) {
+    Object saved = event.getSource();
+    if (!(saved instanceof RestaurantEntity) && !(saved instanceof MenuEntity)) {
+      return;
+    }
+    if (saved instanceof RestaurantEntity) {
+      // Before the check below, so a rebuild that starts after it waits for a catalog with the
+      // restaurant, whichever listener of the save runs first.
+      restaurantIndexHolder.invalidate();
+    }
+    synchronized (updateLock) {
+      if (rebuilding) {
+        // The rebuild may have read the collections before the save; it is applied again once
+        // the rebuild is done.
+        savedWhileRebuilding.add(saved);
+      }
+      if (index != null) {
+        index = update(index, saved);
+      }
+    }
+  }
+
+  @Override
+  public void onAfterDelete(AfterDeleteEvent<Object> event) {
+    if (INDEXED_COLLECTIONS.contains(event.getCollectionName())) {
+      invalidate();
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    rebuildExecutor.shutdownNow();
+  }
+
+  private void scheduleRebuild() {
+    synchronized (updateLock) {
+      if (rebuildScheduled) {
+        return;
+      }
+      rebuildScheduled = true;
+    }
+    rebuildExecutor.execute(() -> {
+      try {
+        synchronized (rebuildLock) {
+          rebuild();
+        }
+      } catch (RuntimeException e) {
+        log.error("Failed to rebuild the restaurant search index, serving the previous one", e);
+      } finally {
+        synchronized (updateLock) {
+          rebuildScheduled = false;
+        }
+      }
+    });
+  }
+
+  /**
+   * Builds the index from the current catalog and the menus. Must hold {@link #rebuildLock}.
+   */
+  private void rebuild() {
+    synchronized (updateLock) {
+      rebuilding = true;
+      rebuildRequired = false;
+    }
+    long startTimeInMillis = System.currentTimeMillis();
+    try {
+      RestaurantSearchIndex rebuilt = RestaurantSearchIndex.build(
+          restaurantIndexHolder.getUpToDateCatalog(), menuRepository.findAll());
+      synchronized (updateLock) {
+        for (Object saved : savedWhileRebuilding) {
+          rebuilt = update(rebuilt, saved);
+        }
+        index = rebuilt;
+        builtAtInMillis = startTimeInMillis;
+      }
+      log.info("Rebuilt restaurant search index with {} restaurants in {} ms",
+          rebuilt.getCatalog().size(), System.currentTimeMillis() - startTimeInMillis);
+    } catch (RuntimeException e) {
+      rebuildRequired = true;
+      throw e;
+    } finally {
+      synchronized (updateLock) {
+        rebuilding = false;
+        savedWhileRebuilding.clear();
+      }
+    }
+  }
+
+  private RestaurantSearchIndex update(RestaurantSearchIndex current, Object saved) {
+    if (saved instanceof RestaurantEntity) {
+      return current.withRestaurant((RestaurantEntity) saved);
+    }
+    MenuEntity menu = (MenuEntity) saved;
+    if (current.getCatalog().ordinalOf(menu.getRestaurantId()) < 0) {
+      // Saved before its restaurant, or the restaurant was written outside this service.
+      invalidate();
+      return current;
+    }
+    return current.withMenu(menu);
+  }
+}
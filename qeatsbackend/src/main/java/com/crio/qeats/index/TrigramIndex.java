@@ -0,0 +1,233 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Immutable trigram index for case-insensitive substring search, the in-memory counterpart of
+ * an unanchored regex such as '.*biry.*'.
+ * Each restaurant has a text: its values lower-cased, each between two {@link #BOUNDARY}
+ * characters so that matches do not span values, and one more boundary at the end so that
+ * every character of a value starts a trigram. Every trigram (three consecutive characters)
+ * of the texts maps to the sorted ordinals of the restaurants whose text holds it.
+ * A query of three characters or more can only be in the texts that hold all its trigrams, and
+ * a shorter one in those that hold a trigram starting with it: one range of the sorted
+ * trigrams. Those candidates are then verified with {@link String#contains}, so the cost of a
+ * search depends on the number of candidates rather than on the number of restaurants.
+ */
+public class TrigramIndex {
+
+  static final char BOUNDARY = '\n';
+
+  private static final String NO_TEXT = String.valueOf(BOUNDARY);
+
+  // Trigrams packed into the low 48 bits of a long, in ascending order.
+  private final long[] trigrams;
+  private final int[][] postings;
+  private final String[] textByOrdinal;
+
+  private TrigramIndex(long[] trigrams, int[][] postings, String[] textByOrdinal) {
+    this.trigrams = trigrams;
+    this.postings = postings;
+    this.textByOrdinal = textByOrdinal;
+  }
+
+  /**
+   * Builds the index over texts made with {@link #textOf}, by ordinal.
+   */
+  public static TrigramIndex build(String[] textByOrdinal) {
+    Map<Long, List<Integer>> ordinalsByTrigram = new TreeMap<>();
+    for (int ordinal = 0; ordinal < textByOrdinal.length; ordinal++) {
+      for (long trigram : trigramsOf(textByOrdinal[ordinal])) {
+        ordinalsByTrigram.computeIfAbsent(trigram, t -> new ArrayList<>()).add(ordinal);
+      }
+    }
+    long[] trigrams = new long[ordinalsByTrigram.size()];
+    int[][] postings = new int[trigrams.length][];
+    int i = 0;
+    for (Map.Entry<Long, List<Integer>> posting : ordinalsByTrigram.entrySet()) {
+      trigrams[i] = posting.getKey();
+      postings[i++] = posting.getValue().stream().mapToInt(Integer::intValue).toArray();
+    }
+    return new TrigramIndex(trigrams, postings, textByOrdinal.clone());
+  }
+
+  /**
+   * Text of the values of a restaurant, as indexed.
+   */
+  public static String textOf(Collection<String> values) {
+    StringBuilder text = new StringBuilder().append(BOUNDARY);
+    for (String value : values) {
+      if (value != null && !value.isEmpty()) {
+        text.append(value.toLowerCase(Locale.ROOT)).append(BOUNDARY);
+      }
+    }
+    return text.length() == 1 ? NO_TEXT : text.append(BOUNDARY).toString();
+  }
+
+  /**
+   * Text of the restaurant, as indexed.
+   */
+  public String getText(int ordinal) {
+    return ordinal < textByOrdinal.length ? textByOrdinal[ordinal] : NO_TEXT;
+  }
+
+  /**
+   * Ordinals, in ascending order, of the restaurants with a value that contains the query,
+   * ignoring case. An empty query matches nothing.
+   */
+  public int[] findContaining(String query) {
+    String foldedQuery = query.toLowerCase(Locale.ROOT);
+    if (foldedQuery.isEmpty() || foldedQuery.indexOf(BOUNDARY) >= 0) {
+      return new int[0];
+    }
+    int[] candidates = foldedQuery.length() >= 3
+        ? findHoldingAll(trigramsOf(foldedQuery)) : findHoldingTrigramsStartingWith(foldedQuery);
+
+    int[] matches = new int[candidates.length];
+    int count = 0;
+    for (int ordinal : candidates) {
+      if (textByOrdinal[ordinal].contains(foldedQuery)) {
+        matches[count++] = ordinal;
+      }
+    }
+    return Arrays.copyOf(matches, count);
+  }
+
+  private int[] findHoldingAll(long[] queryTrigrams) {
+    List<int[]> queryPostings = new ArrayList<>(queryTrigrams.length);
+    for (long trigram : queryTrigrams) {
+      int i = Arrays.binarySearch(trigrams, trigram);
+      if (i < 0) {
+        return new int[0];
+      }
+      queryPostings.add(postings[i]);
+    }
+    // Shortest first, so every intersection is at most as long as it.
+    queryPostings.sort(Comparator.comparingInt(posting -> posting.length));
+    int[] candidates = queryPostings.get(0);
+    for (int i = 1; i < queryPostings.size() && candidates.length > 0; i++) {
+      candidates = Postings.intersect(candidates, queryPostings.get(i));
+    }
+    return candidates;
+  }
+
+  /**
+   * Union of the posting lists of the trigrams that start with a query of one or two
+   * characters. They sort between the query padded with the lowest and the highest chars.
+   */
+  private int[] findHoldingTrigramsStartingWith(String shortQuery) {
+    long first = (long) shortQuery.charAt(0) << 32;
+    long last = first | 0xFFFFFFFFL;
+    if (shortQuery.length() == 2) {
+      first |= (long) shortQuery.charAt(1) << 16;
+      last = first | 0xFFFFL;
+    }
+    int from = Arrays.binarySearch(trigrams, first);
+    if (from < 0) {
+      from = -from - 1;
+    }
+    int to = from;
+    while (to < trigrams.length && trigrams[to] <= last) {
+      to++;
+    }
+    if (to - from <= 1) {
+      return to == from ? new int[0] : postings[from];
+    }
+    BitSet candidates = new BitSet(textByOrdinal.length);
+    for (int i = from; i < to; i++) {
+      for (int ordinal : postings[i]) {
+        candidates.set(ordinal);
+      }
+    }
+    return candidates.stream().toArray();
+  }
+
+  /**
+   * Index with the text of the restaurant replaced. Only the posting lists of the trigrams it
+   * gains or loses are copied; trigrams whose posting list becomes empty are kept.
+   */
+  public TrigramIndex withText(int ordinal, String text) {
+    String previousText = getText(ordinal);
+    String[] updatedTextByOrdinal = Arrays.copyOf(textByOrdinal,
+        Math.max(textByOrdinal.length, ordinal + 1));
+    for (int i = textByOrdinal.length; i < updatedTextByOrdinal.length; i++) {
+      updatedTextByOrdinal[i] = NO_TEXT;
+    }
+    updatedTextByOrdinal[ordinal] = text;
+
+    Set<Long> previousTrigrams = toSet(trigramsOf(previousText));
+    Set<Long> updatedTrigrams = toSet(trigramsOf(text));
+    Set<Long> lostTrigrams = new HashSet<>(previousTrigrams);
+    lostTrigrams.removeAll(updatedTrigrams);
+    Set<Long> gainedTrigrams = new HashSet<>(updatedTrigrams);
+    gainedTrigrams.removeAll(previousTrigrams);
+
+    long[] newTrigrams = gainedTrigrams.stream().mapToLong(Long::longValue)
+        .filter(trigram -> Arrays.binarySearch(trigrams, trigram) < 0)
+        .sorted()
+        .toArray();
+    long[] allTrigrams = trigrams;
+    int[][] allPostings = postings.clone();
+    if (newTrigrams.length > 0) {
+      allTrigrams = new long[trigrams.length + newTrigrams.length];
+      allPostings = new int[allTrigrams.length][];
+      int i = 0;
+      int j = 0;
+      for (int k = 0; k < allTrigrams.length; k++) {
+        if (j == newTrigrams.length || (i < trigrams.length && trigrams[i] < newTrigrams[j])) {
+          allTrigrams[k] = trigrams[i];
+          allPostings[k] = postings[i++];
+        } else {
+          allTrigrams[k] = newTrigrams[j++];
+          allPostings[k] = new int[0];
+        }
+      }
+    }
+
+    for (long trigram : lostTrigrams) {
+      int i = Arrays.binarySearch(allTrigrams, trigram);
+      allPostings[i] = Postings.without(allPostings[i], ordinal);
+    }
+    for (long trigram : gainedTrigrams) {
+      int i = Arrays.binarySearch(allTrigrams, trigram);
+      allPostings[i] = Postings.with(allPostings[i], ordinal);
+    }
+    return new TrigramIndex(allTrigrams, allPostings, updatedTextByOrdinal);
+  }
+
+  /**
+   * Distinct trigrams of the text, in ascending order.
+   */
+  static long[] trigramsOf(String text) {
+    long[] trigrams = new long[Math.max(0, text.length() - 2)];
+    for (int i = 0; i < trigrams.length; i++) {
+      trigrams[i] = (long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16
+          | text.charAt(i + 2);
+    }
+    return Arrays.stream(trigrams).sorted().distinct().toArray();
+  }
+
+  private static Set<Long> toSet(long[] trigrams) {
+    Set<Long> set = new HashSet<>(trigrams.length * 2);
+    for (long trigram : trigrams) {
+      set.add(trigram);
+    }
+    return set;
+  }
+}
@@ -6,6 +6,7 @@
 
 package com.crio.qeats.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 import java.util.ArrayList;
@@ -16,6 +17,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.geo.GeoJsonPoint;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 // Java class that maps to Mongo collection.
@@ -46,6 +48,12 @@ public class RestaurantEntity {
   @NotNull
   private Double longitude;
 
+  // GeoJSON copy of latitude/longitude for the 2dsphere index. Kept in sync on every save by
+  // RestaurantLocationMigration, which creates the index only when the native geo queries are
+  // used; never part of the JSON representation.
+  @JsonIgnore
+  private GeoJsonPoint location;
+
   @NotNull
   private String opensAt;
 
@@ -0,0 +1,57 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.geo.GeoJsonPoint;
+import org.springframework.data.mongodb.core.index.GeoSpatialIndexType;
+import org.springframework.data.mongodb.core.index.GeoSpatialIndexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// Denormalized copy of a restaurant and the names and attributes of the items of its menus,
+// kept up to date by RestaurantSearchProjection so that item searches need no $lookup.
+@Data
+@Document(collection = "restaurant_search")
+@NoArgsConstructor
+public class RestaurantSearchEntity {
+
+  // One document per restaurant, keyed by its restaurantId.
+  @Id
+  private String restaurantId;
+
+  private String name;
+
+  private String city;
+
+  private String imageUrl;
+
+  private Double latitude;
+
+  private Double longitude;
+
+  @GeoSpatialIndexed(type = GeoSpatialIndexType.GEO_2DSPHERE)
+  private GeoJsonPoint location;
+
+  private String opensAt;
+
+  private String closesAt;
+
+  private List<String> attributes = new ArrayList<>();
+
+  // Not indexed: they are only matched by unanchored case-insensitive regexes, which scan the
+  // whole of a B-tree index anyway.
+  private List<String> itemNames = new ArrayList<>();
+
+  private List<String> itemAttributes = new ArrayList<>();
+
+}
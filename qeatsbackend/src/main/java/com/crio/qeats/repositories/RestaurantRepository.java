@@ -18,6 +18,11 @@ public interface RestaurantRepository extends MongoRepository<RestaurantEntity,
   @Query("{'latitude': { $type: 1 }, 'longitude': { $type: 1 }}")
   List<RestaurantEntity> findAll();
 
+  // Radius must be in radians, i.e. kilometres divided by the earth radius.
+  @Query("{ 'location': { $geoWithin: { $centerSphere: [ [ ?1, ?0 ], ?2 ] } } }")
+  List<RestaurantEntity> findRestaurantsWithinSphere(double latitude, double longitude,
+      double radiusInRadians);
+
   @Query("{\n"
             + "  'name': { $regex: ?0, $options: 'i' },\n"
             + "  'latitude': { $type: 1 },\n"
@@ -0,0 +1,34 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositories;
+
+import com.crio.qeats.models.RestaurantSearchEntity;
+
+import java.util.List;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+
+public interface RestaurantSearchRepository
+    extends MongoRepository<RestaurantSearchEntity, String> {
+
+  // Radius must be in radians, i.e. kilometres divided by the earth radius.
+  @Query("{\n"
+            + "  'location': { $geoWithin: { $centerSphere: [ [ ?2, ?1 ], ?3 ] } },\n"
+            + "  'itemNames': { $regex: ?0, $options: 'i' },\n"
+            + "}")
+  List<RestaurantSearchEntity> findRestaurantsByItemNameWithinSphere(String itemNamePattern,
+      double latitude, double longitude, double radiusInRadians);
+
+  // Radius must be in radians, i.e. kilometres divided by the earth radius.
+  @Query("{\n"
+            + "  'location': { $geoWithin: { $centerSphere: [ [ ?2, ?1 ], ?3 ] } },\n"
+            + "  'itemAttributes': { $regex: ?0, $options: 'i' },\n"
+            + "}")
+  List<RestaurantSearchEntity> findRestaurantsByItemAttributeWithinSphere(
+      String itemAttributePattern, double latitude, double longitude, double radiusInRadians);
+}
@@ -0,0 +1,85 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.utils.DistanceCursor;
+import com.crio.qeats.utils.GeoUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps, out of any number of restaurants offered, the first limit of them after a cursor in
+ * (distance, restaurantId) order. A bounded max-heap holds the best ones so far, so this costs
+ * O(n log limit) time and O(limit) memory instead of sorting everything.
+ */
+class NearestRestaurantsCollector {
+
+  private final double latitude;
+  private final double longitude;
+  private final int limit;
+  private final DistanceCursor after;
+  private final PriorityQueue<Candidate> farthestFirst;
+
+  /**
+   * Collects around latitude/longitude.
+   * @param after cursor of the last restaurant already returned, or null for the first page
+   */
+  NearestRestaurantsCollector(double latitude, double longitude, int limit,
+      DistanceCursor after) {
+    this.latitude = latitude;
+    this.longitude = longitude;
+    this.limit = limit;
+    this.after = after;
+    this.farthestFirst = new PriorityQueue<>(Math.max(1, limit),
+        (first, second) -> DistanceCursor.ORDER.compare(second.position, first.position));
+  }
+
+  void offer(RestaurantEntity restaurant) {
+    double distanceInKms = GeoUtils.findDistanceInKm(latitude, longitude,
+        restaurant.getLatitude(), restaurant.getLongitude());
+    if (after != null && !after.isBefore(distanceInKms, restaurant.getRestaurantId())) {
+      return;
+    }
+    if (farthestFirst.size() < limit) {
+      farthestFirst.add(new Candidate(
+          new DistanceCursor(distanceInKms, restaurant.getRestaurantId()), restaurant));
+    } else if (limit > 0 && farthestFirst.peek().position
+        .isAfter(distanceInKms, restaurant.getRestaurantId())) {
+      farthestFirst.poll();
+      farthestFirst.add(new Candidate(
+          new DistanceCursor(distanceInKms, restaurant.getRestaurantId()), restaurant));
+    }
+  }
+
+  /**
+   * The collected restaurants, closest first.
+   */
+  List<RestaurantEntity> getRestaurants() {
+    List<Candidate> candidates = new ArrayList<>(farthestFirst);
+    candidates.sort((first, second) -> DistanceCursor.ORDER.compare(first.position,
+        second.position));
+    List<RestaurantEntity> restaurants = new ArrayList<>(candidates.size());
+    for (Candidate candidate : candidates) {
+      restaurants.add(candidate.restaurant);
+    }
+    return restaurants;
+  }
+
+  private static class Candidate {
+
+    private final DistanceCursor position;
+    private final RestaurantEntity restaurant;
+
+    Candidate(DistanceCursor position, RestaurantEntity restaurant) {
+      this.position = position;
+      this.restaurant = restaurant;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import com.crio.qeats.dto.Restaurant;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Merges the restaurants found by each kind of match of a search into one list: the tiers in
+ * the order of {@link Tier}, each in the order it was added, and every restaurantId once, where
+ * it ranks best. Tiers can be added in any order, as the queries of a search complete.
+ * Restaurants are deduplicated with a hash set of their restaurantIds, so a merge takes time
+ * linear in the number of restaurants added.
+ */
+public class RankedRestaurantMerger<T> {
+
+  /**
+   * Kinds of match, best first.
+   */
+  public enum Tier {
+    EXACT_NAME, PARTIAL_NAME, ATTRIBUTE, ITEM_NAME, ITEM_ATTRIBUTE
+  }
+
+  private final Function<T, String> restaurantIdOf;
+  private final Map<Tier, List<T>> restaurantsByTier = new EnumMap<>(Tier.class);
+
+  public RankedRestaurantMerger(Function<T, String> restaurantIdOf) {
+    this.restaurantIdOf = restaurantIdOf;
+  }
+
+  public static RankedRestaurantMerger<Restaurant> ofRestaurants() {
+    return new RankedRestaurantMerger<>(Restaurant::getRestaurantId);
+  }
+
+  /**
+   * Adds restaurants that matched in the tier, after those already added to it. Null stands
+   * for no restaurants.
+   */
+  public RankedRestaurantMerger<T> add(Tier tier, Collection<? extends T> restaurants) {
+    if (restaurants != null) {
+      restaurantsByTier.computeIfAbsent(tier, t -> new ArrayList<>()).addAll(restaurants);
+    }
+    return this;
+  }
+
+  public List<T> merge() {
+    List<T> merged = new ArrayList<>();
+    Set<String> restaurantIds = new HashSet<>();
+    for (List<T> restaurants : restaurantsByTier.values()) {
+      for (T restaurant : restaurants) {
+        if (restaurantIds.add(restaurantIdOf.apply(restaurant))) {
+          merged.add(restaurant);
+        }
+      }
+    }
+    return merged;
+  }
+}
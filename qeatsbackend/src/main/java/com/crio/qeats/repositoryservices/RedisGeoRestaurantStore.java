@@ -0,0 +1,451 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import ch.hsr.geohash.GeoHash;
+
+import com.crio.qeats.configs.RedisConfiguration;
+import com.crio.qeats.configs.RedisKeys;
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.repositories.RestaurantRepository;
+import com.crio.qeats.utils.GeoHashUtils;
+import com.crio.qeats.utils.GeoHashUtils.CoveringCell;
+import com.crio.qeats.utils.GeoUtils;
+import com.crio.qeats.utils.GeoUtils.RadiusFilter;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PreDestroy;
+
+import lombok.extern.log4j.Log4j2;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * Copy of the restaurants collection in Redis, laid out for radius queries, under the keys of
+ * {@link RedisKeys}:
+ * <ul>
+ *   <li>geo index: sorted set of restaurantIds, scored by the 52-bit geohash of the
+ *   restaurant. This is how Redis GEO sets are built, but it only needs sorted set commands,
+ *   so it works on servers without GEOADD/GEORADIUS (before 3.2), such as the embedded one of
+ *   the tests. Every geohash cell is a contiguous range of scores, so a circle is covered
+ *   with a few ZRANGEBYSCORE.</li>
+ *   <li>geo restaurant, by restaurantId: hash of the fields of a restaurant, read with
+ *   HMGET.</li>
+ *   <li>geo synced: set once the copy is complete.</li>
+ * </ul>
+ * The copy is made from the collection when a lookup finds it missing (the Redis cache was
+ * flushed, or has never been filled), kept up to date when a restaurant is saved through this
+ * service, and made again after a restaurant is deleted. It is made on a dedicated thread,
+ * with its own connection, one copy at a time; lookups that find it missing are answered
+ * without it meanwhile. Restaurants saved while it is made are written again once it is
+ * complete, so the renamed geo index does not drop them.
+ */
+@Log4j2
+@Component
+@Profile(RestaurantRepositoryServiceRedisGeoImpl.REDIS_GEO_PROFILE)
+public class RedisGeoRestaurantStore extends AbstractMongoEventListener<RestaurantEntity> {
+
+  // Bits of a geohash score, as in Redis GEO sets: 26 per coordinate, exact in a double.
+  static final int SCORE_BITS = 52;
+
+  // Finest cells of the covering. Precision 6 cells are about 1.2 km x 0.6 km.
+  private static final int MAX_COVERING_PRECISION = 6;
+
+  // Restaurants written per ZADD while copying the collection.
+  private static final int SYNC_BATCH_SIZE = 1000;
+
+  // Read timeout of the connection the copy is made with, which writes the whole collection.
+  private static final int SYNC_TIMEOUT_MILLIS = 10000;
+
+  private static final String[] FIELDS = {"id", "restaurantId", "name", "city", "imageUrl",
+      "latitude", "longitude", "opensAt", "closesAt", "attributes"};
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Autowired
+  private RedisConfiguration redisConfiguration;
+
+  @Autowired
+  private RedisKeys redisKeys;
+
+  @Autowired
+  private RestaurantRepository restaurantRepository;
+
+  private final ExecutorService syncExecutor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "redis-geo-sync");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final AtomicReference<Future<?>> pendingSync = new AtomicReference<>();
+
+  // Guards the fields below, which track the changes made while the copy is made.
+  private final Object syncStateLock = new Object();
+  private boolean syncing;
+  private final Map<String, RestaurantEntity> savedWhileSyncing = new LinkedHashMap<>();
+  private boolean deletedWhileSyncing;
+
+  /**
+   * Restaurants within the radius, in no particular order: one pipelined round trip for the
+   * ranges of scores that cover the circle and one for the details of the restaurants found.
+   * Starts copying the collection into Redis if it is not there.
+   * @return the restaurants, or null if the copy is missing
+   */
+  public List<RestaurantEntity> findWithinRadius(Jedis jedis, double latitude,
+      double longitude, double radiusInKms) {
+    List<long[]> ranges = coveringRanges(latitude, longitude, radiusInKms);
+    Set<String> restaurantIds = findInRanges(jedis, ranges);
+    if (restaurantIds == null) {
+      scheduleSync();
+      return null;
+    }
+
+    Pipeline pipeline = jedis.pipelined();
+    List<Response<List<String>>> details = new ArrayList<>(restaurantIds.size());
+    for (String restaurantId : restaurantIds) {
+      details.add(pipeline.hmget(redisKeys.geoRestaurant(restaurantId), FIELDS));
+    }
+    pipeline.sync();
+
+    RadiusFilter radiusFilter = GeoUtils.radiusFilter(latitude, longitude, radiusInKms);
+    List<RestaurantEntity> restaurants = new ArrayList<>();
+    for (Response<List<String>> fields : details) {
+      RestaurantEntity restaurant = toRestaurant(fields.get());
+      if (restaurant != null
+          && radiusFilter.isWithinRadius(restaurant.getLatitude(), restaurant.getLongitude())) {
+        restaurants.add(restaurant);
+      }
+    }
+    return restaurants;
+  }
+
+  /**
+   * Members within the ranges of scores, or null if the copy is missing.
+   */
+  private Set<String> findInRanges(Jedis jedis, List<long[]> ranges) {
+    Pipeline pipeline = jedis.pipelined();
+    Response<Boolean> synced = pipeline.exists(redisKeys.geoSynced());
+    List<Response<Set<String>>> members = new ArrayList<>(ranges.size());
+    for (long[] range : ranges) {
+      members.add(pipeline.zrangeByScore(redisKeys.geoIndex(), Long.toString(range[0]),
+          "(" + range[1]));
+    }
+    pipeline.sync();
+    if (!synced.get()) {
+      return null;
+    }
+
+    Set<String> restaurantIds = new LinkedHashSet<>();
+    for (Response<Set<String>> rangeMembers : members) {
+      restaurantIds.addAll(rangeMembers.get());
+    }
+    return restaurantIds;
+  }
+
+  /**
+   * Half-open ranges of scores of the cells that cover the circle, with adjacent ranges merged.
+   */
+  static List<long[]> coveringRanges(double latitude, double longitude, double radiusInKms) {
+    List<long[]> ranges = new ArrayList<>();
+    for (CoveringCell cell : GeoHashUtils.hierarchicalCovering(latitude, longitude,
+        radiusInKms, MAX_COVERING_PRECISION)) {
+      String geoHash = cell.getGeoHash();
+      int shift = SCORE_BITS - 5 * geoHash.length();
+      long first = GeoHash.fromGeohashString(geoHash).longValue() >>> (64 - SCORE_BITS);
+      ranges.add(new long[] {first, first + (1L << shift)});
+    }
+    ranges.sort((first, second) -> Long.compare(first[0], second[0]));
+
+    List<long[]> merged = new ArrayList<>();
+    for (long[] range : ranges) {
+      long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+      if (last != null && last[1] >= range[0]) {
+        last[1] = Math.max(last[1], range[1]);
+      } else {
+        merged.add(range);
+      }
+    }
+    return merged;
+  }
+
+  static long scoreOf(double latitude, double longitude) {
+    return GeoHash.withBitPrecision(latitude, longitude, SCORE_BITS).longValue()
+        >>> (64 - SCORE_BITS);
+  }
+
+  /**
+   * Returns the copy in progress, or starts one. At most one copy is made at a time.
+   */
+  Future<?> scheduleSync() {
+    while (true) {
+      Future<?> pending = pendingSync.get();
+      if (pending != null && !pending.isDone()) {
+        return pending;
+      }
+      FutureTask<Void> sync = new FutureTask<>(this::sync, null);
+      if (pendingSync.compareAndSet(pending, sync)) {
+        syncExecutor.execute(sync);
+        return sync;
+      }
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    syncExecutor.shutdownNow();
+  }
+
+  private void sync() {
+    long startTimeInMillis = System.currentTimeMillis();
+    synchronized (syncStateLock) {
+      syncing = true;
+    }
+    Jedis jedis = null;
+    try {
+      jedis = new Jedis(RedisConfiguration.redisHost, redisConfiguration.getRedisPort(),
+          SYNC_TIMEOUT_MILLIS);
+      if (jedis.exists(redisKeys.geoSynced())) {
+        return;
+      }
+      int copied = copy(jedis);
+
+      List<RestaurantEntity> saved;
+      boolean deleted;
+      synchronized (syncStateLock) {
+        syncing = false;
+        saved = new ArrayList<>(savedWhileSyncing.values());
+        deleted = deletedWhileSyncing;
+      }
+      Pipeline pipeline = jedis.pipelined();
+      for (RestaurantEntity restaurant : saved) {
+        writeDetails(pipeline, restaurant);
+        pipeline.zadd(redisKeys.geoIndex(),
+            scoreOf(restaurant.getLatitude(), restaurant.getLongitude()),
+            restaurant.getRestaurantId());
+      }
+      // A restaurant deleted meanwhile may have been copied; the next lookup copies again.
+      if (!deleted) {
+        pipeline.set(redisKeys.geoSynced(), Long.toString(startTimeInMillis));
+      }
+      pipeline.sync();
+      redisConfiguration.reportSuccess();
+      log.info("Copied {} restaurants to Redis in {} ms", copied + saved.size(),
+          System.currentTimeMillis() - startTimeInMillis);
+    } catch (RuntimeException e) {
+      redisConfiguration.reportFailure(e);
+      log.warn("Could not copy the restaurants to Redis", e);
+    } finally {
+      synchronized (syncStateLock) {
+        syncing = false;
+        savedWhileSyncing.clear();
+        deletedWhileSyncing = false;
+      }
+      if (jedis != null) {
+        jedis.close();
+      }
+    }
+  }
+
+  /**
+   * Replaces the copy in Redis with the restaurants of the collection. The sorted set is
+   * written under a new key and renamed over the old one, so lookups never see it half
+   * written; restaurants that are no longer in the collection are removed.
+   * @return the number of restaurants copied
+   */
+  private int copy(Jedis jedis) {
+    List<RestaurantEntity> restaurants = restaurantRepository.findAll();
+    Set<String> removedIds = new HashSet<>(jedis.zrange(redisKeys.geoIndex(), 0, -1));
+    String loadingKey = redisKeys.geoLoadingIndex(UUID.randomUUID().toString());
+
+    Pipeline pipeline = jedis.pipelined();
+    Map<String, Double> scores = new LinkedHashMap<>();
+    int copied = 0;
+    for (RestaurantEntity restaurant : restaurants) {
+      if (!isLocated(restaurant)) {
+        continue;
+      }
+      writeDetails(pipeline, restaurant);
+      scores.put(restaurant.getRestaurantId(),
+          (double) scoreOf(restaurant.getLatitude(), restaurant.getLongitude()));
+      removedIds.remove(restaurant.getRestaurantId());
+      if (scores.size() == SYNC_BATCH_SIZE) {
+        pipeline.zadd(loadingKey, scores);
+        copied += scores.size();
+        scores = new LinkedHashMap<>();
+      }
+    }
+    if (!scores.isEmpty()) {
+      pipeline.zadd(loadingKey, scores);
+      copied += scores.size();
+    }
+
+    if (copied > 0) {
+      pipeline.rename(loadingKey, redisKeys.geoIndex());
+    } else {
+      pipeline.del(redisKeys.geoIndex());
+    }
+    for (String removedId : removedIds) {
+      pipeline.del(redisKeys.geoRestaurant(removedId));
+    }
+    pipeline.sync();
+    return copied;
+  }
+
+  @Override
+  public void onAfterSave(AfterSaveEvent<RestaurantEntity> event) {
+    RestaurantEntity restaurant = event.getSource();
+    if (!isLocated(restaurant)) {
+      return;
+    }
+    synchronized (syncStateLock) {
+      if (syncing) {
+        // The copy being made may rename its geo index over the one written below.
+        savedWhileSyncing.put(restaurant.getRestaurantId(), restaurant);
+      }
+    }
+    if (!redisConfiguration.isCacheAvailable()) {
+      return;
+    }
+    Jedis jedis = null;
+    try {
+      jedis = redisConfiguration.getJedisPool().getResource();
+      Pipeline pipeline = jedis.pipelined();
+      writeDetails(pipeline, restaurant);
+      pipeline.zadd(redisKeys.geoIndex(),
+          scoreOf(restaurant.getLatitude(), restaurant.getLongitude()),
+          restaurant.getRestaurantId());
+      pipeline.sync();
+      redisConfiguration.reportSuccess();
+    } catch (RuntimeException e) {
+      redisConfiguration.reportFailure(e);
+      log.warn("Could not copy restaurant {} to Redis", restaurant.getRestaurantId(), e);
+    } finally {
+      if (jedis != null) {
+        jedis.close();
+      }
+    }
+  }
+
+  /**
+   * The deleted restaurant is not known here, only the query that deleted it, so the next
+   * lookup copies the collection again.
+   */
+  @Override
+  public void onAfterDelete(AfterDeleteEvent<RestaurantEntity> event) {
+    synchronized (syncStateLock) {
+      if (syncing) {
+        deletedWhileSyncing = true;
+      }
+    }
+    if (!redisConfiguration.isCacheAvailable()) {
+      return;
+    }
+    Jedis jedis = null;
+    try {
+      jedis = redisConfiguration.getJedisPool().getResource();
+      jedis.del(redisKeys.geoSynced());
+      redisConfiguration.reportSuccess();
+    } catch (RuntimeException e) {
+      redisConfiguration.reportFailure(e);
+      log.warn("Could not mark the restaurants in Redis as stale", e);
+    } finally {
+      if (jedis != null) {
+        jedis.close();
+      }
+    }
+  }
+
+  private static boolean isLocated(RestaurantEntity restaurant) {
+    return restaurant.getRestaurantId() != null && restaurant.getLatitude() != null
+        && restaurant.getLongitude() != null;
+  }
+
+  private void writeDetails(Pipeline pipeline, RestaurantEntity restaurant) {
+    String key = redisKeys.geoRestaurant(restaurant.getRestaurantId());
+    String[] values = {restaurant.getId(), restaurant.getRestaurantId(), restaurant.getName(),
+        restaurant.getCity(), restaurant.getImageUrl(), restaurant.getLatitude().toString(),
+        restaurant.getLongitude().toString(), restaurant.getOpensAt(),
+        restaurant.getClosesAt(), toJson(restaurant.getAttributes())};
+    // HMSET does not take null values; missing fields read back as null.
+    Map<String, String> hash = new LinkedHashMap<>();
+    for (int i = 0; i < FIELDS.length; i++) {
+      if (values[i] != null) {
+        hash.put(FIELDS[i], values[i]);
+      }
+    }
+    pipeline.del(key);
+    pipeline.hmset(key, hash);
+  }
+
+  /**
+   * The restaurant held by the fields, or null if it is gone.
+   */
+  private RestaurantEntity toRestaurant(List<String> fields) {
+    if (fields.get(1) == null) {
+      return null;
+    }
+    RestaurantEntity restaurant = new RestaurantEntity();
+    restaurant.setId(fields.get(0));
+    restaurant.setRestaurantId(fields.get(1));
+    restaurant.setName(fields.get(2));
+    restaurant.setCity(fields.get(3));
+    restaurant.setImageUrl(fields.get(4));
+    restaurant.setLatitude(Double.valueOf(fields.get(5)));
+    restaurant.setLongitude(Double.valueOf(fields.get(6)));
+    restaurant.setOpensAt(fields.get(7));
+    restaurant.setClosesAt(fields.get(8));
+    restaurant.setAttributes(fromJson(fields.get(9)));
+    return restaurant;
+  }
+
+  private String toJson(List<String> attributes) {
+    if (attributes == null) {
+      return null;
+    }
+    try {
+      return objectMapper.writeValueAsString(attributes);
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not write attributes " + attributes, e);
+    }
+  }
+
+  private List<String> fromJson(String attributes) {
+    if (attributes == null) {
+      return null;
+    }
+    try {
+      return objectMapper.readValue(attributes, new TypeReference<List<String>>() {
+      });
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not read attributes " + attributes, e);
+    }
+  }
+}
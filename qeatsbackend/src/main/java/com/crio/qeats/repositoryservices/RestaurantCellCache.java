@@ -0,0 +1,189 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import ch.hsr.geohash.GeoHash;
+
+import com.crio.qeats.configs.RedisCacheFlushedEvent;
+import com.crio.qeats.configs.RedisConfiguration;
+import com.crio.qeats.configs.RedisKeys;
+import com.crio.qeats.index.RestaurantCatalog;
+import com.crio.qeats.models.RestaurantEntity;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import lombok.extern.log4j.Log4j2;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeDeleteEvent;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.stereotype.Component;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * In-process cache of the restaurants of geohash cells, in front of the cells cached in Redis.
+ * Entries are kept decoded, so a hit costs neither a network round trip nor JSON parsing.
+ * The cache is bounded by weight, where a cell weighs one plus its number of restaurants, which
+ * limits both the number of cells and the number of restaurants held. Cells are admitted and
+ * evicted by frequency (W-TinyLFU), so a burst of one-off lookups does not flush the cells of
+ * busy neighbourhoods. Entries expire after a short time, to pick up changes written to Redis
+ * by other instances.
+ *
+ * <p>When a restaurant is saved or deleted through this service, its cell is dropped here and
+ * in Redis, under the current and the previous key version, so the next lookup loads it again.
+ * A restaurant saved away from its previous location is still served in its previous cell until
+ * that cell is reloaded.
+ */
+@Log4j2
+@Component
+public class RestaurantCellCache extends AbstractMongoEventListener<RestaurantEntity> {
+
+  @Value("${qeats.cache.local.maximum-weight:100000}")
+  private long maximumWeight;
+
+  @Value("${qeats.cache.local.expire-after-write-seconds:60}")
+  private long expireAfterWriteInSeconds;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private RedisConfiguration redisConfiguration;
+
+  @Autowired
+  private RedisKeys redisKeys;
+
+  @Autowired
+  private MongoTemplate mongoTemplate;
+
+  private Cache<String, RestaurantCatalog> cells;
+
+  // Cells of the restaurants this thread is deleting, looked up before the delete.
+  private final ThreadLocal<Set<String>> deletedCells = new ThreadLocal<>();
+
+  @PostConstruct
+  public void initCache() {
+    cells = Caffeine.newBuilder()
+        .maximumWeight(maximumWeight)
+        .weigher((String cell, RestaurantCatalog catalog) -> 1 + catalog.size())
+        .expireAfterWrite(expireAfterWriteInSeconds, TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+    if (meterRegistry != null) {
+      CaffeineCacheMetrics.monitor(meterRegistry, cells, "restaurantCells");
+    }
+  }
+
+  /**
+   * The cached cells among the given ones.
+   */
+  public Map<String, RestaurantCatalog> getAllPresent(Iterable<String> cellKeys) {
+    return cells.getAllPresent(cellKeys);
+  }
+
+  public void putAll(Map<String, RestaurantCatalog> restaurantsByCell) {
+    cells.putAll(restaurantsByCell);
+  }
+
+  @EventListener(RedisCacheFlushedEvent.class)
+  public void invalidateAll() {
+    cells.invalidateAll();
+  }
+
+  @Override
+  public void onAfterSave(AfterSaveEvent<RestaurantEntity> event) {
+    String cell = cellOf(event.getSource());
+    if (cell != null) {
+      evict(Collections.singleton(cell));
+    }
+  }
+
+  @Override
+  public void onBeforeDelete(BeforeDeleteEvent<RestaurantEntity> event) {
+    Document query = event.getDocument();
+    if (query == null) {
+      return;
+    }
+    Set<String> cellsOfRestaurants = new HashSet<>();
+    for (RestaurantEntity restaurant : mongoTemplate.find(
+        new BasicQuery(query, new Document("latitude", 1).append("longitude", 1)),
+        RestaurantEntity.class, event.getCollectionName())) {
+      String cell = cellOf(restaurant);
+      if (cell != null) {
+        cellsOfRestaurants.add(cell);
+      }
+    }
+    deletedCells.set(cellsOfRestaurants);
+  }
+
+  @Override
+  public void onAfterDelete(AfterDeleteEvent<RestaurantEntity> event) {
+    Set<String> cellsOfRestaurants = deletedCells.get();
+    deletedCells.remove();
+    if (cellsOfRestaurants != null && !cellsOfRestaurants.isEmpty()) {
+      evict(cellsOfRestaurants);
+    }
+  }
+
+  /**
+   * Drops the cells here and in Redis. If Redis fails, its copies are reloaded when they age.
+   */
+  private void evict(Collection<String> cellKeys) {
+    cells.invalidateAll(cellKeys);
+    if (!redisConfiguration.isCacheAvailable()) {
+      return;
+    }
+    List<String> keys = new ArrayList<>();
+    for (String cell : cellKeys) {
+      keys.add(redisKeys.cell(cell));
+      keys.add(redisKeys.previousCell(cell));
+    }
+    Jedis jedis = null;
+    try {
+      jedis = redisConfiguration.getJedisPool().getResource();
+      jedis.del(keys.toArray(new String[0]));
+      redisConfiguration.reportSuccess();
+    } catch (RuntimeException e) {
+      redisConfiguration.reportFailure(e);
+      log.warn("Could not drop cells {} from Redis", cellKeys, e);
+    } finally {
+      if (jedis != null) {
+        jedis.close();
+      }
+    }
+  }
+
+  private static String cellOf(RestaurantEntity restaurant) {
+    if (restaurant.getLatitude() == null || restaurant.getLongitude() == null) {
+      return null;
+    }
+    return GeoHash.withCharacterPrecision(restaurant.getLatitude(), restaurant.getLongitude(),
+        RestaurantRepositoryServiceImpl.CACHE_GEOHASH_PRECISION).toBase32();
+  }
+}
@@ -0,0 +1,308 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import com.crio.qeats.index.RestaurantCatalog;
+import com.crio.qeats.models.RestaurantEntity;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Encodes the restaurants of a geohash cell for Redis, as JSON or in a compact binary form.
+ * The first byte of a value tells its format, so values written in any format can be read
+ * whatever format is being written, and the format can be switched without flushing the cache:
+ * <ul>
+ *   <li>'[': JSON array of restaurants, as written before binary values existed.</li>
+ *   <li>{@link #BINARY_V1}: a table of the distinct strings of the cell, then the restaurants,
+ *   each string field being an index into the table. Cities, attributes and opening hours are
+ *   shared by many restaurants, so each is stored once.</li>
+ *   <li>{@link #BINARY_V1_LZ4}: the same, LZ4-compressed, for cells whose binary form is at
+ *   least the configured size.</li>
+ *   <li>{@link #BINARY_V2} and {@link #BINARY_V2_LZ4}: the same as version 1, followed for each
+ *   restaurant by the minutes of the day it opens and closes at, so that a cell read from the
+ *   cache is turned into a {@link RestaurantCatalog} without parsing its hours. Binary values
+ *   are written in this version.</li>
+ * </ul>
+ * The GeoJSON location is left out in every format, as in the JSON representation.
+ */
+@Component
+public class RestaurantCellCodec {
+
+  public static final String JSON_FORMAT = "json";
+  public static final String BINARY_FORMAT = "binary";
+
+  static final byte BINARY_V1 = 1;
+  static final byte BINARY_V1_LZ4 = 2;
+  static final byte BINARY_V2 = 3;
+  static final byte BINARY_V2_LZ4 = 4;
+  private static final byte JSON_ARRAY_START = '[';
+
+  // Guards against allocating for a corrupted length.
+  private static final int MAX_DECODED_BYTES = 64 * 1024 * 1024;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final LZ4Compressor lz4Compressor = LZ4Factory.fastestInstance().fastCompressor();
+  private final LZ4FastDecompressor lz4Decompressor =
+      LZ4Factory.fastestInstance().fastDecompressor();
+
+  // Format written: json or binary.
+  @Value("${qeats.cache.codec:json}")
+  private String format = JSON_FORMAT;
+
+  // Binary values at least this large are compressed; 0 disables compression.
+  @Value("${qeats.cache.codec.lz4-min-bytes:1024}")
+  private int lz4MinBytes = 1024;
+
+  public RestaurantCellCodec() {
+  }
+
+  RestaurantCellCodec(String format, int lz4MinBytes) {
+    this.format = format;
+    this.lz4MinBytes = lz4MinBytes;
+  }
+
+  public byte[] encode(List<RestaurantEntity> restaurants) throws IOException {
+    return encode(RestaurantCatalog.of(restaurants));
+  }
+
+  public byte[] encode(RestaurantCatalog catalog) throws IOException {
+    if (!BINARY_FORMAT.equals(format)) {
+      return objectMapper.writeValueAsBytes(catalog.toList());
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    bytes.write(BINARY_V2);
+    writeBinary(catalog, new DataOutputStream(bytes));
+    byte[] binary = bytes.toByteArray();
+    if (lz4MinBytes <= 0 || binary.length < lz4MinBytes) {
+      return binary;
+    }
+
+    int rawLength = binary.length - 1;
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    compressed.write(BINARY_V2_LZ4);
+    writeVarInt(new DataOutputStream(compressed), rawLength);
+    byte[] block = new byte[lz4Compressor.maxCompressedLength(rawLength)];
+    int blockLength = lz4Compressor.compress(binary, 1, rawLength, block, 0, block.length);
+    compressed.write(block, 0, blockLength);
+    return compressed.toByteArray();
+  }
+
+  /**
+   * Decodes a value in any of the formats.
+   * @throws IOException if the value is not in a known format or is corrupted
+   */
+  public List<RestaurantEntity> decode(byte[] value) throws IOException {
+    return decodeCatalog(value).toList();
+  }
+
+  /**
+   * Decodes a value in any of the formats into a catalog. The hours of values written in
+   * version 2 are not parsed again.
+   * @throws IOException if the value is not in a known format or is corrupted
+   */
+  public RestaurantCatalog decodeCatalog(byte[] value) throws IOException {
+    if (value.length == 0) {
+      throw new IOException("Empty cell value");
+    }
+    switch (value[0]) {
+      case JSON_ARRAY_START:
+        return RestaurantCatalog.of(
+            Arrays.asList(objectMapper.readValue(value, RestaurantEntity[].class)));
+      case BINARY_V1:
+      case BINARY_V2:
+        return readBinary(new DataInputStream(
+            new ByteArrayInputStream(value, 1, value.length - 1)), value[0] == BINARY_V2);
+      case BINARY_V1_LZ4:
+      case BINARY_V2_LZ4:
+        return readBinary(new DataInputStream(new ByteArrayInputStream(decompress(value))),
+            value[0] == BINARY_V2_LZ4);
+      default:
+        throw new IOException("Unknown cell value format " + value[0]);
+    }
+  }
+
+  private byte[] decompress(byte[] value) throws IOException {
+    ByteArrayInputStream bytes = new ByteArrayInputStream(value, 1, value.length - 1);
+    int rawLength = readVarInt(new DataInputStream(bytes));
+    if (rawLength < 0 || rawLength > MAX_DECODED_BYTES) {
+      throw new IOException("Corrupted cell value length " + rawLength);
+    }
+    int blockOffset = value.length - bytes.available();
+    byte[] raw = new byte[rawLength];
+    try {
+      lz4Decompressor.decompress(value, blockOffset, raw, 0, rawLength);
+    } catch (RuntimeException e) {
+      throw new IOException("Corrupted compressed cell value", e);
+    }
+    return raw;
+  }
+
+  private static void writeBinary(RestaurantCatalog catalog, DataOutputStream out)
+      throws IOException {
+    List<RestaurantEntity> restaurants = catalog.toList();
+    // Index 0 stands for null, so string references are the table index plus one.
+    Map<String, Integer> strings = new LinkedHashMap<>();
+    for (RestaurantEntity restaurant : restaurants) {
+      for (String string : stringsOf(restaurant)) {
+        if (string != null) {
+          strings.putIfAbsent(string, strings.size() + 1);
+        }
+      }
+      if (restaurant.getAttributes() != null) {
+        for (String attribute : restaurant.getAttributes()) {
+          if (attribute != null) {
+            strings.putIfAbsent(attribute, strings.size() + 1);
+          }
+        }
+      }
+    }
+
+    writeVarInt(out, strings.size());
+    for (String string : strings.keySet()) {
+      out.writeUTF(string);
+    }
+    writeVarInt(out, restaurants.size());
+    for (int ordinal = 0; ordinal < restaurants.size(); ordinal++) {
+      RestaurantEntity restaurant = restaurants.get(ordinal);
+      for (String string : stringsOf(restaurant)) {
+        writeVarInt(out, string == null ? 0 : strings.get(string));
+      }
+      out.writeDouble(restaurant.getLatitude() == null ? Double.NaN : restaurant.getLatitude());
+      out.writeDouble(
+          restaurant.getLongitude() == null ? Double.NaN : restaurant.getLongitude());
+      List<String> attributes = restaurant.getAttributes();
+      writeVarInt(out, attributes == null ? 0 : attributes.size() + 1);
+      if (attributes != null) {
+        for (String attribute : attributes) {
+          writeVarInt(out, attribute == null ? 0 : strings.get(attribute));
+        }
+      }
+      // Unknown minutes are -1, so are written plus one.
+      writeVarInt(out, catalog.getOpensAtMinute(ordinal) + 1);
+      writeVarInt(out, catalog.getClosesAtMinute(ordinal) + 1);
+    }
+    out.flush();
+  }
+
+  /**
+   * @param withMinutes whether the value is in version 2, with the minutes of the hours
+   */
+  private static RestaurantCatalog readBinary(DataInputStream in, boolean withMinutes)
+      throws IOException {
+    int stringCount = readVarInt(in);
+    String[] strings = new String[stringCount + 1];
+    for (int i = 1; i <= stringCount; i++) {
+      strings[i] = in.readUTF();
+    }
+    int restaurantCount = readVarInt(in);
+    List<RestaurantEntity> restaurants = new ArrayList<>(Math.min(restaurantCount, 1024));
+    int[] opensAtMinutes = withMinutes ? new int[Math.min(restaurantCount, 1024)] : null;
+    int[] closesAtMinutes = withMinutes ? new int[opensAtMinutes.length] : null;
+    for (int i = 0; i < restaurantCount; i++) {
+      RestaurantEntity restaurant = new RestaurantEntity();
+      restaurant.setId(readString(in, strings));
+      restaurant.setRestaurantId(readString(in, strings));
+      restaurant.setName(readString(in, strings));
+      restaurant.setCity(readString(in, strings));
+      restaurant.setImageUrl(readString(in, strings));
+      restaurant.setOpensAt(readString(in, strings));
+      restaurant.setClosesAt(readString(in, strings));
+      restaurant.setLatitude(readDouble(in));
+      restaurant.setLongitude(readDouble(in));
+      int attributeCount = readVarInt(in) - 1;
+      if (attributeCount < 0) {
+        restaurant.setAttributes(null);
+      } else {
+        List<String> attributes = new ArrayList<>(Math.min(attributeCount, 64));
+        for (int j = 0; j < attributeCount; j++) {
+          attributes.add(readString(in, strings));
+        }
+        restaurant.setAttributes(attributes);
+      }
+      if (withMinutes) {
+        if (i == opensAtMinutes.length) {
+          opensAtMinutes = Arrays.copyOf(opensAtMinutes, 2 * i);
+          closesAtMinutes = Arrays.copyOf(closesAtMinutes, 2 * i);
+        }
+        opensAtMinutes[i] = readMinuteOfDay(in);
+        closesAtMinutes[i] = readMinuteOfDay(in);
+      }
+      restaurants.add(restaurant);
+    }
+    return withMinutes
+        ? RestaurantCatalog.of(restaurants, Arrays.copyOf(opensAtMinutes, restaurantCount),
+            Arrays.copyOf(closesAtMinutes, restaurantCount))
+        : RestaurantCatalog.of(restaurants);
+  }
+
+  // The string fields, in the order they are written.
+  private static String[] stringsOf(RestaurantEntity restaurant) {
+    return new String[] {restaurant.getId(), restaurant.getRestaurantId(), restaurant.getName(),
+        restaurant.getCity(), restaurant.getImageUrl(), restaurant.getOpensAt(),
+        restaurant.getClosesAt()};
+  }
+
+  private static String readString(DataInputStream in, String[] strings) throws IOException {
+    int reference = readVarInt(in);
+    if (reference < 0 || reference >= strings.length) {
+      throw new IOException("Corrupted string reference " + reference);
+    }
+    return strings[reference];
+  }
+
+  private static int readMinuteOfDay(DataInputStream in) throws IOException {
+    int minuteOfDay = readVarInt(in) - 1;
+    if (minuteOfDay < RestaurantCatalog.UNKNOWN_MINUTE_OF_DAY || minuteOfDay >= 24 * 60) {
+      throw new IOException("Corrupted minute of day " + minuteOfDay);
+    }
+    return minuteOfDay;
+  }
+
+  private static Double readDouble(DataInputStream in) throws IOException {
+    double value = in.readDouble();
+    return Double.isNaN(value) ? null : value;
+  }
+
+  // Unsigned LEB128: 7 bits per byte, low bits first.
+  private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static int readVarInt(DataInputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Corrupted variable-length integer");
+  }
+}
@@ -7,9 +7,12 @@
 package com.crio.qeats.repositoryservices;
 
 import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.utils.DistanceCursor;
+import com.crio.qeats.utils.GeoLocation;
 import java.time.LocalTime;
 import java.util.List;
 import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import org.springframework.scheduling.annotation.Async;
 
 public interface RestaurantRepositoryService {
@@ -28,6 +31,29 @@ public interface RestaurantRepositoryService {
   List<Restaurant> findAllRestaurantsCloseBy(Double latitude, Double longitude,
       LocalTime currentTime, Double servingRadiusInKms);
 
+  /**
+   * Batch form of {@link #findAllRestaurantsCloseBy(Double, Double, LocalTime, Double)}.
+   * Locations that share geohash cells share the lookup of those cells, so the restaurants of
+   * every cell are read at most once per batch.
+   * @param locations valid lat/longs
+   * @param consumer receives the list of open restaurants of each location, in the order of
+   *     the locations, as soon as it is ready
+   */
+  void findAllRestaurantsCloseBy(List<GeoLocation> locations, LocalTime currentTime,
+      Double servingRadiusInKms, Consumer<List<Restaurant>> consumer);
+
+  /**
+   * Get a page of the open restaurants within the serving radius, closest first.
+   * Restaurants at the same distance are ordered by restaurantId.
+   * Only the restaurants of the page are mapped to DTOs.
+   * @param limit maximum number of restaurants to return
+   * @param after position of the last restaurant of the previous page, or null for the first
+   *     page
+   * @return up to limit restaurants that come after the cursor
+   */
+  List<Restaurant> findRestaurantsCloseByOrderedByDistance(Double latitude, Double longitude,
+      LocalTime currentTime, Double servingRadiusInKms, int limit, DistanceCursor after);
+
 
   /**
    * Get the list of open restaurants within the specified serving radius.
@@ -65,6 +91,16 @@ public interface RestaurantRepositoryService {
   List<Restaurant> findRestaurantsByItemAttributes(Double latitude, Double longitude,
       String searchString, LocalTime currentTime, Double servingRadiusInKms);
 
+  /**
+   * Get the list of open restaurants within the specified serving radius that match the search
+   * string by name (exact matches first), attributes, item names or item attributes, in that
+   * order, each restaurant once.
+   * @param searchString Query string for restaurants
+   * @return list of restaurants
+   */
+  List<Restaurant> findRestaurantsBySearchString(Double latitude, Double longitude,
+      String searchString, LocalTime currentTime, Double servingRadiusInKms);
+
 }
 
 
@@ -2,14 +2,20 @@
 package com.crio.qeats.repositoryservices;
 
 import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.utils.DistanceCursor;
 import com.crio.qeats.utils.FixtureHelpers;
+import com.crio.qeats.utils.GeoLocation;
+import com.crio.qeats.utils.GeoUtils;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import org.springframework.stereotype.Component;
 
@@ -49,7 +55,31 @@ public class RestaurantRepositoryServiceDummyImpl implements RestaurantRepositor
     return restaurantList;
   }
 
+  @Override
+  public void findAllRestaurantsCloseBy(List<GeoLocation> locations, LocalTime currentTime,
+      Double servingRadiusInKms, Consumer<List<Restaurant>> consumer) {
+    for (GeoLocation location : locations) {
+      consumer.accept(findAllRestaurantsCloseBy(location.getLatitude(), location.getLongitude(),
+          currentTime, servingRadiusInKms));
+    }
+  }
 
+  @Override
+  public List<Restaurant> findRestaurantsCloseByOrderedByDistance(Double latitude,
+      Double longitude, LocalTime currentTime, Double servingRadiusInKms, int limit,
+      DistanceCursor after) {
+    Comparator<Restaurant> byDistance = Comparator.comparing(restaurant -> new DistanceCursor(
+        GeoUtils.findDistanceInKm(latitude, longitude, restaurant.getLatitude(),
+            restaurant.getLongitude()), restaurant.getRestaurantId()), DistanceCursor.ORDER);
+    return findAllRestaurantsCloseBy(latitude, longitude, currentTime, servingRadiusInKms)
+        .stream()
+        .sorted(byDistance)
+        .filter(restaurant -> after == null || after.isBefore(GeoUtils.findDistanceInKm(
+            latitude, longitude, restaurant.getLatitude(), restaurant.getLongitude()),
+            restaurant.getRestaurantId()))
+        .limit(limit)
+        .collect(Collectors.toList());
+  }
 
   public List<Restaurant> findRestaurantsByName(Double latitude, Double longitude,
       String searchString, LocalTime currentTime, Double servingRadiusInKms) {
@@ -72,6 +102,11 @@ public class RestaurantRepositoryServiceDummyImpl implements RestaurantRepositor
     return null;
   }
 
+  public List<Restaurant> findRestaurantsBySearchString(Double latitude, Double longitude,
+      String searchString, LocalTime currentTime, Double servingRadiusInKms) {
+    return null;
+  }
+
 
 }
 
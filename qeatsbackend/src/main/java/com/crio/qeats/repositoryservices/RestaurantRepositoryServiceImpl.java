@@ -9,138 +9,867 @@ package com.crio.qeats.repositoryservices;
 import ch.hsr.geohash.GeoHash;
 
 import com.crio.qeats.configs.RedisConfiguration;
+import com.crio.qeats.configs.RedisKeys;
+import com.crio.qeats.configs.RestaurantLocationMigration;
 import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.index.OpenNowIndex;
+import com.crio.qeats.index.RestaurantCatalog;
+import com.crio.qeats.index.RestaurantIndexHolder;
+import com.crio.qeats.index.RestaurantIndexHolder.Snapshot;
+import com.crio.qeats.index.RestaurantSearchIndex;
+import com.crio.qeats.index.RestaurantSearchIndexHolder;
 import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.models.RestaurantSearchEntity;
 import com.crio.qeats.repositories.RestaurantRepository;
+import com.crio.qeats.repositories.RestaurantSearchRepository;
+import com.crio.qeats.repositoryservices.RankedRestaurantMerger.Tier;
+import com.crio.qeats.utils.DistanceCursor;
+import com.crio.qeats.utils.GeoHashUtils;
+import com.crio.qeats.utils.GeoHashUtils.CoveringCell;
+import com.crio.qeats.utils.GeoLocation;
 import com.crio.qeats.utils.GeoUtils;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.crio.qeats.utils.GeoUtils.RadiusFilter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 
 import java.io.IOException;
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Provider;
 
 import lombok.extern.log4j.Log4j2;
 
 import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Service;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.util.SafeEncoder;
 
 @Log4j2
 @Service
 @Primary
+@Profile("!" + RestaurantRepositoryServiceKdTreeImpl.KD_TREE_PROFILE
+    + " & !" + RestaurantRepositoryServiceRedisGeoImpl.REDIS_GEO_PROFILE)
 public class RestaurantRepositoryServiceImpl implements RestaurantRepositoryService {
 
+  static final String SEARCH_INDEX_SOURCE = "index";
+
+  // Precision 6 cells are about 1.2 km x 0.6 km, so a 5 km circle is covered by ~150 cells.
+  static final int CACHE_GEOHASH_PRECISION = 6;
+
+  static final Comparator<RestaurantEntity> BY_ID =
+      Comparator.comparing(RestaurantEntity::getId, Comparator.nullsLast(String::compareTo));
+
+  // How often a cell leased by another instance is looked up again while waiting for it.
+  private static final long CELL_LEASE_POLL_INTERVAL_IN_MILLIS = 20;
+
+  private final SingleFlight<RestaurantCatalog> cellLoads =
+      new SingleFlight<>(count -> this.coalescedCellLoads.increment(count));
+
+  // Cells queued or being reloaded or copied in the background, so each is updated once at a
+  // time.
+  private final Set<String> refreshingCells = ConcurrentHashMap.newKeySet();
+
+  @Autowired
+  protected RedisConfiguration redisConfiguration;
+
   @Autowired
-  private RedisConfiguration redisConfiguration;
+  private RedisKeys redisKeys;
 
   @Autowired
   private MongoTemplate mongoTemplate;
 
   @Autowired
-  private Provider<ModelMapper> modelMapperProvider;
+  protected Provider<ModelMapper> modelMapperProvider;
 
   @Autowired
   private RestaurantRepository restaurantRepository;
 
-  private boolean isOpenNow(LocalTime time, RestaurantEntity res) {
-    LocalTime openingTime = LocalTime.parse(res.getOpensAt());
-    LocalTime closingTime = LocalTime.parse(res.getClosesAt());
+  @Autowired
+  private RestaurantSearchRepository restaurantSearchRepository;
 
-    return time.isAfter(openingTime) && time.isBefore(closingTime);
+  @Autowired
+  protected RestaurantIndexHolder restaurantIndexHolder;
+
+  @Autowired
+  private RestaurantSearchIndexHolder restaurantSearchIndexHolder;
+
+  @Autowired
+  private RestaurantSearchAggregation restaurantSearchAggregation;
+
+  @Autowired
+  private RestaurantCellCache restaurantCellCache;
+
+  @Autowired
+  private RestaurantCellCodec restaurantCellCodec;
+
+  @Autowired
+  private RestaurantResultCache restaurantResultCache;
+
+  // Where nearby candidates come from: "index" (in-memory geohash index) or "mongo-geo"
+  // ($geoWithin on the 2dsphere index).
+  @Value("${qeats.nearby.source:index}")
+  private String nearbySource;
+
+  // Where search results come from: "mongo" (regex queries), "mongo-facet" (one aggregation
+  // for every kind of match) or "index" (in-memory inverted index).
+  @Value("${qeats.search.source:mongo}")
+  private String searchSource;
+
+  // Lease taken in Redis on a missing cell, so that only one instance loads it; 0 disables it.
+  @Value("${qeats.cache.cell-lease-millis:0}")
+  private long cellLeaseMillis;
+
+  // Cells read in the last fraction of their time to live are reloaded in the background;
+  // 0 disables it.
+  @Value("${qeats.cache.refresh-ahead-fraction:0.2}")
+  private double refreshAheadFraction;
+
+  // How long cells are kept in Redis past their time to live, served while they are reloaded
+  // in the background or while they cannot be reloaded; 0 disables it.
+  @Value("${qeats.cache.stale-seconds:600}")
+  private long staleSeconds;
+
+  // Cells missing under the current key version are read under the previous one, and copied
+  // to the current one in the background. Turn off once the previous version is gone.
+  @Value("${qeats.cache.read-previous-version:true}")
+  private boolean readPreviousVersion;
+
+  @Value("${qeats.cache.refresh.threads:2}")
+  private int refreshThreads;
+
+  // Reloads beyond this many waiting are dropped; the cells are reloaded on a later read.
+  @Value("${qeats.cache.refresh.queue-size:64}")
+  private int refreshQueueSize;
+
+  private ThreadPoolExecutor refreshExecutor;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
+  private Counter databaseCellLoads;
+  private Counter coalescedCellLoads;
+  private Counter cellLeaseWaits;
+  private Counter cellRefreshes;
+  private Counter staleCellReads;
+  private Counter previousVersionCellReads;
+
+  @PostConstruct
+  public void initMetrics() {
+    MeterRegistry registry = meterRegistry != null ? meterRegistry : Metrics.globalRegistry;
+    databaseCellLoads = Counter.builder("qeats.cache.cell.loads")
+        .description("Geohash cells loaded from the database")
+        .register(registry);
+    coalescedCellLoads = Counter.builder("qeats.cache.cell.coalesced")
+        .description("Cache misses that waited for a load of the same cell by another request")
+        .register(registry);
+    cellLeaseWaits = Counter.builder("qeats.cache.cell.lease.waits")
+        .description("Cache misses that waited for a load of the same cell by another instance")
+        .register(registry);
+    cellRefreshes = Counter.builder("qeats.cache.cell.refreshes")
+        .description("Geohash cells reloaded in the background before or after they expired")
+        .register(registry);
+    staleCellReads = Counter.builder("qeats.cache.cell.stale")
+        .description("Geohash cells served past their time to live")
+        .register(registry);
+    previousVersionCellReads = Counter.builder("qeats.cache.cell.previous-version")
+        .description("Geohash cells served from the previous version of their key")
+        .register(registry);
+  }
+
+  @PostConstruct
+  public void initRefreshExecutor() {
+    refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 0,
+        TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Math.max(1, refreshQueueSize)),
+        runnable -> {
+          Thread thread = new Thread(runnable, "restaurant-cell-refresh");
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  @PreDestroy
+  public void shutdownRefreshExecutor() {
+    refreshExecutor.shutdownNow();
+  }
+
+  private boolean isOpenNow(LocalTime time, RestaurantEntity res) {
+    // Answer from the "open now" index when it is built and holds the restaurant with the same
+    // hours, so nothing is parsed per request.
+    OpenNowIndex openNowIndex = restaurantIndexHolder.findOpenNowIndex();
+    if (openNowIndex == null) {
+      return RestaurantCatalog.isOpenAt(res.getOpensAt(), res.getClosesAt(), time);
+    }
+    RestaurantCatalog catalog = openNowIndex.getCatalog();
+    int ordinal = catalog.ordinalOf(res.getRestaurantId());
+    if (ordinal >= 0
+        && Objects.equals(catalog.get(ordinal).getOpensAt(), res.getOpensAt())
+        && Objects.equals(catalog.get(ordinal).getClosesAt(), res.getClosesAt())) {
+      return openNowIndex.isOpen(ordinal, time);
+    }
+    return RestaurantCatalog.isOpenAt(res.getOpensAt(), res.getClosesAt(), time);
   }
 
   private List<RestaurantEntity> getAllrestaurantsFromDb(Double latitude,
       Double longitude, Double servingRadiusInKms) {
-   
-    return restaurantRepository.findAll();
+    return restaurantRepository.findRestaurantsWithinSphere(latitude, longitude,
+        servingRadiusInKms / GeoUtils.EARTH_RADIUS_IN_KMS);
   }
 
-  // TODO: CRIO_TASK_MODULE_NOSQL
-  // Objectives:
-  // 1. Implement findAllRestaurantsCloseby.
-  // 2. Remember to keep the precision of GeoHash in mind while using it as a key.
-  // Check RestaurantRepositoryService.java file for the interface contract.
-  public List<Restaurant> findAllRestaurantsCloseBy(Double latitude,
-      Double longitude, LocalTime currentTime, Double servingRadiusInKms) {
+  /**
+   * Whether nearby lookups are answered from the in-memory indexes. They are up to date with
+   * the saves made through this service and answer in microseconds, so the cell caches are
+   * not used in front of them.
+   */
+  private boolean isIndexSource() {
+    return !RestaurantLocationMigration.MONGO_GEO_SOURCE.equals(nearbySource);
+  }
+
+  /**
+   * Loads the restaurants of the given cells with a single database query.
+   * Every cell intersects the serving circle, so all of its restaurants lie within the serving
+   * radius plus one cell diagonal. Cells without restaurants map to an empty list.
+   */
+  private Map<String, List<RestaurantEntity>> getRestaurantsByCellFromDb(Double latitude,
+      Double longitude, Double servingRadiusInKms, List<String> cells) {
+    databaseCellLoads.increment(cells.size());
+    Map<String, List<RestaurantEntity>> restaurantsByCell = new LinkedHashMap<>();
+    for (String cell : cells) {
+      restaurantsByCell.put(cell, new ArrayList<>());
+    }
 
-    // CHECKSTYLE:OFF
-    
-    // TODO: CRIO_TASK_MODULE_REDIS
-    // We want to use cache to speed things up. Write methods that perform the same functionality,
-    // but using the cache if it is present and reachable.
-    // Remember, you must ensure that if cache is not present, the queries are directed at the
-    // database instead.
+    double radiusInKms =
+        servingRadiusInKms + GeoHashUtils.cellDiagonalInKms(CACHE_GEOHASH_PRECISION);
+    for (RestaurantEntity restaurant
+        : getAllrestaurantsFromDb(latitude, longitude, radiusInKms)) {
+      List<RestaurantEntity> cellRestaurants = restaurantsByCell.get(
+          GeoHash.withCharacterPrecision(restaurant.getLatitude(), restaurant.getLongitude(),
+              CACHE_GEOHASH_PRECISION).toBase32());
+      if (cellRestaurants != null) {
+        cellRestaurants.add(restaurant);
+      }
+    }
+    return restaurantsByCell;
+  }
 
-    List<RestaurantEntity> allRestaurants = new ArrayList<RestaurantEntity>();
+  /**
+   * Restaurants of the given cells. Cells held by the in-process cache are served from it,
+   * already decoded; the others are read through Redis and then kept in-process.
+   * Concurrent requests that miss the same cell share one read, so an expired hot cell is
+   * loaded once rather than once per request.
+   */
+  private Map<String, RestaurantCatalog> getRestaurantsByCell(List<String> cells,
+      Function<List<String>, Map<String, List<RestaurantEntity>>> loader) {
+    Map<String, RestaurantCatalog> restaurantsByCell =
+        new LinkedHashMap<>(restaurantCellCache.getAllPresent(cells));
+    List<String> remoteCells = missingFrom(cells, restaurantsByCell);
+    if (!remoteCells.isEmpty()) {
+      restaurantsByCell.putAll(cellLoads.load(remoteCells, cellsToFetch -> {
+        // A read that completed since the lookup above has filled the in-process cache.
+        Map<String, RestaurantCatalog> fetchedCells =
+            new LinkedHashMap<>(restaurantCellCache.getAllPresent(cellsToFetch));
+        List<String> missingCells = missingFrom(cellsToFetch, fetchedCells);
+        if (!missingCells.isEmpty()) {
+          Map<String, RestaurantCatalog> redisCells =
+              getRestaurantsByCellFromRedis(missingCells, loader);
+          restaurantCellCache.putAll(redisCells);
+          fetchedCells.putAll(redisCells);
+        }
+        return fetchedCells;
+      }));
+    }
+    return restaurantsByCell;
+  }
+
+  private static List<String> missingFrom(List<String> cells,
+      Map<String, RestaurantCatalog> restaurantsByCell) {
+    List<String> missingCells = new ArrayList<>();
+    for (String cell : cells) {
+      if (!restaurantsByCell.containsKey(cell)) {
+        missingCells.add(cell);
+      }
+    }
+    return missingCells;
+  }
+
+  /**
+   * Restaurants of the given cells, read from Redis with one MGET. Cells missing from Redis
+   * are loaded from the database together, with the loader, and written back with one
+   * pipeline. With leases enabled, cells that another instance is loading are waited for
+   * instead. Cells close to or past their time to live are served as they are and reloaded in
+   * the background. Cells missing under the current key version may be served from the
+   * previous one. If Redis fails, the cells read so far are kept and the others are loaded
+   * from the database. A failure of the loader is thrown: nothing else can load the cells.
+   */
+  private Map<String, RestaurantCatalog> getRestaurantsByCellFromRedis(List<String> cells,
+      Function<List<String>, Map<String, List<RestaurantEntity>>> loader) {
+    if (!redisConfiguration.isCacheAvailable()) {
+      return toCatalogs(loader.apply(cells));
+    }
+
+    Map<String, RestaurantCatalog> restaurantsByCell = new LinkedHashMap<>();
     Jedis jedis = null;
     try {
-      jedis = redisConfiguration.getJedisPool().getResource();
-      GeoHash geoHash = GeoHash.withCharacterPrecision(latitude, longitude, 7);
-      log.info("aakash jedis.get(geoHash.toBase32() hai = {}", jedis.get(geoHash.toBase32()));
-      if (jedis.get(geoHash.toBase32()) != null) {
-        String cachedResponse = jedis.get(geoHash.toBase32());
-        log.info("this is my cached response: {}", cachedResponse);
+      List<String> missingCells;
+      try {
+        jedis = redisConfiguration.getJedisPool().getResource();
+        missingCells = readCells(jedis, cells, restaurantsByCell, loader);
+        redisConfiguration.reportSuccess();
+      } catch (RuntimeException e) {
+        redisConfiguration.reportFailure(e);
+        log.warn("Cache unavailable, loading restaurants from the database", e);
+        missingCells = missingFrom(cells, restaurantsByCell);
+        if (jedis != null) {
+          jedis.close();
+          jedis = null;
+        }
+      }
+      if (missingCells.isEmpty()) {
+        return restaurantsByCell;
+      }
+
+      Map<String, RestaurantCatalog> loadedCells = toCatalogs(loader.apply(missingCells));
+      restaurantsByCell.putAll(loadedCells);
+      if (jedis != null) {
         try {
-          allRestaurants = Arrays.asList(new ObjectMapper().readValue(cachedResponse, RestaurantEntity[].class));
-        } catch (IOException e) {
-          // TODO Auto-generated catch block
-          e.printStackTrace();
-          log.info("aakashIOException: " + e.getMessage());
-          allRestaurants = getAllrestaurantsFromDb(latitude, longitude, 5.0);
-          try {
-            jedis.setex(geoHash.toBase32(),
-            RedisConfiguration.REDIS_ENTRY_EXPIRY_IN_SECONDS,
-            new ObjectMapper().writeValueAsString(allRestaurants));
-          } catch (JsonProcessingException jsonParsingException) {
-            // TODO Auto-generated catch block
-            jsonParsingException.printStackTrace();
-            log.info("aakashJsonProcessingException: " + jsonParsingException.getMessage());
+          writeCells(jedis, loadedCells);
+        } catch (RuntimeException e) {
+          redisConfiguration.reportFailure(e);
+          log.warn("Could not cache cells {}", loadedCells.keySet(), e);
+        }
+      }
+      return restaurantsByCell;
+    } finally {
+      if (jedis != null) {
+        jedis.close();
+      }
+    }
+  }
+
+  /**
+   * Reads the cached cells into restaurantsByCell, and queues the reload of the aging ones.
+   * @return the cells to load from the database
+   */
+  private List<String> readCells(Jedis jedis, List<String> cells,
+      Map<String, RestaurantCatalog> restaurantsByCell,
+      Function<List<String>, Map<String, List<RestaurantEntity>>> loader) {
+    Pipeline pipeline = jedis.pipelined();
+    Response<List<byte[]>> cachedCells = pipeline.mget(toKeys(cells, redisKeys::cell));
+    List<Response<Long>> timesToLive = new ArrayList<>();
+    for (String cell : cells) {
+      timesToLive.add(pipeline.pttl(redisKeys.cell(cell)));
+    }
+    pipeline.sync();
+    List<String> missingCells = decodeCells(cells, cachedCells.get(), restaurantsByCell);
+    refreshAgingCells(restaurantsByCell.keySet(), cells, timesToLive, loader);
+    if (!missingCells.isEmpty() && readPreviousVersion && RedisKeys.CELL_VERSION > 1) {
+      missingCells = readPreviousVersionCells(jedis, missingCells, restaurantsByCell);
+    }
+    if (!missingCells.isEmpty() && cellLeaseMillis > 0) {
+      missingCells = leaseOrAwaitCells(jedis, missingCells, restaurantsByCell);
+    }
+    return missingCells;
+  }
+
+  /**
+   * Writes the cells to Redis with one pipeline. They are kept for their time to live plus
+   * the time they may be served stale.
+   */
+  private void writeCells(Jedis jedis, Map<String, RestaurantCatalog> restaurantsByCell) {
+    int expiryInSeconds = (int) (RedisConfiguration.REDIS_ENTRY_EXPIRY_IN_SECONDS + staleSeconds);
+    Pipeline pipeline = jedis.pipelined();
+    for (Map.Entry<String, RestaurantCatalog> cell : restaurantsByCell.entrySet()) {
+      try {
+        pipeline.setex(SafeEncoder.encode(redisKeys.cell(cell.getKey())), expiryInSeconds,
+            restaurantCellCodec.encode(cell.getValue()));
+      } catch (IOException e) {
+        log.warn("Not caching cell {}", cell.getKey(), e);
+      }
+    }
+    pipeline.sync();
+  }
+
+  /**
+   * Reloads in the background the cached cells that are in the last part of their time to
+   * live, or past it and served stale.
+   * @param timesToLive remaining time to live in Redis of each cell, in milliseconds
+   */
+  private void refreshAgingCells(Set<String> cachedCells, List<String> cells,
+      List<Response<Long>> timesToLive,
+      Function<List<String>, Map<String, List<RestaurantEntity>>> loader) {
+    long refreshAheadMillis = (long) (refreshAheadFraction
+        * TimeUnit.SECONDS.toMillis(RedisConfiguration.REDIS_ENTRY_EXPIRY_IN_SECONDS));
+    long staleMillis = TimeUnit.SECONDS.toMillis(staleSeconds);
+    List<String> agingCells = new ArrayList<>();
+    for (int i = 0; i < cells.size(); i++) {
+      Long timeToLive = timesToLive.get(i).get();
+      if (!cachedCells.contains(cells.get(i)) || timeToLive == null || timeToLive < 0) {
+        continue;
+      }
+      long freshMillis = timeToLive - staleMillis;
+      if (freshMillis <= 0) {
+        staleCellReads.increment();
+        agingCells.add(cells.get(i));
+      } else if (freshMillis < refreshAheadMillis) {
+        agingCells.add(cells.get(i));
+      }
+    }
+    if (!agingCells.isEmpty()) {
+      refreshCellsInBackground(agingCells, loader);
+    }
+  }
+
+  /**
+   * Queues a reload of the cells that are not being updated already. The reload replaces them
+   * in Redis and in the in-process cache; if it fails, the cached cells are kept.
+   */
+  private void refreshCellsInBackground(List<String> cells,
+      Function<List<String>, Map<String, List<RestaurantEntity>>> loader) {
+    updateCellsInBackground(cells, claimedCells -> refreshCells(claimedCells, loader));
+  }
+
+  /**
+   * Queues an update of the cells that are not being updated already. Updates beyond the
+   * capacity of the queue are dropped, and so are all of them while Redis is not in use.
+   */
+  private void updateCellsInBackground(Collection<String> cells,
+      Consumer<List<String>> update) {
+    if (!redisConfiguration.isCacheInUse()) {
+      return;
+    }
+    List<String> claimedCells = new ArrayList<>();
+    for (String cell : cells) {
+      if (refreshingCells.add(cell)) {
+        claimedCells.add(cell);
+      }
+    }
+    if (claimedCells.isEmpty()) {
+      return;
+    }
+    try {
+      refreshExecutor.execute(() -> {
+        try {
+          update.accept(claimedCells);
+        } catch (RuntimeException e) {
+          redisConfiguration.reportFailure(e);
+          log.warn("Failed to update cells {} in the background", claimedCells, e);
+        } finally {
+          refreshingCells.removeAll(claimedCells);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      refreshingCells.removeAll(claimedCells);
+    }
+  }
+
+  private void refreshCells(List<String> cells,
+      Function<List<String>, Map<String, List<RestaurantEntity>>> loader) {
+    Jedis jedis = null;
+    try {
+      jedis = redisConfiguration.getJedisPool().getResource();
+      List<String> leasedCells = cells;
+      if (cellLeaseMillis > 0) {
+        // Leave cells that another instance is reloading to it.
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<String>> leases = new ArrayList<>();
+        for (String cell : cells) {
+          leases.add(pipeline.set(redisKeys.cellLease(cell), "1", "NX", "PX", cellLeaseMillis));
+        }
+        pipeline.sync();
+        leasedCells = new ArrayList<>();
+        for (int i = 0; i < cells.size(); i++) {
+          if ("OK".equals(leases.get(i).get())) {
+            leasedCells.add(cells.get(i));
           }
         }
-      } else {
-        allRestaurants = getAllrestaurantsFromDb(latitude, longitude, 5.0);
+      }
+      if (leasedCells.isEmpty()) {
+        return;
+      }
+      Map<String, RestaurantCatalog> loadedCells = toCatalogs(loader.apply(leasedCells));
+      writeCells(jedis, loadedCells);
+      restaurantCellCache.putAll(loadedCells);
+      cellRefreshes.increment(loadedCells.size());
+    } finally {
+      if (jedis != null) {
+        jedis.close();
+      }
+    }
+  }
+
+  /**
+   * Reads the cells that are missing under the current key version under the previous one,
+   * into restaurantsByCell, so that a release that bumps the version starts from the cells the
+   * previous release cached. The cells found are copied, re-encoded, under the current key in
+   * the background, for the time they had left.
+   * @return the cells that are missing under both versions, or cannot be decoded
+   */
+  private List<String> readPreviousVersionCells(Jedis jedis, List<String> missingCells,
+      Map<String, RestaurantCatalog> restaurantsByCell) {
+    Pipeline pipeline = jedis.pipelined();
+    Response<List<byte[]>> previousCells =
+        pipeline.mget(toKeys(missingCells, redisKeys::previousCell));
+    List<Response<Long>> timesToLive = new ArrayList<>();
+    for (String cell : missingCells) {
+      timesToLive.add(pipeline.pttl(redisKeys.previousCell(cell)));
+    }
+    pipeline.sync();
+
+    Map<String, RestaurantCatalog> previousVersionCells = new LinkedHashMap<>();
+    List<String> stillMissingCells =
+        decodeCells(missingCells, previousCells.get(), previousVersionCells);
+    if (previousVersionCells.isEmpty()) {
+      return stillMissingCells;
+    }
+    previousVersionCellReads.increment(previousVersionCells.size());
+    restaurantsByCell.putAll(previousVersionCells);
+
+    Map<String, Long> timesToLiveByCell = new HashMap<>();
+    for (int i = 0; i < missingCells.size(); i++) {
+      Long timeToLive = timesToLive.get(i).get();
+      if (previousVersionCells.containsKey(missingCells.get(i))
+          && timeToLive != null && timeToLive > 0) {
+        timesToLiveByCell.put(missingCells.get(i), timeToLive);
+      }
+    }
+    updateCellsInBackground(timesToLiveByCell.keySet(), claimedCells ->
+        copyCells(claimedCells, previousVersionCells, timesToLiveByCell));
+    return stillMissingCells;
+  }
+
+  /**
+   * Writes the cells under their current key, unless the key was written meanwhile.
+   * @param timesToLive in milliseconds
+   */
+  private void copyCells(List<String> cells, Map<String, RestaurantCatalog> restaurantsByCell,
+      Map<String, Long> timesToLive) {
+    Jedis jedis = null;
+    try {
+      jedis = redisConfiguration.getJedisPool().getResource();
+      Pipeline pipeline = jedis.pipelined();
+      for (String cell : cells) {
         try {
-          jedis.setex(geoHash.toBase32(),
-          RedisConfiguration.REDIS_ENTRY_EXPIRY_IN_SECONDS,
-          new ObjectMapper().writeValueAsString(allRestaurants));
-        } catch (JsonProcessingException e) {
-          // TODO Auto-generated catch block
-          e.printStackTrace();
-          log.info("aakashJsonProcessingException: " + e.getMessage());
+          pipeline.set(SafeEncoder.encode(redisKeys.cell(cell)),
+              restaurantCellCodec.encode(restaurantsByCell.get(cell)),
+              SafeEncoder.encode("NX"), SafeEncoder.encode("PX"), timesToLive.get(cell));
+        } catch (IOException e) {
+          log.warn("Not copying cell {}", cell, e);
         }
       }
-      // //CHECKSTYLE:ON
-    } catch (RuntimeException e) {
-      e.printStackTrace();
-      allRestaurants = getAllrestaurantsFromDb(latitude, longitude, 5.0);
-      // throw new RuntimeException("aakash" + e.getMessage());
+      pipeline.sync();
     } finally {
       if (jedis != null) {
-        redisConfiguration.getJedisPool().returnResource(jedis);
-        jedis = null;
+        jedis.close();
       }
     }
-    log.info("allrestaurants size: {}", allRestaurants.size());
-    List<Restaurant> restaurants = allRestaurants.stream().filter(restaurant -> {
-      return isRestaurantCloseByAndOpen(restaurant,
-          currentTime, latitude, longitude, servingRadiusInKms);
-    }).map(restaurant -> {
-      return modelMapperProvider.get().map(restaurant, Restaurant.class);
-    }).collect(Collectors.toList());
-    // //CHECKSTYLE:ON
-    return restaurants;
+  }
 
+  /**
+   * Decodes the cached cells into restaurantsByCell.
+   * @param cachedCells the cached value of each cell, null for cells that are not cached
+   * @return the cells that are not cached, or whose cached value cannot be decoded
+   */
+  private List<String> decodeCells(List<String> cells, List<byte[]> cachedCells,
+      Map<String, RestaurantCatalog> restaurantsByCell) {
+    List<String> missingCells = new ArrayList<>();
+    for (int i = 0; i < cells.size(); i++) {
+      byte[] cachedCell = cachedCells.get(i);
+      if (cachedCell == null) {
+        missingCells.add(cells.get(i));
+        continue;
+      }
+      try {
+        restaurantsByCell.put(cells.get(i), restaurantCellCodec.decodeCatalog(cachedCell));
+      } catch (IOException e) {
+        log.warn("Discarding undecodable cache entry for cell {}", cells.get(i), e);
+        missingCells.add(cells.get(i));
+      }
+    }
+    return missingCells;
+  }
+
+  /**
+   * Takes a short lease on each missing cell with SET NX PX. Cells leased by another instance
+   * are polled until they are cached, and decoded into restaurantsByCell, or until the lease
+   * would have expired. The lease is not released: once the cell is cached it is not
+   * consulted, and it expires on its own.
+   * @return the cells to load: those leased here and those that did not show up in time
+   */
+  private List<String> leaseOrAwaitCells(Jedis jedis, List<String> missingCells,
+      Map<String, RestaurantCatalog> restaurantsByCell) {
+    Pipeline pipeline = jedis.pipelined();
+    List<Response<String>> leases = new ArrayList<>();
+    for (String cell : missingCells) {
+      leases.add(pipeline.set(redisKeys.cellLease(cell), "1", "NX", "PX", cellLeaseMillis));
+    }
+    pipeline.sync();
+
+    List<String> cellsToLoad = new ArrayList<>();
+    List<String> awaitedCells = new ArrayList<>();
+    for (int i = 0; i < missingCells.size(); i++) {
+      if ("OK".equals(leases.get(i).get())) {
+        cellsToLoad.add(missingCells.get(i));
+      } else {
+        awaitedCells.add(missingCells.get(i));
+      }
+    }
+    if (!awaitedCells.isEmpty()) {
+      cellLeaseWaits.increment(awaitedCells.size());
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cellLeaseMillis);
+    while (!awaitedCells.isEmpty() && System.nanoTime() < deadline) {
+      try {
+        Thread.sleep(CELL_LEASE_POLL_INTERVAL_IN_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      awaitedCells = decodeCells(awaitedCells,
+          jedis.mget(toKeys(awaitedCells, redisKeys::cell)), restaurantsByCell);
+    }
+    cellsToLoad.addAll(awaitedCells);
+    return cellsToLoad;
+  }
+
+  private static byte[][] toKeys(List<String> cells, Function<String, String> keyOfCell) {
+    byte[][] keys = new byte[cells.size()][];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = SafeEncoder.encode(keyOfCell.apply(cells.get(i)));
+    }
+    return keys;
+  }
+
+  // TODO: CRIO_TASK_MODULE_NOSQL
+  // Objectives:
+  // 1. Implement findAllRestaurantsCloseby.
+  // 2. Remember to keep the precision of GeoHash in mind while using it as a key.
+  // Check RestaurantRepositoryService.java file for the interface contract.
+  public List<Restaurant> findAllRestaurantsCloseBy(Double latitude,
+      Double longitude, LocalTime currentTime, Double servingRadiusInKms) {
+    String resultKey = null;
+    if (restaurantResultCache.isEnabled()) {
+      resultKey = restaurantResultCache.keyOf(latitude, longitude, servingRadiusInKms,
+          restaurantIndexHolder.timeSlotOf(currentTime));
+      List<Restaurant> cachedRestaurants = restaurantResultCache.get(resultKey);
+      if (cachedRestaurants != null) {
+        return cachedRestaurants;
+      }
+    }
+
+    List<RestaurantEntity> openRestaurantsCloseBy = new ArrayList<>();
+    visitOpenRestaurantsCloseBy(latitude, longitude, currentTime, servingRadiusInKms,
+        openRestaurantsCloseBy::add);
+    // Cells come back in spatial order; restore the natural (insertion) order of the catalog.
+    openRestaurantsCloseBy.sort(BY_ID);
+    List<Restaurant> restaurants =
+        toRestaurants(openRestaurantsCloseBy, modelMapperProvider.get());
+    return resultKey == null ? restaurants : restaurantResultCache.put(resultKey, restaurants);
+  }
+
+  @Override
+  public void findAllRestaurantsCloseBy(List<GeoLocation> locations, LocalTime currentTime,
+      Double servingRadiusInKms, Consumer<List<Restaurant>> consumer) {
+    if (isIndexSource()) {
+      // Answer every location from one snapshot of the indexes.
+      Snapshot indexes = restaurantIndexHolder.getSnapshot();
+      ModelMapper modelMapper = modelMapperProvider.get();
+      for (GeoLocation location : locations) {
+        List<RestaurantEntity> openRestaurantsCloseBy = new ArrayList<>();
+        visitOpenRestaurantsInIndex(indexes, location.getLatitude(), location.getLongitude(),
+            currentTime, servingRadiusInKms, openRestaurantsCloseBy::add);
+        openRestaurantsCloseBy.sort(BY_ID);
+        consumer.accept(toRestaurants(openRestaurantsCloseBy, modelMapper));
+      }
+      return;
+    }
+
+    // Cover each distinct location once and read the union of the cells in one go. A cell that
+    // is missing from the cache is loaded with the query of the first location that needs it.
+    Map<List<Double>, CellCovering> coverings = new HashMap<>();
+    Map<String, List<Double>> firstLocationByCell = new LinkedHashMap<>();
+    for (GeoLocation location : locations) {
+      coverings.computeIfAbsent(coordinatesOf(location), coordinates -> {
+        CellCovering covering = coverServingCircle(location.getLatitude(),
+            location.getLongitude(), servingRadiusInKms);
+        for (String cell : covering.cells) {
+          firstLocationByCell.putIfAbsent(cell, coordinates);
+        }
+        return covering;
+      });
+    }
+
+    Map<String, RestaurantCatalog> catalogsByCell = getRestaurantsByCell(
+        new ArrayList<>(firstLocationByCell.keySet()), missingCells -> {
+          Map<List<Double>, List<String>> missingCellsByLocation = new LinkedHashMap<>();
+          for (String cell : missingCells) {
+            missingCellsByLocation.computeIfAbsent(firstLocationByCell.get(cell),
+                coordinates -> new ArrayList<>()).add(cell);
+          }
+          Map<String, List<RestaurantEntity>> loadedCells = new LinkedHashMap<>();
+          for (Map.Entry<List<Double>, List<String>> location
+              : missingCellsByLocation.entrySet()) {
+            loadedCells.putAll(getRestaurantsByCellFromDb(location.getKey().get(0),
+                location.getKey().get(1), servingRadiusInKms, location.getValue()));
+          }
+          return loadedCells;
+        });
+
+    ModelMapper modelMapper = modelMapperProvider.get();
+    OpenNowIndex openNowIndex = restaurantIndexHolder.findOpenNowIndex();
+    for (GeoLocation location : locations) {
+      List<RestaurantEntity> openRestaurantsCloseBy = new ArrayList<>();
+      visitOpenRestaurants(coverings.get(coordinatesOf(location)), catalogsByCell,
+          GeoUtils.radiusFilter(location.getLatitude(), location.getLongitude(),
+              servingRadiusInKms), openNowIndex, currentTime, openRestaurantsCloseBy::add);
+      openRestaurantsCloseBy.sort(BY_ID);
+      consumer.accept(toRestaurants(openRestaurantsCloseBy, modelMapper));
+    }
+  }
+
+  private static List<Double> coordinatesOf(GeoLocation location) {
+    return Arrays.asList(location.getLatitude(), location.getLongitude());
+  }
+
+  @Override
+  public List<Restaurant> findRestaurantsCloseByOrderedByDistance(Double latitude,
+      Double longitude, LocalTime currentTime, Double servingRadiusInKms, int limit,
+      DistanceCursor after) {
+    NearestRestaurantsCollector nearest =
+        new NearestRestaurantsCollector(latitude, longitude, limit, after);
+    visitOpenRestaurantsCloseBy(latitude, longitude, currentTime, servingRadiusInKms,
+        nearest::offer);
+
+    return toRestaurants(nearest.getRestaurants(), modelMapperProvider.get());
+  }
+
+  private static List<Restaurant> toRestaurants(List<RestaurantEntity> restaurants,
+      ModelMapper modelMapper) {
+    return restaurants.stream()
+        .map(restaurant -> modelMapper.map(restaurant, Restaurant.class))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Hands every open restaurant within the serving radius to the visitor: from the in-memory
+   * indexes, or cell by cell through the cell caches.
+   */
+  private void visitOpenRestaurantsCloseBy(Double latitude, Double longitude,
+      LocalTime currentTime, Double servingRadiusInKms, Consumer<RestaurantEntity> visitor) {
+    if (isIndexSource()) {
+      visitOpenRestaurantsInIndex(restaurantIndexHolder.getSnapshot(), latitude, longitude,
+          currentTime, servingRadiusInKms, visitor);
+      return;
+    }
+    CellCovering covering = coverServingCircle(latitude, longitude, servingRadiusInKms);
+    Map<String, RestaurantCatalog> catalogsByCell = getRestaurantsByCell(covering.cells,
+        missingCells -> getRestaurantsByCellFromDb(latitude, longitude, servingRadiusInKms,
+            missingCells));
+    visitOpenRestaurants(covering, catalogsByCell,
+        GeoUtils.radiusFilter(latitude, longitude, servingRadiusInKms),
+        restaurantIndexHolder.findOpenNowIndex(), currentTime, visitor);
+  }
+
+  private static void visitOpenRestaurantsInIndex(Snapshot indexes, Double latitude,
+      Double longitude, LocalTime currentTime, Double servingRadiusInKms,
+      Consumer<RestaurantEntity> visitor) {
+    RestaurantCatalog catalog = indexes.getCatalog();
+    BitSet open = indexes.getOpenNowIndex().openAt(currentTime);
+    for (int ordinal : indexes.getGeoHashGridIndex().findWithinRadius(latitude, longitude,
+        servingRadiusInKms)) {
+      if (open.get(ordinal)) {
+        visitor.accept(catalog.get(ordinal));
+      }
+    }
+  }
+
+  /**
+   * Cache cells that cover the serving circle.
+   * The cache holds the restaurants of each geohash cell once, whatever the serving radius;
+   * a lookup merges the cells that cover the serving circle. Cells that lie entirely within
+   * the circle, found with a coarse-to-fine covering, need no distance check.
+   */
+  private static CellCovering coverServingCircle(Double latitude, Double longitude,
+      Double servingRadiusInKms) {
+    CellCovering covering = new CellCovering();
+    for (CoveringCell coveringCell : GeoHashUtils.hierarchicalCovering(latitude, longitude,
+        servingRadiusInKms, CACHE_GEOHASH_PRECISION)) {
+      List<String> cacheCells =
+          GeoHashUtils.descendants(coveringCell.getGeoHash(), CACHE_GEOHASH_PRECISION);
+      covering.cells.addAll(cacheCells);
+      if (coveringCell.isInterior()) {
+        covering.interiorCells.addAll(cacheCells);
+      }
+    }
+    return covering;
+  }
+
+  /**
+   * Hands the open restaurants of the cells that are within the radius to the visitor. Whether
+   * they are open is read from the bitset of the "open now" index, if there is one.
+   */
+  private static void visitOpenRestaurants(CellCovering covering,
+      Map<String, RestaurantCatalog> catalogsByCell, RadiusFilter radiusFilter,
+      OpenNowIndex openNowIndex, LocalTime currentTime, Consumer<RestaurantEntity> visitor) {
+    for (String cell : covering.cells) {
+      RestaurantCatalog cellCatalog = catalogsByCell.get(cell);
+      if (cellCatalog == null) {
+        continue;
+      }
+      int[] ordinals = cellCatalog.findOpen(openNowIndex, currentTime,
+          covering.interiorCells.contains(cell) ? null : radiusFilter);
+      for (int ordinal : ordinals) {
+        visitor.accept(cellCatalog.get(ordinal));
+      }
+    }
+  }
+
+  private static class CellCovering {
+
+    private final List<String> cells = new ArrayList<>();
+    private final Set<String> interiorCells = new HashSet<>();
+  }
+
+  private static Map<String, RestaurantCatalog> toCatalogs(
+      Map<String, List<RestaurantEntity>> restaurantsByCell) {
+    Map<String, RestaurantCatalog> catalogsByCell = new LinkedHashMap<>();
+    for (Map.Entry<String, List<RestaurantEntity>> cell : restaurantsByCell.entrySet()) {
+      catalogsByCell.put(cell.getKey(), RestaurantCatalog.of(cell.getValue()));
+    }
+    return catalogsByCell;
   }
 
   // TODO: CRIO_TASK_MODULE_NOSQL
@@ -157,63 +886,97 @@ public class RestaurantRepositoryServiceImpl implements RestaurantRepositoryServ
    *         false otherwise
   */
 
+  /**
+   * Restaurants close by and open whose field matches the search string in the search index:
+   * those whose tokens are those of the search string first, then those that hold its tokens
+   * (the last one as a prefix), then those with a value that contains it.
+   */
+  private List<Restaurant> findRestaurantsInSearchIndex(RestaurantSearchIndex.Field field,
+      Double latitude, Double longitude, String searchString, LocalTime currentTime,
+      Double servingRadiusInKms) {
+    // Within one tier the restaurants keep the order they were added in.
+    return addRestaurantsInSearchIndex(RankedRestaurantMerger.ofRestaurants(), Tier.EXACT_NAME,
+        Tier.EXACT_NAME, field, latitude, longitude, searchString, currentTime,
+        servingRadiusInKms).merge();
+  }
+
+  /**
+   * Adds the restaurants of {@link #findRestaurantsInSearchIndex} to the merger: those whose
+   * tokens are those of the search string in the exact tier, the others in the partial tier.
+   */
+  private RankedRestaurantMerger<Restaurant> addRestaurantsInSearchIndex(
+      RankedRestaurantMerger<Restaurant> merger, Tier exactTier, Tier partialTier,
+      RestaurantSearchIndex.Field field, Double latitude, Double longitude,
+      String searchString, LocalTime currentTime, Double servingRadiusInKms) {
+    RestaurantSearchIndex searchIndex = restaurantSearchIndexHolder.getIndex();
+    RestaurantCatalog catalog = searchIndex.getCatalog();
+    RadiusFilter radiusFilter = GeoUtils.radiusFilter(latitude, longitude, servingRadiusInKms);
+    List<RestaurantEntity> exactMatches = new ArrayList<>();
+    List<RestaurantEntity> tokenMatches = new ArrayList<>();
+    List<RestaurantEntity> substringMatches = new ArrayList<>();
+    BitSet seen = new BitSet(catalog.size());
+    int[] tokenOrdinals = searchIndex.search(field, searchString);
+    int[] substringOrdinals = searchIndex.searchContaining(field, searchString);
+    for (int i = 0; i < tokenOrdinals.length + substringOrdinals.length; i++) {
+      boolean tokenMatch = i < tokenOrdinals.length;
+      int ordinal = tokenMatch ? tokenOrdinals[i] : substringOrdinals[i - tokenOrdinals.length];
+      if (seen.get(ordinal)) {
+        continue;
+      }
+      seen.set(ordinal);
+      if (!catalog.isOpenAt(ordinal, currentTime) || !radiusFilter.isWithinRadius(
+          catalog.getLatitude(ordinal), catalog.getLongitude(ordinal))) {
+        continue;
+      }
+      if (!tokenMatch) {
+        substringMatches.add(catalog.get(ordinal));
+      } else if (searchIndex.matchesExactly(field, ordinal, searchString)) {
+        exactMatches.add(catalog.get(ordinal));
+      } else {
+        tokenMatches.add(catalog.get(ordinal));
+      }
+    }
+    tokenMatches.addAll(substringMatches);
+    ModelMapper modelMapper = modelMapperProvider.get();
+    return merger
+        .add(exactTier, toRestaurants(exactMatches, modelMapper))
+        .add(partialTier, toRestaurants(tokenMatches, modelMapper));
+  }
+
   // TODO: CRIO_TASK_MODULE_RESTAURANTSEARCH
   // Objective:
   // Find restaurants whose names have an exact or partial match with the search query.
   @Override
   public List<Restaurant> findRestaurantsByName(Double latitude, Double longitude,
       String searchString, LocalTime currentTime, Double servingRadiusInKms) {
+    return addRestaurantsByName(RankedRestaurantMerger.ofRestaurants(), latitude, longitude,
+        searchString, currentTime, servingRadiusInKms).merge();
+  }
 
-    // see how to use mongo like query parameter (aakash)
-    log.info("Reaching checkpoint 3");
-    Optional<List<RestaurantEntity>> allRestaurantsByNameExactOptional = restaurantRepository
-        .findRestaurantsByNameExact(searchString);
-    Optional<List<RestaurantEntity>> allRestaurantsByNameContainingOptional = restaurantRepository
-        .findRestaurantsByNameContaining(searchString);
-    
-    List<RestaurantEntity> allRestaurantsByNameExact = new ArrayList<>();
-    List<RestaurantEntity> allRestaurantsByNameContaining = new ArrayList<>();
-
-    if (allRestaurantsByNameExactOptional.isPresent()) {
-      allRestaurantsByNameExact = allRestaurantsByNameExactOptional.get();
-    }
-
-    if (allRestaurantsByNameContainingOptional.isPresent()) {
-      allRestaurantsByNameContaining = allRestaurantsByNameContainingOptional.get();
-    }
-
-    log.info("allRestauransByNameExact :- {}", allRestaurantsByNameExact);
-    log.info("allRestauransByNameContaining :- {}", allRestaurantsByNameContaining);
-    List<Restaurant> byRestaurantNameRestaurants = new ArrayList<Restaurant>(); 
-    allRestaurantsByNameExact.stream()
-        .forEach(restaurantEntity -> {
-          if (isRestaurantCloseByAndOpen(restaurantEntity,
-              currentTime, latitude, longitude, servingRadiusInKms)) {
-            Restaurant restaurant = modelMapperProvider
-                .get().map(restaurantEntity, Restaurant.class);
-            if (!byRestaurantNameRestaurants.contains(restaurant)) {
-              byRestaurantNameRestaurants.add(
-                  modelMapperProvider.get().map(restaurantEntity, Restaurant.class)
-              );
-            }
-          }
-        });
+  /**
+   * Adds the restaurants close by and open whose name matches the search string to the
+   * merger: exact matches as {@link Tier#EXACT_NAME}, the others as {@link Tier#PARTIAL_NAME}.
+   */
+  private RankedRestaurantMerger<Restaurant> addRestaurantsByName(
+      RankedRestaurantMerger<Restaurant> merger, Double latitude, Double longitude,
+      String searchString, LocalTime currentTime, Double servingRadiusInKms) {
+    if (SEARCH_INDEX_SOURCE.equals(searchSource)) {
+      return addRestaurantsInSearchIndex(merger, Tier.EXACT_NAME, Tier.PARTIAL_NAME,
+          RestaurantSearchIndex.Field.NAME, latitude, longitude, searchString, currentTime,
+          servingRadiusInKms);
+    }
 
-    allRestaurantsByNameContaining.stream()
-        .forEach(restaurantEntity -> {
-          if (isRestaurantCloseByAndOpen(restaurantEntity,
-              currentTime, latitude, longitude, servingRadiusInKms)) {
-            Restaurant restaurant = modelMapperProvider
-                .get().map(restaurantEntity, Restaurant.class);
-            if (!byRestaurantNameRestaurants.contains(restaurant)) {
-              byRestaurantNameRestaurants.add(
-                  modelMapperProvider.get().map(restaurantEntity, Restaurant.class)
-              );
-            }
-          }
-        });
-    log.info("byRestaurantNameRestaurants :- {}", byRestaurantNameRestaurants);
-    return byRestaurantNameRestaurants;
+    List<RestaurantEntity> allRestaurantsByNameExact = restaurantRepository
+        .findRestaurantsByNameExact(searchString).orElse(Collections.emptyList());
+    List<RestaurantEntity> allRestaurantsByNameContaining = restaurantRepository
+        .findRestaurantsByNameContaining(searchString).orElse(Collections.emptyList());
+
+    ModelMapper modelMapper = modelMapperProvider.get();
+    return merger
+        .add(Tier.EXACT_NAME, toRestaurants(filterOpenCloseBy(allRestaurantsByNameExact,
+            latitude, longitude, currentTime, servingRadiusInKms), modelMapper))
+        .add(Tier.PARTIAL_NAME, toRestaurants(filterOpenCloseBy(allRestaurantsByNameContaining,
+            latitude, longitude, currentTime, servingRadiusInKms), modelMapper));
   }
 
 
@@ -224,56 +987,32 @@ public class RestaurantRepositoryServiceImpl implements RestaurantRepositoryServ
   public List<Restaurant> findRestaurantsByAttributes(
       Double latitude, Double longitude,
       String searchString, LocalTime currentTime, Double servingRadiusInKms) {
-
-    Optional<List<RestaurantEntity>> allRestaurantsByAttributesExactOptional =
-        restaurantRepository.findRestaurantsByAttributesExact(searchString);
-
-    Optional<List<RestaurantEntity>> allRestaurantsByAttributesContainingOptional =
-        restaurantRepository.findRestaurantsByAttributesContaining(searchString);
-
-    List<RestaurantEntity> allRestaurantsByAttributesExact = new ArrayList<>();
-    List<RestaurantEntity> allRestaurantsByAttributesContaining = new ArrayList<>();
-    List<Restaurant> byAttributesRestaurants = new ArrayList<>();
-
-    if (allRestaurantsByAttributesExactOptional.isPresent()) {
-      allRestaurantsByAttributesExact = allRestaurantsByAttributesExactOptional.get();
+    if (SEARCH_INDEX_SOURCE.equals(searchSource)) {
+      return findRestaurantsInSearchIndex(RestaurantSearchIndex.Field.ATTRIBUTE, latitude,
+          longitude, searchString, currentTime, servingRadiusInKms);
     }
 
-    if (allRestaurantsByAttributesContainingOptional.isPresent()) {
-      allRestaurantsByAttributesContaining = allRestaurantsByAttributesContainingOptional.get();
-    }
-
-
-
-    allRestaurantsByAttributesExact.stream()
-        .forEach(restaurantEntity -> {
-          if (isRestaurantCloseByAndOpen(restaurantEntity,
-              currentTime, latitude, longitude, servingRadiusInKms)) {
-            Restaurant restaurant = modelMapperProvider
-                .get().map(restaurantEntity, Restaurant.class);
-            if (!byAttributesRestaurants.contains(restaurant)) {
-              byAttributesRestaurants.add(
-                  modelMapperProvider.get().map(restaurantEntity, Restaurant.class)
-              );
-            }
-          }
-        });
+    List<RestaurantEntity> allRestaurantsByAttributesExact = restaurantRepository
+        .findRestaurantsByAttributesExact(searchString).orElse(Collections.emptyList());
+    List<RestaurantEntity> allRestaurantsByAttributesContaining = restaurantRepository
+        .findRestaurantsByAttributesContaining(searchString).orElse(Collections.emptyList());
+
+    List<RestaurantEntity> byAttributesRestaurants =
+        new RankedRestaurantMerger<RestaurantEntity>(RestaurantEntity::getRestaurantId)
+            .add(Tier.ATTRIBUTE, filterOpenCloseBy(allRestaurantsByAttributesExact, latitude,
+                longitude, currentTime, servingRadiusInKms))
+            .add(Tier.ATTRIBUTE, filterOpenCloseBy(allRestaurantsByAttributesContaining,
+                latitude, longitude, currentTime, servingRadiusInKms))
+            .merge();
+    return toRestaurants(byAttributesRestaurants, modelMapperProvider.get());
+  }
 
-    allRestaurantsByAttributesContaining.stream()
-        .forEach(restaurantEntity -> {
-          if (isRestaurantCloseByAndOpen(restaurantEntity,
-              currentTime, latitude, longitude, servingRadiusInKms)) {
-            Restaurant restaurant = modelMapperProvider
-                .get().map(restaurantEntity, Restaurant.class);
-            if (!byAttributesRestaurants.contains(restaurant)) {
-              byAttributesRestaurants.add(
-                  modelMapperProvider.get().map(restaurantEntity, Restaurant.class)
-              );
-            }
-          }
-        });
-    
-    return byAttributesRestaurants;
+  private List<RestaurantEntity> filterOpenCloseBy(List<RestaurantEntity> restaurants,
+      Double latitude, Double longitude, LocalTime currentTime, Double servingRadiusInKms) {
+    return restaurants.stream()
+        .filter(restaurantEntity -> isRestaurantCloseByAndOpen(restaurantEntity, currentTime,
+            latitude, longitude, servingRadiusInKms))
+        .collect(Collectors.toList());
   }
 
 
@@ -287,25 +1026,16 @@ public class RestaurantRepositoryServiceImpl implements RestaurantRepositoryServ
   public List<Restaurant> findRestaurantsByItemName(
       Double latitude, Double longitude,
       String searchString, LocalTime currentTime, Double servingRadiusInKms) {
-
-    Optional<List<RestaurantEntity>> allRestaurantsByItemNameOptional = restaurantRepository
-        .findRestaurantsByNameExact(searchString);
-
-    List<RestaurantEntity> allRestaurantsByItemName = new ArrayList<>();
-
-    if (allRestaurantsByItemNameOptional.isPresent()) {
-      allRestaurantsByItemName = allRestaurantsByItemNameOptional.get();
+    if (SEARCH_INDEX_SOURCE.equals(searchSource)) {
+      return findRestaurantsInSearchIndex(RestaurantSearchIndex.Field.ITEM_NAME, latitude,
+          longitude, searchString, currentTime, servingRadiusInKms);
     }
 
-    List<Restaurant> byItemNameRestaurants = allRestaurantsByItemName.stream()
-        .filter(restaurant -> {
-          return isRestaurantCloseByAndOpen(restaurant,
-              currentTime, latitude, longitude, servingRadiusInKms);
-        }).map(restaurant -> {
-          return modelMapperProvider.get().map(restaurant, Restaurant.class);
-        }).collect(Collectors.toList());
-    
-    return byItemNameRestaurants;
+    return toOpenRestaurantsCloseBy(
+        restaurantSearchRepository.findRestaurantsByItemNameWithinSphere(
+            Pattern.quote(searchString), latitude, longitude,
+            servingRadiusInKms / GeoUtils.EARTH_RADIUS_IN_KMS),
+        latitude, longitude, currentTime, servingRadiusInKms);
   }
 
   // TODO: CRIO_TASK_MODULE_RESTAURANTSEARCH
@@ -314,35 +1044,58 @@ public class RestaurantRepositoryServiceImpl implements RestaurantRepositoryServ
   @Override
   public List<Restaurant> findRestaurantsByItemAttributes(Double latitude, Double longitude,
       String searchString, LocalTime currentTime, Double servingRadiusInKms) {
-
-    // List<RestaurantEntity> allRestaurantsByItemAttributes = restaurantRepository
-    //     .findRestaurantsByAttributesExact(searchString);
-
-    Optional<List<RestaurantEntity>> allRestaurantsByItemAttributeOptional = restaurantRepository
-        .findRestaurantsByAttributesExact(searchString);
-
-    List<RestaurantEntity> allRestaurantsByItemAttributes = new ArrayList<>();
-
-    if (allRestaurantsByItemAttributeOptional.isPresent()) {
-      allRestaurantsByItemAttributes = allRestaurantsByItemAttributeOptional.get();
+    if (SEARCH_INDEX_SOURCE.equals(searchSource)) {
+      return findRestaurantsInSearchIndex(RestaurantSearchIndex.Field.ITEM_ATTRIBUTE,
+          latitude, longitude, searchString, currentTime, servingRadiusInKms);
     }
 
-    List<Restaurant> byItemAttributesRestaurants = allRestaurantsByItemAttributes.stream()
-        .filter(restaurant -> {
-          return isRestaurantCloseByAndOpen(restaurant,
-            currentTime, latitude, longitude, servingRadiusInKms);
-        }).map(restaurant -> {
-          return modelMapperProvider.get().map(restaurant, Restaurant.class);
-        }).collect(Collectors.toList());
-    
-    return byItemAttributesRestaurants;
+    return toOpenRestaurantsCloseBy(
+        restaurantSearchRepository.findRestaurantsByItemAttributeWithinSphere(
+            Pattern.quote(searchString), latitude, longitude,
+            servingRadiusInKms / GeoUtils.EARTH_RADIUS_IN_KMS),
+        latitude, longitude, currentTime, servingRadiusInKms);
+  }
 
+  /**
+   * Restaurants of the search projection that are within the serving radius and open, in the
+   * same order.
+   */
+  private List<Restaurant> toOpenRestaurantsCloseBy(List<RestaurantSearchEntity> restaurants,
+      Double latitude, Double longitude, LocalTime currentTime, Double servingRadiusInKms) {
+    RadiusFilter radiusFilter = GeoUtils.radiusFilter(latitude, longitude, servingRadiusInKms);
+    ModelMapper modelMapper = modelMapperProvider.get();
+    return restaurants.stream()
+        .filter(restaurant -> RestaurantCatalog.isOpenAt(restaurant.getOpensAt(),
+            restaurant.getClosesAt(), currentTime)
+            && radiusFilter.isWithinRadius(restaurant.getLatitude(), restaurant.getLongitude()))
+        .map(restaurant -> modelMapper.map(restaurant, Restaurant.class))
+        .collect(Collectors.toList());
   }
 
 
 
 
 
+  @Override
+  public List<Restaurant> findRestaurantsBySearchString(Double latitude, Double longitude,
+      String searchString, LocalTime currentTime, Double servingRadiusInKms) {
+    if (RestaurantSearchAggregation.MONGO_FACET_SEARCH_SOURCE.equals(searchSource)) {
+      return toOpenRestaurantsCloseBy(restaurantSearchAggregation.findMatches(latitude,
+          longitude, searchString, servingRadiusInKms), latitude, longitude, currentTime,
+          servingRadiusInKms);
+    }
+
+    return addRestaurantsByName(RankedRestaurantMerger.ofRestaurants(), latitude, longitude,
+        searchString, currentTime, servingRadiusInKms)
+        .add(Tier.ATTRIBUTE, findRestaurantsByAttributes(latitude, longitude, searchString,
+            currentTime, servingRadiusInKms))
+        .add(Tier.ITEM_NAME, findRestaurantsByItemName(latitude, longitude, searchString,
+            currentTime, servingRadiusInKms))
+        .add(Tier.ITEM_ATTRIBUTE, findRestaurantsByItemAttributes(latitude, longitude,
+            searchString, currentTime, servingRadiusInKms))
+        .merge();
+  }
+
   /**
    * Utility method to check if a restaurant is within the serving radius at a given time.
    * @return boolean True if restaurant falls within serving radius and is open, false otherwise
@@ -0,0 +1,97 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.index.RestaurantCatalog;
+import com.crio.qeats.index.RestaurantIndexHolder.Snapshot;
+import com.crio.qeats.utils.DistanceCursor;
+import com.crio.qeats.utils.GeoLocation;
+import com.crio.qeats.utils.GeoUtils;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.modelmapper.ModelMapper;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+/**
+ * Answers nearby lookups from the in-memory KD-tree instead of the per-cell cache, which makes
+ * a lookup O(log n + k) in the size of the catalog with no network round trip.
+ * Active with the {@value #KD_TREE_PROFILE} profile; searches behave as in
+ * {@link RestaurantRepositoryServiceImpl}.
+ */
+@Service
+@Primary
+@Profile(RestaurantRepositoryServiceKdTreeImpl.KD_TREE_PROFILE)
+public class RestaurantRepositoryServiceKdTreeImpl extends RestaurantRepositoryServiceImpl {
+
+  public static final String KD_TREE_PROFILE = "kdtree";
+
+  @Override
+  public List<Restaurant> findAllRestaurantsCloseBy(Double latitude,
+      Double longitude, LocalTime currentTime, Double servingRadiusInKms) {
+    Snapshot indexes = restaurantIndexHolder.getSnapshot();
+    BitSet open = indexes.getOpenNowIndex().openAt(currentTime);
+    return toRestaurants(indexes.getCatalog(), indexes.getKdTree().findWithinRadius(
+        latitude, longitude, servingRadiusInKms, open::get));
+  }
+
+  /**
+   * Answers every location from one snapshot of the indexes.
+   */
+  @Override
+  public void findAllRestaurantsCloseBy(List<GeoLocation> locations, LocalTime currentTime,
+      Double servingRadiusInKms, Consumer<List<Restaurant>> consumer) {
+    Snapshot indexes = restaurantIndexHolder.getSnapshot();
+    BitSet open = indexes.getOpenNowIndex().openAt(currentTime);
+    for (GeoLocation location : locations) {
+      consumer.accept(toRestaurants(indexes.getCatalog(), indexes.getKdTree().findWithinRadius(
+          location.getLatitude(), location.getLongitude(), servingRadiusInKms, open::get)));
+    }
+  }
+
+  /**
+   * Walks the KD-tree nearest first, so only the restaurants of the page and the nodes around
+   * them are visited, however dense the area is.
+   */
+  @Override
+  public List<Restaurant> findRestaurantsCloseByOrderedByDistance(Double latitude,
+      Double longitude, LocalTime currentTime, Double servingRadiusInKms, int limit,
+      DistanceCursor after) {
+    Snapshot indexes = restaurantIndexHolder.getSnapshot();
+    RestaurantCatalog catalog = indexes.getCatalog();
+    BitSet open = indexes.getOpenNowIndex().openAt(currentTime);
+    int[] ordinals = indexes.getKdTree().findNearest(latitude, longitude, limit,
+        servingRadiusInKms, ordinal -> open.get(ordinal) && (after == null
+            || after.isBefore(distanceInKms(catalog, ordinal, latitude, longitude),
+                catalog.get(ordinal).getRestaurantId())));
+
+    // The tree ranks by the same (distance, restaurantId) order as the cursor.
+    return toRestaurants(catalog, ordinals);
+  }
+
+  private static double distanceInKms(RestaurantCatalog catalog, int ordinal, double latitude,
+      double longitude) {
+    return GeoUtils.findDistanceInKm(latitude, longitude, catalog.getLatitude(ordinal),
+        catalog.getLongitude(ordinal));
+  }
+
+  private List<Restaurant> toRestaurants(RestaurantCatalog catalog, int[] ordinals) {
+    ModelMapper modelMapper = modelMapperProvider.get();
+    List<Restaurant> restaurants = new ArrayList<>(ordinals.length);
+    for (int ordinal : ordinals) {
+      restaurants.add(modelMapper.map(catalog.get(ordinal), Restaurant.class));
+    }
+    return restaurants;
+  }
+}
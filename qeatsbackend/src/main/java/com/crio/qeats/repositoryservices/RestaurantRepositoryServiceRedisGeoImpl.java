@@ -0,0 +1,130 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.index.RestaurantCatalog;
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.utils.DistanceCursor;
+import com.crio.qeats.utils.GeoLocation;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import lombok.extern.log4j.Log4j2;
+
+import org.modelmapper.ModelMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Answers nearby lookups from the copy of the restaurants kept in Redis by
+ * {@link RedisGeoRestaurantStore}, so the database is not read for them once the copy is made.
+ * Active with the {@value #REDIS_GEO_PROFILE} profile. If Redis is unreachable, lookups are
+ * answered as in {@link RestaurantRepositoryServiceImpl}; searches always are.
+ */
+@Log4j2
+@Service
+@Primary
+@Profile(RestaurantRepositoryServiceRedisGeoImpl.REDIS_GEO_PROFILE)
+public class RestaurantRepositoryServiceRedisGeoImpl extends RestaurantRepositoryServiceImpl {
+
+  public static final String REDIS_GEO_PROFILE = "redis-geo";
+
+  @Autowired
+  private RedisGeoRestaurantStore redisGeoRestaurantStore;
+
+  @Override
+  public List<Restaurant> findAllRestaurantsCloseBy(Double latitude,
+      Double longitude, LocalTime currentTime, Double servingRadiusInKms) {
+    List<RestaurantEntity> openRestaurants =
+        findOpenRestaurantsCloseBy(latitude, longitude, currentTime, servingRadiusInKms);
+    if (openRestaurants == null) {
+      return super.findAllRestaurantsCloseBy(latitude, longitude, currentTime,
+          servingRadiusInKms);
+    }
+    openRestaurants.sort(BY_ID);
+    return toRestaurants(openRestaurants);
+  }
+
+  @Override
+  public void findAllRestaurantsCloseBy(List<GeoLocation> locations, LocalTime currentTime,
+      Double servingRadiusInKms, Consumer<List<Restaurant>> consumer) {
+    for (GeoLocation location : locations) {
+      consumer.accept(findAllRestaurantsCloseBy(location.getLatitude(), location.getLongitude(),
+          currentTime, servingRadiusInKms));
+    }
+  }
+
+  @Override
+  public List<Restaurant> findRestaurantsCloseByOrderedByDistance(Double latitude,
+      Double longitude, LocalTime currentTime, Double servingRadiusInKms, int limit,
+      DistanceCursor after) {
+    List<RestaurantEntity> openRestaurants =
+        findOpenRestaurantsCloseBy(latitude, longitude, currentTime, servingRadiusInKms);
+    if (openRestaurants == null) {
+      return super.findRestaurantsCloseByOrderedByDistance(latitude, longitude, currentTime,
+          servingRadiusInKms, limit, after);
+    }
+    NearestRestaurantsCollector nearest =
+        new NearestRestaurantsCollector(latitude, longitude, limit, after);
+    openRestaurants.forEach(nearest::offer);
+    return toRestaurants(nearest.getRestaurants());
+  }
+
+  /**
+   * Open restaurants within the serving radius, or null if Redis cannot answer yet.
+   */
+  private List<RestaurantEntity> findOpenRestaurantsCloseBy(Double latitude, Double longitude,
+      LocalTime currentTime, Double servingRadiusInKms) {
+    if (!redisConfiguration.isCacheAvailable()) {
+      return null;
+    }
+    Jedis jedis = null;
+    try {
+      jedis = redisConfiguration.getJedisPool().getResource();
+      List<RestaurantEntity> restaurants = redisGeoRestaurantStore.findWithinRadius(jedis,
+          latitude, longitude, servingRadiusInKms);
+      redisConfiguration.reportSuccess();
+      if (restaurants == null) {
+        // The copy is being made.
+        return null;
+      }
+      List<RestaurantEntity> openRestaurants = new ArrayList<>();
+      for (RestaurantEntity restaurant : restaurants) {
+        if (RestaurantCatalog.isOpenAt(restaurant.getOpensAt(), restaurant.getClosesAt(),
+            currentTime)) {
+          openRestaurants.add(restaurant);
+        }
+      }
+      return openRestaurants;
+    } catch (RuntimeException e) {
+      redisConfiguration.reportFailure(e);
+      log.warn("Redis unavailable, looking up nearby restaurants without it", e);
+      return null;
+    } finally {
+      if (jedis != null) {
+        jedis.close();
+      }
+    }
+  }
+
+  private List<Restaurant> toRestaurants(List<RestaurantEntity> restaurants) {
+    ModelMapper modelMapper = modelMapperProvider.get();
+    List<Restaurant> mapped = new ArrayList<>(restaurants.size());
+    for (RestaurantEntity restaurant : restaurants) {
+      mapped.add(modelMapper.map(restaurant, Restaurant.class));
+    }
+    return mapped;
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import ch.hsr.geohash.GeoHash;
+
+import com.crio.qeats.configs.RedisCacheFlushedEvent;
+import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.models.RestaurantEntity;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Optional in-process cache of the final answers of nearby lookups: the open restaurants
+ * within the serving radius, ready to serve, so a hit costs one lookup and no per-restaurant
+ * filtering or mapping.
+ * An answer is keyed by the geohash cell of the location, the serving radius and the time
+ * slot of the "open now" index. Time slots run from one opening or closing time to the next,
+ * so the open restaurants are the same across a slot and the time needs no rounding. The cell
+ * precision decides how close two locations must be to share an answer: the default one is a
+ * few centimetres, i.e. the same location; coarser cells trade exactness at the edge of the
+ * serving circle for hits.
+ * Answers are dropped when a restaurant is saved or deleted through this service or when the
+ * Redis cache is flushed, and expire after a short time to bound how stale they get otherwise.
+ * Cached lists and restaurants are shared between requests; they must not be modified.
+ */
+@Component
+public class RestaurantResultCache extends AbstractMongoEventListener<RestaurantEntity> {
+
+  @Value("${qeats.cache.results.enabled:false}")
+  private boolean enabled;
+
+  @Value("${qeats.cache.results.geohash-precision:12}")
+  private int geoHashPrecision = 12;
+
+  @Value("${qeats.cache.results.maximum-weight:100000}")
+  private long maximumWeight = 100000;
+
+  @Value("${qeats.cache.results.expire-after-write-seconds:30}")
+  private long expireAfterWriteInSeconds = 30;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
+  private Cache<String, CachedResult> results;
+  private Timer resultAge;
+
+  public RestaurantResultCache() {
+  }
+
+  RestaurantResultCache(boolean enabled, int geoHashPrecision) {
+    this.enabled = enabled;
+    this.geoHashPrecision = geoHashPrecision;
+  }
+
+  @PostConstruct
+  public void initCache() {
+    results = Caffeine.newBuilder()
+        .maximumWeight(maximumWeight)
+        .weigher((String key, CachedResult result) -> 1 + result.restaurants.size())
+        .expireAfterWrite(expireAfterWriteInSeconds, TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+    MeterRegistry registry = meterRegistry != null ? meterRegistry : Metrics.globalRegistry;
+    CaffeineCacheMetrics.monitor(registry, results, "restaurantResults");
+    resultAge = Timer.builder("qeats.cache.results.age")
+        .description("Age of the nearby lookup answers served from the result cache")
+        .register(registry);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Key of the answer for a location, serving radius and time slot.
+   * @param timeSlot as given by {@link com.crio.qeats.index.OpenNowIndex#timeSlotOf}
+   */
+  public String keyOf(double latitude, double longitude, double servingRadiusInKms,
+      int timeSlot) {
+    return GeoHash.withCharacterPrecision(latitude, longitude, geoHashPrecision).toBase32()
+        + ':' + servingRadiusInKms + ':' + timeSlot;
+  }
+
+  /**
+   * The cached answer, or null.
+   */
+  public List<Restaurant> get(String key) {
+    CachedResult result = results.getIfPresent(key);
+    if (result == null) {
+      return null;
+    }
+    resultAge.record(System.nanoTime() - result.cachedAtInNanos, TimeUnit.NANOSECONDS);
+    return result.restaurants;
+  }
+
+  /**
+   * Caches the answer.
+   * @return the cached, unmodifiable answer
+   */
+  public List<Restaurant> put(String key, List<Restaurant> restaurants) {
+    CachedResult result = new CachedResult(
+        Collections.unmodifiableList(new ArrayList<>(restaurants)), System.nanoTime());
+    results.put(key, result);
+    return result.restaurants;
+  }
+
+  @EventListener(RedisCacheFlushedEvent.class)
+  public void invalidateAll() {
+    results.invalidateAll();
+  }
+
+  @Override
+  public void onAfterSave(AfterSaveEvent<RestaurantEntity> event) {
+    invalidateAll();
+  }
+
+  @Override
+  public void onAfterDelete(AfterDeleteEvent<RestaurantEntity> event) {
+    invalidateAll();
+  }
+
+  private static class CachedResult {
+
+    private final List<Restaurant> restaurants;
+    private final long cachedAtInNanos;
+
+    CachedResult(List<Restaurant> restaurants, long cachedAtInNanos) {
+      this.restaurants = restaurants;
+      this.cachedAtInNanos = cachedAtInNanos;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import static com.crio.qeats.repositoryservices.RestaurantSearchProjection.stage;
+
+import com.crio.qeats.models.RestaurantSearchEntity;
+import com.crio.qeats.utils.GeoUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Answers a search with a single aggregation on the restaurant_search collection maintained by
+ * {@link RestaurantSearchProjection}, instead of one query per kind of match:
+ *   - $match the restaurants within the serving radius ($geoWithin on the 2dsphere index of
+ *     location),
+ *   - $facet them into {@link #BUCKETS}, one per kind of match, each a case-insensitive
+ *     regex on the search string taken literally, and $project out the item fields.
+ * Whether the restaurants are open is checked by the caller.
+ */
+@Component
+public class RestaurantSearchAggregation {
+
+  public static final String MONGO_FACET_SEARCH_SOURCE = "mongo-facet";
+
+  // One per RankedRestaurantMerger.Tier, in the same order.
+  static final List<String> BUCKETS = Collections.unmodifiableList(Arrays.asList(
+      "exactName", "partialName", "attribute", "itemName", "itemAttribute"));
+
+  @Autowired
+  private MongoTemplate mongoTemplate;
+
+  /**
+   * Restaurants within the serving radius that match the search string, in the order of
+   * {@link #BUCKETS}, each once.
+   */
+  public List<RestaurantSearchEntity> findMatches(double latitude, double longitude,
+      String searchString, double servingRadiusInKms) {
+    Document facets = mongoTemplate.aggregate(
+        build(latitude, longitude, searchString, servingRadiusInKms),
+        RestaurantSearchProjection.RESTAURANT_SEARCH_COLLECTION, Document.class)
+        .getUniqueMappedResult();
+    if (facets == null) {
+      return new ArrayList<>();
+    }
+    RankedRestaurantMerger<RestaurantSearchEntity> merger =
+        new RankedRestaurantMerger<>(RestaurantSearchEntity::getRestaurantId);
+    for (int i = 0; i < BUCKETS.size(); i++) {
+      List<RestaurantSearchEntity> matches = new ArrayList<>();
+      for (Object match : facets.get(BUCKETS.get(i), List.class)) {
+        matches.add(
+            mongoTemplate.getConverter().read(RestaurantSearchEntity.class, (Document) match));
+      }
+      merger.add(RankedRestaurantMerger.Tier.values()[i], matches);
+    }
+    return merger.merge();
+  }
+
+  static Aggregation build(double latitude, double longitude, String searchString,
+      double servingRadiusInKms) {
+    String literal = Pattern.quote(searchString);
+    Document containing = regex(literal);
+    Document exact = regex("^" + literal + "$");
+
+    return Aggregation.newAggregation(
+        stage("$match", new Document("location", new Document("$geoWithin",
+            new Document("$centerSphere", Arrays.asList(Arrays.asList(longitude, latitude),
+                servingRadiusInKms / GeoUtils.EARTH_RADIUS_IN_KMS))))),
+        stage("$facet", new Document(BUCKETS.get(0), bucket("name", exact))
+            .append(BUCKETS.get(1), bucket("name", containing))
+            .append(BUCKETS.get(2), bucket("attributes", containing))
+            .append(BUCKETS.get(3), bucket("itemNames", containing))
+            .append(BUCKETS.get(4), bucket("itemAttributes", containing))));
+  }
+
+  private static Document regex(String pattern) {
+    return new Document("$regex", pattern).append("$options", "i");
+  }
+
+  private static List<Document> bucket(String field, Document condition) {
+    return Arrays.asList(new Document("$match", new Document(field, condition)),
+        new Document("$project", new Document("itemNames", 0).append("itemAttributes", 0)));
+  }
+}
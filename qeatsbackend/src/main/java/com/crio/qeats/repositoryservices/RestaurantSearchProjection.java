@@ -0,0 +1,256 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import com.crio.qeats.models.MenuEntity;
+import com.crio.qeats.models.RestaurantEntity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+
+import lombok.extern.log4j.Log4j2;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.index.GeoSpatialIndexType;
+import org.springframework.data.mongodb.core.index.GeospatialIndex;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * Maintains the restaurant_search collection ({@link
+ * com.crio.qeats.models.RestaurantSearchEntity}): one document per restaurant with its fields,
+ * a GeoJSON location and the names and attributes of the items of its menus, flattened.
+ *   - It is rebuilt at startup with a $lookup of the menus and an $out, to pick up writes made
+ *     outside this service, and in the background after every delete from restaurants or
+ *     menus, so deletes do not wait for it. Deletes made while a rebuild runs are followed by
+ *     one more rebuild.
+ *   - The document of a restaurant is rewritten, with the same pipeline, whenever the
+ *     restaurant or one of its menus is saved through Spring Data, and again after a rebuild
+ *     that ran meanwhile.
+ * Documents are only made for restaurants with a restaurantId, a latitude and a longitude.
+ */
+@Log4j2
+@Component
+public class RestaurantSearchProjection extends AbstractMongoEventListener<Object>
+    implements ApplicationRunner {
+
+  public static final String RESTAURANT_SEARCH_COLLECTION = "restaurant_search";
+
+  private static final String RESTAURANTS_COLLECTION = "restaurants";
+  private static final String MENUS_COLLECTION = "menus";
+
+  @Autowired
+  private MongoTemplate mongoTemplate;
+
+  private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "restaurant-search-projection-rebuild");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  // Set while a rebuild is queued and has not started, so deletes share it.
+  private final AtomicBoolean rebuildQueued = new AtomicBoolean();
+
+  // Held while the collection is rebuilt, so there is one rebuild at a time.
+  private final Object rebuildLock = new Object();
+
+  // Guards the fields below.
+  private final Object updateLock = new Object();
+  private boolean rebuilding;
+  private final Set<String> savedWhileRebuilding = new LinkedHashSet<>();
+
+  @Override
+  public void run(ApplicationArguments args) {
+    try {
+      rebuild();
+    } catch (RuntimeException e) {
+      // Such as restaurants that share a restaurantId; the saves that follow still update it.
+      log.error("Failed to rebuild {}, item searches may miss restaurants",
+          RESTAURANT_SEARCH_COLLECTION, e);
+    }
+  }
+
+  @Override
+  public void onAfterSave(AfterSaveEvent<Object> event) {
+    Object saved = event.getSource();
+    String restaurantId;
+    if (saved instanceof RestaurantEntity) {
+      restaurantId = ((RestaurantEntity) saved).getRestaurantId();
+    } else if (saved instanceof MenuEntity) {
+      restaurantId = ((MenuEntity) saved).getRestaurantId();
+    } else {
+      return;
+    }
+    synchronized (updateLock) {
+      if (rebuilding && restaurantId != null) {
+        // The $out of the rebuild may replace the document with one made before the save; it
+        // is made again once the rebuild is done.
+        savedWhileRebuilding.add(restaurantId);
+      }
+    }
+    update(restaurantId);
+  }
+
+  @Override
+  public void onAfterDelete(AfterDeleteEvent<Object> event) {
+    // The event only holds the query of the delete, not the restaurantIds it removed.
+    if (RESTAURANTS_COLLECTION.equals(event.getCollectionName())
+        || MENUS_COLLECTION.equals(event.getCollectionName())) {
+      rebuildInBackground();
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    rebuildExecutor.shutdownNow();
+  }
+
+  private void rebuildInBackground() {
+    if (!rebuildQueued.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      rebuildExecutor.execute(() -> {
+        rebuildQueued.set(false);
+        try {
+          rebuild();
+        } catch (RuntimeException e) {
+          log.error("Failed to rebuild {}, item searches may return deleted restaurants",
+              RESTAURANT_SEARCH_COLLECTION, e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      rebuildQueued.set(false);
+    }
+  }
+
+  /**
+   * Replaces the whole collection with documents made from restaurants and menus. The
+   * documents of the restaurants saved meanwhile are made again afterwards.
+   */
+  public void rebuild() {
+    synchronized (rebuildLock) {
+      synchronized (updateLock) {
+        rebuilding = true;
+      }
+      List<String> savedRestaurantIds;
+      long startTimeInMillis = System.currentTimeMillis();
+      try {
+        List<AggregationOperation> stages = project(new Document());
+        stages.add(stage("$out", RESTAURANT_SEARCH_COLLECTION));
+        mongoTemplate.aggregate(Aggregation.newAggregation(stages), RESTAURANTS_COLLECTION,
+            Document.class);
+      } finally {
+        synchronized (updateLock) {
+          rebuilding = false;
+          savedRestaurantIds = new ArrayList<>(savedWhileRebuilding);
+          savedWhileRebuilding.clear();
+        }
+      }
+      for (String restaurantId : savedRestaurantIds) {
+        update(restaurantId);
+      }
+      ensureIndexes();
+      log.info("Rebuilt {} in {} ms", RESTAURANT_SEARCH_COLLECTION,
+          System.currentTimeMillis() - startTimeInMillis);
+    }
+  }
+
+  /**
+   * Rewrites the document of the restaurant, or removes it if the restaurant is gone.
+   */
+  public void update(String restaurantId) {
+    if (restaurantId == null) {
+      return;
+    }
+    List<Document> documents = mongoTemplate.aggregate(
+        Aggregation.newAggregation(project(new Document("restaurantId", restaurantId))),
+        RESTAURANTS_COLLECTION, Document.class).getMappedResults();
+    if (documents.isEmpty()) {
+      mongoTemplate.remove(new Query(Criteria.where("_id").is(restaurantId)),
+          RESTAURANT_SEARCH_COLLECTION);
+    }
+    // Restaurants that share a restaurantId share a document; the last one wins.
+    for (Document document : documents) {
+      mongoTemplate.save(document, RESTAURANT_SEARCH_COLLECTION);
+    }
+  }
+
+  private void ensureIndexes() {
+    mongoTemplate.indexOps(RESTAURANT_SEARCH_COLLECTION).ensureIndex(
+        new GeospatialIndex("location").typed(GeoSpatialIndexType.GEO_2DSPHERE));
+  }
+
+  /**
+   * Stages that make the documents of the restaurants that match the filter.
+   */
+  private static List<AggregationOperation> project(Document filter) {
+    Document withLocation = new Document(filter)
+        .append("restaurantId", filter.getOrDefault("restaurantId", new Document("$type", 2)))
+        .append("latitude", new Document("$type", 1))
+        .append("longitude", new Document("$type", 1));
+    Document projection = new Document("_id", "$restaurantId")
+        .append("name", 1)
+        .append("city", 1)
+        .append("imageUrl", 1)
+        .append("latitude", 1)
+        .append("longitude", 1)
+        .append("location", new Document("type", "Point")
+            .append("coordinates", Arrays.asList("$longitude", "$latitude")))
+        .append("opensAt", 1)
+        .append("closesAt", 1)
+        .append("attributes", 1)
+        // One array of names per menu, and one array of attributes per item of each menu.
+        .append("itemNames", flatten("$menus.items.name", "$$this"))
+        .append("itemAttributes", flatten("$menus.items.attributes",
+            flatten("$$this", "$$this")));
+
+    List<AggregationOperation> stages = new ArrayList<>();
+    stages.add(stage("$match", withLocation));
+    stages.add(stage("$lookup", new Document("from", MENUS_COLLECTION)
+        .append("localField", "restaurantId")
+        .append("foreignField", "restaurantId")
+        .append("as", "menus")));
+    stages.add(stage("$project", projection));
+    return stages;
+  }
+
+  /**
+   * Expression that concatenates the arrays of an array, each mapped by the given expression
+   * of $$this. Missing arrays are skipped.
+   */
+  private static Document flatten(String array, Object element) {
+    return new Document("$reduce", new Document("input", new Document("$ifNull",
+        Arrays.asList(array, new ArrayList<>())))
+        .append("initialValue", new ArrayList<>())
+        .append("in", new Document("$concatArrays", Arrays.asList("$$value",
+            new Document("$ifNull", Arrays.asList(element, new ArrayList<>()))))));
+  }
+
+  static AggregationOperation stage(String operator, Object specification) {
+    return context -> new Document(operator, specification);
+  }
+}
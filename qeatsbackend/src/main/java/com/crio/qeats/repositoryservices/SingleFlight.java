@@ -0,0 +1,95 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * Coalesces concurrent loads of the same keys within this JVM: the first caller to miss a key
+ * loads it, and callers that miss it while that load is in flight wait for it instead of
+ * loading it again. Nothing is kept once a load is done; caching is up to the loader.
+ */
+class SingleFlight<V> {
+
+  private final ConcurrentMap<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+  private final IntConsumer coalescedListener;
+
+  /**
+   * @param coalescedListener told how many keys of a call were awaited rather than loaded
+   */
+  SingleFlight(IntConsumer coalescedListener) {
+    this.coalescedListener = coalescedListener;
+  }
+
+  /**
+   * Values of the given keys. Keys that are not in flight are loaded with one call to the
+   * loader; keys in flight are awaited. A caller whose awaited load fails loads those keys
+   * itself, so a failure is only shared by the callers that loaded together.
+   */
+  Map<String, V> load(List<String> keys, Function<List<String>, Map<String, V>> loader) {
+    Map<String, CompletableFuture<V>> ownLoads = new LinkedHashMap<>();
+    Map<String, CompletableFuture<V>> otherLoads = new LinkedHashMap<>();
+    for (String key : keys) {
+      CompletableFuture<V> load = new CompletableFuture<>();
+      CompletableFuture<V> inFlightLoad = inFlight.putIfAbsent(key, load);
+      if (inFlightLoad == null) {
+        ownLoads.put(key, load);
+      } else {
+        otherLoads.put(key, inFlightLoad);
+      }
+    }
+
+    Map<String, V> values = new LinkedHashMap<>();
+    if (!ownLoads.isEmpty()) {
+      try {
+        Map<String, V> loaded = loader.apply(new ArrayList<>(ownLoads.keySet()));
+        values.putAll(loaded);
+        ownLoads.forEach((key, load) -> load.complete(loaded.get(key)));
+      } finally {
+        for (Map.Entry<String, CompletableFuture<V>> ownLoad : ownLoads.entrySet()) {
+          if (!ownLoad.getValue().isDone()) {
+            ownLoad.getValue().cancel(false);
+          }
+          inFlight.remove(ownLoad.getKey(), ownLoad.getValue());
+        }
+      }
+    }
+
+    List<String> failedKeys = new ArrayList<>();
+    for (Map.Entry<String, CompletableFuture<V>> otherLoad : otherLoads.entrySet()) {
+      try {
+        values.put(otherLoad.getKey(), otherLoad.getValue().join());
+      } catch (CancellationException | CompletionException e) {
+        failedKeys.add(otherLoad.getKey());
+      }
+    }
+    if (otherLoads.size() > failedKeys.size()) {
+      coalescedListener.accept(otherLoads.size() - failedKeys.size());
+    }
+    if (!failedKeys.isEmpty()) {
+      values.putAll(loader.apply(failedKeys));
+    }
+    return values;
+  }
+
+  /**
+   * Number of keys being loaded.
+   */
+  int inFlightCount() {
+    return inFlight.size();
+  }
+}
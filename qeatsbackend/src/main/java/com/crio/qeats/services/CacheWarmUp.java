@@ -0,0 +1,356 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.services;
+
+import ch.hsr.geohash.GeoHash;
+
+import com.crio.qeats.exchanges.GetRestaurantsRequest;
+import com.crio.qeats.utils.GeoHashUtils;
+import com.crio.qeats.utils.GeoLocation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Provider;
+
+import lombok.extern.log4j.Log4j2;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Warms the caches up from the history of the requests served, so the first requests after a
+ * deploy or a flush of Redis do not all go to the database.
+ * The most requested locations (by geohash cell of {@value #LOCATION_GEOHASH_PRECISION}
+ * characters, the size of the cells cached in Redis) and searches (by location and search
+ * string) are counted, and the top ones are saved to a local file every few minutes and on
+ * shutdown. Once the application is ready they are replayed from the center of their cell,
+ * which loads most of the cells their lookups need; the health of "cacheWarmUp" is
+ * OUT_OF_SERVICE until then, so instances are not sent traffic before they are warm.
+ * The locations are replayed again shortly before each peak window, to reload the cells that
+ * expired or are about to. Searches are only replayed at startup: their answers are cached for
+ * about a minute, so replaying them ahead of a peak would not help it.
+ */
+@Log4j2
+@Component
+public class CacheWarmUp {
+
+  static final int LOCATION_GEOHASH_PRECISION = 6;
+
+  private static final String LOCATION = "L";
+  private static final String SEARCH = "S";
+  private static final String SEPARATOR = "\t";
+
+  @Value("${qeats.warmup.enabled:true}")
+  private boolean enabled = true;
+
+  @Value("${qeats.warmup.history-file:qeats-access-history.tsv}")
+  private String historyFile = "qeats-access-history.tsv";
+
+  @Value("${qeats.warmup.top-locations:500}")
+  private int topLocations = 500;
+
+  @Value("${qeats.warmup.top-searches:500}")
+  private int topSearches = 500;
+
+  @Autowired
+  private Provider<RestaurantService> restaurantServiceProvider;
+
+  // Request counts by location cell, and by location cell and search string. Each is pruned to
+  // its top entries when it grows to ten times their number.
+  private final Map<String, LongAdder> locationCounts = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> searchCounts = new ConcurrentHashMap<>();
+
+  // Set while the warm-up replays requests, which are not counted.
+  private final ThreadLocal<Boolean> replaying = ThreadLocal.withInitial(() -> false);
+
+  private volatile boolean warmedUp;
+  private volatile WarmUp lastWarmUp;
+
+  public CacheWarmUp() {
+  }
+
+  CacheWarmUp(RestaurantService restaurantService, String historyFile, int topLocations,
+      int topSearches) {
+    this.restaurantServiceProvider = () -> restaurantService;
+    this.historyFile = historyFile;
+    this.topLocations = topLocations;
+    this.topSearches = topSearches;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Whether the warm-up at startup is done (or it failed, or it is disabled).
+   */
+  public boolean isWarmedUp() {
+    return !enabled || warmedUp;
+  }
+
+  /**
+   * The last warm-up done, or null.
+   */
+  public WarmUp getLastWarmUp() {
+    return lastWarmUp;
+  }
+
+  public void recordLookup(double latitude, double longitude) {
+    if (enabled && !replaying.get()) {
+      count(locationCounts, cellOf(latitude, longitude), topLocations);
+    }
+  }
+
+  /**
+   * Records a search.
+   * @param searchString as returned by {@link RestaurantSearchCache#normalizeSearchString}
+   */
+  public void recordSearch(double latitude, double longitude, String searchString) {
+    if (enabled && !replaying.get() && !searchString.isEmpty()) {
+      count(searchCounts, cellOf(latitude, longitude) + SEPARATOR + searchString, topSearches);
+    }
+  }
+
+  private static String cellOf(double latitude, double longitude) {
+    return GeoHash.withCharacterPrecision(latitude, longitude, LOCATION_GEOHASH_PRECISION)
+        .toBase32();
+  }
+
+  private static void count(Map<String, LongAdder> counts, String key, int top) {
+    counts.computeIfAbsent(key, k -> new LongAdder()).increment();
+    if (counts.size() > 10 * top) {
+      prune(counts, top);
+    }
+  }
+
+  private static synchronized void prune(Map<String, LongAdder> counts, int top) {
+    if (counts.size() > 10 * top) {
+      List<String> topKeys = topKeys(counts, top);
+      counts.keySet().retainAll(topKeys);
+    }
+  }
+
+  private static List<String> topKeys(Map<String, LongAdder> counts, int top) {
+    return counts.entrySet().stream()
+        .sorted(Comparator.comparingLong(
+            (Map.Entry<String, LongAdder> count) -> count.getValue().sum()).reversed())
+        .limit(top)
+        .map(Map.Entry::getKey)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Starts warming up once the application is ready to serve requests.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void warmUpAtStartup() {
+    if (!enabled) {
+      return;
+    }
+    Thread thread = new Thread(() -> {
+      try {
+        loadAccessHistory();
+        warmUp(true);
+      } catch (RuntimeException e) {
+        log.warn("Cache warm-up failed, serving requests with cold caches", e);
+      } finally {
+        warmedUp = true;
+      }
+    }, "cache-warm-up");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Warms up ahead of the peak windows of {@link RestaurantServiceImpl}.
+   */
+  @Scheduled(cron = "${qeats.warmup.cron:0 50 7,12,18 * * *}")
+  public void warmUpBeforePeakHours() {
+    if (enabled && warmedUp) {
+      try {
+        warmUp(false);
+      } catch (RuntimeException e) {
+        log.warn("Cache warm-up failed", e);
+      }
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${qeats.warmup.save-interval-millis:300000}",
+      initialDelayString = "${qeats.warmup.save-interval-millis:300000}")
+  public void saveAccessHistoryPeriodically() {
+    // Until the history is loaded, saving would overwrite it with the few recent requests.
+    if (enabled && warmedUp) {
+      saveAccessHistory();
+    }
+  }
+
+  @PreDestroy
+  public void saveAccessHistoryOnShutdown() {
+    if (enabled && warmedUp) {
+      saveAccessHistory();
+    }
+  }
+
+  /**
+   * Replays the top locations, and the top searches if asked to.
+   */
+  void warmUp(boolean includeSearches) {
+    long startTimeInNanos = System.nanoTime();
+    RestaurantService restaurantService = restaurantServiceProvider.get();
+    LocalTime currentTime = LocalTime.now();
+    int locations = 0;
+    int searches = 0;
+    replaying.set(true);
+    try {
+      for (String cell : topKeys(locationCounts, topLocations)) {
+        GeoLocation center = GeoHashUtils.centerOf(cell);
+        restaurantService.findAllRestaurantsCloseBy(
+            new GetRestaurantsRequest(center.getLatitude(), center.getLongitude()), currentTime);
+        locations++;
+      }
+      if (includeSearches) {
+        for (String search : topKeys(searchCounts, topSearches)) {
+          String[] fields = search.split(SEPARATOR, 2);
+          GeoLocation center = GeoHashUtils.centerOf(fields[0]);
+          GetRestaurantsRequest request =
+              new GetRestaurantsRequest(center.getLatitude(), center.getLongitude());
+          request.setSearchFor(fields[1]);
+          restaurantService.findRestaurantsBySearchQuery(request, currentTime);
+          searches++;
+        }
+      }
+    } finally {
+      replaying.remove();
+    }
+    lastWarmUp = new WarmUp(Instant.now(), locations, searches,
+        (System.nanoTime() - startTimeInNanos) / 1000000);
+    log.info("Cache warm-up replayed {} locations and {} searches in {} ms", locations,
+        searches, lastWarmUp.getDurationMillis());
+  }
+
+  /**
+   * Writes the top locations and searches to the history file, replacing it atomically.
+   * Each line holds a kind (L or S), a count, a cell and, for searches, the search string.
+   */
+  synchronized void saveAccessHistory() {
+    Path path = Paths.get(historyFile).toAbsolutePath();
+    Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try {
+      try (BufferedWriter writer =
+          Files.newBufferedWriter(temporaryPath, StandardCharsets.UTF_8)) {
+        writeCounts(writer, LOCATION, locationCounts, topLocations);
+        writeCounts(writer, SEARCH, searchCounts, topSearches);
+      }
+      Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Could not save the access history to {}", path, e);
+    }
+  }
+
+  private static void writeCounts(BufferedWriter writer, String kind,
+      Map<String, LongAdder> counts, int top) throws IOException {
+    for (String key : topKeys(counts, top)) {
+      LongAdder count = counts.get(key);
+      writer.write(kind + SEPARATOR + (count == null ? 0 : count.sum()) + SEPARATOR + key);
+      writer.newLine();
+    }
+  }
+
+  /**
+   * Adds the counts saved in the history file to the current ones. Saved counts are halved,
+   * so that locations and searches that are no longer requested make way for new ones across
+   * deploys.
+   */
+  synchronized void loadAccessHistory() {
+    Path path = Paths.get(historyFile).toAbsolutePath();
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      log.info("No access history at {}, nothing to warm up", path);
+      return;
+    } catch (IOException e) {
+      log.warn("Could not read the access history from {}", path, e);
+      return;
+    }
+
+    int malformedLines = 0;
+    for (String line : lines) {
+      String[] fields = line.split(SEPARATOR, 3);
+      Map<String, LongAdder> counts = fields[0].equals(LOCATION) ? locationCounts
+          : fields[0].equals(SEARCH) ? searchCounts : null;
+      if (counts == null || fields.length < 3) {
+        malformedLines++;
+        continue;
+      }
+      try {
+        long count = Math.max(1, Long.parseLong(fields[1]) / 2);
+        counts.computeIfAbsent(fields[2], k -> new LongAdder()).add(count);
+      } catch (NumberFormatException e) {
+        malformedLines++;
+      }
+    }
+    if (malformedLines > 0) {
+      log.warn("Skipped {} malformed lines of the access history", malformedLines);
+    }
+  }
+
+  /**
+   * Outcome of a warm-up.
+   */
+  public static final class WarmUp {
+
+    private final Instant finishedAt;
+    private final int locations;
+    private final int searches;
+    private final long durationMillis;
+
+    WarmUp(Instant finishedAt, int locations, int searches, long durationMillis) {
+      this.finishedAt = finishedAt;
+      this.locations = locations;
+      this.searches = searches;
+      this.durationMillis = durationMillis;
+    }
+
+    public Instant getFinishedAt() {
+      return finishedAt;
+    }
+
+    public int getLocations() {
+      return locations;
+    }
+
+    public int getSearches() {
+      return searches;
+    }
+
+    public long getDurationMillis() {
+      return durationMillis;
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.services;
+
+import ch.hsr.geohash.GeoHash;
+
+import com.crio.qeats.configs.RedisCacheFlushedEvent;
+import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.index.RestaurantIndexHolder;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-process cache of the answers of restaurant searches, keyed by the normalized search
+ * string, the geohash cell of the location, the serving radius and the time slot of the
+ * "open now" index (so the open restaurants are the same for every time of a slot).
+ * Searches from the same cell share answers: with the default precision 7 (about 150 m), a
+ * restaurant within that distance of the edge of the serving circle may be included or left
+ * out for a location in the cell.
+ * Empty answers, mostly typos and junk queries, are kept for a shorter time than the others,
+ * so they do not reach the database on every retry but a restaurant that starts matching
+ * shows up soon. All answers are dropped when a restaurant or a menu is saved or deleted
+ * through this service. Cached lists and restaurants are shared between requests; they must
+ * not be modified.
+ */
+@Component
+public class RestaurantSearchCache extends AbstractMongoEventListener<Object> {
+
+  // Collections the answers are computed from.
+  private static final Set<String> SEARCHED_COLLECTIONS =
+      new HashSet<>(Arrays.asList("restaurants", "menus"));
+
+  @Value("${qeats.cache.search.enabled:true}")
+  private boolean enabled = true;
+
+  @Value("${qeats.cache.search.geohash-precision:7}")
+  private int geoHashPrecision = 7;
+
+  @Value("${qeats.cache.search.maximum-weight:100000}")
+  private long maximumWeight = 100000;
+
+  @Value("${qeats.cache.search.expire-after-write-seconds:60}")
+  private long expireAfterWriteInSeconds = 60;
+
+  @Value("${qeats.cache.search.empty-expire-after-write-seconds:10}")
+  private long emptyExpireAfterWriteInSeconds = 10;
+
+  @Autowired
+  private RestaurantIndexHolder restaurantIndexHolder;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
+  private Ticker ticker = Ticker.systemTicker();
+
+  private Cache<String, List<Restaurant>> searches;
+
+  public RestaurantSearchCache() {
+  }
+
+  RestaurantSearchCache(boolean enabled, int geoHashPrecision, Ticker ticker) {
+    this.enabled = enabled;
+    this.geoHashPrecision = geoHashPrecision;
+    this.ticker = ticker;
+  }
+
+  @PostConstruct
+  public void initCache() {
+    searches = Caffeine.newBuilder()
+        .maximumWeight(maximumWeight)
+        .weigher((String key, List<Restaurant> restaurants) -> 1 + restaurants.size())
+        .expireAfter(new Expiry<String, List<Restaurant>>() {
+          @Override
+          public long expireAfterCreate(String key, List<Restaurant> restaurants,
+              long currentTime) {
+            return TimeUnit.SECONDS.toNanos(restaurants.isEmpty()
+                ? emptyExpireAfterWriteInSeconds : expireAfterWriteInSeconds);
+          }
+
+          @Override
+          public long expireAfterUpdate(String key, List<Restaurant> restaurants,
+              long currentTime, long currentDuration) {
+            return expireAfterCreate(key, restaurants, currentTime);
+          }
+
+          @Override
+          public long expireAfterRead(String key, List<Restaurant> restaurants,
+              long currentTime, long currentDuration) {
+            return currentDuration;
+          }
+        })
+        .ticker(ticker)
+        .recordStats()
+        .build();
+    MeterRegistry registry = meterRegistry != null ? meterRegistry : Metrics.globalRegistry;
+    CaffeineCacheMetrics.monitor(registry, searches, "restaurantSearches");
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * The search string as it is searched for: without leading, trailing or repeated
+   * whitespace.
+   */
+  public static String normalizeSearchString(String searchString) {
+    return searchString.trim().replaceAll("\\s+", " ");
+  }
+
+  public int timeSlotOf(LocalTime currentTime) {
+    return restaurantIndexHolder.timeSlotOf(currentTime);
+  }
+
+  /**
+   * Key of the answer of a search. Searches ignore case, so the key does too.
+   * @param searchString as returned by {@link #normalizeSearchString(String)}
+   */
+  public String keyOf(String searchString, double latitude, double longitude,
+      double servingRadiusInKms, int timeSlot) {
+    return GeoHash.withCharacterPrecision(latitude, longitude, geoHashPrecision).toBase32()
+        + ':' + servingRadiusInKms + ':' + timeSlot + ':' + searchString.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * The cached answer, or null.
+   */
+  public List<Restaurant> get(String key) {
+    return searches.getIfPresent(key);
+  }
+
+  public void put(String key, List<Restaurant> restaurants) {
+    searches.put(key, Collections.unmodifiableList(new ArrayList<>(restaurants)));
+  }
+
+  @EventListener(RedisCacheFlushedEvent.class)
+  public void invalidateAll() {
+    searches.invalidateAll();
+  }
+
+  @Override
+  public void onAfterSave(AfterSaveEvent<Object> event) {
+    if (SEARCHED_COLLECTIONS.contains(event.getCollectionName())) {
+      invalidateAll();
+    }
+  }
+
+  @Override
+  public void onAfterDelete(AfterDeleteEvent<Object> event) {
+    if (SEARCHED_COLLECTIONS.contains(event.getCollectionName())) {
+      invalidateAll();
+    }
+  }
+}
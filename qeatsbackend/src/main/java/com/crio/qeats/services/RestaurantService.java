@@ -7,9 +7,11 @@
 
 package com.crio.qeats.services;
 
+import com.crio.qeats.exchanges.GetRestaurantsBatchRequest;
 import com.crio.qeats.exchanges.GetRestaurantsRequest;
 import com.crio.qeats.exchanges.GetRestaurantsResponse;
 import java.time.LocalTime;
+import java.util.function.Consumer;
 
 public interface RestaurantService {
 
@@ -27,6 +29,17 @@ public interface RestaurantService {
   GetRestaurantsResponse findAllRestaurantsCloseBy(
       GetRestaurantsRequest getRestaurantsRequest, LocalTime currentTime);
 
+  /**
+   * Identical to {@link #findAllRestaurantsCloseBy(GetRestaurantsRequest, LocalTime)} for many
+   * locations at once; locations close to each other share the lookup of their surroundings.
+   * @param getRestaurantsBatchRequest valid lat/longs
+   * @param currentTime current time.
+   * @param consumer receives one GetRestaurantsResponse per location, in the order of the
+   *     locations
+   */
+  void findAllRestaurantsCloseBy(GetRestaurantsBatchRequest getRestaurantsBatchRequest,
+      LocalTime currentTime, Consumer<GetRestaurantsResponse> consumer);
+
   /**
    * Get the restaurants by processing the query.
    * -Ordering rules
@@ -8,15 +8,22 @@
 package com.crio.qeats.services;
 
 import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.exchanges.GetRestaurantsBatchRequest;
 import com.crio.qeats.exchanges.GetRestaurantsRequest;
 import com.crio.qeats.exchanges.GetRestaurantsResponse;
+import com.crio.qeats.repositoryservices.RankedRestaurantMerger;
+import com.crio.qeats.repositoryservices.RankedRestaurantMerger.Tier;
 import com.crio.qeats.repositoryservices.RestaurantRepositoryService;
+import com.crio.qeats.repositoryservices.RestaurantSearchAggregation;
+import com.crio.qeats.utils.DistanceCursor;
 import com.crio.qeats.utils.GeoUtils;
 
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
@@ -24,10 +31,12 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 import lombok.extern.log4j.Log4j2;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Service;
 
@@ -48,6 +57,16 @@ public class RestaurantServiceImpl implements RestaurantService {
   @Autowired
   private RestaurantRepositoryService restaurantRepositoryService;
 
+  @Autowired(required = false)
+  private RestaurantSearchCache restaurantSearchCache;
+
+  @Autowired(required = false)
+  private CacheWarmUp cacheWarmUp;
+
+  // With "mongo-facet", every kind of match is found with a single aggregation.
+  @Value("${qeats.search.source:mongo}")
+  private String searchSource;
+
   Boolean isWithinPeakHours(LocalTime currentTime) {
     if (currentTime.compareTo(morningPeakHourStartTime) >= 0
         && currentTime.compareTo(morningPeakHourEndTime) <= 0) {
@@ -72,6 +91,22 @@ public class RestaurantServiceImpl implements RestaurantService {
     return servingRadiusInKms;
   }
 
+  /**
+   * Key of a search in the search cache, or null if searches are not cached.
+   */
+  private String searchCacheKey(Double latitude, Double longitude, String searchString,
+      LocalTime currentTime, Double servingRadiusInKms) {
+    if (restaurantSearchCache == null || !restaurantSearchCache.isEnabled()) {
+      return null;
+    }
+    return restaurantSearchCache.keyOf(searchString, latitude, longitude, servingRadiusInKms,
+        restaurantSearchCache.timeSlotOf(currentTime));
+  }
+
+  private boolean isSingleQuerySearch() {
+    return RestaurantSearchAggregation.MONGO_FACET_SEARCH_SOURCE.equals(searchSource);
+  }
+
   // TODO: CRIO_TASK_MODULE_RESTAURANTSAPI - Implement findAllRestaurantsCloseby.
   // Check RestaurantService.java file for the interface contract.
   @Override
@@ -79,6 +114,13 @@ public class RestaurantServiceImpl implements RestaurantService {
       GetRestaurantsRequest getRestaurantsRequest, LocalTime currentTime) {
     Double servingRadiusInKms = getServingRadius(currentTime);
     log.info("Coverage Radius: " + servingRadiusInKms.toString());
+    if (cacheWarmUp != null) {
+      cacheWarmUp.recordLookup(getRestaurantsRequest.getLatitude(),
+          getRestaurantsRequest.getLongitude());
+    }
+    if (getRestaurantsRequest.getLimit() != null || getRestaurantsRequest.getCursor() != null) {
+      return findRestaurantsCloseByPage(getRestaurantsRequest, currentTime, servingRadiusInKms);
+    }
     List<Restaurant> restaurants = restaurantRepositoryService.findAllRestaurantsCloseBy(
         getRestaurantsRequest.getLatitude(), getRestaurantsRequest.getLongitude(),
         currentTime, servingRadiusInKms);
@@ -86,6 +128,49 @@ public class RestaurantServiceImpl implements RestaurantService {
     return GetRestaurantsResponse.builder().restaurants(restaurants).build();
   }
 
+  @Override
+  public void findAllRestaurantsCloseBy(GetRestaurantsBatchRequest getRestaurantsBatchRequest,
+      LocalTime currentTime, Consumer<GetRestaurantsResponse> consumer) {
+    Double servingRadiusInKms = getServingRadius(currentTime);
+    log.info("Coverage Radius: " + servingRadiusInKms.toString());
+    if (cacheWarmUp != null) {
+      getRestaurantsBatchRequest.getLocations().forEach(location ->
+          cacheWarmUp.recordLookup(location.getLatitude(), location.getLongitude()));
+    }
+    restaurantRepositoryService.findAllRestaurantsCloseBy(
+        getRestaurantsBatchRequest.getLocations(), currentTime, servingRadiusInKms,
+        restaurants -> consumer.accept(
+            GetRestaurantsResponse.builder().restaurants(restaurants).build()));
+  }
+
+  /**
+   * One page of the nearby restaurants, closest first. One extra restaurant is fetched to know
+   * whether there is a next page; its cursor points at the last restaurant of this page.
+   */
+  private GetRestaurantsResponse findRestaurantsCloseByPage(
+      GetRestaurantsRequest getRestaurantsRequest, LocalTime currentTime,
+      Double servingRadiusInKms) {
+    int limit = getRestaurantsRequest.getLimit() != null
+        ? getRestaurantsRequest.getLimit() : GetRestaurantsRequest.DEFAULT_LIMIT;
+    DistanceCursor after = getRestaurantsRequest.getCursor() != null
+        ? DistanceCursor.decode(getRestaurantsRequest.getCursor()) : null;
+    Double latitude = getRestaurantsRequest.getLatitude();
+    Double longitude = getRestaurantsRequest.getLongitude();
+
+    List<Restaurant> restaurants = restaurantRepositoryService
+        .findRestaurantsCloseByOrderedByDistance(latitude, longitude, currentTime,
+            servingRadiusInKms, limit + 1, after);
+    String nextCursor = null;
+    if (restaurants.size() > limit) {
+      restaurants = new ArrayList<>(restaurants.subList(0, limit));
+      Restaurant last = restaurants.get(limit - 1);
+      nextCursor = new DistanceCursor(GeoUtils.findDistanceInKm(latitude, longitude,
+          last.getLatitude(), last.getLongitude()), last.getRestaurantId()).encode();
+    }
+    return GetRestaurantsResponse.builder().restaurants(restaurants).nextCursor(nextCursor)
+        .build();
+  }
+
   // TODO: CRIO_TASK_MODULE_RESTAURANTSEARCH
   // Implement findRestaurantsBySearchQuery. The request object has the search
   // string.
@@ -104,52 +189,32 @@ public class RestaurantServiceImpl implements RestaurantService {
 
     Double latitude = getRestaurantsRequest.getLatitude();
     Double longitude = getRestaurantsRequest.getLongitude();
-    String searchString = getRestaurantsRequest.getSearchFor();
+    String searchString =
+        RestaurantSearchCache.normalizeSearchString(getRestaurantsRequest.getSearchFor());
     Double servingRadiusInKms = getServingRadius(currentTime);
     log.info("Coverage Radius: " + servingRadiusInKms.toString());
 
-    if (!searchString.equals("")) {
-      List<Restaurant> uniqueRestaurants = new ArrayList<Restaurant>();
-
-      List<Restaurant> restaurantsByName = restaurantRepositoryService
-          .findRestaurantsByName(latitude,
-                longitude, searchString, currentTime, servingRadiusInKms);
-
-      List<Restaurant> restaurantsByAttributes = restaurantRepositoryService
-          .findRestaurantsByAttributes(latitude,
-                longitude, searchString, currentTime, servingRadiusInKms);
-
-      List<Restaurant> restaurantsByItemName = restaurantRepositoryService
-          .findRestaurantsByItemName(latitude,
-                longitude, searchString, currentTime, servingRadiusInKms);
-
-      List<Restaurant> restaurantsByItemAttributes = restaurantRepositoryService
-          .findRestaurantsByItemAttributes(latitude,
-                longitude, searchString, currentTime, servingRadiusInKms);
-
-      // add elements to set to ensure unique
-      restaurantsByName.stream().forEach(restaurant -> {
-        uniqueRestaurants.add(restaurant);
-      });
-
-      restaurantsByAttributes.stream().forEach(restaurant -> {
-        uniqueRestaurants.add(restaurant);
-      });
-
-      restaurantsByItemName.stream().forEach(restaurant -> {
-        uniqueRestaurants.add(restaurant);
-      });
-
-      restaurantsByItemAttributes.stream().forEach(restaurant -> {
-        uniqueRestaurants.add(restaurant);
-      });
+    if (cacheWarmUp != null) {
+      cacheWarmUp.recordSearch(latitude, longitude, searchString);
+    }
+    String cacheKey =
+        searchCacheKey(latitude, longitude, searchString, currentTime, servingRadiusInKms);
+    if (cacheKey != null) {
+      List<Restaurant> cachedRestaurants = restaurantSearchCache.get(cacheKey);
+      if (cachedRestaurants != null) {
+        return GetRestaurantsResponse.builder().restaurants(cachedRestaurants).build();
+      }
+    }
 
-      // add set's element to list
-      uniqueRestaurants.stream().forEach(restaurant -> {
-        restaurants.add(restaurant);
-      });
+    if (!searchString.equals("")) {
+      // The repository service ranks the kinds of match, whatever the search source.
+      restaurants.addAll(restaurantRepositoryService.findRestaurantsBySearchString(latitude,
+          longitude, searchString, currentTime, servingRadiusInKms));
     }
 
+    if (cacheKey != null) {
+      restaurantSearchCache.put(cacheKey, restaurants);
+    }
     return GetRestaurantsResponse.builder().restaurants(restaurants).build();
   }
 
@@ -164,11 +229,34 @@ public class RestaurantServiceImpl implements RestaurantService {
     int numThreads = 4;
     Double latitude = getRestaurantsRequest.getLatitude();
     Double longitude = getRestaurantsRequest.getLongitude();
-    String searchString = getRestaurantsRequest.getSearchFor();
+    String searchString =
+        RestaurantSearchCache.normalizeSearchString(getRestaurantsRequest.getSearchFor());
     Double servingRadiusInKms = getServingRadius(currentTime);
-    List<Restaurant> restaurants = new ArrayList<>();
+    if (cacheWarmUp != null) {
+      cacheWarmUp.recordSearch(latitude, longitude, searchString);
+    }
+    String cacheKey =
+        searchCacheKey(latitude, longitude, searchString, currentTime, servingRadiusInKms);
+    if (cacheKey != null) {
+      List<Restaurant> cachedRestaurants = restaurantSearchCache.get(cacheKey);
+      if (cachedRestaurants != null) {
+        return GetRestaurantsResponse.builder().restaurants(cachedRestaurants).build();
+      }
+    }
+    if (isSingleQuerySearch()) {
+      // Nothing to run in parallel.
+      List<Restaurant> restaurants = restaurantRepositoryService.findRestaurantsBySearchString(
+          latitude, longitude, searchString, currentTime, servingRadiusInKms);
+      if (cacheKey != null) {
+        restaurantSearchCache.put(cacheKey, restaurants);
+      }
+      return GetRestaurantsResponse.builder().restaurants(restaurants).build();
+    }
+    RankedRestaurantMerger<Restaurant> merger = RankedRestaurantMerger.ofRestaurants();
+    // Answers missing the results of a failed query are not cached.
+    boolean complete = true;
     ExecutorService executor = Executors.newFixedThreadPool(numThreads);
-    List<Future<List<Restaurant>>> tasks = new ArrayList<Future<List<Restaurant>>>();
+    Map<Tier, Future<List<Restaurant>>> tasks = new EnumMap<>(Tier.class);
 
     Future<List<Restaurant>> future = executor.submit(new Callable<List<Restaurant>>() {
       @Override
@@ -178,7 +266,7 @@ public class RestaurantServiceImpl implements RestaurantService {
             servingRadiusInKms);
       }
     });
-    tasks.add(future);
+    tasks.put(Tier.EXACT_NAME, future);
     future = executor.submit(new Callable<List<Restaurant>>() {
       @Override
       public List<Restaurant> call() throws Exception {
@@ -186,7 +274,7 @@ public class RestaurantServiceImpl implements RestaurantService {
               longitude, searchString, currentTime, servingRadiusInKms);
       }
     });
-    tasks.add(future);
+    tasks.put(Tier.ATTRIBUTE, future);
     future = executor.submit(new Callable<List<Restaurant>>() {
       @Override
       public List<Restaurant> call() throws Exception {
@@ -194,7 +282,7 @@ public class RestaurantServiceImpl implements RestaurantService {
               longitude, searchString, currentTime, servingRadiusInKms);
       }
     });
-    tasks.add(future);
+    tasks.put(Tier.ITEM_NAME, future);
     future = executor.submit(new Callable<List<Restaurant>>() {
       @Override
       public List<Restaurant> call() throws Exception {
@@ -203,29 +291,30 @@ public class RestaurantServiceImpl implements RestaurantService {
                     longitude, searchString, currentTime, servingRadiusInKms);
       }
     });
-    tasks.add(future);
-
-    tasks.stream().forEach(task -> {
-      try {
-        task.get().stream().forEach(t -> {
-          restaurants.add(t);
-        });
-      } catch (RuntimeException e) {
-        e.printStackTrace();
-        log.info("aakash RuntimeException: {}", e.getMessage());
-      } catch (InterruptedException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-        log.info("aakash InterruptedException: {}", e.getMessage());
-      } catch (ExecutionException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-        log.info("aakash ExecutionException: {}", e.getMessage());
-      } finally {
-        executor.shutdown();
+    tasks.put(Tier.ITEM_ATTRIBUTE, future);
+
+    try {
+      for (Map.Entry<Tier, Future<List<Restaurant>>> task : tasks.entrySet()) {
+        try {
+          merger.add(task.getKey(), task.getValue().get());
+        } catch (ExecutionException e) {
+          log.warn("Search for {} failed to find matches of kind {}", searchString,
+              task.getKey(), e.getCause());
+          complete = false;
+        }
       }
-    });
+    } catch (InterruptedException e) {
+      // Answer with the matches found so far.
+      Thread.currentThread().interrupt();
+      complete = false;
+    } finally {
+      executor.shutdownNow();
+    }
 
+    List<Restaurant> restaurants = merger.merge();
+    if (cacheKey != null && complete) {
+      restaurantSearchCache.put(cacheKey, restaurants);
+    }
     return GetRestaurantsResponse.builder()
             .restaurants(restaurants)
             .build();
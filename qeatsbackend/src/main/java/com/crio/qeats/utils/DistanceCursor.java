@@ -0,0 +1,81 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+
+import lombok.Data;
+
+/**
+ * Position in a list of restaurants ordered by distance, then by restaurantId.
+ * It travels to clients as an opaque URL-safe string that keeps the distance bit for bit, so a
+ * page resumes exactly after the last restaurant of the previous one even if restaurants were
+ * added or closed in between.
+ */
+@Data
+public class DistanceCursor {
+
+  public static final Comparator<DistanceCursor> ORDER =
+      Comparator.comparingDouble(DistanceCursor::getDistanceInKms)
+          .thenComparing(DistanceCursor::getRestaurantId);
+
+  private final double distanceInKms;
+  private final String restaurantId;
+
+  /**
+   * True if a restaurant at the given distance comes after this position.
+   */
+  public boolean isBefore(double distanceInKms, String restaurantId) {
+    int byDistance = Double.compare(this.distanceInKms, distanceInKms);
+    return byDistance < 0 || (byDistance == 0 && this.restaurantId.compareTo(restaurantId) < 0);
+  }
+
+  /**
+   * True if a restaurant at the given distance comes before this position.
+   */
+  public boolean isAfter(double distanceInKms, String restaurantId) {
+    int byDistance = Double.compare(this.distanceInKms, distanceInKms);
+    return byDistance > 0 || (byDistance == 0 && this.restaurantId.compareTo(restaurantId) > 0);
+  }
+
+  public String encode() {
+    String position = Long.toHexString(Double.doubleToLongBits(distanceInKms)) + ":"
+        + restaurantId;
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(position.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Reads a cursor produced by {@link #encode()}.
+   * @throws IllegalArgumentException if the cursor was not produced by this class
+   */
+  public static DistanceCursor decode(String cursor) {
+    String position;
+    try {
+      position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid cursor " + cursor, e);
+    }
+    int separator = position.indexOf(':');
+    if (separator <= 0) {
+      throw new IllegalArgumentException("Invalid cursor " + cursor);
+    }
+    double distanceInKms;
+    try {
+      distanceInKms = Double.longBitsToDouble(
+          Long.parseUnsignedLong(position.substring(0, separator), 16));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid cursor " + cursor, e);
+    }
+    if (!(distanceInKms >= 0)) {
+      throw new IllegalArgumentException("Invalid cursor " + cursor);
+    }
+    return new DistanceCursor(distanceInKms, position.substring(separator + 1));
+  }
+}
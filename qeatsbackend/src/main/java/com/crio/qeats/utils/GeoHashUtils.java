@@ -0,0 +1,291 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.utils;
+
+import ch.hsr.geohash.GeoHash;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Geohash cell arithmetic used to cover a serving radius with cells, either of a fixed
+ * precision or of mixed precisions.
+ */
+public class GeoHashUtils {
+
+  public static final int MAX_PRECISION = 12;
+
+  private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+  // Cells are only classified as interior for circles smaller than a quarter of the earth's
+  // circumference, where the farthest point of a cell from the centre is one of its corners.
+  private static final double MAX_INTERIOR_RADIUS_IN_KMS = 10000.0;
+
+  // Mean radius of the earth (6371 km) times PI / 180.
+  public static final double KMS_PER_DEGREE_OF_LATITUDE = 111.195;
+
+  private GeoHashUtils() { /* utility */ }
+
+  /**
+   * Height of a geohash cell of the given precision, in degrees of latitude.
+   */
+  public static double cellHeightInDegrees(int precision) {
+    int latitudeBits = (5 * precision) / 2;
+    return 180.0 / (1L << latitudeBits);
+  }
+
+  /**
+   * Width of a geohash cell of the given precision, in degrees of longitude.
+   */
+  public static double cellWidthInDegrees(int precision) {
+    int longitudeBits = (5 * precision + 1) / 2;
+    return 360.0 / (1L << longitudeBits);
+  }
+
+  /**
+   * Upper bound of the diagonal of a geohash cell of the given precision (cells are widest at
+   * the equator).
+   */
+  public static double cellDiagonalInKms(int precision) {
+    double heightInKms = cellHeightInDegrees(precision) * KMS_PER_DEGREE_OF_LATITUDE;
+    double widthInKms = cellWidthInDegrees(precision) * KMS_PER_DEGREE_OF_LATITUDE;
+    return Math.sqrt(heightInKms * heightInKms + widthInKms * widthInKms);
+  }
+
+  /**
+   * Finest precision whose cells are still at least half the radius tall, so that a circle of
+   * the given radius is covered by a handful of cells (at most 5 x 5 away from the poles).
+   */
+  public static int precisionForRadius(double radiusInKms) {
+    int precision = 1;
+    while (precision < MAX_PRECISION
+        && cellHeightInDegrees(precision + 1) * KMS_PER_DEGREE_OF_LATITUDE >= radiusInKms / 2) {
+      precision++;
+    }
+    return precision;
+  }
+
+  /**
+   * Geohashes of all the cells of the given precision that intersect the circle around
+   * latitude/longitude. Cells in the corners of the bounding box that the circle does not reach
+   * are left out.
+   * @return list of distinct base32 geohashes, ordered south to north and west to east
+   */
+  public static List<String> coveringCells(double latitude, double longitude,
+      double radiusInKms, int precision) {
+    double latitudeDelta = radiusInKms / KMS_PER_DEGREE_OF_LATITUDE;
+    double minLatitude = Math.max(-90.0, latitude - latitudeDelta);
+    double maxLatitude = Math.min(90.0, latitude + latitudeDelta);
+
+    // The box is widest at whichever edge is closest to a pole.
+    double widestLatitude = Math.max(Math.abs(minLatitude), Math.abs(maxLatitude));
+    double cosLatitude = Math.cos(Math.toRadians(widestLatitude));
+    double longitudeDelta = cosLatitude > 1e-9 ? latitudeDelta / cosLatitude : 180.0;
+
+    double height = cellHeightInDegrees(precision);
+    double width = cellWidthInDegrees(precision);
+    long rows = 1L << ((5 * precision) / 2);
+    long columns = 1L << ((5 * precision + 1) / 2);
+
+    long firstRow = (long) Math.floor((minLatitude + 90.0) / height);
+    long lastRow = Math.min(rows - 1, (long) Math.floor((maxLatitude + 90.0) / height));
+    long firstColumn;
+    long lastColumn;
+    if (longitudeDelta >= 180.0) {
+      firstColumn = 0;
+      lastColumn = columns - 1;
+    } else {
+      firstColumn = (long) Math.floor((longitude - longitudeDelta + 180.0) / width);
+      lastColumn = (long) Math.floor((longitude + longitudeDelta + 180.0) / width);
+    }
+
+    Set<String> cells = new LinkedHashSet<>();
+    for (long row = firstRow; row <= lastRow; row++) {
+      double cellLatitude = -90.0 + (row + 0.5) * height;
+      for (long column = firstColumn; column <= lastColumn; column++) {
+        long wrappedColumn = Math.floorMod(column, columns);
+        double cellLongitude = -180.0 + (wrappedColumn + 0.5) * width;
+        if (!intersectsCircle(latitude, longitude, radiusInKms,
+            cellLatitude, cellLongitude, height, width)) {
+          continue;
+        }
+        cells.add(GeoHash.withCharacterPrecision(cellLatitude, cellLongitude, precision)
+            .toBase32());
+      }
+    }
+    return new ArrayList<>(cells);
+  }
+
+  /**
+   * Whether the point of the cell nearest to latitude/longitude is within the radius.
+   * The tolerance absorbs the error of picking the nearest point on a lat/long grid rather than
+   * on the sphere, so a cell is never wrongly left out.
+   */
+  private static boolean intersectsCircle(double latitude, double longitude, double radiusInKms,
+      double cellLatitude, double cellLongitude, double height, double width) {
+    double nearestLatitude = Math.max(cellLatitude - height / 2,
+        Math.min(cellLatitude + height / 2, latitude));
+    double longitudeOffset = longitude - cellLongitude;
+    longitudeOffset -= 360.0 * Math.floor((longitudeOffset + 180.0) / 360.0);
+    double nearestLongitude = cellLongitude
+        + Math.max(-width / 2, Math.min(width / 2, longitudeOffset));
+    return GeoUtils.findDistanceInKm(latitude, longitude, nearestLatitude, nearestLongitude)
+        <= radiusInKms * 1.001 + 0.001;
+  }
+
+  /**
+   * Covers the circle around latitude/longitude with cells of mixed precisions: the coarsest
+   * cells that lie entirely within the circle (interior cells), plus cells of maxPrecision along
+   * its boundary. Expanding every cell to maxPrecision gives every cell of that precision that
+   * can hold a point within the radius, whatever the radius, so data stored per maxPrecision
+   * cell serves every radius.
+   * @return cells ordered south to north and west to east at the coarsest level, then in
+   *     geohash order within each of them
+   */
+  public static List<CoveringCell> hierarchicalCovering(double latitude, double longitude,
+      double radiusInKms, int maxPrecision) {
+    List<CoveringCell> covering = new ArrayList<>();
+    int precision = Math.min(maxPrecision, precisionForRadius(radiusInKms));
+    for (String cell : coveringCells(latitude, longitude, radiusInKms, precision)) {
+      refine(cell, latitude, longitude, radiusInKms, maxPrecision, covering);
+    }
+    return covering;
+  }
+
+  /**
+   * All cells of the given precision within a cell, in geohash order.
+   */
+  public static List<String> descendants(String geoHash, int precision) {
+    List<String> descendants = new ArrayList<>();
+    descendants.add(geoHash);
+    for (int length = geoHash.length(); length < precision; length++) {
+      List<String> children = new ArrayList<>(descendants.size() * BASE32.length());
+      for (String descendant : descendants) {
+        for (int i = 0; i < BASE32.length(); i++) {
+          children.add(descendant + BASE32.charAt(i));
+        }
+      }
+      descendants = children;
+    }
+    return descendants;
+  }
+
+  private static void refine(String cell, double latitude, double longitude,
+      double radiusInKms, int maxPrecision, List<CoveringCell> covering) {
+    double[] bounds = decodeBounds(cell);
+    if (isWithinCircle(latitude, longitude, radiusInKms, bounds)) {
+      covering.add(new CoveringCell(cell, true));
+      return;
+    }
+    if (cell.length() >= maxPrecision) {
+      covering.add(new CoveringCell(cell, false));
+      return;
+    }
+
+    double height = cellHeightInDegrees(cell.length() + 1);
+    double width = cellWidthInDegrees(cell.length() + 1);
+    for (int i = 0; i < BASE32.length(); i++) {
+      String child = cell + BASE32.charAt(i);
+      double[] childBounds = decodeBounds(child);
+      if (intersectsCircle(latitude, longitude, radiusInKms,
+          (childBounds[0] + childBounds[1]) / 2, (childBounds[2] + childBounds[3]) / 2,
+          height, width)) {
+        refine(child, latitude, longitude, radiusInKms, maxPrecision, covering);
+      }
+    }
+  }
+
+  /**
+   * Whether every point of the cell is strictly within the radius. Distance from the centre
+   * along a meridian, or along a parallel that does not cross the meridian opposite the
+   * centre, has no maximum inside an edge, so checking the corners is enough. The margin keeps
+   * rounding from ever classifying a boundary point as inside.
+   */
+  private static boolean isWithinCircle(double latitude, double longitude, double radiusInKms,
+      double[] bounds) {
+    if (radiusInKms > MAX_INTERIOR_RADIUS_IN_KMS) {
+      return false;
+    }
+    double oppositeLongitude = longitude + 180.0;
+    oppositeLongitude -= 360.0 * Math.floor((oppositeLongitude - bounds[2]) / 360.0);
+    if (oppositeLongitude < bounds[3]) {
+      return false;
+    }
+    double limit = radiusInKms - 1e-6;
+    return GeoUtils.findDistanceInKm(latitude, longitude, bounds[0], bounds[2]) < limit
+        && GeoUtils.findDistanceInKm(latitude, longitude, bounds[0], bounds[3]) < limit
+        && GeoUtils.findDistanceInKm(latitude, longitude, bounds[1], bounds[2]) < limit
+        && GeoUtils.findDistanceInKm(latitude, longitude, bounds[1], bounds[3]) < limit;
+  }
+
+  /**
+   * Center of a base32 geohash cell.
+   */
+  public static GeoLocation centerOf(String geoHash) {
+    double[] bounds = decodeBounds(geoHash);
+    return new GeoLocation((bounds[0] + bounds[1]) / 2, (bounds[2] + bounds[3]) / 2);
+  }
+
+  /**
+   * Bounds of a base32 geohash cell.
+   * @return {minLatitude, maxLatitude, minLongitude, maxLongitude}
+   */
+  static double[] decodeBounds(String geoHash) {
+    double[] latitudes = {-90.0, 90.0};
+    double[] longitudes = {-180.0, 180.0};
+    boolean isLongitudeBit = true;
+    for (int i = 0; i < geoHash.length(); i++) {
+      int value = BASE32.indexOf(geoHash.charAt(i));
+      if (value < 0) {
+        throw new IllegalArgumentException("Not a geohash: " + geoHash);
+      }
+      for (int bit = 4; bit >= 0; bit--) {
+        double[] range = isLongitudeBit ? longitudes : latitudes;
+        double middle = (range[0] + range[1]) / 2;
+        if ((value & (1 << bit)) != 0) {
+          range[0] = middle;
+        } else {
+          range[1] = middle;
+        }
+        isLongitudeBit = !isLongitudeBit;
+      }
+    }
+    return new double[] {latitudes[0], latitudes[1], longitudes[0], longitudes[1]};
+  }
+
+  /**
+   * A cell of a hierarchical covering.
+   */
+  public static final class CoveringCell {
+
+    private final String geoHash;
+    private final boolean interior;
+
+    CoveringCell(String geoHash, boolean interior) {
+      this.geoHash = geoHash;
+      this.interior = interior;
+    }
+
+    public String getGeoHash() {
+      return geoHash;
+    }
+
+    /**
+     * True if the whole cell is within the radius, so its points need no distance check.
+     */
+    public boolean isInterior() {
+      return interior;
+    }
+
+    @Override
+    public String toString() {
+      return interior ? geoHash + "(interior)" : geoHash;
+    }
+  }
+}
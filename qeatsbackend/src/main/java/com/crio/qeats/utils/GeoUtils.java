@@ -1,4 +1,3 @@
-
 /*
  *
  *  * Copyright (c) Crio.Do 2019. All rights reserved
@@ -7,6 +6,8 @@
 
 package com.crio.qeats.utils;
 
+import java.util.Arrays;
+
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
@@ -14,42 +15,160 @@ import lombok.Data;
 @AllArgsConstructor
 public class GeoUtils {
 
+  public static final double EARTH_RADIUS_IN_KMS = 6371;
+
   public static double findDistanceInKm(double srcLatitude, double srcLongitude,
       double dstLatitude, double dstLongitude) {
-    return distance(srcLatitude, dstLatitude, srcLongitude, dstLongitude, 0, 0);
+    return distance(srcLatitude, dstLatitude, srcLongitude, dstLongitude);
+  }
+
+  /**
+   * Precomputes everything that only depends on the origin and the radius, to test many
+   * points against one circle cheaply.
+   * @see RadiusFilter
+   */
+  public static RadiusFilter radiusFilter(double latitude, double longitude,
+      double radiusInKms) {
+    return new RadiusFilter(latitude, longitude, radiusInKms);
   }
 
   /**
-   * THIS IS BORROWED CODE. Calculate distance between two points in latitude and longitude taking
-   * into account height difference. If you are not interested in height difference pass 0.0. Uses
-   * Haversine method as its base.
+   * THIS IS BORROWED CODE. Calculate distance between two points in latitude and longitude.
+   * Uses Haversine method as its base. The original also took a height difference, which we
+   * always passed as zero.
    *
-   * <p>lat1, lon1 Start point lat2, lon2 End point el1 Start altitude in meters el2 End altitude
-   * in
-   * meters
+   * <p>lat1, lon1 Start point lat2, lon2 End point
    *
    * @returns Distance in Kilo Meters
    */
-  private static double distance(
-      double lat1, double lat2, double lon1, double lon2, double el1, double el2) {
+  private static double distance(double lat1, double lat2, double lon1, double lon2) {
+    return haversine(lat1, Math.cos(Math.toRadians(lat1)), lat2, lon2 - lon1);
+  }
 
-    final int R = 6371; // Radius of the earth
+  private static double haversine(double lat1, double cosLat1, double lat2,
+      double lonDifference) {
+    final double R = EARTH_RADIUS_IN_KMS;
 
     double latDistance = Math.toRadians(lat2 - lat1);
-    double lonDistance = Math.toRadians(lon2 - lon1);
+    double lonDistance = Math.toRadians(lonDifference);
+    double sinLatDistance = Math.sin(latDistance / 2);
+    double sinLonDistance = Math.sin(lonDistance / 2);
     double a =
-        Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-            + Math.cos(Math.toRadians(lat1))
+        sinLatDistance * sinLatDistance
+            + cosLat1
             * Math.cos(Math.toRadians(lat2))
-            * Math.sin(lonDistance / 2)
-            * Math.sin(lonDistance / 2);
+            * sinLonDistance
+            * sinLonDistance;
     double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-    double distance = R * c;
+    return R * c;
+  }
+
+  /**
+   * Tells whether points are strictly within a radius of an origin, in three tiers:
+   *   1. A latitude/longitude bounding box rejects most points with two comparisons.
+   *   2. An equirectangular approximation (no trigonometry per point) settles every point that
+   *      is clearly inside or clearly outside the circle.
+   *   3. Only points in a thin band around the circle pay for the exact Haversine distance.
+   * The answer is always the same as comparing {@link #findDistanceInKm} with the radius.
+   */
+  public static final class RadiusFilter {
+
+    private static final double MAX_APPROXIMATION_TOLERANCE = 0.1;
+
+    private final double latitude;
+    private final double longitude;
+    private final double radiusInKms;
+    private final double cosLatitude;
+    private final double latitudeDelta;
+    private final double longitudeDelta;
+    private final double certainlyInsideSquared;
+    private final double certainlyOutsideSquared;
+
+    private RadiusFilter(double latitude, double longitude, double radiusInKms) {
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.radiusInKms = radiusInKms;
+      this.cosLatitude = Math.cos(Math.toRadians(latitude));
+
+      double angularRadius = radiusInKms / EARTH_RADIUS_IN_KMS;
+      this.latitudeDelta = Math.toDegrees(angularRadius);
+      if (Math.abs(latitude) + latitudeDelta >= 90.0 || angularRadius >= Math.PI / 2) {
+        // The circle contains a pole (or is huge): longitude does not bound anything.
+        this.longitudeDelta = 180.0;
+      } else {
+        this.longitudeDelta =
+            Math.toDegrees(Math.asin(Math.min(1.0, Math.sin(angularRadius) / cosLatitude)));
+      }
+
+      // Relative error of the equirectangular approximation: the cosine of the origin is used
+      // for the whole circle, plus the flat-earth error that grows with the radius. Where that
+      // is not small (huge radius, close to a pole) every point goes to the exact tier.
+      double farthestLatitude = Math.min(89.0, Math.abs(latitude) + latitudeDelta);
+      double tolerance = 1e-3
+          + Math.tan(Math.toRadians(farthestLatitude)) * angularRadius
+          + angularRadius * angularRadius;
+      if (tolerance > MAX_APPROXIMATION_TOLERANCE) {
+        this.certainlyInsideSquared = -1.0;
+        this.certainlyOutsideSquared = Double.MAX_VALUE;
+      } else {
+        this.certainlyInsideSquared = square(angularRadius * (1 - tolerance));
+        this.certainlyOutsideSquared = square(angularRadius * (1 + tolerance));
+      }
+    }
+
+    public boolean isWithinRadius(double pointLatitude, double pointLongitude) {
+      double latitudeDifference = pointLatitude - latitude;
+      // Written as !(x <= y) so that NaN coordinates are rejected.
+      if (!(Math.abs(latitudeDifference) <= latitudeDelta)) {
+        return false;
+      }
+      double longitudeDifference = Math.abs(pointLongitude - longitude);
+      if (longitudeDifference > 180.0) {
+        longitudeDifference = 360.0 - longitudeDifference;
+      }
+      if (!(longitudeDifference <= longitudeDelta)) {
+        return false;
+      }
+
+      double x = Math.toRadians(longitudeDifference) * cosLatitude;
+      double y = Math.toRadians(latitudeDifference);
+      double approximateSquared = x * x + y * y;
+      if (approximateSquared < certainlyInsideSquared) {
+        return true;
+      }
+      if (approximateSquared > certainlyOutsideSquared) {
+        return false;
+      }
+      return distanceInKm(pointLatitude, pointLongitude) < radiusInKms;
+    }
 
-    double height = el1 - el2;
+    /**
+     * Exact Haversine distance from the origin, reusing the cosine of the origin latitude.
+     */
+    public double distanceInKm(double pointLatitude, double pointLongitude) {
+      return haversine(latitude, cosLatitude, pointLatitude, pointLongitude - longitude);
+    }
 
-    distance = Math.pow(distance, 2) + Math.pow(height, 2);
+    /**
+     * Batch variant of {@link #isWithinRadius}.
+     * @return indexes, in ascending order, of the points within the radius
+     */
+    public int[] findWithinRadius(double[] latitudes, double[] longitudes) {
+      int[] matches = new int[Math.min(latitudes.length, 16)];
+      int count = 0;
+      for (int i = 0; i < latitudes.length; i++) {
+        if (isWithinRadius(latitudes[i], longitudes[i])) {
+          if (count == matches.length) {
+            matches = Arrays.copyOf(matches, Math.max(1, 2 * count));
+          }
+          matches[count++] = i;
+        }
+      }
+      return Arrays.copyOf(matches, count);
+    }
 
-    return Math.sqrt(distance);
+    private static double square(double value) {
+      return value * value;
+    }
   }
 }
@@ -0,0 +1,86 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.configs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class RedisCircuitBreakerTest {
+
+  private final AtomicLong now = new AtomicLong(1000);
+  private final RedisCircuitBreaker circuitBreaker =
+      new RedisCircuitBreaker(3, 5000, now::get);
+
+  @Test
+  void opensAfterConsecutiveFailures() {
+    circuitBreaker.recordFailure();
+    circuitBreaker.recordFailure();
+    circuitBreaker.recordSuccess();
+    circuitBreaker.recordFailure();
+    circuitBreaker.recordFailure();
+    assertTrue(circuitBreaker.allowRequest());
+
+    circuitBreaker.recordFailure();
+
+    assertEquals(RedisCircuitBreaker.State.OPEN, circuitBreaker.getState());
+    assertFalse(circuitBreaker.allowRequest());
+  }
+
+  @Test
+  void letsOneProbeThroughOnceOpenForAWhile() {
+    open();
+    now.addAndGet(5000);
+
+    assertEquals(RedisCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+    assertTrue(circuitBreaker.allowRequest());
+    assertFalse(circuitBreaker.allowRequest());
+
+    circuitBreaker.recordSuccess();
+
+    assertEquals(RedisCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    assertTrue(circuitBreaker.allowRequest());
+  }
+
+  @Test
+  void staysOpenWhenTheProbeFails() {
+    open();
+    now.addAndGet(5000);
+    assertTrue(circuitBreaker.allowRequest());
+
+    circuitBreaker.recordFailure();
+    now.addAndGet(4999);
+
+    assertFalse(circuitBreaker.allowRequest());
+    now.addAndGet(1);
+    assertTrue(circuitBreaker.allowRequest());
+  }
+
+  @Test
+  void theClosedCheckNeverTakesTheProbe() {
+    assertTrue(circuitBreaker.isClosed());
+    open();
+    now.addAndGet(5000);
+
+    assertFalse(circuitBreaker.isClosed());
+    assertTrue(circuitBreaker.allowRequest());
+    assertFalse(circuitBreaker.isClosed());
+
+    circuitBreaker.recordSuccess();
+
+    assertTrue(circuitBreaker.isClosed());
+  }
+
+  private void open() {
+    for (int i = 0; i < 3; i++) {
+      circuitBreaker.recordFailure();
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.configs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.NoSuchElementException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+class RedisConfigurationTest {
+
+  private final RedisConfiguration redisConfiguration = new RedisConfiguration();
+
+  @BeforeEach
+  void setup() {
+    redisConfiguration.setCircuitBreaker(new RedisCircuitBreaker(1, 5000));
+  }
+
+  @Test
+  void exhaustedPoolDoesNotOpenTheCircuitBreaker() {
+    redisConfiguration.reportFailure(new JedisConnectionException(
+        "Could not get a resource from the pool", new NoSuchElementException("Timeout waiting")));
+
+    assertEquals(RedisCircuitBreaker.State.CLOSED,
+        redisConfiguration.getCircuitBreaker().getState());
+  }
+
+  @Test
+  void errorsOfACommandDoNotOpenTheCircuitBreaker() {
+    redisConfiguration.reportFailure(new JedisDataException("WRONGTYPE"));
+
+    assertEquals(RedisCircuitBreaker.State.CLOSED,
+        redisConfiguration.getCircuitBreaker().getState());
+  }
+
+  @Test
+  void unreachableRedisOpensTheCircuitBreaker() {
+    redisConfiguration.reportFailure(new JedisConnectionException("Connection refused"));
+
+    assertEquals(RedisCircuitBreaker.State.OPEN,
+        redisConfiguration.getCircuitBreaker().getState());
+  }
+}
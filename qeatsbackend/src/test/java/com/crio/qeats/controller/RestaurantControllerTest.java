@@ -14,38 +14,52 @@ import static com.crio.qeats.controller.RestaurantController.GET_ORDERS_API;
 import static com.crio.qeats.controller.RestaurantController.MENU_API;
 import static com.crio.qeats.controller.RestaurantController.POST_ORDER_API;
 import static com.crio.qeats.controller.RestaurantController.RESTAURANTS_API;
+import static com.crio.qeats.controller.RestaurantController.RESTAURANTS_BATCH_API;
 import static com.crio.qeats.controller.RestaurantController.RESTAURANT_API_ENDPOINT;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.crio.qeats.QEatsApplication;
+import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.exchanges.GetRestaurantsBatchRequest;
 import com.crio.qeats.exchanges.GetRestaurantsRequest;
 import com.crio.qeats.exchanges.GetRestaurantsResponse;
 import com.crio.qeats.services.RestaurantService;
 import com.crio.qeats.utils.FixtureHelpers;
+import com.crio.qeats.utils.GeoLocation;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.net.URI;
 import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -56,6 +70,7 @@ import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.util.UriComponentsBuilder;
@@ -68,6 +83,8 @@ import org.springframework.web.util.UriComponentsBuilder;
 public class RestaurantControllerTest {
 
   private static final String RESTAURANT_API_URI = RESTAURANT_API_ENDPOINT + RESTAURANTS_API;
+  private static final String RESTAURANTS_BATCH_API_URI =
+      RESTAURANT_API_ENDPOINT + RESTAURANTS_BATCH_API;
   private static final String MENU_API_URI = RESTAURANT_API_ENDPOINT + MENU_API;
   private static final String CART_API_URI = RESTAURANT_API_ENDPOINT + CART_API;
   private static final String ADD_REMOVE_CART_API_URI = RESTAURANT_API_ENDPOINT + CART_ITEM_API;
@@ -76,6 +93,7 @@ public class RestaurantControllerTest {
   private static final String LIST_ORDERS_API_URI = RESTAURANT_API_ENDPOINT + GET_ORDERS_API;
 
   private static final String FIXTURES = "fixtures/exchanges";
+  @Spy
   private ObjectMapper objectMapper;
 
   private MockMvc mvc;
@@ -170,6 +188,25 @@ public class RestaurantControllerTest {
 
   }
 
+  @Test
+  public void namesAreMaskedWithoutModifyingTheRestaurantsOfTheService() throws Exception {
+    Restaurant restaurant = new Restaurant("10", "Café Coffee Day", "Hsr Layout",
+        "www.google.com", 20.027, 30.0, "18:00", "23:00", Collections.singletonList("Cafe"));
+    when(restaurantService
+        .findAllRestaurantsCloseBy(any(GetRestaurantsRequest.class), any(LocalTime.class)))
+        .thenReturn(new GetRestaurantsResponse(Collections.singletonList(restaurant), null));
+
+    MockHttpServletResponse response = mvc.perform(
+        get(RESTAURANT_API_URI + "?latitude=20.21&longitude=30.31").accept(APPLICATION_JSON_UTF8)
+    ).andReturn().getResponse();
+
+    assertEquals(HttpStatus.OK.value(), response.getStatus());
+    assertEquals("Cafe Coffee Day", objectMapper.readTree(response.getContentAsString())
+        .get("restaurants").get(0).get("name").asText());
+    // The service may have handed out cached restaurants.
+    assertEquals("Café Coffee Day", restaurant.getName());
+  }
+
   @Test
   public void invalidLatitudeResultsInBadHttpRequest() throws Exception {
     URI uri = UriComponentsBuilder
@@ -326,6 +363,80 @@ public class RestaurantControllerTest {
 
 
 
+  @Test
+  public void batchStreamsOneResultPerLocation() throws Exception {
+    GetRestaurantsResponse sampleResponse = loadSampleResponseList();
+    doAnswer(invocation -> {
+      Consumer<GetRestaurantsResponse> consumer = invocation.getArgument(2);
+      consumer.accept(sampleResponse);
+      consumer.accept(new GetRestaurantsResponse(Collections.emptyList(), null));
+      return null;
+    }).when(restaurantService).findAllRestaurantsCloseBy(
+        any(GetRestaurantsBatchRequest.class), any(LocalTime.class), any());
+
+    GetRestaurantsBatchRequest batchRequest = new GetRestaurantsBatchRequest(Arrays.asList(
+        new GeoLocation(20.21, 30.31), new GeoLocation(20.22, 30.32)));
+    MvcResult result = mvc.perform(post(RESTAURANTS_BATCH_API_URI)
+        .contentType(APPLICATION_JSON_UTF8)
+        .content(objectMapper.writeValueAsString(batchRequest)))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    MockHttpServletResponse response = mvc.perform(asyncDispatch(result))
+        .andReturn().getResponse();
+
+    assertEquals(HttpStatus.OK.value(), response.getStatus());
+    JsonNode results = objectMapper.readTree(response.getContentAsString()).get("results");
+    assertEquals(2, results.size());
+    assertEquals(sampleResponse.getRestaurants().size(),
+        results.get(0).get("restaurants").size());
+    assertEquals(0, results.get(1).get("restaurants").size());
+  }
+
+  @Test
+  public void batchThatFailsAfterItsFirstResultIsLeftUnterminated() throws Exception {
+    GetRestaurantsResponse sampleResponse = loadSampleResponseList();
+    doAnswer(invocation -> {
+      Consumer<GetRestaurantsResponse> consumer = invocation.getArgument(2);
+      consumer.accept(sampleResponse);
+      throw new IllegalStateException("Lookup failed");
+    }).when(restaurantService).findAllRestaurantsCloseBy(
+        any(GetRestaurantsBatchRequest.class), any(LocalTime.class), any());
+
+    GetRestaurantsBatchRequest batchRequest = new GetRestaurantsBatchRequest(Arrays.asList(
+        new GeoLocation(20.21, 30.31), new GeoLocation(20.22, 30.32)));
+    MvcResult result = mvc.perform(post(RESTAURANTS_BATCH_API_URI)
+        .contentType(APPLICATION_JSON_UTF8)
+        .content(objectMapper.writeValueAsString(batchRequest)))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    assertTrue(result.getAsyncResult() instanceof IllegalStateException);
+    String content = result.getResponse().getContentAsString();
+    assertTrue(content.startsWith("{\"results\":[{"));
+    assertFalse(content.endsWith("]}"));
+  }
+
+  @Test
+  public void batchWithAnInvalidLocationResultsInBadHttpRequest() throws Exception {
+    GetRestaurantsBatchRequest batchRequest = new GetRestaurantsBatchRequest(Arrays.asList(
+        new GeoLocation(20.21, 30.31), new GeoLocation(91.0, 30.31)));
+
+    MockHttpServletResponse response = mvc.perform(post(RESTAURANTS_BATCH_API_URI)
+        .contentType(APPLICATION_JSON_UTF8)
+        .content(objectMapper.writeValueAsString(batchRequest)))
+        .andReturn().getResponse();
+
+    assertEquals(HttpStatus.BAD_REQUEST.value(), response.getStatus());
+
+    response = mvc.perform(post(RESTAURANTS_BATCH_API_URI)
+        .contentType(APPLICATION_JSON_UTF8)
+        .content(objectMapper.writeValueAsString(
+            new GetRestaurantsBatchRequest(Collections.emptyList()))))
+        .andReturn().getResponse();
+
+    assertEquals(HttpStatus.BAD_REQUEST.value(), response.getStatus());
+  }
+
   private GetRestaurantsResponse loadSampleResponseList() throws IOException {
     String fixture =
         FixtureHelpers.fixture(FIXTURES + "/list_restaurant_response.json");
@@ -0,0 +1,71 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.utils.FixtureHelpers;
+import com.crio.qeats.utils.GeoUtils;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class GeoHashGridIndexTest {
+
+  private static final String FIXTURES = "fixtures/exchanges";
+
+  private List<RestaurantEntity> allRestaurants;
+  private GeoHashGridIndex geoHashGridIndex;
+
+  @BeforeEach
+  void setup() throws IOException {
+    String fixture =
+        FixtureHelpers.fixture(FIXTURES + "/initial_data_set_restaurants.json");
+    allRestaurants = new ObjectMapper().readValue(fixture,
+        new TypeReference<List<RestaurantEntity>>() {
+        });
+    geoHashGridIndex = GeoHashGridIndex.build(RestaurantCatalog.of(allRestaurants));
+  }
+
+  @Test
+  void candidatesContainEveryRestaurantWithinRadius() {
+    for (double radiusInKms : new double[] {3.0, 5.0, 100.0}) {
+      List<RestaurantEntity> candidates = geoHashGridIndex.findCandidates(20.0, 30.0,
+          radiusInKms);
+      for (RestaurantEntity restaurant : allRestaurants) {
+        if (GeoUtils.findDistanceInKm(20.0, 30.0, restaurant.getLatitude(),
+            restaurant.getLongitude()) < radiusInKms) {
+          assertTrue(candidates.contains(restaurant), restaurant.getRestaurantId());
+        }
+      }
+    }
+  }
+
+  @Test
+  void candidatesAreReturnedInCatalogOrder() {
+    List<String> candidateIds = geoHashGridIndex.findCandidates(20.0, 30.0, 3.0).stream()
+        .map(RestaurantEntity::getRestaurantId)
+        .collect(Collectors.toList());
+
+    List<String> catalogIds = allRestaurants.stream()
+        .map(RestaurantEntity::getRestaurantId)
+        .filter(candidateIds::contains)
+        .collect(Collectors.toList());
+    assertEquals(catalogIds, candidateIds);
+  }
+
+  @Test
+  void farAwayRestaurantsAreNotVisited() {
+    assertEquals(0, geoHashGridIndex.findCandidates(-20.0, -30.0, 5.0).size());
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.index;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.crio.qeats.models.RestaurantEntity;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class OpenNowIndexTest {
+
+  private static final String[] HOURS = {
+      "00:00", "06:30", "09:00", "11:00", "12:00", "15:00", "18:00", "22:00", "23:00", "23:59"};
+
+  @Test
+  void matchesTheOpeningHoursOfEveryRestaurant() {
+    Random random = new Random(11);
+    List<RestaurantEntity> restaurants = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      restaurants.add(restaurant(HOURS[random.nextInt(HOURS.length)],
+          random.nextInt(50) == 0 ? null : HOURS[random.nextInt(HOURS.length)]));
+    }
+    RestaurantCatalog catalog = RestaurantCatalog.of(restaurants);
+    OpenNowIndex openNowIndex = OpenNowIndex.build(catalog);
+
+    List<LocalTime> times = new ArrayList<>();
+    for (int minute = 0; minute < 24 * 60; minute++) {
+      times.add(LocalTime.of(minute / 60, minute % 60));
+      times.add(LocalTime.of(minute / 60, minute % 60, random.nextInt(60), 1));
+    }
+    for (LocalTime time : times) {
+      for (int ordinal = 0; ordinal < catalog.size(); ordinal++) {
+        RestaurantEntity restaurant = restaurants.get(ordinal);
+        assertEquals(isOpen(restaurant, time), openNowIndex.isOpen(ordinal, time),
+            restaurant.getOpensAt() + "-" + restaurant.getClosesAt() + " at " + time);
+      }
+    }
+    // One bitset per distinct opening or closing time, not one per minute.
+    assertTrue(openNowIndex.segmentCount() <= 2 * HOURS.length + 1);
+  }
+
+  @Test
+  void restaurantsOpenPastMidnightAreOpenOnBothSidesOfIt() {
+    OpenNowIndex openNowIndex = OpenNowIndex.build(RestaurantCatalog.of(
+        Collections.singletonList(restaurant("18:00", "02:00"))));
+
+    assertTrue(openNowIndex.isOpen(0, LocalTime.of(23, 30)));
+    assertTrue(openNowIndex.isOpen(0, LocalTime.MIDNIGHT));
+    assertTrue(openNowIndex.isOpen(0, LocalTime.of(1, 59, 59)));
+    assertFalse(openNowIndex.isOpen(0, LocalTime.of(2, 0)));
+    assertFalse(openNowIndex.isOpen(0, LocalTime.of(12, 0)));
+    assertFalse(openNowIndex.isOpen(0, LocalTime.of(18, 0)));
+  }
+
+  @Test
+  void retainOpenKeepsTheOrderOfCandidates() {
+    OpenNowIndex openNowIndex = OpenNowIndex.build(RestaurantCatalog.of(Arrays.asList(
+        restaurant("18:00", "23:00"), restaurant("09:00", "12:00"),
+        restaurant("17:00", "01:00"))));
+
+    assertArrayEquals(new int[] {2, 0},
+        openNowIndex.retainOpen(new int[] {2, 1, 0}, LocalTime.of(19, 0)));
+  }
+
+  @Test
+  void timeSlotsOnlyChangeWhenSomeRestaurantOpensOrCloses() {
+    OpenNowIndex openNowIndex = OpenNowIndex.build(RestaurantCatalog.of(Arrays.asList(
+        restaurant("18:00", "23:00"), restaurant("09:00", "12:00"))));
+
+    assertEquals(openNowIndex.timeSlotOf(LocalTime.of(12, 30)),
+        openNowIndex.timeSlotOf(LocalTime.of(18, 0)));
+    assertEquals(openNowIndex.timeSlotOf(LocalTime.of(18, 0, 30)),
+        openNowIndex.timeSlotOf(LocalTime.of(22, 59, 59)));
+    assertFalse(openNowIndex.timeSlotOf(LocalTime.of(18, 0))
+        == openNowIndex.timeSlotOf(LocalTime.of(18, 0, 30)));
+    assertFalse(openNowIndex.timeSlotOf(LocalTime.of(22, 59, 59))
+        == openNowIndex.timeSlotOf(LocalTime.of(23, 0)));
+  }
+
+  private static RestaurantEntity restaurant(String opensAt, String closesAt) {
+    RestaurantEntity restaurant = new RestaurantEntity();
+    restaurant.setOpensAt(opensAt);
+    restaurant.setClosesAt(closesAt);
+    return restaurant;
+  }
+
+  // Reference rule, written with LocalTime comparisons.
+  private static boolean isOpen(RestaurantEntity restaurant, LocalTime time) {
+    if (restaurant.getOpensAt() == null || restaurant.getClosesAt() == null) {
+      return false;
+    }
+    LocalTime opensAt = LocalTime.parse(restaurant.getOpensAt());
+    LocalTime closesAt = LocalTime.parse(restaurant.getClosesAt());
+    if (opensAt.isBefore(closesAt)) {
+      return time.isAfter(opensAt) && time.isBefore(closesAt);
+    }
+    if (closesAt.isBefore(opensAt)) {
+      return time.isAfter(opensAt) || time.isBefore(closesAt);
+    }
+    return false;
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.index;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.utils.FixtureHelpers;
+import com.crio.qeats.utils.GeoUtils;
+import com.crio.qeats.utils.GeoUtils.RadiusFilter;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RestaurantCatalogTest {
+
+  private static final String FIXTURES = "fixtures/exchanges";
+  private static final RadiusFilter AROUND_20_30 = GeoUtils.radiusFilter(20.0, 30.0, 3.0);
+
+  private List<RestaurantEntity> allRestaurants;
+
+  @BeforeEach
+  void setup() throws IOException {
+    String fixture =
+        FixtureHelpers.fixture(FIXTURES + "/initial_data_set_restaurants.json");
+    allRestaurants = new ObjectMapper().readValue(fixture,
+        new TypeReference<List<RestaurantEntity>>() {
+        });
+  }
+
+  @Test
+  void findsOpenRestaurantsWithinRadius() {
+    RestaurantCatalog catalog = RestaurantCatalog.of(allRestaurants);
+
+    int[] ordinals = catalog.findOpenWithinRadius(AROUND_20_30, LocalTime.of(18, 1));
+
+    assertEquals(2, ordinals.length);
+    assertEquals("11", catalog.get(ordinals[0]).getRestaurantId());
+    assertEquals("12", catalog.get(ordinals[1]).getRestaurantId());
+  }
+
+  @Test
+  void openingAndClosingTimesAreExclusive() {
+    RestaurantCatalog catalog = RestaurantCatalog.of(allRestaurants);
+
+    assertArrayEquals(new int[0],
+        catalog.findOpenWithinRadius(AROUND_20_30, LocalTime.of(18, 0)));
+    assertEquals(2,
+        catalog.findOpenWithinRadius(AROUND_20_30, LocalTime.of(18, 0, 1)).length);
+    assertArrayEquals(new int[0],
+        catalog.findOpenWithinRadius(AROUND_20_30, LocalTime.of(23, 0)));
+  }
+
+  @Test
+  void hoursWithSecondsNeverShowARestaurantOpenEarlyOrLate() {
+    allRestaurants.get(1).setOpensAt("18:00:30");
+    allRestaurants.get(1).setClosesAt("22:59:30");
+    RestaurantCatalog catalog = RestaurantCatalog.of(allRestaurants);
+
+    assertEquals(1,
+        catalog.findOpenWithinRadius(AROUND_20_30, LocalTime.of(18, 0, 45)).length);
+    assertEquals(2,
+        catalog.findOpenWithinRadius(AROUND_20_30, LocalTime.of(18, 1, 15)).length);
+    assertEquals(1,
+        catalog.findOpenWithinRadius(AROUND_20_30, LocalTime.of(22, 59, 15)).length);
+    assertFalse(RestaurantCatalog.isOpenAt("18:00:30", "22:59:30", LocalTime.of(18, 0, 45)));
+    assertFalse(RestaurantCatalog.isOpenAt("18:00:30", "22:59:30", LocalTime.of(22, 59, 15)));
+  }
+
+  @Test
+  void restaurantsWithUnparsableHoursAreNeverOpen() {
+    allRestaurants.get(1).setOpensAt("late evening");
+    allRestaurants.get(2).setClosesAt(null);
+    RestaurantCatalog catalog = RestaurantCatalog.of(allRestaurants);
+
+    assertArrayEquals(new int[0],
+        catalog.findOpenWithinRadius(AROUND_20_30, LocalTime.of(18, 1)));
+  }
+
+  @Test
+  void restaurantsOpenPastMidnightAreFound() {
+    allRestaurants.get(1).setOpensAt("20:00");
+    allRestaurants.get(1).setClosesAt("02:00");
+    RestaurantCatalog catalog = RestaurantCatalog.of(allRestaurants);
+
+    int[] ordinals = catalog.findOpenWithinRadius(AROUND_20_30, LocalTime.of(0, 30));
+
+    assertEquals(1, ordinals.length);
+    assertEquals(allRestaurants.get(1).getRestaurantId(),
+        catalog.get(ordinals[0]).getRestaurantId());
+  }
+
+  @Test
+  void restaurantsAreReplacedOrAddedWithoutChangingTheCatalog() {
+    RestaurantCatalog catalog = RestaurantCatalog.of(allRestaurants);
+    RestaurantEntity eleven = catalog.get(catalog.ordinalOf("11"));
+    RestaurantEntity closedEleven = new RestaurantEntity();
+    closedEleven.setRestaurantId("11");
+    closedEleven.setLatitude(eleven.getLatitude());
+    closedEleven.setLongitude(eleven.getLongitude());
+    closedEleven.setOpensAt("19:00");
+    closedEleven.setClosesAt("23:00");
+    RestaurantEntity added = new RestaurantEntity();
+    added.setRestaurantId("99");
+    added.setLatitude(20.0);
+    added.setLongitude(30.0);
+    added.setOpensAt("18:00");
+    added.setClosesAt("23:00");
+
+    RestaurantCatalog updated = catalog.withRestaurant(closedEleven).withRestaurant(added);
+
+    assertEquals(catalog.size() + 1, updated.size());
+    assertEquals(catalog.ordinalOf("11"), updated.ordinalOf("11"));
+    assertEquals(catalog.size(), updated.ordinalOf("99"));
+    assertEquals(-1, catalog.ordinalOf("99"));
+    int[] ordinals = updated.findOpenWithinRadius(AROUND_20_30, LocalTime.of(18, 1));
+    assertEquals(2, ordinals.length);
+    assertEquals("12", updated.get(ordinals[0]).getRestaurantId());
+    assertEquals("99", updated.get(ordinals[1]).getRestaurantId());
+    assertEquals(2, catalog.findOpenWithinRadius(AROUND_20_30, LocalTime.of(18, 1)).length);
+    assertEquals("11", catalog.get(
+        catalog.findOpenWithinRadius(AROUND_20_30, LocalTime.of(18, 1))[0]).getRestaurantId());
+  }
+
+  @Test
+  void openRestaurantsAreReadFromAnIndexOfAnotherCatalog() {
+    OpenNowIndex openNowIndex = OpenNowIndex.build(RestaurantCatalog.of(allRestaurants));
+    // A cell with the restaurants in another order, one with other hours and one unknown to
+    // the index.
+    List<RestaurantEntity> cellRestaurants = new ArrayList<>(allRestaurants);
+    Collections.reverse(cellRestaurants);
+    RestaurantEntity rescheduled = new RestaurantEntity();
+    rescheduled.setRestaurantId(allRestaurants.get(1).getRestaurantId());
+    rescheduled.setLatitude(allRestaurants.get(1).getLatitude());
+    rescheduled.setLongitude(allRestaurants.get(1).getLongitude());
+    rescheduled.setOpensAt("10:00");
+    rescheduled.setClosesAt("12:00");
+    cellRestaurants.set(cellRestaurants.indexOf(allRestaurants.get(1)), rescheduled);
+    RestaurantEntity unknown = new RestaurantEntity();
+    unknown.setRestaurantId("unknown");
+    unknown.setLatitude(20.0);
+    unknown.setLongitude(30.0);
+    unknown.setOpensAt("11:00");
+    unknown.setClosesAt("19:00");
+    cellRestaurants.add(unknown);
+    RestaurantCatalog cell = RestaurantCatalog.of(cellRestaurants);
+
+    for (LocalTime time : new LocalTime[] {LocalTime.of(11, 30), LocalTime.of(18, 0),
+        LocalTime.of(18, 1), LocalTime.of(22, 59)}) {
+      assertArrayEquals(cell.findOpenWithinRadius(AROUND_20_30, time),
+          cell.findOpen(openNowIndex, time, AROUND_20_30));
+      assertArrayEquals(cell.findOpen(time), cell.findOpen(openNowIndex, time, null));
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.index;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.utils.DistanceCursor;
+import com.crio.qeats.utils.GeoUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RestaurantKdTreeTest {
+
+  // Clustered around a few places, including both sides of the antimeridian and a pole.
+  private static final double[][] CENTRES = {
+      {20.0, 30.0}, {12.97, 77.59}, {-17.0, 179.9}, {-17.0, -179.9}, {89.8, 0.0}};
+
+  private RestaurantCatalog catalog;
+  private RestaurantKdTree kdTree;
+
+  @BeforeEach
+  void setup() {
+    Random random = new Random(7);
+    List<RestaurantEntity> restaurants = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      RestaurantEntity restaurant = new RestaurantEntity();
+      restaurant.setRestaurantId(String.valueOf(i));
+      if (i % 100 != 0) {
+        double[] centre = CENTRES[i % CENTRES.length];
+        restaurant.setLatitude(Math.max(-90, Math.min(90,
+            centre[0] + random.nextGaussian() * 0.2)));
+        restaurant.setLongitude(centre[1] + random.nextGaussian() * 0.2);
+      }
+      restaurants.add(restaurant);
+    }
+    catalog = RestaurantCatalog.of(restaurants);
+    kdTree = RestaurantKdTree.build(catalog);
+  }
+
+  @Test
+  void restaurantsWithoutLocationAreLeftOut() {
+    assertEquals(catalog.size() - catalog.size() / 100, kdTree.size());
+  }
+
+  @Test
+  void radiusSearchMatchesLinearScan() {
+    for (double[] centre : CENTRES) {
+      for (double radiusInKms : new double[] {0.5, 3.0, 10.0, 50.0, 30000.0}) {
+        assertArrayEquals(linearScan(centre[0], centre[1], radiusInKms),
+            kdTree.findWithinRadius(centre[0], centre[1], radiusInKms));
+      }
+    }
+  }
+
+  @Test
+  void nearestSearchReturnsClosestFirst() {
+    for (double[] centre : CENTRES) {
+      int[] expected = Arrays.stream(linearScan(centre[0], centre[1], 20.0))
+          .filter(ordinal -> ordinal % 2 == 0)
+          .boxed()
+          .sorted(Comparator.comparingDouble((Integer ordinal) -> distance(centre, ordinal))
+              .thenComparing(ordinal -> catalog.get(ordinal).getRestaurantId()))
+          .limit(10)
+          .mapToInt(Integer::intValue)
+          .toArray();
+
+      assertArrayEquals(expected,
+          kdTree.findNearest(centre[0], centre[1], 10, 20.0, ordinal -> ordinal % 2 == 0));
+    }
+  }
+
+  @Test
+  void nearestSearchWithoutMatchesIsEmpty() {
+    assertEquals(0, kdTree.findNearest(0.0, 0.0, 10, 5.0, ordinal -> true).length);
+    assertEquals(0, kdTree.findNearest(20.0, 30.0, 0, 5.0, ordinal -> true).length);
+  }
+
+  @Test
+  void pagesThroughRestaurantsSharingOneCoordinate() {
+    // Ids in an order unrelated to the ordinals, most of them at the same place.
+    List<RestaurantEntity> restaurants = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      RestaurantEntity restaurant = new RestaurantEntity();
+      restaurant.setRestaurantId(String.format("r%02d", (i * 7) % 20));
+      restaurant.setLatitude(i % 5 == 0 ? 20.001 : 20.002);
+      restaurant.setLongitude(30.0);
+      restaurants.add(restaurant);
+    }
+    RestaurantCatalog sameSpotCatalog = RestaurantCatalog.of(restaurants);
+    RestaurantKdTree sameSpotTree = RestaurantKdTree.build(sameSpotCatalog);
+
+    List<String> paged = new ArrayList<>();
+    DistanceCursor after = null;
+    while (true) {
+      DistanceCursor cursor = after;
+      int[] page = sameSpotTree.findNearest(20.0, 30.0, 3, 5.0, ordinal -> cursor == null
+          || cursor.isBefore(GeoUtils.findDistanceInKm(20.0, 30.0,
+              sameSpotCatalog.getLatitude(ordinal), sameSpotCatalog.getLongitude(ordinal)),
+              sameSpotCatalog.get(ordinal).getRestaurantId()));
+      if (page.length == 0) {
+        break;
+      }
+      for (int ordinal : page) {
+        paged.add(sameSpotCatalog.get(ordinal).getRestaurantId());
+      }
+      RestaurantEntity last = sameSpotCatalog.get(page[page.length - 1]);
+      after = new DistanceCursor(GeoUtils.findDistanceInKm(20.0, 30.0, last.getLatitude(),
+          last.getLongitude()), last.getRestaurantId());
+    }
+
+    List<String> expected = new ArrayList<>();
+    restaurants.stream()
+        .sorted(Comparator.comparing((RestaurantEntity restaurant) -> restaurant.getLatitude())
+            .thenComparing(RestaurantEntity::getRestaurantId))
+        .forEach(restaurant -> expected.add(restaurant.getRestaurantId()));
+    assertEquals(expected, paged);
+  }
+
+  private int[] linearScan(double latitude, double longitude, double radiusInKms) {
+    return IntStream.range(0, catalog.size())
+        .filter(catalog::hasLocation)
+        .filter(ordinal -> GeoUtils.findDistanceInKm(latitude, longitude,
+            catalog.getLatitude(ordinal), catalog.getLongitude(ordinal)) < radiusInKms)
+        .toArray();
+  }
+
+  private double distance(double[] centre, int ordinal) {
+    return GeoUtils.findDistanceInKm(centre[0], centre[1],
+        catalog.getLatitude(ordinal), catalog.getLongitude(ordinal));
+  }
+}
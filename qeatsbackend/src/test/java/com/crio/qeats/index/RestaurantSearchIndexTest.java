@@ -0,0 +1,140 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.index;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.crio.qeats.dto.Item;
+import com.crio.qeats.index.RestaurantSearchIndex.Field;
+import com.crio.qeats.models.MenuEntity;
+import com.crio.qeats.models.RestaurantEntity;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class RestaurantSearchIndexTest {
+
+  private static final String[] WORDS = {
+      "biryani", "biryanis", "chicken", "chilli", "curry", "dosa", "masala", "paneer", "tikka"};
+
+  @Test
+  void everyTokenOfTheQueryMustMatchTheLastOneAsAPrefix() {
+    RestaurantSearchIndex index = RestaurantSearchIndex.build(Arrays.asList(
+        restaurant("1", "Chicken Biryani House", "Indian"),
+        restaurant("2", "Biryani Chicken", "Mughlai", "Indian"),
+        restaurant("3", "The Chilli-Chicken Place", "Chinese")),
+        Collections.emptyList());
+
+    assertArrayEquals(new int[] {0, 1}, index.search(Field.NAME, "chicken bir"));
+    assertArrayEquals(new int[] {0, 1, 2}, index.search(Field.NAME, "CHICKEN"));
+    assertArrayEquals(new int[] {2}, index.search(Field.NAME, "chilli chicken"));
+    assertArrayEquals(new int[0], index.search(Field.NAME, "biryani chilli"));
+    assertArrayEquals(new int[0], index.search(Field.NAME, "  - "));
+    assertArrayEquals(new int[] {0, 1}, index.search(Field.ATTRIBUTE, "ind"));
+    assertArrayEquals(new int[] {0}, index.searchContaining(Field.NAME, "ani hou"));
+    assertArrayEquals(new int[] {1}, index.searchContaining(Field.ATTRIBUTE, "UGH"));
+    assertTrue(index.matchesExactly(Field.NAME, 1, "biryani  chicken"));
+    assertFalse(index.matchesExactly(Field.NAME, 0, "chicken biryani"));
+  }
+
+  @Test
+  void indexBuiltFromACatalogSharesIt() {
+    RestaurantCatalog catalog = RestaurantCatalog.of(Arrays.asList(
+        restaurant("1", "Chicken Biryani House", "Indian"),
+        restaurant("2", "Paneer Tikka", "Indian")));
+
+    RestaurantSearchIndex index = RestaurantSearchIndex.build(catalog,
+        Collections.singletonList(menu("2", item("Chicken Tikka"))));
+
+    assertSame(catalog, index.getCatalog());
+    assertArrayEquals(new int[] {1}, index.search(Field.ITEM_NAME, "chicken"));
+  }
+
+  @Test
+  void itemsAreSearchedThroughTheMenuOfTheirRestaurant() {
+    RestaurantSearchIndex index = RestaurantSearchIndex.build(Arrays.asList(
+        restaurant("1", "A"), restaurant("2", "B")),
+        Arrays.asList(menu("2", item("Paneer Tikka", "Veg", "Spicy")),
+            menu("3", item("Paneer Butter Masala", "Veg"))));
+
+    assertArrayEquals(new int[] {1}, index.search(Field.ITEM_NAME, "paneer"));
+    assertArrayEquals(new int[] {1}, index.search(Field.ITEM_ATTRIBUTE, "spicy"));
+    assertArrayEquals(new int[0], index.search(Field.ITEM_NAME, "masala"));
+
+    RestaurantSearchIndex updated =
+        index.withMenu(menu("1", item("Masala Dosa", "Veg"))).withMenu(menu("2"));
+
+    assertArrayEquals(new int[] {0}, updated.search(Field.ITEM_NAME, "masala"));
+    assertArrayEquals(new int[0], updated.search(Field.ITEM_NAME, "paneer"));
+    assertArrayEquals(new int[] {0}, updated.search(Field.ITEM_ATTRIBUTE, "veg"));
+    // The index it was updated from is unchanged.
+    assertArrayEquals(new int[] {1}, index.search(Field.ITEM_NAME, "paneer"));
+  }
+
+  @Test
+  void incrementalUpdatesMatchAFullBuild() {
+    Random random = new Random(21);
+    List<MenuEntity> menus = new ArrayList<>();
+    RestaurantSearchIndex index =
+        RestaurantSearchIndex.build(Collections.emptyList(), Collections.emptyList());
+    for (int i = 0; i < 300; i++) {
+      String restaurantId = String.valueOf(random.nextInt(40));
+      if (random.nextBoolean() || menus.isEmpty()) {
+        RestaurantEntity restaurant = restaurant(restaurantId, words(random), words(random));
+        index = index.withRestaurant(restaurant);
+        if (menus.stream().noneMatch(menu -> menu.getRestaurantId().equals(restaurantId))) {
+          menus.add(menu(restaurantId));
+        }
+      } else {
+        MenuEntity menu = menu(menus.get(random.nextInt(menus.size())).getRestaurantId(),
+            item(words(random), words(random)), item(words(random)));
+        menus.removeIf(saved -> saved.getRestaurantId().equals(menu.getRestaurantId()));
+        menus.add(menu);
+        index = index.withMenu(menu);
+      }
+    }
+
+    RestaurantSearchIndex built = RestaurantSearchIndex.build(index.getCatalog().toList(), menus);
+    for (Field field : Field.values()) {
+      for (String word : WORDS) {
+        for (String query : new String[] {word, word.substring(0, 3), word + " " + WORDS[0]}) {
+          assertArrayEquals(built.search(field, query), index.search(field, query),
+              field + " " + query);
+          assertArrayEquals(built.searchContaining(field, query),
+              index.searchContaining(field, query), field + " " + query);
+        }
+      }
+    }
+  }
+
+  private static String words(Random random) {
+    return WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+  }
+
+  private static RestaurantEntity restaurant(String restaurantId, String name,
+      String... attributes) {
+    RestaurantEntity restaurant = new RestaurantEntity();
+    restaurant.setRestaurantId(restaurantId);
+    restaurant.setName(name);
+    restaurant.setAttributes(new ArrayList<>(Arrays.asList(attributes)));
+    return restaurant;
+  }
+
+  private static MenuEntity menu(String restaurantId, Item... items) {
+    return new MenuEntity(null, restaurantId, new ArrayList<>(Arrays.asList(items)));
+  }
+
+  private static Item item(String name, String... attributes) {
+    return new Item(null, null, name, null, new ArrayList<>(Arrays.asList(attributes)), 0);
+  }
+}
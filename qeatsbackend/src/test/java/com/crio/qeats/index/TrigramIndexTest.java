@@ -0,0 +1,82 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.index;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class TrigramIndexTest {
+
+  private static final String[] VALUES = {
+      "Biryani", "Chicken Biryani", "Mughlai", "Dosa", "Masala Dosa", "Mo", "A", "Paneer"};
+
+  @Test
+  void findsValuesContainingTheQueryIgnoringCase() {
+    TrigramIndex index = TrigramIndex.build(new String[] {
+        TrigramIndex.textOf(Arrays.asList("Chicken Biryani", "Kebab")),
+        TrigramIndex.textOf(Collections.singletonList("BIRYANI")),
+        TrigramIndex.textOf(Collections.singletonList("KFC")),
+        TrigramIndex.textOf(Collections.emptyList())});
+
+    assertArrayEquals(new int[] {0, 1}, index.findContaining("iryan"));
+    assertArrayEquals(new int[] {0}, index.findContaining("Chicken Bir"));
+    assertArrayEquals(new int[] {2}, index.findContaining("kf"));
+    assertArrayEquals(new int[] {0, 1}, index.findContaining("y"));
+    // Short queries at the end of a value.
+    assertArrayEquals(new int[] {0}, index.findContaining("ab"));
+    assertArrayEquals(new int[] {0, 2}, index.findContaining("C"));
+    // Matches do not span values.
+    assertArrayEquals(new int[0], index.findContaining("ani kebab"));
+    assertArrayEquals(new int[0], index.findContaining("biryani\nkebab"));
+    assertArrayEquals(new int[0], index.findContaining(""));
+  }
+
+  @Test
+  void matchesAScanOfTheValuesAfterIncrementalUpdates() {
+    Random random = new Random(22);
+    List<List<String>> valuesByOrdinal = new ArrayList<>();
+    TrigramIndex index = TrigramIndex.build(new String[0]);
+    for (int i = 0; i < 300; i++) {
+      int ordinal = random.nextInt(valuesByOrdinal.size() + 1);
+      List<String> values = new ArrayList<>();
+      for (int j = random.nextInt(3); j > 0; j--) {
+        values.add(VALUES[random.nextInt(VALUES.length)]);
+      }
+      if (ordinal == valuesByOrdinal.size()) {
+        valuesByOrdinal.add(values);
+      } else {
+        valuesByOrdinal.set(ordinal, values);
+      }
+      index = index.withText(ordinal, TrigramIndex.textOf(values));
+    }
+
+    for (String value : VALUES) {
+      for (int from = 0; from < value.length(); from++) {
+        for (int to = from + 1; to <= value.length(); to++) {
+          String query = value.substring(from, to);
+          assertArrayEquals(scan(valuesByOrdinal, query), index.findContaining(query), query);
+        }
+      }
+    }
+  }
+
+  private static int[] scan(List<List<String>> valuesByOrdinal, String query) {
+    String foldedQuery = query.toLowerCase(Locale.ROOT);
+    return IntStream.range(0, valuesByOrdinal.size())
+        .filter(ordinal -> valuesByOrdinal.get(ordinal).stream()
+            .anyMatch(value -> value.toLowerCase(Locale.ROOT).contains(foldedQuery)))
+        .toArray();
+  }
+}
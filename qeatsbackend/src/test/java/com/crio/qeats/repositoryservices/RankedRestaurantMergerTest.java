@@ -0,0 +1,89 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.repositoryservices.RankedRestaurantMerger.Tier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class RankedRestaurantMergerTest {
+
+  @Test
+  void restaurantsAreMergedInTierOrderWhateverTheOrderTheyAreAddedIn() {
+    List<Restaurant> merged = RankedRestaurantMerger.ofRestaurants()
+        .add(Tier.ITEM_NAME, restaurants("5", "1"))
+        .add(Tier.ATTRIBUTE, restaurants("4", "3"))
+        .add(Tier.EXACT_NAME, restaurants("1"))
+        .add(Tier.ITEM_ATTRIBUTE, restaurants("6"))
+        .add(Tier.PARTIAL_NAME, restaurants("2"))
+        .merge();
+
+    assertEquals(Arrays.asList("1", "2", "4", "3", "5", "6"), restaurantIds(merged));
+  }
+
+  @Test
+  void eachRestaurantIsKeptOnceWhereItRanksBest() {
+    Restaurant exactMatch = restaurant("1");
+    List<Restaurant> merged = RankedRestaurantMerger.ofRestaurants()
+        .add(Tier.ATTRIBUTE, restaurants("2", "1", "2"))
+        .add(Tier.EXACT_NAME, Collections.singletonList(exactMatch))
+        .add(Tier.ATTRIBUTE, restaurants("3", "1"))
+        .merge();
+
+    assertEquals(Arrays.asList("1", "2", "3"), restaurantIds(merged));
+    assertSame(exactMatch, merged.get(0));
+  }
+
+  @Test
+  void missingResultsAreSkipped() {
+    assertEquals(Collections.singletonList("1"), restaurantIds(RankedRestaurantMerger
+        .ofRestaurants()
+        .add(Tier.EXACT_NAME, null)
+        .add(Tier.ITEM_NAME, restaurants("1"))
+        .merge()));
+    assertEquals(Collections.emptyList(), RankedRestaurantMerger.ofRestaurants().merge());
+  }
+
+  @Test
+  void largeOverlappingTiersAreMerged() {
+    List<String> ids = IntStream.range(0, 100000).mapToObj(Integer::toString)
+        .collect(Collectors.toList());
+    RankedRestaurantMerger<Restaurant> merger = RankedRestaurantMerger.ofRestaurants();
+    for (Tier tier : Tier.values()) {
+      merger.add(tier, restaurants(ids.toArray(new String[0])));
+    }
+
+    assertEquals(ids, restaurantIds(merger.merge()));
+  }
+
+  private static List<Restaurant> restaurants(String... restaurantIds) {
+    List<Restaurant> restaurants = new ArrayList<>();
+    for (String restaurantId : restaurantIds) {
+      restaurants.add(restaurant(restaurantId));
+    }
+    return restaurants;
+  }
+
+  private static Restaurant restaurant(String restaurantId) {
+    Restaurant restaurant = new Restaurant();
+    restaurant.setRestaurantId(restaurantId);
+    return restaurant;
+  }
+
+  private static List<String> restaurantIds(List<Restaurant> restaurants) {
+    return restaurants.stream().map(Restaurant::getRestaurantId).collect(Collectors.toList());
+  }
+}
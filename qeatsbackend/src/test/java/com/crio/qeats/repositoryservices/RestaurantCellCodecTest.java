@@ -0,0 +1,122 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.crio.qeats.index.RestaurantCatalog;
+import com.crio.qeats.models.RestaurantEntity;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class RestaurantCellCodecTest {
+
+  private final RestaurantCellCodec jsonCodec =
+      new RestaurantCellCodec(RestaurantCellCodec.JSON_FORMAT, 0);
+  private final RestaurantCellCodec binaryCodec =
+      new RestaurantCellCodec(RestaurantCellCodec.BINARY_FORMAT, 0);
+  private final RestaurantCellCodec compressingCodec =
+      new RestaurantCellCodec(RestaurantCellCodec.BINARY_FORMAT, 1);
+
+  @Test
+  void binaryValuesKeepEveryField() throws IOException {
+    List<RestaurantEntity> restaurants = cell(3);
+    restaurants.get(1).setCity(null);
+    restaurants.get(1).setLatitude(null);
+    restaurants.get(2).setAttributes(null);
+
+    byte[] value = binaryCodec.encode(restaurants);
+
+    assertEquals(RestaurantCellCodec.BINARY_V2, value[0]);
+    assertEquals(restaurants, binaryCodec.decode(value));
+  }
+
+  @Test
+  void largeBinaryValuesAreCompressed() throws IOException {
+    List<RestaurantEntity> restaurants = cell(50);
+
+    byte[] value = compressingCodec.encode(restaurants);
+
+    assertEquals(RestaurantCellCodec.BINARY_V2_LZ4, value[0]);
+    assertEquals(restaurants, compressingCodec.decode(value));
+  }
+
+  @Test
+  void binaryValuesCarryTheMinutesOfTheHours() throws IOException {
+    List<RestaurantEntity> restaurants = cell(60);
+    restaurants.get(1).setOpensAt(null);
+    restaurants.get(2).setClosesAt("not a time");
+    restaurants.get(3).setOpensAt("23:59");
+    RestaurantCatalog catalog = RestaurantCatalog.of(restaurants);
+
+    for (RestaurantCellCodec codec : Arrays.asList(binaryCodec, compressingCodec, jsonCodec)) {
+      RestaurantCatalog decoded = codec.decodeCatalog(codec.encode(catalog));
+
+      assertEquals(restaurants, decoded.toList());
+      for (int ordinal = 0; ordinal < catalog.size(); ordinal++) {
+        assertEquals(catalog.getOpensAtMinute(ordinal), decoded.getOpensAtMinute(ordinal));
+        assertEquals(catalog.getClosesAtMinute(ordinal), decoded.getClosesAtMinute(ordinal));
+      }
+    }
+  }
+
+  @Test
+  void valuesOfEitherFormatAreReadWhateverFormatIsWritten() throws IOException {
+    List<RestaurantEntity> restaurants = cell(5);
+    byte[] legacyJson = new ObjectMapper().writeValueAsBytes(restaurants);
+
+    assertEquals(restaurants, binaryCodec.decode(legacyJson));
+    assertEquals(restaurants, jsonCodec.decode(binaryCodec.encode(restaurants)));
+    assertEquals(restaurants, jsonCodec.decode(compressingCodec.encode(restaurants)));
+  }
+
+  @Test
+  void binaryValuesAreMuchSmallerThanJson() throws IOException {
+    List<RestaurantEntity> restaurants = cell(50);
+
+    int jsonLength = jsonCodec.encode(restaurants).length;
+    int binaryLength = binaryCodec.encode(restaurants).length;
+
+    assertTrue(2 * binaryLength < jsonLength, binaryLength + " vs " + jsonLength);
+  }
+
+  @Test
+  void unknownOrCorruptedValuesAreRejected() throws IOException {
+    byte[] value = binaryCodec.encode(cell(5));
+
+    assertThrows(IOException.class, () -> binaryCodec.decode(new byte[] {42}));
+    assertThrows(IOException.class, () -> binaryCodec.decode(new byte[0]));
+    assertThrows(IOException.class,
+        () -> binaryCodec.decode(Arrays.copyOf(value, value.length / 2)));
+  }
+
+  // Restaurants of one neighbourhood: same city, hours and cuisines.
+  private static List<RestaurantEntity> cell(int size) {
+    List<RestaurantEntity> restaurants = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      RestaurantEntity restaurant = new RestaurantEntity();
+      restaurant.setId("5c8a8f6e2f0b" + i);
+      restaurant.setRestaurantId(String.valueOf(100 + i));
+      restaurant.setName("Restaurant " + i);
+      restaurant.setCity("Hsr Layout");
+      restaurant.setImageUrl("www.google.com");
+      restaurant.setLatitude(12.9 + i * 0.0001);
+      restaurant.setLongitude(77.6 - i * 0.0001);
+      restaurant.setOpensAt("18:00");
+      restaurant.setClosesAt("23:00");
+      restaurant.setAttributes(new ArrayList<>(Arrays.asList("South Indian", "Tamil")));
+      restaurants.add(restaurant);
+    }
+    return restaurants;
+  }
+}
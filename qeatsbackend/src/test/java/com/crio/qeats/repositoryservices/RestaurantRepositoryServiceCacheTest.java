@@ -2,6 +2,9 @@ package com.crio.qeats.repositoryservices;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyDouble;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -9,15 +12,22 @@ import static org.mockito.Mockito.when;
 import ch.hsr.geohash.GeoHash;
 import com.crio.qeats.QEatsApplication;
 import com.crio.qeats.configs.RedisConfiguration;
+import com.crio.qeats.configs.RedisKeys;
+import com.crio.qeats.configs.RestaurantLocationMigration;
 import com.crio.qeats.dto.Restaurant;
 import com.crio.qeats.models.RestaurantEntity;
 import com.crio.qeats.repositories.RestaurantRepository;
 import com.crio.qeats.utils.FixtureHelpers;
+import com.crio.qeats.utils.GeoUtils;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.time.LocalTime;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
 import javax.inject.Provider;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -31,9 +41,12 @@ import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
 import redis.embedded.RedisServer;
 
-@SpringBootTest(classes = {QEatsApplication.class})
+// Only the database sources read through the cell caches.
+@SpringBootTest(classes = {QEatsApplication.class},
+    properties = "qeats.nearby.source=" + RestaurantLocationMigration.MONGO_GEO_SOURCE)
 @DirtiesContext
 @ActiveProfiles("test")
 class RestaurantRepositoryServiceCacheTest {
@@ -47,9 +60,15 @@ class RestaurantRepositoryServiceCacheTest {
   @Autowired
   private RedisConfiguration redisConfiguration;
   @Autowired
+  private RedisKeys redisKeys;
+  @Autowired
   private ObjectMapper objectMapper;
   @Autowired
   private Provider<ModelMapper> modelMapperProvider;
+  @Autowired
+  private RestaurantCellCodec restaurantCellCodec;
+  @Autowired
+  private RestaurantCellCache restaurantCellCache;
 
   @Value("${spring.redis.port}")
   private int redisPort;
@@ -78,7 +97,7 @@ class RestaurantRepositoryServiceCacheTest {
     assertNotNull(mongoTemplate);
     assertNotNull(restaurantRepositoryService);
 
-    when(mockRestaurantRepository.findAll()).thenReturn(listOfRestaurants());
+    stubGeoQuery(listOfRestaurants());
 
     Jedis jedis = redisConfiguration.getJedisPool().getResource();
 
@@ -87,15 +106,164 @@ class RestaurantRepositoryServiceCacheTest {
         .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
     allRestaurantsCloseBy = restaurantRepositoryService
         .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
-    GeoHash geoHash = GeoHash.withCharacterPrecision(20.0, 30.0, 7);
+    GeoHash geoHash = GeoHash.withCharacterPrecision(20.0, 30.0, 6);
 
-    verify(mockRestaurantRepository, times(1)).findAll();
-    assertNotNull(jedis.get(geoHash.toBase32()));
+    verify(mockRestaurantRepository, times(1))
+        .findRestaurantsWithinSphere(anyDouble(), anyDouble(), anyDouble());
+    assertNotNull(jedis.get(redisKeys.cell(geoHash.toBase32())));
     assertEquals(2, allRestaurantsCloseBy.size());
     assertEquals("11", allRestaurantsCloseBy.get(0).getRestaurantId());
     assertEquals("12", allRestaurantsCloseBy.get(1).getRestaurantId());
   }
 
+  @Test
+  void hotCellsAreServedWithoutRedis() throws IOException {
+    stubGeoQuery(listOfRestaurants());
+    List<Restaurant> coldRestaurants = restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
+
+    // Empty Redis behind the back of the in-process cache.
+    Jedis jedis = redisConfiguration.getJedisPool().getResource();
+    jedis.flushAll();
+    List<Restaurant> hotRestaurants = restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
+
+    assertEquals(coldRestaurants, hotRestaurants);
+    // Nothing was missing, so nothing was written back to Redis.
+    assertNull(jedis.get(
+        redisKeys.cell(GeoHash.withCharacterPrecision(20.0, 30.0, 6).toBase32())));
+    jedis.close();
+  }
+
+  @Test
+  void cacheHoldsEachRestaurantOnlyInItsOwnCell() throws IOException {
+    List<RestaurantEntity> allRestaurants = listOfRestaurants();
+    stubGeoQuery(allRestaurants);
+
+    restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 5.0);
+
+    Jedis jedis = redisConfiguration.getJedisPool().getResource();
+    for (RestaurantEntity restaurant : allRestaurants) {
+      String cell = GeoHash.withCharacterPrecision(restaurant.getLatitude(),
+          restaurant.getLongitude(), 6).toBase32();
+      byte[] cachedCell = jedis.get(SafeEncoder.encode(redisKeys.cell(cell)));
+      if (cachedCell == null) {
+        continue;
+      }
+      for (RestaurantEntity cachedRestaurant : restaurantCellCodec.decode(cachedCell)) {
+        assertEquals(cell, GeoHash.withCharacterPrecision(cachedRestaurant.getLatitude(),
+            cachedRestaurant.getLongitude(), 6).toBase32());
+      }
+    }
+    jedis.close();
+  }
+
+  @Test
+  void cellsCloseToTheirExpiryAreServedWhileTheyAreReloaded() throws Exception {
+    // Within the last 20% of the time to live, before the 600 s of staleness.
+    assertServedWhileReloaded(TimeUnit.SECONDS.toMillis(600 + 60));
+  }
+
+  @Test
+  void expiredCellsAreServedStaleWhileTheyAreReloaded() throws Exception {
+    assertServedWhileReloaded(TimeUnit.SECONDS.toMillis(60));
+  }
+
+  // Replaces the cell of restaurant 12 with an empty one that has the given time to live left.
+  private void assertServedWhileReloaded(long timeToLiveInMillis) throws Exception {
+    List<RestaurantEntity> allRestaurants = listOfRestaurants();
+    stubGeoQuery(allRestaurants);
+    restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
+    RestaurantEntity restaurant12 = allRestaurants.stream()
+        .filter(restaurant -> "12".equals(restaurant.getRestaurantId())).findFirst().get();
+    String cell = GeoHash.withCharacterPrecision(restaurant12.getLatitude(),
+        restaurant12.getLongitude(), 6).toBase32();
+    Jedis jedis = redisConfiguration.getJedisPool().getResource();
+    jedis.psetex(SafeEncoder.encode(redisKeys.cell(cell)), timeToLiveInMillis,
+        restaurantCellCodec.encode(Collections.emptyList()));
+    restaurantCellCache.invalidateAll();
+
+    List<Restaurant> servedRestaurants = restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
+    assertEquals(1, servedRestaurants.size());
+
+    awaitUntil(() -> jedis.pttl(redisKeys.cell(cell)) > TimeUnit.SECONDS.toMillis(3600));
+    restaurantCellCache.invalidateAll();
+    List<Restaurant> reloadedRestaurants = restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
+    assertEquals(2, reloadedRestaurants.size());
+    jedis.close();
+  }
+
+  @Test
+  void savingARestaurantDropsItsCell() throws IOException {
+    List<RestaurantEntity> allRestaurants = listOfRestaurants();
+    stubGeoQuery(allRestaurants);
+    restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
+    RestaurantEntity restaurant12 = allRestaurants.stream()
+        .filter(restaurant -> "12".equals(restaurant.getRestaurantId())).findFirst().get();
+    String cell = GeoHash.withCharacterPrecision(restaurant12.getLatitude(),
+        restaurant12.getLongitude(), 6).toBase32();
+    Jedis jedis = redisConfiguration.getJedisPool().getResource();
+    assertNotNull(jedis.get(redisKeys.cell(cell)));
+
+    mongoTemplate.save(restaurant12, "restaurants");
+
+    assertNull(jedis.get(redisKeys.cell(cell)));
+    assertTrue(restaurantCellCache.getAllPresent(Collections.singleton(cell)).isEmpty());
+    jedis.close();
+    mongoTemplate.dropCollection("restaurants");
+  }
+
+  @Test
+  void cellsCachedUnderThePreviousKeyVersionAreServedAndCopied() throws Exception {
+    stubGeoQuery(listOfRestaurants());
+    // The cell of restaurant 12, cached empty by the previous release.
+    String cell = GeoHash.withCharacterPrecision(20.015, 30.015, 6).toBase32();
+    long timeToLiveInMillis = TimeUnit.SECONDS.toMillis(4000);
+    Jedis jedis = redisConfiguration.getJedisPool().getResource();
+    jedis.psetex(SafeEncoder.encode(redisKeys.previousCell(cell)), timeToLiveInMillis,
+        restaurantCellCodec.encode(Collections.emptyList()));
+
+    List<Restaurant> servedRestaurants = restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
+    assertEquals(1, servedRestaurants.size());
+    assertEquals("11", servedRestaurants.get(0).getRestaurantId());
+
+    awaitUntil(() -> jedis.exists(redisKeys.cell(cell)));
+    assertTrue(jedis.pttl(redisKeys.cell(cell)) <= timeToLiveInMillis);
+    assertTrue(restaurantCellCodec.decode(
+        jedis.get(SafeEncoder.encode(redisKeys.cell(cell)))).isEmpty());
+    jedis.close();
+  }
+
+  // Answers the $geoWithin query from the restaurants, as the 2dsphere index would.
+  private void stubGeoQuery(List<RestaurantEntity> restaurants) {
+    when(mockRestaurantRepository.findRestaurantsWithinSphere(anyDouble(), anyDouble(),
+        anyDouble())).thenAnswer(invocation -> {
+          double latitude = invocation.getArgument(0);
+          double longitude = invocation.getArgument(1);
+          double radiusInKms =
+              (double) invocation.getArgument(2) * GeoUtils.EARTH_RADIUS_IN_KMS;
+          return restaurants.stream()
+              .filter(restaurant -> GeoUtils.findDistanceInKm(latitude, longitude,
+                  restaurant.getLatitude(), restaurant.getLongitude()) < radiusInKms)
+              .collect(Collectors.toList());
+        });
+  }
+
+  private static void awaitUntil(BooleanSupplier condition)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
   private List<RestaurantEntity> listOfRestaurants() throws IOException {
     String fixture =
         FixtureHelpers.fixture(FIXTURES + "/initial_data_set_restaurants.json");
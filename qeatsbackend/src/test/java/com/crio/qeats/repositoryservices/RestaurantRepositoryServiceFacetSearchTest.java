@@ -0,0 +1,112 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.crio.qeats.QEatsApplication;
+import com.crio.qeats.configs.RedisConfiguration;
+import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.models.MenuEntity;
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.utils.FixtureHelpers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(classes = {QEatsApplication.class},
+    properties = "qeats.search.source=" + RestaurantSearchAggregation.MONGO_FACET_SEARCH_SOURCE)
+@DirtiesContext
+@ActiveProfiles("test")
+class RestaurantRepositoryServiceFacetSearchTest {
+
+  private static final String FIXTURES = "fixtures/exchanges";
+
+  @Autowired
+  private RestaurantRepositoryService restaurantRepositoryService;
+  @Autowired
+  private MongoTemplate mongoTemplate;
+  @Autowired
+  private RedisConfiguration redisConfiguration;
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @BeforeEach
+  void setup() throws IOException {
+    for (RestaurantEntity restaurantEntity : listOfRestaurants()) {
+      mongoTemplate.save(restaurantEntity, "restaurants");
+    }
+    for (MenuEntity menuEntity : listOfMenus()) {
+      mongoTemplate.save(menuEntity, "menus");
+    }
+  }
+
+  @AfterEach
+  void teardown() {
+    mongoTemplate.dropCollection("restaurants");
+    mongoTemplate.dropCollection("menus");
+    mongoTemplate.dropCollection(RestaurantSearchProjection.RESTAURANT_SEARCH_COLLECTION);
+    redisConfiguration.destroyCache();
+  }
+
+  @Test
+  void everyKindOfMatchIsFoundWithinTheServingRadius() {
+    assertEquals(Arrays.asList("11", "12"), search("a2b"));
+    assertEquals(Arrays.asList("11", "12"), search("South Ind"));
+    assertEquals(Arrays.asList("11", "12"), search("briyani"));
+    assertEquals(Arrays.asList("11", "12"), search("MUGHAL"));
+    assertEquals(Collections.singletonList("12"), search("fish"));
+    assertEquals(Collections.emptyList(), search("mutton"));
+  }
+
+  @Test
+  void searchStringIsMatchedLiterally() {
+    assertEquals(Collections.emptyList(), search("a.b"));
+  }
+
+  @Test
+  void closedRestaurantsAreLeftOut() {
+    assertEquals(Collections.emptyList(), restaurantRepositoryService
+        .findRestaurantsBySearchString(20.0, 30.0, "a2b", LocalTime.of(12, 0), 3.0));
+  }
+
+  private List<String> search(String searchString) {
+    return restaurantRepositoryService
+        .findRestaurantsBySearchString(20.0, 30.0, searchString, LocalTime.of(18, 1), 3.0)
+        .stream()
+        .map(Restaurant::getRestaurantId)
+        .collect(Collectors.toList());
+  }
+
+  private List<RestaurantEntity> listOfRestaurants() throws IOException {
+    String fixture =
+        FixtureHelpers.fixture(FIXTURES + "/initial_data_set_restaurants.json");
+
+    return objectMapper.readValue(fixture, new TypeReference<List<RestaurantEntity>>() {
+    });
+  }
+
+  private List<MenuEntity> listOfMenus() throws IOException {
+    String fixture = FixtureHelpers.fixture(FIXTURES + "/initial_data_set_menus.json");
+
+    return objectMapper.readValue(fixture, new TypeReference<List<MenuEntity>>() {
+    });
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.crio.qeats.QEatsApplication;
+import com.crio.qeats.configs.RedisConfiguration;
+import com.crio.qeats.configs.RestaurantLocationMigration;
+import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.repositories.RestaurantRepository;
+import com.crio.qeats.utils.FixtureHelpers;
+import com.crio.qeats.utils.GeoUtils;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(classes = {QEatsApplication.class},
+    properties = "qeats.nearby.source=" + RestaurantLocationMigration.MONGO_GEO_SOURCE)
+@DirtiesContext
+@ActiveProfiles("test")
+class RestaurantRepositoryServiceGeoQueryTest {
+
+  private static final String FIXTURES = "fixtures/exchanges";
+
+  @Autowired
+  private RestaurantRepositoryService restaurantRepositoryService;
+  @Autowired
+  private RestaurantRepository restaurantRepository;
+  @Autowired
+  private RestaurantLocationMigration restaurantLocationMigration;
+  @Autowired
+  private MongoTemplate mongoTemplate;
+  @Autowired
+  private RedisConfiguration redisConfiguration;
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  private List<RestaurantEntity> allRestaurants;
+
+  @BeforeEach
+  void setup() throws IOException {
+    allRestaurants = listOfRestaurants();
+    for (RestaurantEntity restaurantEntity : allRestaurants) {
+      mongoTemplate.save(restaurantEntity, "restaurants");
+    }
+  }
+
+  @AfterEach
+  void teardown() {
+    mongoTemplate.dropCollection("restaurants");
+    redisConfiguration.destroyCache();
+  }
+
+  @Test
+  void migrationAddsLocationToExistingDocuments() {
+    mongoTemplate.updateMulti(new Query(), new Update().unset("location"), "restaurants");
+
+    assertEquals(allRestaurants.size(), restaurantLocationMigration.migrate());
+    assertEquals(0, restaurantLocationMigration.migrate());
+  }
+
+  @Test
+  void geoQueryMatchesHaversineFilter() {
+    restaurantLocationMigration.migrate();
+
+    for (double[] query : Arrays.asList(new double[] {20.0, 30.0, 3.0},
+        new double[] {20.0, 30.0, 5.0}, new double[] {20.8, 30.1, 5.0},
+        new double[] {20.9, 30.0, 3.0}, new double[] {20.0, 30.0, 200.0})) {
+      double radiusInKms = query[2];
+      List<String> expected = withinRadius(allRestaurants, query[0], query[1], radiusInKms);
+      List<String> actual = restaurantRepository.findRestaurantsWithinSphere(
+          query[0], query[1], radiusInKms / GeoUtils.EARTH_RADIUS_IN_KMS).stream()
+          .map(RestaurantEntity::getRestaurantId)
+          .sorted()
+          .collect(Collectors.toList());
+
+      assertEquals(expected, actual);
+    }
+  }
+
+  @Test
+  void restaurantsCloseByAndOpenNow() {
+    restaurantLocationMigration.migrate();
+
+    List<Restaurant> allRestaurantsCloseBy = restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
+
+    assertEquals(2, allRestaurantsCloseBy.size());
+    assertEquals("11", allRestaurantsCloseBy.get(0).getRestaurantId());
+    assertEquals("12", allRestaurantsCloseBy.get(1).getRestaurantId());
+  }
+
+  private List<String> withinRadius(List<RestaurantEntity> restaurants,
+      double latitude, double longitude, double radiusInKms) {
+    return restaurants.stream()
+        .filter(restaurant -> GeoUtils.findDistanceInKm(latitude, longitude,
+            restaurant.getLatitude(), restaurant.getLongitude()) < radiusInKms)
+        .map(RestaurantEntity::getRestaurantId)
+        .sorted()
+        .collect(Collectors.toList());
+  }
+
+  private List<RestaurantEntity> listOfRestaurants() throws IOException {
+    String fixture =
+        FixtureHelpers.fixture(FIXTURES + "/initial_data_set_restaurants.json");
+
+    return objectMapper.readValue(fixture, new TypeReference<List<RestaurantEntity>>() {
+    });
+  }
+}
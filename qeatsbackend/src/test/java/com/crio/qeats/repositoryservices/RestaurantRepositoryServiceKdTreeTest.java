@@ -0,0 +1,112 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.crio.qeats.QEatsApplication;
+import com.crio.qeats.configs.RedisConfiguration;
+import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.utils.FixtureHelpers;
+import com.crio.qeats.utils.GeoUtils;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.time.LocalTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(classes = {QEatsApplication.class})
+@DirtiesContext
+@ActiveProfiles({"test", RestaurantRepositoryServiceKdTreeImpl.KD_TREE_PROFILE})
+class RestaurantRepositoryServiceKdTreeTest {
+
+  private static final String FIXTURES = "fixtures/exchanges";
+
+  @Autowired
+  private RestaurantRepositoryService restaurantRepositoryService;
+  @Autowired
+  private MongoTemplate mongoTemplate;
+  @Autowired
+  private RedisConfiguration redisConfiguration;
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  private List<RestaurantEntity> allRestaurants;
+
+  @BeforeEach
+  void setup() throws IOException {
+    allRestaurants = listOfRestaurants();
+    for (RestaurantEntity restaurantEntity : allRestaurants) {
+      mongoTemplate.save(restaurantEntity, "restaurants");
+    }
+  }
+
+  @AfterEach
+  void teardown() {
+    mongoTemplate.dropCollection("restaurants");
+    redisConfiguration.destroyCache();
+  }
+
+  @Test
+  void kdTreeServiceIsSelectedByProfile() {
+    assertTrue(restaurantRepositoryService instanceof RestaurantRepositoryServiceKdTreeImpl);
+  }
+
+  @Test
+  void restaurantsCloseByAndOpenNow() {
+    List<Restaurant> allRestaurantsCloseBy = restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
+
+    assertEquals(2, allRestaurantsCloseBy.size());
+    assertEquals("11", allRestaurantsCloseBy.get(0).getRestaurantId());
+    assertEquals("12", allRestaurantsCloseBy.get(1).getRestaurantId());
+  }
+
+  @Test
+  void nearestRestaurantsComeClosestFirst() {
+    List<String> expected = allRestaurants.stream()
+        .filter(restaurant -> distanceFrom20And30(restaurant) < 3.0)
+        .filter(restaurant -> "11".equals(restaurant.getRestaurantId())
+            || "12".equals(restaurant.getRestaurantId()))
+        .sorted(Comparator.comparingDouble(this::distanceFrom20And30))
+        .map(RestaurantEntity::getRestaurantId)
+        .collect(Collectors.toList());
+
+    List<String> actual = restaurantRepositoryService
+        .findRestaurantsCloseByOrderedByDistance(20.0, 30.0, LocalTime.of(18, 1), 3.0, 10, null)
+        .stream()
+        .map(Restaurant::getRestaurantId)
+        .collect(Collectors.toList());
+
+    assertEquals(expected, actual);
+  }
+
+  private double distanceFrom20And30(RestaurantEntity restaurant) {
+    return GeoUtils.findDistanceInKm(20.0, 30.0, restaurant.getLatitude(),
+        restaurant.getLongitude());
+  }
+
+  private List<RestaurantEntity> listOfRestaurants() throws IOException {
+    String fixture =
+        FixtureHelpers.fixture(FIXTURES + "/initial_data_set_restaurants.json");
+
+    return objectMapper.readValue(fixture, new TypeReference<List<RestaurantEntity>>() {
+    });
+  }
+}
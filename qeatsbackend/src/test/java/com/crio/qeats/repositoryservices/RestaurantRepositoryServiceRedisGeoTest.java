@@ -0,0 +1,178 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.crio.qeats.QEatsApplication;
+import com.crio.qeats.configs.RedisConfiguration;
+import com.crio.qeats.configs.RedisKeys;
+import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.index.RestaurantCatalog;
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.utils.FixtureHelpers;
+import com.crio.qeats.utils.GeoUtils;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import redis.clients.jedis.Jedis;
+
+@SpringBootTest(classes = {QEatsApplication.class})
+@DirtiesContext
+@ActiveProfiles({"test", RestaurantRepositoryServiceRedisGeoImpl.REDIS_GEO_PROFILE})
+class RestaurantRepositoryServiceRedisGeoTest {
+
+  private static final String FIXTURES = "fixtures/exchanges";
+
+  @Autowired
+  private RestaurantRepositoryService restaurantRepositoryService;
+  @Autowired
+  private MongoTemplate mongoTemplate;
+  @Autowired
+  private RedisConfiguration redisConfiguration;
+  @Autowired
+  private RedisKeys redisKeys;
+  @Autowired
+  private RedisGeoRestaurantStore redisGeoRestaurantStore;
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  private List<RestaurantEntity> allRestaurants;
+
+  @BeforeEach
+  void setup() throws IOException {
+    redisConfiguration.destroyCache();
+    allRestaurants = listOfRestaurants();
+    for (RestaurantEntity restaurantEntity : allRestaurants) {
+      mongoTemplate.save(restaurantEntity, "restaurants");
+    }
+  }
+
+  @AfterEach
+  void teardown() {
+    mongoTemplate.dropCollection("restaurants");
+    redisConfiguration.destroyCache();
+  }
+
+  @Test
+  void redisGeoServiceIsSelectedByProfile() {
+    assertTrue(restaurantRepositoryService instanceof RestaurantRepositoryServiceRedisGeoImpl);
+  }
+
+  @Test
+  void restaurantsCloseByAndOpenNow() {
+    List<Restaurant> allRestaurantsCloseBy = restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
+
+    assertEquals(2, allRestaurantsCloseBy.size());
+    assertEquals("11", allRestaurantsCloseBy.get(0).getRestaurantId());
+    assertEquals("12", allRestaurantsCloseBy.get(1).getRestaurantId());
+  }
+
+  @Test
+  void matchesAScanOfAllRestaurantsForAnyRadius() {
+    for (double radius : new double[] {0.5, 3.0, 5.0, 50.0, 500.0}) {
+      Set<String> expected = allRestaurants.stream()
+          .filter(restaurant -> GeoUtils.findDistanceInKm(20.0, 30.0,
+              restaurant.getLatitude(), restaurant.getLongitude()) < radius)
+          .filter(restaurant -> RestaurantCatalog.isOpenAt(restaurant.getOpensAt(),
+              restaurant.getClosesAt(), LocalTime.of(18, 1)))
+          .map(RestaurantEntity::getRestaurantId)
+          .collect(Collectors.toCollection(TreeSet::new));
+
+      Set<String> actual = restaurantRepositoryService
+          .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), radius).stream()
+          .map(Restaurant::getRestaurantId)
+          .collect(Collectors.toCollection(TreeSet::new));
+
+      assertEquals(expected, actual, "radius " + radius);
+    }
+  }
+
+  @Test
+  void lookupsAreAnsweredFromRedisOnceCopied() throws Exception {
+    List<Restaurant> fromMongo = restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
+    redisGeoRestaurantStore.scheduleSync().get(10, TimeUnit.SECONDS);
+    Jedis jedis = redisConfiguration.getJedisPool().getResource();
+    assertEquals(allRestaurants.size(), jedis.zcard(redisKeys.geoIndex()).intValue());
+    jedis.close();
+
+    mongoTemplate.dropCollection("restaurants");
+    List<Restaurant> fromRedis = restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
+
+    assertEquals(fromMongo, fromRedis);
+  }
+
+  @Test
+  void concurrentFirstLookupsAreAllAnswered() throws Exception {
+    List<Restaurant> expected = restaurantRepositoryService
+        .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
+    redisConfiguration.destroyCache();
+
+    // The restaurants are copied once, and lookups are answered without waiting for it.
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<List<Restaurant>>> lookups = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      lookups.add(executor.submit(() -> restaurantRepositoryService
+          .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0)));
+    }
+    for (Future<List<Restaurant>> lookup : lookups) {
+      assertEquals(expected, lookup.get(10, TimeUnit.SECONDS));
+    }
+    executor.shutdown();
+    redisGeoRestaurantStore.scheduleSync().get(10, TimeUnit.SECONDS);
+
+    Jedis jedis = redisConfiguration.getJedisPool().getResource();
+    assertTrue(jedis.exists(redisKeys.geoSynced()));
+    jedis.close();
+  }
+
+  @Test
+  void restaurantsSavedWhileTheCopyIsMadeAreKept() throws Exception {
+    RestaurantEntity added = listOfRestaurants().get(1);
+    added.setId("15");
+    added.setRestaurantId("15");
+    // Whether it is saved before, while or after the copy is made, it ends up in the copy.
+    Future<?> sync = redisGeoRestaurantStore.scheduleSync();
+    mongoTemplate.save(added, "restaurants");
+    sync.get(10, TimeUnit.SECONDS);
+
+    Jedis jedis = redisConfiguration.getJedisPool().getResource();
+    assertTrue(jedis.exists(redisKeys.geoSynced()));
+    assertEquals(allRestaurants.size() + 1, jedis.zcard(redisKeys.geoIndex()).intValue());
+    jedis.close();
+  }
+
+  private List<RestaurantEntity> listOfRestaurants() throws IOException {
+    String fixture =
+        FixtureHelpers.fixture(FIXTURES + "/initial_data_set_restaurants.json");
+
+    return objectMapper.readValue(fixture, new TypeReference<List<RestaurantEntity>>() {
+    });
+  }
+}
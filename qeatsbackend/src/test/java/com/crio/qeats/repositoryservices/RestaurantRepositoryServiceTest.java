@@ -11,6 +11,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -20,14 +21,19 @@ import com.crio.qeats.configs.RedisConfiguration;
 import com.crio.qeats.dto.Restaurant;
 import com.crio.qeats.models.RestaurantEntity;
 import com.crio.qeats.repositories.RestaurantRepository;
+import com.crio.qeats.utils.DistanceCursor;
 import com.crio.qeats.utils.FixtureHelpers;
+import com.crio.qeats.utils.GeoLocation;
+import com.crio.qeats.utils.GeoUtils;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 import javax.inject.Provider;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -178,6 +184,23 @@ public class RestaurantRepositoryServiceTest {
     assertEquals("A2B Adyar Ananda Bhavan", foundRestaurantsList.get(1).getName());
   }
 
+  @Test
+  void searchRanksNameMatchesBeforeAttributeMatches() {
+    // 12 matches the name exactly, 11 only partially and 10 only by its attributes.
+    doReturn(Optional.of(Arrays.asList(restaurant("12"))))
+        .when(restaurantRepository).findRestaurantsByNameExact(any());
+    doReturn(Optional.of(Arrays.asList(restaurant("11"), restaurant("12"))))
+        .when(restaurantRepository).findRestaurantsByNameContaining(any());
+    doReturn(Optional.of(Arrays.asList(restaurant("10"), restaurant("11"))))
+        .when(restaurantRepository).findRestaurantsByAttributesExact(any());
+
+    List<Restaurant> foundRestaurants = restaurantRepositoryService
+        .findRestaurantsBySearchString(20.0, 30.0, "A2B", LocalTime.of(20, 0), 5.0);
+
+    assertEquals(Arrays.asList("12", "11", "10"), foundRestaurants.stream()
+        .map(Restaurant::getRestaurantId).collect(Collectors.toList()));
+  }
+
   @Test
   void restaurantsCloseByFromColdCache(@Autowired MongoTemplate mongoTemplate) throws IOException {
     assertNotNull(mongoTemplate);
@@ -188,13 +211,47 @@ public class RestaurantRepositoryServiceTest {
     List<Restaurant> allRestaurantsCloseBy = restaurantRepositoryService
         .findAllRestaurantsCloseBy(20.0, 30.0, LocalTime.of(18, 1), 3.0);
 
-    verify(restaurantRepository, times(1)).findAll();
+    // Indexes built by an earlier test are served while they are rebuilt after the saves.
+    verify(restaurantRepository, timeout(1000).times(1)).findAll();
     assertEquals(2, allRestaurantsCloseBy.size());
     assertEquals("11", allRestaurantsCloseBy.get(0).getRestaurantId());
     assertEquals("12", allRestaurantsCloseBy.get(1).getRestaurantId());
   }
 
+  @Test
+  void restaurantsCloseByArePagedClosestFirst() {
+    // 12 is about 2.2 km away and 11 about 3.0 km away.
+    List<Restaurant> firstPage = restaurantRepositoryService
+        .findRestaurantsCloseByOrderedByDistance(20.0, 30.0, LocalTime.of(18, 1), 3.0, 1, null);
+    assertEquals(1, firstPage.size());
+    assertEquals("12", firstPage.get(0).getRestaurantId());
+
+    DistanceCursor afterFirstPage = new DistanceCursor(GeoUtils.findDistanceInKm(20.0, 30.0,
+        firstPage.get(0).getLatitude(), firstPage.get(0).getLongitude()), "12");
+    List<Restaurant> secondPage = restaurantRepositoryService
+        .findRestaurantsCloseByOrderedByDistance(20.0, 30.0, LocalTime.of(18, 1), 3.0, 5,
+            afterFirstPage);
+    assertEquals(1, secondPage.size());
+    assertEquals("11", secondPage.get(0).getRestaurantId());
+  }
 
+  @Test
+  void batchOfLocationsMatchesOneLookupPerLocation() {
+    List<GeoLocation> locations = Arrays.asList(new GeoLocation(20.0, 30.0),
+        new GeoLocation(20.02, 30.01), new GeoLocation(20.0, 30.0), new GeoLocation(60.0, 60.0));
+    List<List<Restaurant>> batchResults = new ArrayList<>();
+    restaurantRepositoryService.findAllRestaurantsCloseBy(locations, LocalTime.of(18, 1), 3.0,
+        batchResults::add);
+
+    assertEquals(locations.size(), batchResults.size());
+    assertEquals(2, batchResults.get(0).size());
+    assertEquals(0, batchResults.get(3).size());
+    for (int i = 0; i < locations.size(); i++) {
+      assertEquals(restaurantRepositoryService.findAllRestaurantsCloseBy(
+          locations.get(i).getLatitude(), locations.get(i).getLongitude(), LocalTime.of(18, 1),
+          3.0), batchResults.get(i));
+    }
+  }
 
   void searchedAttributesIsSubsetOfRetrievedRestaurantAttributes() {
   }
@@ -202,6 +259,12 @@ public class RestaurantRepositoryServiceTest {
   void searchedAttributesIsCaseInsensitive() {
   }
 
+  private RestaurantEntity restaurant(String restaurantId) {
+    return allRestaurants.stream()
+        .filter(restaurant -> restaurant.getRestaurantId().equals(restaurantId))
+        .findFirst().get();
+  }
+
   private List<RestaurantEntity> listOfRestaurants() throws IOException {
     String fixture =
         FixtureHelpers.fixture(FIXTURES + "/initial_data_set_restaurants.json");
@@ -0,0 +1,67 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.crio.qeats.dto.Restaurant;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RestaurantResultCacheTest {
+
+  private final RestaurantResultCache resultCache = new RestaurantResultCache(true, 12);
+
+  @BeforeEach
+  void setup() {
+    resultCache.initCache();
+  }
+
+  @Test
+  void answersAreServedAsCached() {
+    List<Restaurant> restaurants = new ArrayList<>();
+    restaurants.add(new Restaurant());
+    String key = resultCache.keyOf(20.0, 30.0, 3.0, 2161);
+
+    List<Restaurant> cached = resultCache.put(key, restaurants);
+    restaurants.clear();
+
+    assertSame(cached, resultCache.get(key));
+    assertEquals(1, cached.size());
+    assertThrows(UnsupportedOperationException.class, () -> cached.add(new Restaurant()));
+  }
+
+  @Test
+  void keysTellLocationsRadiiAndTimeSlotsApart() {
+    String key = resultCache.keyOf(20.0, 30.0, 3.0, 2161);
+
+    assertEquals(key, resultCache.keyOf(20.0, 30.0, 3.0, 2161));
+    assertNotEquals(key, resultCache.keyOf(20.0001, 30.0, 3.0, 2161));
+    assertNotEquals(key, resultCache.keyOf(20.0, 30.0, 5.0, 2161));
+    assertNotEquals(key, resultCache.keyOf(20.0, 30.0, 3.0, 1440));
+    // Coarser cells share answers between nearby locations.
+    RestaurantResultCache coarseCache = new RestaurantResultCache(true, 7);
+    assertEquals(coarseCache.keyOf(20.0, 30.0, 3.0, 2161),
+        coarseCache.keyOf(20.0001, 30.0, 3.0, 2161));
+  }
+
+  @Test
+  void answersAreDroppedWhenInvalidated() {
+    String key = resultCache.keyOf(20.0, 30.0, 3.0, 2161);
+    resultCache.put(key, new ArrayList<>());
+
+    resultCache.invalidateAll();
+
+    assertNull(resultCache.get(key));
+  }
+}
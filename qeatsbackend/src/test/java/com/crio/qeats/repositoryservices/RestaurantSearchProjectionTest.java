@@ -0,0 +1,160 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.crio.qeats.QEatsApplication;
+import com.crio.qeats.configs.RedisConfiguration;
+import com.crio.qeats.dto.Item;
+import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.models.MenuEntity;
+import com.crio.qeats.models.RestaurantEntity;
+import com.crio.qeats.models.RestaurantSearchEntity;
+import com.crio.qeats.utils.FixtureHelpers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(classes = {QEatsApplication.class})
+@DirtiesContext
+@ActiveProfiles("test")
+class RestaurantSearchProjectionTest {
+
+  private static final String FIXTURES = "fixtures/exchanges";
+
+  @Autowired
+  private RestaurantRepositoryService restaurantRepositoryService;
+  @Autowired
+  private RestaurantSearchProjection restaurantSearchProjection;
+  @Autowired
+  private MongoTemplate mongoTemplate;
+  @Autowired
+  private RedisConfiguration redisConfiguration;
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  private List<MenuEntity> allMenus;
+
+  @BeforeEach
+  void setup() throws IOException {
+    for (RestaurantEntity restaurantEntity : listOfRestaurants()) {
+      mongoTemplate.save(restaurantEntity, "restaurants");
+    }
+    allMenus = listOfMenus();
+    for (MenuEntity menuEntity : allMenus) {
+      mongoTemplate.save(menuEntity, "menus");
+    }
+  }
+
+  @AfterEach
+  void teardown() {
+    mongoTemplate.dropCollection("restaurants");
+    mongoTemplate.dropCollection("menus");
+    mongoTemplate.dropCollection(RestaurantSearchProjection.RESTAURANT_SEARCH_COLLECTION);
+    redisConfiguration.destroyCache();
+  }
+
+  @Test
+  void savedMenusAreFlattenedIntoTheirRestaurant() {
+    RestaurantSearchEntity restaurant = mongoTemplate.findById("11",
+        RestaurantSearchEntity.class);
+    assertEquals(Collections.singletonList("Chicken Briyani"), restaurant.getItemNames());
+    assertEquals(Collections.singletonList("Mughal"), restaurant.getItemAttributes());
+    assertEquals(30.0, restaurant.getLocation().getX(), 0.0);
+
+    MenuEntity menu = allMenus.get(0);
+    menu.setItems(Arrays.asList(
+        new Item(null, "2", "Masala Dosa", "", Arrays.asList("South Indian", "Veg"), 80),
+        new Item(null, "3", "Filter Coffee", "", null, 30)));
+    mongoTemplate.save(menu, "menus");
+
+    restaurant = mongoTemplate.findById("11", RestaurantSearchEntity.class);
+    assertEquals(Arrays.asList("Masala Dosa", "Filter Coffee"), restaurant.getItemNames());
+    assertEquals(Arrays.asList("South Indian", "Veg"), restaurant.getItemAttributes());
+  }
+
+  @Test
+  void rebuildPicksUpWritesMadeOutsideSpringData() {
+    mongoTemplate.getCollection("menus").insertOne(new Document("restaurantId", "10")
+        .append("items", Collections.singletonList(new Document("name", "Idli"))));
+    mongoTemplate.getCollection("restaurants").deleteOne(new Document("restaurantId", "12"));
+
+    restaurantSearchProjection.rebuild();
+
+    assertEquals(Collections.singletonList("Idli"),
+        mongoTemplate.findById("10", RestaurantSearchEntity.class).getItemNames());
+    assertNull(mongoTemplate.findById("12", RestaurantSearchEntity.class));
+    assertEquals(4, mongoTemplate.count(new Query(Criteria.where("itemNames").exists(true)),
+        RestaurantSearchEntity.class));
+  }
+
+  @Test
+  void deletesAreAppliedInTheBackground() throws InterruptedException {
+    mongoTemplate.remove(new Query(Criteria.where("restaurantId").is("12")),
+        RestaurantEntity.class);
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (mongoTemplate.findById("12", RestaurantSearchEntity.class) != null
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertNull(mongoTemplate.findById("12", RestaurantSearchEntity.class));
+    assertEquals(Collections.singletonList("Chicken Briyani"),
+        mongoTemplate.findById("11", RestaurantSearchEntity.class).getItemNames());
+  }
+
+  @Test
+  void itemSearchesMatchTheItemsOfTheMenus() {
+    assertEquals(Arrays.asList("11", "12"), restaurantIds(restaurantRepositoryService
+        .findRestaurantsByItemName(20.0, 30.0, "briyani", LocalTime.of(18, 1), 3.0)));
+    assertEquals(Collections.singletonList("12"), restaurantIds(restaurantRepositoryService
+        .findRestaurantsByItemName(20.0, 30.0, "Fish", LocalTime.of(18, 1), 3.0)));
+    assertEquals(Arrays.asList("11", "12"), restaurantIds(restaurantRepositoryService
+        .findRestaurantsByItemAttributes(20.0, 30.0, "mughal", LocalTime.of(18, 1), 3.0)));
+    assertEquals(Collections.emptyList(), restaurantIds(restaurantRepositoryService
+        .findRestaurantsByItemName(20.0, 30.0, "A2B", LocalTime.of(18, 1), 3.0)));
+    assertEquals(Collections.emptyList(), restaurantIds(restaurantRepositoryService
+        .findRestaurantsByItemName(20.0, 30.0, "briyani", LocalTime.of(12, 0), 3.0)));
+  }
+
+  private static List<String> restaurantIds(List<Restaurant> restaurants) {
+    return restaurants.stream().map(Restaurant::getRestaurantId).collect(Collectors.toList());
+  }
+
+  private List<RestaurantEntity> listOfRestaurants() throws IOException {
+    String fixture =
+        FixtureHelpers.fixture(FIXTURES + "/initial_data_set_restaurants.json");
+
+    return objectMapper.readValue(fixture, new TypeReference<List<RestaurantEntity>>() {
+    });
+  }
+
+  private List<MenuEntity> listOfMenus() throws IOException {
+    String fixture = FixtureHelpers.fixture(FIXTURES + "/initial_data_set_menus.json");
+
+    return objectMapper.readValue(fixture, new TypeReference<List<MenuEntity>>() {
+    });
+  }
+}
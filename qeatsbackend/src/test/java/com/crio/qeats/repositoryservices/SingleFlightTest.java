@@ -0,0 +1,103 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.repositoryservices;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+
+  private final AtomicInteger coalesced = new AtomicInteger();
+  private final SingleFlight<String> singleFlight = new SingleFlight<>(coalesced::addAndGet);
+  private final List<List<String>> loads = new CopyOnWriteArrayList<>();
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  @Test
+  void concurrentMissesOfAKeyShareOneLoad() throws Exception {
+    CompletableFuture<Map<String, String>> first = CompletableFuture.supplyAsync(
+        () -> singleFlight.load(Arrays.asList("a", "b"), blockingLoader(false)));
+    awaitLoads(1);
+    CompletableFuture<Map<String, String>> second = CompletableFuture.supplyAsync(
+        () -> singleFlight.load(Arrays.asList("a", "c"), blockingLoader(false)));
+    awaitLoads(2);
+    release.countDown();
+
+    assertEquals("value of a", second.get(5, TimeUnit.SECONDS).get("a"));
+    assertEquals("value of c", second.get().get("c"));
+    assertEquals("value of b", first.get(5, TimeUnit.SECONDS).get("b"));
+    assertEquals(Arrays.asList(Arrays.asList("a", "b"), Collections.singletonList("c")), loads);
+    assertEquals(1, coalesced.get());
+    assertEquals(0, singleFlight.inFlightCount());
+  }
+
+  @Test
+  void waitersLoadKeysThemselvesWhenTheSharedLoadFails() throws Exception {
+    CompletableFuture<Map<String, String>> failing = CompletableFuture.supplyAsync(
+        () -> singleFlight.load(Collections.singletonList("a"), blockingLoader(true)));
+    awaitLoads(1);
+    CompletableFuture<Map<String, String>> waiting = CompletableFuture.supplyAsync(
+        () -> singleFlight.load(Arrays.asList("a", "c"), blockingLoader(false)));
+    awaitLoads(2);
+    release.countDown();
+
+    assertThrows(ExecutionException.class, () -> failing.get(5, TimeUnit.SECONDS));
+    assertEquals("value of a", waiting.get(5, TimeUnit.SECONDS).get("a"));
+    assertEquals(3, loads.size());
+    assertEquals(0, coalesced.get());
+  }
+
+  @Test
+  void valuesAreNotKeptOnceLoaded() {
+    release.countDown();
+    singleFlight.load(Collections.singletonList("a"), blockingLoader(false));
+    singleFlight.load(Collections.singletonList("a"), blockingLoader(false));
+
+    assertEquals(2, loads.size());
+    assertEquals(0, singleFlight.inFlightCount());
+  }
+
+  // Loads of "a" block until released; the first one fails if asked to.
+  private Function<List<String>, Map<String, String>> blockingLoader(boolean fail) {
+    return keys -> {
+      loads.add(keys);
+      if (keys.contains("a") && loads.size() == 1) {
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+        if (fail) {
+          throw new IllegalStateException("load failed");
+        }
+      }
+      Map<String, String> values = new LinkedHashMap<>();
+      keys.forEach(key -> values.put(key, "value of " + key));
+      return values;
+    };
+  }
+
+  private void awaitLoads(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (loads.size() < count && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+  }
+}
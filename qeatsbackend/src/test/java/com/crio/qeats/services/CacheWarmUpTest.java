@@ -0,0 +1,116 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.crio.qeats.exchanges.GetRestaurantsRequest;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class CacheWarmUpTest {
+
+  @Mock
+  private RestaurantService restaurantService;
+
+  private Path historyFile;
+
+  @BeforeEach
+  void setup() throws IOException {
+    historyFile = Files.createTempFile("qeats-access-history", ".tsv");
+    Files.delete(historyFile);
+  }
+
+  @AfterEach
+  void teardown() throws IOException {
+    Files.deleteIfExists(historyFile);
+  }
+
+  @Test
+  void topLocationsAndSearchesSurviveARestart() throws IOException {
+    CacheWarmUp cacheWarmUp = newCacheWarmUp(1);
+    cacheWarmUp.recordLookup(20.0, 30.0);
+    cacheWarmUp.recordLookup(20.0001, 30.0);
+    cacheWarmUp.recordLookup(20.8, 30.1);
+    cacheWarmUp.recordSearch(20.0, 30.0, "Biryani");
+    cacheWarmUp.recordSearch(20.0, 30.0, "");
+    cacheWarmUp.saveAccessHistory();
+
+    List<String> lines = Files.readAllLines(historyFile, StandardCharsets.UTF_8);
+    assertEquals(2, lines.size());
+    assertEquals("L\t2\tset3f8", lines.get(0));
+    assertEquals("S\t1\tset3f8\tBiryani", lines.get(1));
+
+    CacheWarmUp restartedCacheWarmUp = newCacheWarmUp(1);
+    restartedCacheWarmUp.loadAccessHistory();
+    restartedCacheWarmUp.warmUp(true);
+
+    ArgumentCaptor<GetRestaurantsRequest> lookup =
+        ArgumentCaptor.forClass(GetRestaurantsRequest.class);
+    verify(restaurantService, times(1)).findAllRestaurantsCloseBy(lookup.capture(),
+        any(LocalTime.class));
+    assertEquals(20.0, lookup.getValue().getLatitude(), 0.01);
+    assertEquals(30.0, lookup.getValue().getLongitude(), 0.01);
+    ArgumentCaptor<GetRestaurantsRequest> search =
+        ArgumentCaptor.forClass(GetRestaurantsRequest.class);
+    verify(restaurantService, times(1)).findRestaurantsBySearchQuery(search.capture(),
+        any(LocalTime.class));
+    assertEquals("Biryani", search.getValue().getSearchFor());
+    assertEquals(1, restartedCacheWarmUp.getLastWarmUp().getLocations());
+    assertEquals(1, restartedCacheWarmUp.getLastWarmUp().getSearches());
+  }
+
+  @Test
+  void warmUpBeforePeakHoursOnlyReplaysLocations() {
+    CacheWarmUp cacheWarmUp = newCacheWarmUp(10);
+    cacheWarmUp.recordLookup(20.0, 30.0);
+    cacheWarmUp.recordLookup(20.8, 30.1);
+    cacheWarmUp.recordSearch(20.0, 30.0, "Biryani");
+
+    cacheWarmUp.warmUp(false);
+
+    verify(restaurantService, times(2)).findAllRestaurantsCloseBy(
+        any(GetRestaurantsRequest.class), any(LocalTime.class));
+    verify(restaurantService, times(0)).findRestaurantsBySearchQuery(
+        any(GetRestaurantsRequest.class), any(LocalTime.class));
+  }
+
+  @Test
+  void savedCountsAreHalvedOnLoad() throws IOException {
+    Files.write(historyFile, "L\t8\tsetqkf\nL\t7\tset3f8\nbad line\n"
+        .getBytes(StandardCharsets.UTF_8));
+    CacheWarmUp cacheWarmUp = newCacheWarmUp(10);
+    cacheWarmUp.loadAccessHistory();
+    cacheWarmUp.recordLookup(20.0, 30.0);
+    cacheWarmUp.recordLookup(20.0, 30.0);
+
+    cacheWarmUp.saveAccessHistory();
+
+    List<String> lines = Files.readAllLines(historyFile, StandardCharsets.UTF_8);
+    assertEquals("L\t5\tset3f8", lines.get(0));
+    assertEquals("L\t4\tsetqkf", lines.get(1));
+  }
+
+  private CacheWarmUp newCacheWarmUp(int top) {
+    return new CacheWarmUp(restaurantService, historyFile.toString(), top, top);
+  }
+}
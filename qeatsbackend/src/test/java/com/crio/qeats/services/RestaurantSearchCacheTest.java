@@ -0,0 +1,71 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.crio.qeats.dto.Restaurant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RestaurantSearchCacheTest {
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final RestaurantSearchCache searchCache =
+      new RestaurantSearchCache(true, 7, nanos::get);
+
+  @BeforeEach
+  void setup() {
+    searchCache.initCache();
+  }
+
+  @Test
+  void keysIgnoreCaseAndExtraWhitespace() {
+    String searchString = RestaurantSearchCache.normalizeSearchString("  South   Indian ");
+    String key = searchCache.keyOf(searchString, 20.0, 30.0, 3.0, 2161);
+
+    assertEquals("South Indian", searchString);
+    assertEquals(key, searchCache.keyOf("south indian", 20.0, 30.0, 3.0, 2161));
+    assertEquals(key, searchCache.keyOf("south indian", 20.0001, 30.0, 3.0, 2161));
+    assertNotEquals(key, searchCache.keyOf("south", 20.0, 30.0, 3.0, 2161));
+    assertNotEquals(key, searchCache.keyOf("south indian", 20.01, 30.0, 3.0, 2161));
+    assertNotEquals(key, searchCache.keyOf("south indian", 20.0, 30.0, 5.0, 2161));
+    assertNotEquals(key, searchCache.keyOf("south indian", 20.0, 30.0, 3.0, 1440));
+  }
+
+  @Test
+  void emptyAnswersExpireSooner() {
+    String found = searchCache.keyOf("biryani", 20.0, 30.0, 3.0, 2161);
+    String notFound = searchCache.keyOf("biryanni", 20.0, 30.0, 3.0, 2161);
+    searchCache.put(found, Collections.singletonList(new Restaurant()));
+    searchCache.put(notFound, new ArrayList<>());
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+    assertNotNull(searchCache.get(found));
+    assertNull(searchCache.get(notFound));
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(50));
+    assertNull(searchCache.get(found));
+  }
+
+  @Test
+  void answersAreDroppedWhenInvalidated() {
+    String key = searchCache.keyOf("biryani", 20.0, 30.0, 3.0, 2161);
+    searchCache.put(key, new ArrayList<>());
+
+    searchCache.invalidateAll();
+
+    assertNull(searchCache.get(key));
+  }
+}
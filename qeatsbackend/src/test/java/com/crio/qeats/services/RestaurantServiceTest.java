@@ -9,22 +9,36 @@ package com.crio.qeats.services;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.crio.qeats.QEatsApplication;
 import com.crio.qeats.dto.Restaurant;
+import com.crio.qeats.exchanges.GetRestaurantsBatchRequest;
 import com.crio.qeats.exchanges.GetRestaurantsRequest;
 import com.crio.qeats.exchanges.GetRestaurantsResponse;
 import com.crio.qeats.repositoryservices.RestaurantRepositoryService;
+import com.crio.qeats.utils.DistanceCursor;
 import com.crio.qeats.utils.FixtureHelpers;
+import com.crio.qeats.utils.GeoLocation;
+import com.crio.qeats.utils.GeoUtils;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
@@ -104,12 +118,9 @@ class RestaurantServiceTest {
 
   @Test
   void normalHourFindRestaurantsSearchQuery() throws IOException {
-    when(restaurantRepositoryServiceMock.findRestaurantsByName(any(Double.class),
+    when(restaurantRepositoryServiceMock.findRestaurantsBySearchString(any(Double.class),
         any(Double.class), any(String.class), any(LocalTime.class), any(Double.class)))
         .thenReturn(loadRestaurantsDuringNormalHours());
-    when(restaurantRepositoryServiceMock.findRestaurantsByAttributes(any(Double.class),
-        any(Double.class), any(String.class), any(LocalTime.class), any(Double.class)))
-        .thenReturn(loadRestaurantsSearchedByAttributes());
 
     GetRestaurantsRequest getRestaurantsRequest = new GetRestaurantsRequest(20.0, 30.0);
     getRestaurantsRequest.setSearchFor("Test");
@@ -117,39 +128,25 @@ class RestaurantServiceTest {
     GetRestaurantsResponse allRestaurantsSearchResults = restaurantService
         .findRestaurantsBySearchQuery(getRestaurantsRequest, LocalTime.of(22, 0));
 
-    verify(restaurantRepositoryServiceMock, times(1))
-        .findRestaurantsByName(any(Double.class), any(Double.class), any(String.class),
-            any(LocalTime.class), any(Double.class));
-    verify(restaurantRepositoryServiceMock, times(1))
-        .findRestaurantsByAttributes(any(Double.class), any(Double.class), any(String.class),
-            any(LocalTime.class), any(Double.class));
-    assertEquals(4, allRestaurantsSearchResults.getRestaurants().size());
-    assertEquals("10", allRestaurantsSearchResults.getRestaurants().get(0).getRestaurantId());
-    assertEquals("11", allRestaurantsSearchResults.getRestaurants().get(1).getRestaurantId());
-    assertEquals("12", allRestaurantsSearchResults.getRestaurants().get(2).getRestaurantId());
-    assertEquals("abcdc864835e31495d621234",
-        allRestaurantsSearchResults.getRestaurants().get(3).getRestaurantId());
+    assertEquals(restaurantIds(loadRestaurantsDuringNormalHours()),
+        restaurantIds(allRestaurantsSearchResults.getRestaurants()));
 
     ArgumentCaptor<Double> servingRadiusInKms = ArgumentCaptor.forClass(Double.class);
     verify(restaurantRepositoryServiceMock, times(1))
-        .findRestaurantsByName(any(Double.class), any(Double.class), any(String.class),
-            any(LocalTime.class), servingRadiusInKms.capture());
-    assertEquals(servingRadiusInKms.getValue().toString(), "5.0");
-
-    verify(restaurantRepositoryServiceMock, times(1))
-        .findRestaurantsByAttributes(any(Double.class), any(Double.class), any(String.class),
+        .findRestaurantsBySearchString(any(Double.class), any(Double.class), eq("Test"),
             any(LocalTime.class), servingRadiusInKms.capture());
     assertEquals(servingRadiusInKms.getValue().toString(), "5.0");
+    // The kinds of match are ranked by the repository service, not queried one by one.
+    verify(restaurantRepositoryServiceMock, times(0))
+        .findRestaurantsByName(any(Double.class), any(Double.class), any(String.class),
+            any(LocalTime.class), any(Double.class));
   }
 
   @Test
   void peakHourFindRestaurantsSearchQuery() throws IOException {
-    when(restaurantRepositoryServiceMock.findRestaurantsByName(any(Double.class),
+    when(restaurantRepositoryServiceMock.findRestaurantsBySearchString(any(Double.class),
         any(Double.class), any(String.class), any(LocalTime.class), any(Double.class)))
         .thenReturn(loadRestaurantsDuringPeakHours());
-    when(restaurantRepositoryServiceMock.findRestaurantsByAttributes(any(Double.class),
-        any(Double.class), any(String.class), any(LocalTime.class), any(Double.class)))
-        .thenReturn(loadRestaurantsSearchedByAttributes());
 
     GetRestaurantsRequest getRestaurantsRequest = new GetRestaurantsRequest(20.0, 30.0);
     getRestaurantsRequest.setSearchFor("Test");
@@ -157,29 +154,36 @@ class RestaurantServiceTest {
     GetRestaurantsResponse allRestaurantsSearchResults = restaurantService
         .findRestaurantsBySearchQuery(getRestaurantsRequest, LocalTime.of(20, 0));
 
-    verify(restaurantRepositoryServiceMock, times(1))
-        .findRestaurantsByName(any(Double.class), any(Double.class), any(String.class),
-            any(LocalTime.class), any(Double.class));
-    verify(restaurantRepositoryServiceMock, times(1))
-        .findRestaurantsByAttributes(any(Double.class), any(Double.class), any(String.class),
-            any(LocalTime.class), any(Double.class));
-    assertEquals(3, allRestaurantsSearchResults.getRestaurants().size());
-    assertEquals("11", allRestaurantsSearchResults.getRestaurants().get(0).getRestaurantId());
-    assertEquals("12", allRestaurantsSearchResults.getRestaurants().get(1).getRestaurantId());
-    assertEquals("abcdc864835e31495d621234",
-        allRestaurantsSearchResults.getRestaurants().get(2).getRestaurantId());
-
+    assertEquals(restaurantIds(loadRestaurantsDuringPeakHours()),
+        restaurantIds(allRestaurantsSearchResults.getRestaurants()));
 
     ArgumentCaptor<Double> servingRadiusInKms = ArgumentCaptor.forClass(Double.class);
     verify(restaurantRepositoryServiceMock, times(1))
-        .findRestaurantsByName(any(Double.class), any(Double.class), any(String.class),
+        .findRestaurantsBySearchString(any(Double.class), any(Double.class), any(String.class),
             any(LocalTime.class), servingRadiusInKms.capture());
     assertEquals(servingRadiusInKms.getValue().toString(), "3.0");
+  }
 
-    verify(restaurantRepositoryServiceMock, times(1))
-        .findRestaurantsByAttributes(any(Double.class), any(Double.class), any(String.class),
-            any(LocalTime.class), servingRadiusInKms.capture());
-    assertEquals(servingRadiusInKms.getValue().toString(), "3.0");
+  @Test
+  void restaurantsFoundByMoreThanOneKindOfMatchAreReturnedOnce() throws IOException {
+    when(restaurantRepositoryServiceMock.findRestaurantsByName(any(Double.class),
+        any(Double.class), any(String.class), any(LocalTime.class), any(Double.class)))
+        .thenReturn(loadRestaurantsDuringPeakHours());
+    when(restaurantRepositoryServiceMock.findRestaurantsByAttributes(any(Double.class),
+        any(Double.class), any(String.class), any(LocalTime.class), any(Double.class)))
+        .thenReturn(loadRestaurantsSearchedByAttributes());
+    when(restaurantRepositoryServiceMock.findRestaurantsByItemName(any(Double.class),
+        any(Double.class), any(String.class), any(LocalTime.class), any(Double.class)))
+        .thenReturn(loadRestaurantsDuringNormalHours());
+
+    GetRestaurantsRequest getRestaurantsRequest = new GetRestaurantsRequest(20.0, 30.0);
+    getRestaurantsRequest.setSearchFor("Test");
+
+    GetRestaurantsResponse allRestaurantsSearchResults = restaurantService
+        .findRestaurantsBySearchQueryMt(getRestaurantsRequest, LocalTime.of(22, 0));
+
+    assertEquals(Arrays.asList("11", "12", "abcdc864835e31495d621234", "10"),
+        restaurantIds(allRestaurantsSearchResults.getRestaurants()));
   }
 
   @Test
@@ -196,10 +200,84 @@ class RestaurantServiceTest {
     verify(restaurantRepositoryServiceMock, times(0))
         .findRestaurantsByAttributes(any(Double.class), any(Double.class), any(String.class),
             any(LocalTime.class), any(Double.class));
+    verify(restaurantRepositoryServiceMock, times(0))
+        .findRestaurantsBySearchString(any(Double.class), any(Double.class), any(String.class),
+            any(LocalTime.class), any(Double.class));
     assertEquals(0, allRestaurantsCloseBy.getRestaurants().size());
   }
 
-  
+  @Test
+  void pagedRequestReturnsCursorOfLastRestaurantWhenThereIsMore() throws IOException {
+    List<Restaurant> restaurants = loadRestaurantsDuringNormalHours();
+    when(restaurantRepositoryServiceMock.findRestaurantsCloseByOrderedByDistance(
+        any(Double.class), any(Double.class), any(LocalTime.class), any(Double.class),
+        eq(2), isNull()))
+        .thenReturn(restaurants.subList(0, 2));
+    GetRestaurantsRequest getRestaurantsRequest = new GetRestaurantsRequest(20.0, 30.0);
+    getRestaurantsRequest.setLimit(1);
+
+    GetRestaurantsResponse page = restaurantService
+        .findAllRestaurantsCloseBy(getRestaurantsRequest, LocalTime.of(22, 0));
+
+    assertEquals(1, page.getRestaurants().size());
+    Restaurant last = page.getRestaurants().get(0);
+    DistanceCursor cursor = DistanceCursor.decode(page.getNextCursor());
+    assertEquals(last.getRestaurantId(), cursor.getRestaurantId());
+    assertEquals(GeoUtils.findDistanceInKm(20.0, 30.0, last.getLatitude(),
+        last.getLongitude()), cursor.getDistanceInKms());
+    verify(restaurantRepositoryServiceMock, times(0))
+        .findAllRestaurantsCloseBy(any(Double.class), any(Double.class), any(LocalTime.class),
+            any(Double.class));
+  }
+
+  @Test
+  void lastPageHasNoCursor() throws IOException {
+    DistanceCursor after = new DistanceCursor(1.5, "10");
+    when(restaurantRepositoryServiceMock.findRestaurantsCloseByOrderedByDistance(
+        any(Double.class), any(Double.class), any(LocalTime.class), any(Double.class),
+        eq(GetRestaurantsRequest.DEFAULT_LIMIT + 1), eq(after)))
+        .thenReturn(loadRestaurantsDuringNormalHours());
+    GetRestaurantsRequest getRestaurantsRequest = new GetRestaurantsRequest(20.0, 30.0);
+    getRestaurantsRequest.setCursor(after.encode());
+
+    GetRestaurantsResponse page = restaurantService
+        .findAllRestaurantsCloseBy(getRestaurantsRequest, LocalTime.of(22, 0));
+
+    assertEquals(loadRestaurantsDuringNormalHours().size(), page.getRestaurants().size());
+    assertNull(page.getNextCursor());
+  }
+
+  @Test
+  void malformedCursorIsRejected() {
+    GetRestaurantsRequest getRestaurantsRequest = new GetRestaurantsRequest(20.0, 30.0);
+    getRestaurantsRequest.setCursor("not a cursor");
+
+    assertThrows(IllegalArgumentException.class, () -> restaurantService
+        .findAllRestaurantsCloseBy(getRestaurantsRequest, LocalTime.of(22, 0)));
+  }
+
+  @Test
+  void batchUsesPeakHourServingRadiusAndKeepsTheOrderOfLocations() throws IOException {
+    List<GeoLocation> locations =
+        Arrays.asList(new GeoLocation(20.0, 30.0), new GeoLocation(21.0, 31.0));
+    List<Restaurant> restaurants = loadRestaurantsDuringPeakHours();
+    doAnswer(invocation -> {
+      Consumer<List<Restaurant>> consumer = invocation.getArgument(3);
+      consumer.accept(restaurants);
+      consumer.accept(Collections.emptyList());
+      return null;
+    }).when(restaurantRepositoryServiceMock).findAllRestaurantsCloseBy(eq(locations),
+        any(LocalTime.class), eq(3.0), any());
+
+    List<GetRestaurantsResponse> responses = new ArrayList<>();
+    restaurantService.findAllRestaurantsCloseBy(new GetRestaurantsBatchRequest(locations),
+        LocalTime.of(19, 0), responses::add);
+
+    assertEquals(2, responses.size());
+    assertEquals(restaurants, responses.get(0).getRestaurants());
+    assertEquals(0, responses.get(1).getRestaurants().size());
+  }
+
   private List<Restaurant> loadRestaurantsDuringNormalHours() throws IOException {
     String fixture =
         FixtureHelpers.fixture(FIXTURES + "/normal_hours_list_of_restaurants.json");
@@ -208,6 +286,10 @@ class RestaurantServiceTest {
     });
   }
 
+  private static List<String> restaurantIds(List<Restaurant> restaurants) {
+    return restaurants.stream().map(Restaurant::getRestaurantId).collect(Collectors.toList());
+  }
+
   private List<Restaurant> loadRestaurantsSearchedByAttributes() throws IOException {
     String fixture =
         FixtureHelpers.fixture(FIXTURES + "/list_restaurants_searchedby_attributes.json");
@@ -0,0 +1,48 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class DistanceCursorTest {
+
+  @Test
+  void encodedCursorDecodesToTheSamePosition() {
+    DistanceCursor cursor = new DistanceCursor(GeoUtils.findDistanceInKm(20.0, 30.0,
+        20.015, 30.015), "12:a/b");
+
+    DistanceCursor decoded = DistanceCursor.decode(cursor.encode());
+
+    assertEquals(cursor, decoded);
+    assertTrue(cursor.encode().matches("[A-Za-z0-9_-]+"));
+  }
+
+  @Test
+  void restaurantsAreOrderedByDistanceThenId() {
+    DistanceCursor cursor = new DistanceCursor(2.0, "12");
+
+    assertTrue(cursor.isBefore(2.5, "10"));
+    assertTrue(cursor.isBefore(2.0, "13"));
+    assertFalse(cursor.isBefore(2.0, "12"));
+    assertFalse(cursor.isBefore(1.5, "99"));
+    assertTrue(cursor.isAfter(1.5, "99"));
+    assertTrue(cursor.isAfter(2.0, "11"));
+    assertFalse(cursor.isAfter(2.0, "12"));
+  }
+
+  @Test
+  void malformedCursorsAreRejected() {
+    for (String cursor : new String[] {"", "not a cursor", "MTIz", "eHl6OjEy", "LTE6MTI"}) {
+      assertThrows(IllegalArgumentException.class, () -> DistanceCursor.decode(cursor));
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ *
+ *  * Copyright (c) Crio.Do 2019. All rights reserved
+ *
+ */
+
+package com.crio.qeats.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.hsr.geohash.GeoHash;
+import com.crio.qeats.utils.GeoHashUtils.CoveringCell;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class GeoHashUtilsTest {
+
+  private static final double[][] CENTRES = {
+      {20.0, 30.0}, {12.97, 77.59}, {-33.87, 151.21}, {60.0, 179.99}, {-0.001, -0.001}};
+
+  private final Random random = new Random(3);
+
+  @Test
+  void decodedBoundsContainTheEncodedPoint() {
+    for (int i = 0; i < 1000; i++) {
+      double latitude = random.nextDouble() * 180 - 90;
+      double longitude = random.nextDouble() * 360 - 180;
+      double[] bounds = GeoHashUtils.decodeBounds(
+          GeoHash.withCharacterPrecision(latitude, longitude, 6).toBase32());
+
+      assertTrue(bounds[0] <= latitude && latitude <= bounds[1]);
+      assertTrue(bounds[2] <= longitude && longitude <= bounds[3]);
+      assertEquals(GeoHashUtils.cellHeightInDegrees(6), bounds[1] - bounds[0], 1e-12);
+      assertEquals(GeoHashUtils.cellWidthInDegrees(6), bounds[3] - bounds[2], 1e-12);
+    }
+  }
+
+  @Test
+  void hierarchicalCoveringHoldsEveryPointWithinRadius() {
+    for (double[] centre : CENTRES) {
+      for (double radiusInKms : new double[] {0.3, 3.0, 5.0, 50.0}) {
+        List<CoveringCell> covering =
+            GeoHashUtils.hierarchicalCovering(centre[0], centre[1], radiusInKms, 6);
+        for (int i = 0; i < 2000; i++) {
+          double[] point = randomPointWithin(centre, radiusInKms);
+          String pointCell = GeoHash.withCharacterPrecision(point[0], point[1], 6).toBase32();
+
+          assertTrue(covering.stream().anyMatch(cell -> pointCell.startsWith(cell.getGeoHash())),
+              pointCell + " missing around " + centre[0] + "," + centre[1]);
+        }
+      }
+    }
+  }
+
+  @Test
+  void interiorCellsLieWithinRadius() {
+    for (double[] centre : CENTRES) {
+      for (double radiusInKms : new double[] {3.0, 5.0, 50.0}) {
+        for (CoveringCell cell
+            : GeoHashUtils.hierarchicalCovering(centre[0], centre[1], radiusInKms, 6)) {
+          if (!cell.isInterior()) {
+            continue;
+          }
+          double[] bounds = GeoHashUtils.decodeBounds(cell.getGeoHash());
+          for (int i = 0; i < 50; i++) {
+            double latitude = bounds[0] + random.nextDouble() * (bounds[1] - bounds[0]);
+            double longitude = bounds[2] + random.nextDouble() * (bounds[3] - bounds[2]);
+
+            assertTrue(GeoUtils.findDistanceInKm(centre[0], centre[1], latitude, longitude)
+                < radiusInKms, cell.getGeoHash());
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void hierarchicalCoveringNeedsFewerCellsThanOnePrecision() {
+    List<CoveringCell> covering = GeoHashUtils.hierarchicalCovering(20.0, 30.0, 50.0, 6);
+    List<String> cells = GeoHashUtils.coveringCells(20.0, 30.0, 50.0, 6);
+    Set<String> expanded = covering.stream()
+        .flatMap(cell -> GeoHashUtils.descendants(cell.getGeoHash(), 6).stream())
+        .collect(Collectors.toSet());
+
+    assertTrue(covering.size() < cells.size() / 5);
+    assertTrue(expanded.containsAll(cells));
+  }
+
+  @Test
+  void descendantsAreTheCellsOfTheFinerPrecision() {
+    List<String> descendants = GeoHashUtils.descendants("t9z", 5);
+
+    assertEquals(32 * 32, descendants.size());
+    assertTrue(descendants.stream().allMatch(cell -> cell.length() == 5
+        && cell.startsWith("t9z")));
+    assertEquals(1, GeoHashUtils.descendants("t9z", 3).size());
+  }
+
+  private double[] randomPointWithin(double[] centre, double radiusInKms) {
+    while (true) {
+      double latitudeDelta = radiusInKms / GeoHashUtils.KMS_PER_DEGREE_OF_LATITUDE;
+      double longitudeDelta = latitudeDelta / Math.cos(Math.toRadians(Math.abs(centre[0])
+          + latitudeDelta));
+      double latitude = centre[0] + (random.nextDouble() * 2 - 1) * latitudeDelta;
+      double longitude = centre[1] + (random.nextDouble() * 2 - 1) * longitudeDelta;
+      longitude -= 360.0 * Math.floor((longitude + 180.0) / 360.0);
+      if (GeoUtils.findDistanceInKm(centre[0], centre[1], latitude, longitude)
+          < radiusInKms) {
+        return new double[] {latitude, longitude};
+      }
+    }
+  }
+}
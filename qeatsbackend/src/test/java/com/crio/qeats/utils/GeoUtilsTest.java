@@ -9,8 +9,12 @@
 
 package com.crio.qeats.utils;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
+import com.crio.qeats.utils.GeoUtils.RadiusFilter;
+import java.util.Random;
 import org.junit.jupiter.api.Test;
 
 class GeoUtilsTest {
@@ -29,4 +33,49 @@ class GeoUtilsTest {
     assertEquals(3.04, distanceBetweenA2bHsrAndA2bBtm, 0.1);
   }
 
+  @Test
+  public void radiusFilterAgreesWithHaversine() {
+    Random random = new Random(42);
+    for (double radiusInKms : new double[] {0.5, 3.0, 5.0, 50.0, 2000.0}) {
+      for (int origin = 0; origin < 200; origin++) {
+        double latitude = random.nextDouble() * 178 - 89;
+        double longitude = random.nextDouble() * 360 - 180;
+        RadiusFilter radiusFilter = GeoUtils.radiusFilter(latitude, longitude, radiusInKms);
+        double spreadInDegrees = Math.min(90, 2 * radiusInKms / 111.0);
+        for (int point = 0; point < 100; point++) {
+          double pointLatitude = Math.max(-90, Math.min(90,
+              latitude + (random.nextDouble() * 2 - 1) * spreadInDegrees));
+          double pointLongitude =
+              longitude + (random.nextDouble() * 2 - 1) * 3 * spreadInDegrees;
+          pointLongitude -= 360 * Math.floor((pointLongitude + 180) / 360);
+
+          assertEquals(GeoUtils.findDistanceInKm(latitude, longitude,
+              pointLatitude, pointLongitude) < radiusInKms,
+              radiusFilter.isWithinRadius(pointLatitude, pointLongitude));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void radiusFilterHandlesTheAntimeridian() {
+    RadiusFilter radiusFilter = GeoUtils.radiusFilter(10.0, 179.99, 5.0);
+
+    assertEquals(true, radiusFilter.isWithinRadius(10.0, -179.99));
+    assertFalse(radiusFilter.isWithinRadius(10.0, 0.0));
+  }
+
+  @Test
+  public void radiusFilterRejectsMissingCoordinates() {
+    assertFalse(GeoUtils.radiusFilter(10.0, 20.0, 5.0).isWithinRadius(Double.NaN, 20.0));
+  }
+
+  @Test
+  public void batchRadiusFilterReturnsIndexesWithinRadius() {
+    RadiusFilter radiusFilter = GeoUtils.radiusFilter(20.0, 30.0, 3.0);
+
+    assertArrayEquals(new int[] {1, 2}, radiusFilter.findWithinRadius(
+        new double[] {20.027, 20.0269, 20.015, 20.8},
+        new double[] {30.0, 30.0, 30.015, 30.1}));
+  }
 }